@@ -0,0 +1,91 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.consume.BackoffConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.FramingOptions;
+import com.urbanairship.connect.client.consume.MobileEventStreamBodyConsumer;
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.java8.Consumer;
+import org.asynchttpclient.AsyncHttpClient;
+
+import java.util.List;
+
+/**
+ * Stands in for a connection to the API by replaying a corpus to the stream's event consumer in a loop until closed,
+ * either as already framed events or as response body chunks passed through {@link MobileEventStreamBodyConsumer}.
+ */
+final class CorpusStreamConnection extends StreamConnection {
+
+    private final Consumer<String> eventConsumer;
+    private final FramingOptions framingOptions;
+    private final List<String> events;
+    private final List<byte[]> chunks;
+
+    private volatile boolean closed = false;
+
+    private CorpusStreamConnection(StreamQueryDescriptor descriptor,
+                                   Consumer<String> eventConsumer,
+                                   FramingOptions framingOptions,
+                                   List<String> events,
+                                   List<byte[]> chunks) {
+        super(descriptor, null, BackoffConnectionRetryStrategy.newBuilder()
+                .setMaxAttempts(1)
+                .setInterval(1L)
+                .setMaxWaitSeconds(1L)
+                .build(), eventConsumer, "http://localhost/");
+        this.eventConsumer = eventConsumer;
+        this.framingOptions = framingOptions;
+        this.events = events;
+        this.chunks = chunks;
+    }
+
+    static StreamConnectionSupplier events(final List<String> events) {
+        return new StreamConnectionSupplier() {
+            @Override
+            public StreamConnection get(StreamQueryDescriptor descriptor, AsyncHttpClient client, Consumer<String> eventConsumer,
+                                        FramingOptions framingOptions) {
+                return new CorpusStreamConnection(descriptor, eventConsumer, framingOptions, events, null);
+            }
+        };
+    }
+
+    static StreamConnectionSupplier chunks(final List<byte[]> chunks) {
+        return new StreamConnectionSupplier() {
+            @Override
+            public StreamConnection get(StreamQueryDescriptor descriptor, AsyncHttpClient client, Consumer<String> eventConsumer,
+                                        FramingOptions framingOptions) {
+                return new CorpusStreamConnection(descriptor, eventConsumer, framingOptions, null, chunks);
+            }
+        };
+    }
+
+    @Override
+    public void read(Optional<StartPosition> startPosition) {
+        if (events != null) {
+            while (!closed) {
+                for (String event : events) {
+                    eventConsumer.accept(event);
+                }
+            }
+            return;
+        }
+
+        MobileEventStreamBodyConsumer bodyConsumer = new MobileEventStreamBodyConsumer(eventConsumer, framingOptions, new NoopStreamMetrics());
+        while (!closed) {
+            for (byte[] chunk : chunks) {
+                bodyConsumer.accept(chunk);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.urbanairship.connect.client.model.Creds;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+
+final class Descriptors {
+
+    private Descriptors() { }
+
+    static StreamQueryDescriptor benchmark() {
+        return StreamQueryDescriptor.newBuilder()
+                .setCreds(Creds.newBuilder()
+                        .setAppKey("benchmarkbenchmarkbenc")
+                        .setToken("benchmark")
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.consume.BackoffConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.FramingOptions;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.java8.Consumer;
+import org.asynchttpclient.AsyncHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cost of handing a framed event to the consume task, which extracts the event's offset before queueing it. The queue
+ * discards everything so only the consumer itself is measured. Scores are events per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnqueuingConsumerBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"256", "1024", "8192"})
+    public int eventSize;
+
+    private List<String> events;
+    private StreamConsumeTask task;
+    private ExecutorService taskThread;
+    private Consumer<String> consumer;
+
+    @Setup
+    public void setUp() throws Exception {
+        events = new SyntheticEvents(EVENTS, eventSize).getEvents();
+
+        final AtomicReference<Consumer<String>> hook = new AtomicReference<>();
+        final CountDownLatch connected = new CountDownLatch(1);
+        StreamConnectionSupplier supplier = new StreamConnectionSupplier() {
+            @Override
+            public StreamConnection get(StreamQueryDescriptor descriptor, AsyncHttpClient client, Consumer<String> eventConsumer,
+                                        FramingOptions framingOptions) {
+                hook.set(eventConsumer);
+                return new IdleConnection(descriptor, eventConsumer, connected);
+            }
+        };
+
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(Descriptors.benchmark())
+                .setTargetQueue(new DiscardingQueue())
+                .setStreamConnectionSupplier(supplier)
+                .build();
+
+        taskThread = Executors.newSingleThreadExecutor();
+        taskThread.submit(task);
+        connected.await();
+        consumer = hook.get();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        task.stop();
+        taskThread.shutdown();
+        taskThread.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void accept() {
+        for (String event : events) {
+            consumer.accept(event);
+        }
+    }
+
+    private static final class DiscardingQueue extends LinkedBlockingQueue<String> {
+
+        @Override
+        public boolean offer(String event) {
+            return true;
+        }
+
+        @Override
+        public void put(String event) { }
+    }
+
+    // Parks the task in read so the benchmark thread can drive its consumer directly
+    private static final class IdleConnection extends StreamConnection {
+
+        private final CountDownLatch connected;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private IdleConnection(StreamQueryDescriptor descriptor, Consumer<String> eventConsumer, CountDownLatch connected) {
+            super(descriptor, null, BackoffConnectionRetryStrategy.newBuilder()
+                    .setMaxAttempts(1)
+                    .setInterval(1L)
+                    .setMaxWaitSeconds(1L)
+                    .build(), eventConsumer, "http://localhost/");
+            this.connected = connected;
+        }
+
+        @Override
+        public void read(Optional<StartPosition> startPosition) throws InterruptedException {
+            connected.countDown();
+            closed.await();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A producer and a consumer sharing a {@link SpillingQueue} that holds only a few events in memory, so nearly every
+ * event goes through the log. Scores are offers and polls per second; a consumer reading the log back that held up the
+ * producer shows as the offer score dropping to the poll score.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpillingQueueBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"256", "1024", "8192"})
+    public int eventSize;
+
+    @Param({"4096", "65536"})
+    public int bufferBytes;
+
+    private List<String> events;
+    private Path directory;
+    private SpillingQueue queue;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        events = new SyntheticEvents(EVENTS, eventSize).getEvents();
+        directory = Files.createTempDirectory("spill-benchmark-");
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(16)
+                .setDirectory(directory)
+                .setMaxSpillBytes(256L * 1024L * 1024L)
+                .setBufferBytes(bufferBytes)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        queue.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    // Neither side blocks, so neither is left waiting on the other when the iteration ends
+
+    @Benchmark
+    @Group("spill")
+    @GroupThreads(1)
+    public boolean offer() {
+        String event = events.get(next);
+        next = next + 1 == EVENTS ? 0 : next + 1;
+        return queue.offer(event);
+    }
+
+    @Benchmark
+    @Group("spill")
+    @GroupThreads(1)
+    public String poll() {
+        return queue.poll();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of events through a {@link Stream} as seen by the application iterating it, with a producer replaying
+ * the corpus as fast as it can on the stream's own threads. Scores are events per second.
+ *
+ * <ul>
+ *     <li>{@code handoff} - events are fed to the stream already framed, measuring the queue handoff between the
+ *     delivering thread and the application.</li>
+ *     <li>{@code endToEnd} - response body chunks are framed, parsed and queued, covering the full path from bytes
+ *     received to the application.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+
+    @State(Scope.Thread)
+    public static class Handoff {
+
+        @Param({"256", "1024"})
+        public int eventSize;
+
+        private Stream stream;
+
+        @Setup
+        public void setUp() {
+            SyntheticEvents corpus = new SyntheticEvents(1000, eventSize);
+            stream = new Stream(Descriptors.benchmark(), Optional.<StartPosition>absent(),
+                    Optional.of(CorpusStreamConnection.events(corpus.getEvents())));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            stream.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EndToEnd {
+
+        @Param({"1024", "16384"})
+        public int chunkSize;
+
+        @Param({"256", "1024"})
+        public int eventSize;
+
+        private Stream stream;
+
+        @Setup
+        public void setUp() {
+            SyntheticEvents corpus = new SyntheticEvents(1000, eventSize);
+            stream = new Stream(Descriptors.benchmark(), Optional.<StartPosition>absent(),
+                    Optional.of(CorpusStreamConnection.chunks(corpus.toChunks(chunkSize))));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            stream.close();
+        }
+    }
+
+    @Benchmark
+    public String handoff(Handoff state) {
+        return state.stream.next();
+    }
+
+    @Benchmark
+    public String endToEnd(EndToEnd state) {
+        return state.stream.next();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.consume.StreamEventParser;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding parsed events to an {@link EventAggregator} on a single thread: per-type counts and distinct channels over a
+ * sliding hour, and the top named users. Named users are nearly all distinct, the worst case for the top-K sketch.
+ * Scores are events per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventAggregatorBenchmark {
+
+    private static final int EVENTS = 10000;
+
+    private List<StreamEvent> events;
+    private EventAggregator aggregator;
+
+    @Setup
+    public void setUp() {
+        StreamEventParser parser = StreamEventParser.newBuilder().build();
+        events = new ArrayList<>(EVENTS);
+        for (String event : new SyntheticEvents(EVENTS, 256).getEvents()) {
+            events.add(parser.parse(event));
+        }
+
+        aggregator = EventAggregator.newBuilder()
+                .setTopKey(new EventKey() {
+                    @Override
+                    public String keyOf(StreamEvent event) {
+                        return event.getDevice().get().getNamedUserId().orNull();
+                    }
+                })
+                .build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void add() {
+        for (StreamEvent event : events) {
+            aggregator.add(event);
+        }
+    }
+
+    @Benchmark
+    public AggregateSnapshot snapshot() {
+        return aggregator.getSnapshot();
+    }
+}
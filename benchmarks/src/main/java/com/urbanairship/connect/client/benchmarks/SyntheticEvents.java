@@ -0,0 +1,134 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * A reproducible corpus of NDJSON events shaped like those sent by the Real-Time Data Streaming API. The same seed,
+ * count and size always produce byte for byte the same corpus so results can be compared between runs and branches.
+ */
+public final class SyntheticEvents {
+
+    public static final long DEFAULT_SEED = 0x5EED5EEDL;
+
+    private static final String[] TYPES = {"OPEN", "SEND", "CUSTOM", "TAG_CHANGE", "LOCATION", "CLOSE"};
+    private static final String[] PLATFORMS = {"ios", "android", "web"};
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final List<String> events;
+
+    /**
+     * @param count number of events.
+     * @param eventSize approximate size of each event in bytes, no smaller than the fixed fields need.
+     * @param offsetUpdateEvery include an OFFSET_UPDATE record after every this many events, 0 for none.
+     * @param seed random seed.
+     */
+    public SyntheticEvents(int count, int eventSize, int offsetUpdateEvery, long seed) {
+        Random random = new Random(seed);
+        long offset = 1000000L;
+        long processed = 1430827200000L;
+
+        List<String> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            offset += 1 + random.nextInt(3);
+            processed += random.nextInt(20);
+            events.add(event(random, offset, processed, eventSize));
+
+            if (offsetUpdateEvery > 0 && (i + 1) % offsetUpdateEvery == 0) {
+                events.add("{\"type\":\"OFFSET_UPDATE\",\"offset\":\"" + (++offset) + "\"}");
+            }
+        }
+
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    public SyntheticEvents(int count, int eventSize) {
+        this(count, eventSize, 0, DEFAULT_SEED);
+    }
+
+    public List<String> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the corpus as a response body, one event per line.
+     */
+    public byte[] toBody() {
+        StringBuilder body = new StringBuilder();
+        for (String event : events) {
+            body.append(event).append('\n');
+        }
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits the response body into the chunks the HTTP client would deliver it in.
+     *
+     * @param chunkSize size of every chunk but the last.
+     */
+    public List<byte[]> toChunks(int chunkSize) {
+        byte[] body = toBody();
+
+        List<byte[]> chunks = new ArrayList<>(body.length / chunkSize + 1);
+        for (int start = 0; start < body.length; start += chunkSize) {
+            int length = Math.min(chunkSize, body.length - start);
+            byte[] chunk = new byte[length];
+            System.arraycopy(body, start, chunk, 0, length);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static String event(Random random, long offset, long processed, int eventSize) {
+        String type = TYPES[random.nextInt(TYPES.length)];
+        String occurred = iso8601(processed - random.nextInt(60000));
+
+        StringBuilder event = new StringBuilder(eventSize + 64);
+        event.append("{\"id\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+                .append("\",\"offset\":\"").append(offset)
+                .append("\",\"occurred\":\"").append(occurred)
+                .append("\",\"processed\":\"").append(iso8601(processed))
+                .append("\",\"device\":{\"channel\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+                .append("\",\"device_type\":\"").append(PLATFORMS[random.nextInt(PLATFORMS.length)])
+                .append("\",\"named_user_id\":\"").append(text(random, 12))
+                .append("\"},\"body\":{\"session_id\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+                .append("\",\"properties\":\"");
+
+        int padding = eventSize - event.length() - type.length() - 14;
+        event.append(text(random, Math.max(0, padding)));
+
+        event.append("\"},\"type\":\"").append(type).append("\"}");
+        return event.toString();
+    }
+
+    private static String text(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+
+    private static String iso8601(long epochMillis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(epochMillis);
+        return String.format("%04d-%02d-%02dT%02d:%02d:%02d.%03dZ",
+                calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE),
+                calendar.get(Calendar.SECOND),
+                calendar.get(Calendar.MILLISECOND));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.consume.StreamEventParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling an {@link EventBatch} straight from framed events, against parsing each event into an object first. Scores
+ * are events per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventBatchBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"256", "1024"})
+    public int eventSize;
+
+    private List<byte[]> events;
+    private EventBatch batch;
+    private StreamEventParser parser;
+
+    @Setup
+    public void setUp() {
+        events = new ArrayList<>(EVENTS);
+        for (String event : new SyntheticEvents(EVENTS, eventSize).getEvents()) {
+            events.add(event.getBytes(StandardCharsets.UTF_8));
+        }
+
+        batch = EventBatch.newBuilder().setCapacity(EVENTS).setBodyFields("session_id").build();
+        parser = StreamEventParser.newBuilder().build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void columnar(Blackhole blackhole) {
+        batch.clear();
+        for (byte[] event : events) {
+            batch.add(event, 0, event.length);
+        }
+        blackhole.consume(batch.getRowCount());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void objects(Blackhole blackhole) {
+        for (byte[] event : events) {
+            blackhole.consume(parser.parse(event, 0, event.length));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.java8.Consumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing of response body chunks into events by {@link MobileEventStreamBodyConsumer}. Scores are events per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BodyConsumerBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"64", "1024", "8192", "65536"})
+    public int chunkSize;
+
+    @Param({"256", "1024", "8192"})
+    public int eventSize;
+
+    private List<byte[]> chunks;
+    private MobileEventStreamBodyConsumer bodyConsumer;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        chunks = new SyntheticEvents(EVENTS, eventSize).toChunks(chunkSize);
+
+        // The body ends with a complete line so the consumer holds nothing over between invocations
+        bodyConsumer = new MobileEventStreamBodyConsumer(new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                blackhole.consume(event);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void frame() {
+        for (byte[] chunk : chunks) {
+            bodyConsumer.accept(chunk);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading four fields from each event with an {@link EventProjection}, against decoding the event into a string and
+ * parsing it whole as consumers of the target queue do. Scores are events per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventProjectionBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"256", "1024"})
+    public int eventSize;
+
+    private List<byte[]> events;
+    private EventProjection projection;
+    private ProjectedEvent record;
+
+    @Setup
+    public void setUp() {
+        events = new ArrayList<>(EVENTS);
+        for (String event : new SyntheticEvents(EVENTS, eventSize).getEvents()) {
+            events.add(event.getBytes(StandardCharsets.UTF_8));
+        }
+
+        projection = EventProjection.newBuilder()
+                .addPaths("device.channel", "type", "body.session_id", "occurred")
+                .build();
+        record = projection.newEvent();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void project(Blackhole blackhole) {
+        for (byte[] event : events) {
+            projection.project(event, 0, event.length, record);
+            blackhole.consume(record.getString(0));
+            blackhole.consume(record.getString(1));
+            blackhole.consume(record.getString(2));
+            blackhole.consume(record.getTimestamp(3));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void parseWhole(Blackhole blackhole) {
+        for (byte[] event : events) {
+            JsonObject object = JsonParser.parseString(new String(event, StandardCharsets.UTF_8)).getAsJsonObject();
+            blackhole.consume(object.getAsJsonObject("device").get("channel").getAsString());
+            blackhole.consume(object.get("type").getAsString());
+            blackhole.consume(object.getAsJsonObject("body").get("session_id").getAsString());
+            blackhole.consume(object.get("occurred").getAsString());
+        }
+    }
+}
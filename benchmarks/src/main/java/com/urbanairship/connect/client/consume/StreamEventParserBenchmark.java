@@ -0,0 +1,71 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of events into {@link StreamEvent}s by {@link StreamEventParser}, with and without interning of repeated
+ * values. Scores are events per second; run with {@code -prof gc} to compare the bytes allocated per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamEventParserBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"256", "1024"})
+    public int eventSize;
+
+    @Param({"true", "false"})
+    public boolean interning;
+
+    private List<byte[]> events;
+    private StreamEventParser parser;
+
+    @Setup
+    public void setUp() {
+        events = new ArrayList<>(EVENTS);
+        for (String event : new SyntheticEvents(EVENTS, eventSize).getEvents()) {
+            events.add(event.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // A maximum length of 0 caches nothing, so every value is decoded afresh as a plain parser would
+        parser = StreamEventParser.newBuilder()
+                .setInterner(StringInterner.newBuilder().setMaxLength(interning ? 64 : 0).build())
+                .build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void parse(Blackhole blackhole) {
+        for (byte[] event : events) {
+            blackhole.consume(parser.parse(event, 0, event.length));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.encoding;
+
+import com.google.gson.JsonParser;
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.consume.StreamEventParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding events handed over in the binary encoding, against parsing them again from NDJSON. Scores are events per
+ * second. Each benchmark also reports the bytes it read per second as the secondary {@code bytes} result, which divided
+ * by the score gives the size of an event in the binary encoding or in NDJSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryEventBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"256", "1024"})
+    public int eventSize;
+
+    private List<String> ndjson;
+    private List<byte[]> ndjsonBytes;
+    private ByteBuffer encoded;
+    private int ndjsonSize;
+    private int encodedSize;
+    private StreamEventParser parser;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ReadBytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0L;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        ndjson = new SyntheticEvents(EVENTS, eventSize).getEvents();
+        ndjsonBytes = new ArrayList<>(EVENTS);
+
+        BinaryEventEncoder encoder = BinaryEventEncoder.newBuilder().build();
+        List<byte[]> records = new ArrayList<>(EVENTS);
+        ndjsonSize = 0;
+        encodedSize = 0;
+        for (String event : ndjson) {
+            byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            ndjsonBytes.add(bytes);
+            ndjsonSize += bytes.length + 1;
+
+            ByteBuffer record = encoder.encode(bytes, 0, bytes.length);
+            byte[] copy = new byte[record.remaining()];
+            record.get(copy);
+            records.add(copy);
+            encodedSize += copy.length;
+        }
+
+        encoded = ByteBuffer.allocateDirect(encodedSize);
+        for (byte[] record : records) {
+            encoded.put(record);
+        }
+        encoded.flip();
+
+        parser = StreamEventParser.newBuilder().build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void decodeBinary(ReadBytes read, Blackhole blackhole) {
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        ByteBuffer records = encoded.duplicate();
+        while (decoder.decode(records)) {
+            blackhole.consume(decoder.getOffset());
+            blackhole.consume(decoder.getTypeName());
+            blackhole.consume(decoder.getChannel());
+            blackhole.consume(decoder.getBody());
+        }
+        read.bytes += encodedSize;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void parseNdjson(ReadBytes read, Blackhole blackhole) {
+        for (byte[] event : ndjsonBytes) {
+            blackhole.consume(parser.parse(event, 0, event.length));
+        }
+        read.bytes += ndjsonSize;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void parseNdjsonTree(ReadBytes read, Blackhole blackhole) {
+        for (String event : ndjson) {
+            blackhole.consume(JsonParser.parseString(event));
+        }
+        read.bytes += ndjsonSize;
+    }
+}
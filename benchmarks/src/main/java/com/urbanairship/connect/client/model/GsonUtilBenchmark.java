@@ -0,0 +1,83 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.model;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.urbanairship.connect.client.benchmarks.SyntheticEvents;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.model.request.StreamRequestPayload;
+import com.urbanairship.connect.client.model.request.Subset;
+import com.urbanairship.connect.client.model.request.filters.DeviceFilter;
+import com.urbanairship.connect.client.model.request.filters.DeviceFilterType;
+import com.urbanairship.connect.client.model.request.filters.DeviceType;
+import com.urbanairship.connect.client.model.request.filters.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization done with the library's {@link GsonUtil} instance: the request payload sent on every connect and the
+ * full parse of an event that applications typically perform on what the stream returns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonUtilBenchmark {
+
+    @Param({"256", "1024", "8192"})
+    public int eventSize;
+
+    private final Gson gson = GsonUtil.getGson();
+
+    private StreamRequestPayload payload;
+    private List<String> events;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Filter filter = Filter.newBuilder()
+                .addDeviceTypes(DeviceType.IOS, DeviceType.ANDROID)
+                .addDevices(new DeviceFilter(DeviceFilterType.NAMED_USER_ID, "named-user"))
+                .addEventTypes("OPEN", "SEND", "CUSTOM")
+                .setLatency(20000)
+                .build();
+
+        payload = new StreamRequestPayload(ImmutableSet.of(filter),
+                Optional.of(Subset.createSampleSubset(0.5f)),
+                Optional.of(StartPosition.offset("1234567890")),
+                Optional.of(Boolean.TRUE));
+
+        events = new SyntheticEvents(1000, eventSize).getEvents();
+    }
+
+    @Benchmark
+    public String serializePayload() {
+        return gson.toJson(payload);
+    }
+
+    @Benchmark
+    public JsonObject parseEvent() {
+        String event = events.get(next);
+        next = (next + 1) % events.size();
+        return gson.fromJson(event, JsonObject.class);
+    }
+}
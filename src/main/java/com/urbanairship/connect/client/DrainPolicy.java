@@ -0,0 +1,91 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.urbanairship.connect.java8.Consumer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dictates what happens to events a {@link Stream} has already received but not yet handed out when the stream is
+ * closed with {@link Stream#close(DrainPolicy)}. Whichever policy is used, reading from the connection stops first
+ * and the offset returned by the close reflects exactly the events that were handed out.
+ */
+public final class DrainPolicy {
+
+    enum Mode {
+        DISCARD, ITERATE, HAND_OFF
+    }
+
+    private final Mode mode;
+    private final long timeoutMillis;
+    private final Optional<Consumer<String>> consumer;
+
+    /**
+     * Buffered events are dropped. They will be received again by a stream started from the returned offset.
+     */
+    public static DrainPolicy discard() {
+        return new DrainPolicy(Mode.DISCARD, 0L, Optional.<Consumer<String>>absent());
+    }
+
+    /**
+     * Buffered events continue to be returned by the stream's iterator, after which it reports the end of the stream.
+     * The close waits until another thread iterating the stream has taken every buffered event, or until the timeout
+     * elapses at which point any events still buffered are dropped.
+     *
+     * This policy should not be used to close the stream from the thread that iterates it, see
+     * {@link #handOff(Consumer, long, TimeUnit)} instead.
+     *
+     * @param timeout maximum time to wait for the buffered events to be taken.
+     * @param unit the unit of the timeout argument.
+     */
+    public static DrainPolicy iterate(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must be >= 0");
+        return new DrainPolicy(Mode.ITERATE, unit.toMillis(timeout), Optional.<Consumer<String>>absent());
+    }
+
+    /**
+     * Buffered events are passed to the given consumer by the thread closing the stream, in order, until none remain
+     * or the timeout elapses. Iteration of the stream ends as soon as the close begins.
+     *
+     * @param consumer receives the buffered events.
+     * @param timeout maximum time to spend handing off events.
+     * @param unit the unit of the timeout argument.
+     */
+    public static DrainPolicy handOff(Consumer<String> consumer, long timeout, TimeUnit unit) {
+        Preconditions.checkNotNull(consumer, "Consumer must be provided");
+        Preconditions.checkArgument(timeout >= 0, "Timeout must be >= 0");
+        return new DrainPolicy(Mode.HAND_OFF, unit.toMillis(timeout), Optional.of(consumer));
+    }
+
+    private DrainPolicy(Mode mode, long timeoutMillis, Optional<Consumer<String>> consumer) {
+        this.mode = mode;
+        this.timeoutMillis = timeoutMillis;
+        this.consumer = consumer;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    Optional<Consumer<String>> getConsumer() {
+        return consumer;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("mode", mode)
+                .add("timeoutMillis", timeoutMillis)
+                .toString();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.urbanairship.connect.client.consume.EventTimestamps;
+import com.urbanairship.connect.client.metrics.LatencyHistogram;
+import com.urbanairship.connect.client.metrics.LatencySnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end latency of the events delivered by a single {@link Stream}, kept as two histograms:
+ *
+ * <ul>
+ *     <li>processed to received - the wall clock time between Airship processing an event, according to its
+ *     {@code processed} timestamp, and the event being framed out of the response. This shows how far behind real
+ *     time the stream is running.</li>
+ *     <li>received to consumed - how long the event then waited in the stream's buffer before being handed to the
+ *     application, which shows whether the application is keeping up.</li>
+ * </ul>
+ *
+ * An instance must only be given to one stream. Keep one per app, or per stream where an app is consumed by several,
+ * and poll their snapshots to publish them. Given to a {@link StreamConsumeTask} run on its own, only the processed to
+ * received latency is recorded, as nothing reports when the task's events are consumed.
+ */
+public final class EventLatency {
+
+    // Receipt times of buffered events, in the order they were enqueued, in chunks that are linked on as they fill up.
+    // This grows with the stream's buffer however many events it holds, including any a SpillingQueue has spilled to
+    // disk, at 8 bytes an event. The queue the events pass through orders each write before the read of that time.
+    static final int CHUNK_SIZE = 1024;
+
+    private final LatencyHistogram processedToReceived = new LatencyHistogram();
+    private final LatencyHistogram receivedToConsumed = new LatencyHistogram();
+
+    // Set by the stream consuming the events before its task starts, receipt times are only kept from then on
+    private boolean consumedTracked = false;
+
+    // Only accessed by the thread delivering events
+    private ReceiptChunk enqueuedChunk = new ReceiptChunk();
+    private int enqueuedIndex = 0;
+
+    // Only accessed by the thread consuming events
+    private ReceiptChunk consumedChunk = enqueuedChunk;
+    private int consumedIndex = 0;
+
+    /**
+     * @return distribution of the processed to received latency in milliseconds.
+     */
+    public LatencySnapshot getProcessedToReceivedMillis() {
+        return processedToReceived.getSnapshot();
+    }
+
+    /**
+     * @return distribution of the received to consumed latency in microseconds.
+     */
+    public LatencySnapshot getReceivedToConsumedMicros() {
+        return receivedToConsumed.getSnapshot();
+    }
+
+    void received(byte[] bytes, int offset, int length) {
+        long processed = EventTimestamps.epochMillis(bytes, offset, length, EventTimestamps.PROCESSED);
+        if (processed != EventTimestamps.ABSENT) {
+            processedToReceived.record(System.currentTimeMillis() - processed);
+        }
+    }
+
+    /**
+     * Records the received to consumed latency from now on, which requires {@link #consumed()} to be called as each
+     * event is handed out. Must be called before events are enqueued.
+     */
+    void trackConsumed() {
+        consumedTracked = true;
+    }
+
+    /**
+     * Must be called before the event is made visible to the consuming thread.
+     */
+    void enqueuing(long receivedNanos) {
+        if (!consumedTracked) {
+            return;
+        }
+        if (enqueuedIndex == CHUNK_SIZE) {
+            ReceiptChunk next = new ReceiptChunk();
+            enqueuedChunk.next = next;
+            enqueuedChunk = next;
+            enqueuedIndex = 0;
+        }
+        enqueuedChunk.receiptNanos[enqueuedIndex] = receivedNanos;
+    }
+
+    void enqueued() {
+        if (consumedTracked) {
+            enqueuedIndex++;
+        }
+    }
+
+    void consumed() {
+        if (consumedIndex == CHUNK_SIZE) {
+            consumedChunk = consumedChunk.next;
+            consumedIndex = 0;
+        }
+        long received = consumedChunk.receiptNanos[consumedIndex++];
+        receivedToConsumed.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - received));
+    }
+
+    private static final class ReceiptChunk {
+
+        private final long[] receiptNanos = new long[CHUNK_SIZE];
+        private ReceiptChunk next = null;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+/**
+ * Receives OFFSET_UPDATE records from a {@link StreamConsumeTask} in place of having them placed on the task's target
+ * queue.
+ *
+ * An update's offset only becomes a safe position to resume from once every event queued ahead of it has been
+ * consumed, which is why the number of events queued so far accompanies each update.
+ */
+public interface OffsetUpdateListener {
+
+    /**
+     * @param offset the offset carried by the OFFSET_UPDATE record.
+     * @param enqueuedEvents total number of events the task had placed on its target queue when the update was received.
+     */
+    void offsetUpdate(String offset, long enqueuedEvents);
+
+}
@@ -0,0 +1,33 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+/**
+ * Receives events larger than a {@link StreamConsumeTask}'s maximum event size in place of them being skipped. Such an
+ * event is never held in memory as a whole, its bytes are passed on in parts as they are received.
+ *
+ * Oversized events are not delivered to the task's queue or sink and don't advance the offset the task resumes from,
+ * so an oversized event may be received again after a reconnect.
+ */
+public interface OversizedEventHandler {
+
+    /**
+     * The bytes are only valid for the duration of the call and must not be modified. The first part after a last part
+     * starts a new event.
+     *
+     * @param bytes buffer holding the part
+     * @param offset index of the first byte of the part
+     * @param length number of bytes in the part, possibly 0 for a last part
+     * @param last whether the part ends the event
+     */
+    void acceptPart(byte[] bytes, int offset, int length, boolean last);
+
+    /**
+     * The connection was lost part way through an event, whose parts received so far should be discarded. The event is
+     * received again from its start after the reconnect.
+     */
+    void abandoned();
+
+}
@@ -0,0 +1,241 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.collect.AbstractIterator;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.sink.ArchiveReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays events archived by a {@link com.urbanairship.connect.client.sink.RollingFileSink} or
+ * {@link com.urbanairship.connect.client.sink.SegmentArchiveSink} through the same {@link ConnectStreamApi} as a live
+ * {@link Stream}, so code consuming a stream can be run over archived events unchanged. Events are handed out exactly
+ * as they were received from the API.
+ *
+ * Unlike a live stream, a replay ends once every archived event has been handed out. It can start from an offset,
+ * the earliest archived event or the time events occurred, and can be paced to a fixed rate rather than running as
+ * fast as the archive can be read. See {@link ArchiveReader} for how the archive is read.
+ *
+ * <pre>
+ *     try (ReplayStream replay = ReplayStream.newBuilder().setDirectory(archive).build()) {
+ *         while (replay.hasNext()) {
+ *              String event = replay.next();
+ *         }
+ *     }
+ * </pre>
+ */
+public final class ReplayStream extends AbstractIterator<String> implements ConnectStreamApi {
+
+    private final ArchiveReader reader;
+    private final long nanosPerEvent;
+    private final Ticker ticker;
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    private long startNanos = 0L;
+    private long handedOut = 0L;
+    private volatile String checkpoint;
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private ReplayStream(Builder builder) throws IOException {
+        this.reader = ArchiveReader.open(builder.directory, builder.prefix);
+        this.nanosPerEvent = builder.eventsPerSecond > 0D ? (long) (TimeUnit.SECONDS.toNanos(1L) / builder.eventsPerSecond) : 0L;
+        this.ticker = builder.ticker;
+
+        try {
+            StartPosition position = builder.startPosition;
+            if (builder.occurredFrom != null) {
+                reader.seekOccurredFrom(builder.occurredFrom);
+            }
+            else if (!position.isRelative()) {
+                checkpoint = position.getOffset();
+                reader.seekAfterOffset(position.getOffset());
+            }
+            else if (position.getRelativePosition() == StartPosition.RelativePosition.LATEST) {
+                // Nothing is archived after the latest event
+                closed = true;
+                reader.close();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Provides the offset a stream should be started from in order to pick up immediately after the events this
+     * replay has handed out, in the same way as {@link Stream#getCheckpoint()}. A live stream started from it
+     * continues where the replay left off, as long as the offset is still within the API's retention.
+     *
+     * @return the offset, or absent if no event has been handed out and the replay was not started at an offset.
+     */
+    public Optional<String> getCheckpoint() {
+        return Optional.fromNullable(checkpoint);
+    }
+
+    /**
+     * Ends the replay. A consumer waiting for a paced event is woken immediately and will see the end of the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        closing.countDown();
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                reader.close();
+            }
+        }
+    }
+
+    @Override
+    protected String computeNext() {
+        if (!pace()) {
+            return endOfData();
+        }
+
+        synchronized (this) {
+            try {
+                if (closed || !reader.next()) {
+                    return endOfData();
+                }
+
+                byte[] bytes = reader.bytes();
+                int offset = reader.offset();
+                int length = reader.length();
+
+                String eventOffset = EventFieldScanner.scalar(bytes, offset, length, EventFieldScanner.OFFSET);
+                if (eventOffset != null) {
+                    checkpoint = eventOffset;
+                }
+
+                handedOut++;
+                return new String(bytes, offset, length, StandardCharsets.UTF_8);
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    // Waits until the next event is due, returning false if the replay was closed in the meantime
+    private boolean pace() {
+        if (nanosPerEvent == 0L) {
+            return true;
+        }
+
+        long now = ticker.read();
+        if (handedOut == 0L) {
+            startNanos = now;
+            return true;
+        }
+
+        long wait = startNanos + handedOut * nanosPerEvent - now;
+        if (wait <= 0L) {
+            return true;
+        }
+
+        try {
+            return !closing.await(wait, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public static final class Builder {
+
+        private Path directory = null;
+        private String prefix = "events";
+        private StartPosition startPosition = StartPosition.relative(StartPosition.RelativePosition.EARLIEST);
+        private Long occurredFrom = null;
+        private double eventsPerSecond = 0D;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() { }
+
+        /**
+         * @param directory the directory the archive was written to.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param prefix the file name prefix the archive was written with. Defaults to "events".
+         */
+        public Builder setPrefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @param startPosition where to start the replay. An offset starts after the event with that offset, as it does
+         * for a live stream, {@code EARLIEST} starts from the first archived event and {@code LATEST} replays nothing.
+         * Defaults to {@code EARLIEST}.
+         */
+        public Builder setStartPosition(StartPosition startPosition) {
+            this.startPosition = startPosition;
+            return this;
+        }
+
+        /**
+         * Starts the replay from the first archived event that occurred at or after the given time, in place of a start
+         * position. Events after it are replayed regardless of when they occurred.
+         *
+         * @param time the time, in the given unit since the epoch.
+         */
+        public Builder setOccurredFrom(long time, TimeUnit unit) {
+            this.occurredFrom = unit.toMillis(time);
+            return this;
+        }
+
+        /**
+         * @param eventsPerSecond rate at which events are handed out, 0 to hand them out as fast as they can be read.
+         * Defaults to 0.
+         */
+        public Builder setEventsPerSecond(double eventsPerSecond) {
+            this.eventsPerSecond = eventsPerSecond;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Opens the archive and positions the replay at its start.
+         *
+         * @throws IOException if the archive could not be read.
+         */
+        public ReplayStream build() throws IOException {
+            Preconditions.checkNotNull(directory, "Directory must be set");
+            Preconditions.checkArgument(prefix != null && !prefix.isEmpty(), "Prefix must not be empty");
+            Preconditions.checkNotNull(startPosition, "Start position must be set");
+            Preconditions.checkArgument(eventsPerSecond >= 0D, "Events per second must be >= 0");
+
+            return new ReplayStream(this);
+        }
+    }
+}
@@ -0,0 +1,705 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link BlockingQueue} of events that holds a limited number in memory and spills the rest to an append-only log
+ * on local disk. Used as the queue of a {@link Stream} (see
+ * {@link Stream.Builder#setSpillingQueue(SpillingQueue)}) it lets the connection keep reading at the rate events
+ * arrive while a slow consumer catches up, instead of the reader blocking and the connection falling behind.
+ *
+ * Order is preserved: once an event has been spilled, every event after it is spilled too until the consumer has read
+ * the spilled events back. The log is kept in segments that are written and read at explicit positions, and each segment's
+ * file is closed and deleted as soon as it has been read, so its disk space is freed straight away. Spilled events only
+ * need to outlive a slow consumer, not the process, and are never synced.
+ *
+ * Spilled events are gathered in a write buffer and written to the log a buffer at a time, and read back a buffer at a
+ * time too. The queue's lock is not held while the log is written or read, so the consumer reading spilled events back
+ * doesn't hold up the producer, nor the other way round. Events still in the write buffer when the consumer gets to
+ * them are taken from it without going to disk. A producer that fills the write buffer while the previous one is still
+ * being written waits for that write, and a consumer that gets to the events being written waits for them too.
+ *
+ * Offers only block, or fail, when the memory is full and spilling more would exceed the maximum spill size. If the
+ * log can't be written the error is logged and the queue carries on as a bounded queue held in memory. Iterating the
+ * queue is not supported.
+ */
+public final class SpillingQueue extends AbstractQueue<String> implements BlockingQueue<String>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillingQueue.class);
+
+    private static final int RECORD_HEADER = 4;
+
+    private final int memoryCapacity;
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxSpillBytes;
+    private final int bufferBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Signalled as each write to or read from the log finishes
+    private final Condition ioDone = lock.newCondition();
+
+    private final ArrayDeque<String> memory = new ArrayDeque<>();
+
+    // Spilled events, oldest first, are those read back ahead of the consumer, those in the log, those being written to
+    // the log and those in the write buffer, between writeStart and writeEnd
+    private final ArrayDeque<String> readAhead = new ArrayDeque<>();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private byte[] writeBuffer = null;
+    private byte[] spareBuffer = null;
+    private int writeStart = 0;
+    private int writeEnd = 0;
+    private boolean writing = false;
+    private boolean reading = false;
+
+    private int spilled = 0;
+    private long spilledBytes = 0L;
+    private boolean spillFailed = false;
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private SpillingQueue(Builder builder) {
+        this.memoryCapacity = builder.memoryCapacity;
+        this.directory = builder.directory;
+        this.segmentBytes = builder.segmentBytes;
+        this.maxSpillBytes = builder.maxSpillBytes;
+        this.bufferBytes = builder.bufferBytes;
+    }
+
+    @Override
+    public boolean offer(String event) {
+        Preconditions.checkNotNull(event);
+        lock.lock();
+        try {
+            if (!enqueue(event)) {
+                return false;
+            }
+            writeIfFull();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(String event, long timeout, TimeUnit unit) throws InterruptedException {
+        Preconditions.checkNotNull(event);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!enqueue(event)) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            writeIfFull();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String event) throws InterruptedException {
+        Preconditions.checkNotNull(event);
+        lock.lockInterruptibly();
+        try {
+            while (!enqueue(event)) {
+                notFull.await();
+            }
+            writeIfFull();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String poll() {
+        lock.lock();
+        try {
+            return dequeue(true);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            String event;
+            while ((event = dequeue(true)) == null) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return event;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            String event;
+            while ((event = dequeue(true)) == null) {
+                notEmpty.await();
+            }
+            return event;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String peek() {
+        lock.lock();
+        try {
+            return dequeue(false);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return memory.size() + spilled;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events currently spilled, whether or not they have been written to the log yet.
+     */
+    public int getSpilledCount() {
+        lock.lock();
+        try {
+            return spilled;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the space taken by spilled events that haven't been read back yet, in bytes.
+     */
+    public long getSpilledBytes() {
+        lock.lock();
+        try {
+            return spilledBytes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            if (canSpill()) {
+                return Integer.MAX_VALUE;
+            }
+            return Math.max(0, memoryCapacity - memory.size());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super String> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super String> c, int maxElements) {
+        Preconditions.checkNotNull(c);
+        Preconditions.checkArgument(c != this);
+        lock.lock();
+        try {
+            int drained = 0;
+            String event;
+            while (drained < maxElements && (event = dequeue(true)) != null) {
+                c.add(event);
+                drained++;
+            }
+            return drained;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        throw new UnsupportedOperationException("A spilling queue can't be iterated");
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            awaitIo();
+            memory.clear();
+            deleteSegments();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops any spilled events and deletes the log. The queue can still be used afterwards, but only holds events in
+     * memory.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            awaitIo();
+            deleteSegments();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canSpill() {
+        return !closed && !spillFailed && spilledBytes < maxSpillBytes;
+    }
+
+    private boolean enqueue(String event) {
+        if (spilled == 0 && memory.size() < memoryCapacity) {
+            memory.add(event);
+            notEmpty.signal();
+            return true;
+        }
+
+        if (!canSpill()) {
+            return false;
+        }
+
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        if (spilledBytes + RECORD_HEADER + bytes.length > maxSpillBytes) {
+            return false;
+        }
+
+        buffer(bytes);
+        spilled++;
+        spilledBytes += RECORD_HEADER + bytes.length;
+        notEmpty.signal();
+        return true;
+    }
+
+    private String dequeue(boolean advance) {
+        while (true) {
+            if (!memory.isEmpty()) {
+                return advance ? taken(memory.poll()) : memory.peek();
+            }
+
+            if (spilled == 0) {
+                return null;
+            }
+
+            if (!readAhead.isEmpty()) {
+                return advance ? takenSpilled(readAhead.poll()) : readAhead.peek();
+            }
+
+            // A segment with nothing left to read is only kept while it is the last, as more may be written to it
+            Segment head = segments.peekFirst();
+            if (head != null && head.readPosition >= head.writePosition && segments.size() > 1) {
+                segments.removeFirst();
+                head.delete();
+                continue;
+            }
+
+            if (reading) {
+                ioDone.awaitUninterruptibly();
+            }
+            else if (head != null && head.readPosition < head.writePosition) {
+                readBatch(head);
+            }
+            else if (writing) {
+                // The events being written come before those left in the write buffer
+                ioDone.awaitUninterruptibly();
+            }
+            else {
+                int length = getInt(writeBuffer, writeStart);
+                String event = new String(writeBuffer, writeStart + RECORD_HEADER, length, StandardCharsets.UTF_8);
+                if (!advance) {
+                    return event;
+                }
+
+                writeStart += RECORD_HEADER + length;
+                spilledBytes -= RECORD_HEADER + length;
+                return takenSpilled(event);
+            }
+        }
+    }
+
+    private String taken(String event) {
+        notFull.signal();
+        return event;
+    }
+
+    private String takenSpilled(String event) {
+        spilled--;
+        if (spilled == 0) {
+            // Everything has been read back, the next spill starts afresh
+            deleteSegments();
+        }
+        return taken(event);
+    }
+
+    private void buffer(byte[] bytes) {
+        int needed = RECORD_HEADER + bytes.length;
+        if (writeBuffer == null) {
+            writeBuffer = new byte[Math.max(bufferBytes, needed)];
+        }
+
+        if (writeEnd + needed > writeBuffer.length) {
+            int pending = writeEnd - writeStart;
+            byte[] target = pending + needed > writeBuffer.length
+                    ? new byte[Math.max(2 * writeBuffer.length, pending + needed)]
+                    : writeBuffer;
+            System.arraycopy(writeBuffer, writeStart, target, 0, pending);
+            writeBuffer = target;
+            writeStart = 0;
+            writeEnd = pending;
+        }
+
+        putInt(writeBuffer, writeEnd, bytes.length);
+        System.arraycopy(bytes, 0, writeBuffer, writeEnd + RECORD_HEADER, bytes.length);
+        writeEnd += needed;
+    }
+
+    // Writes the write buffer to the log once it is full, first waiting for any write under way
+    private void writeIfFull() {
+        while (writeEnd - writeStart >= bufferBytes && !closed && !spillFailed) {
+            if (writing) {
+                ioDone.awaitUninterruptibly();
+            }
+            else {
+                write();
+            }
+        }
+    }
+
+    // Called holding the lock, which is released while the log is written
+    private void write() {
+        byte[] batch = writeBuffer;
+        int from = writeStart;
+        int length = writeEnd - writeStart;
+        writeBuffer = spareBuffer != null ? spareBuffer : new byte[bufferBytes];
+        spareBuffer = null;
+        writeStart = 0;
+        writeEnd = 0;
+
+        Segment last = segments.peekLast();
+        boolean fresh = last == null || last.writePosition > 0 && last.writePosition + length > segmentBytes;
+        long position = fresh ? 0L : last.writePosition;
+        Segment segment = fresh ? null : last;
+
+        writing = true;
+        IOException failure = null;
+        lock.unlock();
+        try {
+            if (segment == null) {
+                segment = new Segment();
+            }
+            segment.write(position, batch, from, length);
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        finally {
+            lock.lock();
+            writing = false;
+            ioDone.signalAll();
+        }
+
+        if (failure == null) {
+            if (fresh) {
+                segments.addLast(segment);
+            }
+            segment.writePosition = position + length;
+            if (batch.length == bufferBytes) {
+                spareBuffer = batch;
+            }
+            return;
+        }
+
+        log.error("Failed to spill events to " + directory + ", continuing with events held in memory only", failure);
+        spillFailed = true;
+        if (fresh && segment != null) {
+            segment.delete();
+        }
+
+        // The batch is kept in memory, ahead of the events buffered since
+        int pending = writeEnd - writeStart;
+        byte[] kept = new byte[length + pending];
+        System.arraycopy(batch, from, kept, 0, length);
+        System.arraycopy(writeBuffer, writeStart, kept, length, pending);
+        writeBuffer = kept;
+        writeStart = 0;
+        writeEnd = kept.length;
+    }
+
+    // Called holding the lock, which is released while the log is read
+    private void readBatch(Segment head) {
+        long position = head.readPosition;
+        int length = (int) Math.min(head.writePosition - position, bufferBytes);
+
+        reading = true;
+        List<String> events = new ArrayList<>();
+        int read = 0;
+        IOException failure = null;
+        lock.unlock();
+        try {
+            byte[] bytes = head.read(position, length);
+            read = decode(bytes, events);
+            if (events.isEmpty()) {
+                // The first event is larger than the buffer
+                bytes = head.read(position, RECORD_HEADER + getInt(bytes, 0));
+                read = decode(bytes, events);
+            }
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        finally {
+            lock.lock();
+            reading = false;
+            ioDone.signalAll();
+        }
+
+        if (failure != null) {
+            throw new IllegalStateException("Failed to read spilled events from " + head.file, failure);
+        }
+
+        head.readPosition = position + read;
+        spilledBytes -= read;
+        readAhead.addAll(events);
+    }
+
+    // Decodes the whole records at the start of the bytes, returning the number of bytes they take
+    private static int decode(byte[] bytes, List<String> events) {
+        int position = 0;
+        while (bytes.length - position >= RECORD_HEADER) {
+            int length = getInt(bytes, position);
+            if (bytes.length - position - RECORD_HEADER < length) {
+                break;
+            }
+            events.add(new String(bytes, position + RECORD_HEADER, length, StandardCharsets.UTF_8));
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    private static int getInt(byte[] bytes, int index) {
+        return (bytes[index] & 0xff) << 24
+                | (bytes[index + 1] & 0xff) << 16
+                | (bytes[index + 2] & 0xff) << 8
+                | bytes[index + 3] & 0xff;
+    }
+
+    private static void putInt(byte[] bytes, int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+
+    private void awaitIo() {
+        while (writing || reading) {
+            ioDone.awaitUninterruptibly();
+        }
+    }
+
+    // Never called while the log is being written or read
+    private void deleteSegments() {
+        Segment segment;
+        while ((segment = segments.pollFirst()) != null) {
+            segment.delete();
+        }
+        readAhead.clear();
+        writeStart = 0;
+        writeEnd = 0;
+        spilled = 0;
+        spilledBytes = 0L;
+    }
+
+    // Written and read through a RandomAccessFile rather than a FileChannel, as interrupting a thread that is using a
+    // FileChannel closes the channel, and a stream interrupts its reading thread to stop it. The file is opened once for
+    // writing and once for reading, as it can be written and read at the same time.
+    private final class Segment {
+
+        private final Path file;
+        private final RandomAccessFile writer;
+        private final RandomAccessFile reader;
+
+        // Guarded by the queue's lock
+        private long writePosition = 0L;
+        private long readPosition = 0L;
+
+        Segment() throws IOException {
+            Files.createDirectories(directory);
+            this.file = Files.createTempFile(directory, "spill-", ".log");
+            RandomAccessFile writer = null;
+            try {
+                writer = new RandomAccessFile(file.toFile(), "rw");
+                this.reader = new RandomAccessFile(file.toFile(), "r");
+            }
+            catch (IOException | RuntimeException e) {
+                if (writer != null) {
+                    writer.close();
+                }
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            this.writer = writer;
+        }
+
+        void write(long position, byte[] bytes, int offset, int length) throws IOException {
+            writer.seek(position);
+            writer.write(bytes, offset, length);
+        }
+
+        byte[] read(long position, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            reader.seek(position);
+            reader.readFully(bytes);
+            return bytes;
+        }
+
+        // The file is closed first, as an open file can't be deleted on every platform
+        void delete() {
+            try {
+                writer.close();
+                reader.close();
+            }
+            catch (IOException e) {
+                log.warn("Unable to close spill segment " + file, e);
+            }
+
+            try {
+                Files.deleteIfExists(file);
+            }
+            catch (IOException e) {
+                log.warn("Unable to delete spill segment " + file, e);
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private int memoryCapacity = 100;
+        private Path directory = null;
+        private int segmentBytes = 64 * 1024 * 1024;
+        private long maxSpillBytes = 1024L * 1024L * 1024L;
+        private int bufferBytes = 64 * 1024;
+
+        private Builder() { }
+
+        /**
+         * @param memoryCapacity number of events held in memory before spilling. Defaults to 100.
+         */
+        public Builder setMemoryCapacity(int memoryCapacity) {
+            this.memoryCapacity = memoryCapacity;
+            return this;
+        }
+
+        /**
+         * @param directory where the log is written, created when first needed. Several queues may share a directory.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param segmentBytes size of each log segment. Defaults to 64MB.
+         */
+        public Builder setSegmentBytes(int segmentBytes) {
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * @param maxSpillBytes space spilled events may take on disk, after which offers block until the consumer has
+         * caught up. Defaults to 1GB.
+         */
+        public Builder setMaxSpillBytes(long maxSpillBytes) {
+            this.maxSpillBytes = maxSpillBytes;
+            return this;
+        }
+
+        /**
+         * @param bufferBytes size of the batches events are written to and read back from the log in. Up to twice this
+         * is held in memory while the producer is ahead of the log. Defaults to 64KB.
+         */
+        public Builder setBufferBytes(int bufferBytes) {
+            this.bufferBytes = bufferBytes;
+            return this;
+        }
+
+        public SpillingQueue build() {
+            Preconditions.checkArgument(memoryCapacity > 0, "Memory capacity must be > 0");
+            Preconditions.checkNotNull(directory, "Directory must be set");
+            Preconditions.checkArgument(segmentBytes > RECORD_HEADER, "Segment bytes must be > " + RECORD_HEADER);
+            Preconditions.checkArgument(maxSpillBytes > 0L, "Max spill bytes must be > 0");
+            Preconditions.checkArgument(bufferBytes > RECORD_HEADER, "Buffer bytes must be > " + RECORD_HEADER);
+
+            return new SpillingQueue(this);
+        }
+    }
+}
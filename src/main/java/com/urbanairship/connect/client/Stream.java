@@ -6,12 +6,18 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.urbanairship.connect.client.consume.ConnectionCircuitBreaker;
+import com.urbanairship.connect.client.consume.ConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.MemoryBudget;
+import com.urbanairship.connect.client.metrics.StreamMetrics;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
 import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.java8.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -19,6 +25,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Wraps up the the low level classes that interact with the Airship Real-Time Data Streaming API and exposes the data received
@@ -37,11 +44,26 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
 
     private static final Logger log = LoggerFactory.getLogger(Stream.class);
 
+    // Placed on the queue to wake a consumer blocked waiting for events. It's recognized by being empty, which no event
+    // is, so that it survives being spilled to disk by a SpillingQueue.
+    private static final String WAKE = "";
+
     private final AtomicReference<SourceExit> sourceExit = new AtomicReference<>(null);
+    private volatile boolean closed = false;
+    private volatile boolean draining = false;
+    private final CountDownLatch iterationDone = new CountDownLatch(1);
+
+    // Held while the stream is being iterated, so that a close can wait for the iterating thread to stop taking events
+    // before it drains the buffer, releases it or reads the checkpoint
+    private final ReentrantLock iterationLock = new ReentrantLock();
 
     private final ExecutorService threads;
     private final BlockingQueue<String> eventQueue;
+    private final Optional<SpillingQueue> spillingQueue;
     private final StreamConsumeTask consumeTask;
+    private final StreamCheckpoint checkpoint;
+    private final Optional<EventLatency> eventLatency;
+    private final Optional<MemoryBudget.Account> memoryAccount;
 
     public Stream(StreamQueryDescriptor descriptor, Optional<StartPosition> startingPosition) {
         this(descriptor, startingPosition, Optional.<StreamConnectionSupplier>absent());
@@ -56,10 +78,14 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
                   Optional<StreamConnectionSupplier> connSupplier) {
         // TODO: size limit configured?
         eventQueue = new LinkedBlockingQueue<>(100);
+        spillingQueue = Optional.absent();
+        eventLatency = Optional.absent();
+        memoryAccount = Optional.absent();
         threads = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
                 .setDaemon(false)
                 .setNameFormat("Stream iteration thread %d")
                 .build());
+        checkpoint = new StreamCheckpoint(initialOffset(startingPosition));
 
         StreamConsumeTask.Builder builder = StreamConsumeTask.newBuilder()
                 .setTargetQueue(eventQueue)
@@ -83,17 +109,28 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
         Optional<StartPosition> startPosition = Optional.fromNullable(builder.startingPosition);
         Optional<StreamConnectionSupplier> connSupplier = Optional.fromNullable(builder.connSupplier);
         Optional<RequestClient> requestClient = Optional.fromNullable(builder.requestClient);
-
-        eventQueue = new LinkedBlockingQueue<>(100);
+        Optional<ConnectionRetryStrategy> retryStrategy = Optional.fromNullable(builder.connectionRetryStrategy);
+
+        spillingQueue = Optional.fromNullable(builder.spillingQueue);
+        eventQueue = spillingQueue.isPresent() ? spillingQueue.get() : new LinkedBlockingQueue<String>(100);
+        eventLatency = Optional.fromNullable(builder.eventLatency);
+        memoryAccount = builder.memoryBudget != null
+                ? Optional.of(builder.memoryBudget.newAccount(descriptor.getCreds().getAppKey()))
+                : Optional.<MemoryBudget.Account>absent();
         threads = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
                 .setDaemon(false)
                 .setNameFormat("Stream iteration thread %d")
                 .build());
+        checkpoint = new StreamCheckpoint(initialOffset(startPosition));
 
         StreamConsumeTask.Builder consumeTaskBuilder = StreamConsumeTask.newBuilder()
                 .setTargetQueue(eventQueue)
                 .setStreamQueryDescriptor(descriptor);
 
+        if (builder.offsetUpdatesAsCheckpoints) {
+            consumeTaskBuilder.setOffsetUpdateListener(checkpoint);
+        }
+
         if (requestClient.isPresent()) {
             consumeTaskBuilder.setHttpClient(requestClient.get().getRequestClient());
         }
@@ -102,6 +139,35 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
             consumeTaskBuilder.setStartingPosition(startPosition.get());
         }
 
+        if (retryStrategy.isPresent()) {
+            consumeTaskBuilder.setConnectionRetryStrategy(retryStrategy.get());
+        }
+
+        if (builder.circuitBreaker != null) {
+            consumeTaskBuilder.setCircuitBreaker(builder.circuitBreaker);
+        }
+
+        if (eventLatency.isPresent()) {
+            eventLatency.get().trackConsumed();
+            consumeTaskBuilder.setEventLatency(eventLatency.get());
+        }
+
+        if (builder.metrics != null) {
+            consumeTaskBuilder.setMetrics(builder.metrics);
+        }
+
+        if (memoryAccount.isPresent()) {
+            consumeTaskBuilder.setMemoryAccount(memoryAccount.get());
+        }
+
+        if (builder.maxEventBytes != null) {
+            consumeTaskBuilder.setMaxEventBytes(builder.maxEventBytes);
+        }
+
+        if (builder.oversizedEventHandler != null) {
+            consumeTaskBuilder.setOversizedEventHandler(builder.oversizedEventHandler);
+        }
+
         if (connSupplier.isPresent()) {
             consumeTaskBuilder.setStreamConnectionSupplier(connSupplier.get());
         }
@@ -115,41 +181,229 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
         return new Builder();
     }
 
+    private static Optional<String> initialOffset(Optional<StartPosition> position) {
+        if (position.isPresent() && !position.get().isRelative()) {
+            return Optional.of(position.get().getOffset());
+        }
+
+        return Optional.absent();
+    }
+
+    /**
+     * Provides the offset a new stream should be started from in order to pick up immediately after the events this
+     * stream has handed out. Events that have already been fetched from the stream by a call to {@link #hasNext()} are
+     * considered handed out.
+     *
+     * When offset updates are used as checkpoints (see {@link Builder#setOffsetUpdatesAsCheckpoints(boolean)}) the
+     * checkpoint also advances past any OFFSET_UPDATE records that followed the last event handed out.
+     *
+     * @return the offset, or absent if no event has been handed out and the stream was not started at an offset.
+     */
+    public Optional<String> getCheckpoint() {
+        return checkpoint.get();
+    }
+
     @Override
     public void close() throws Exception {
+        shutdown();
+        awaitIterationAndRelease();
+    }
+
+    /**
+     * Closes the stream and waits for its threads to finish. A consumer blocked waiting on the stream is woken
+     * immediately and will see the end of the stream.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout argument.
+     * @return true if the stream shut down completely within the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown();
+        awaitIterationAndRelease();
+        return threads.awaitTermination(timeout, unit);
+    }
+
+    private void shutdown() {
+        closed = true;
         try {
             consumeTask.stop();
         }
         finally {
             threads.shutdown();
+            wakeConsumer();
         }
     }
 
+    private void awaitIterationAndRelease() throws InterruptedException {
+        iterationLock.lockInterruptibly();
+        try {
+            releaseBuffers();
+        }
+        finally {
+            iterationLock.unlock();
+        }
+    }
+
+    // Buffered events are no longer wanted, give back the disk they were spilled to and the memory they took
+    private void releaseBuffers() {
+        if (spillingQueue.isPresent()) {
+            spillingQueue.get().close();
+        }
+        if (memoryAccount.isPresent()) {
+            memoryAccount.get().close();
+        }
+    }
+
+    /**
+     * Closes the stream, first dealing with any events that have been received but not yet handed out according to
+     * the given policy, and provides the offset from which a new stream should be started to continue exactly where
+     * this one left off.
+     *
+     * Reading from the connection stops before anything else happens, so no further events are buffered once the
+     * close begins. Before buffered events are handed off or released the close waits for a thread iterating the
+     * stream to see that it has ended, so each event is handed out once, in order, and the offset returned covers every
+     * event handed out.
+     *
+     * @param policy what to do with buffered events.
+     * @return the offset to resume from, absent if no event was handed out and the stream was not started at an offset.
+     * @throws InterruptedException if interrupted while draining.
+     */
+    public Optional<String> close(DrainPolicy policy) throws InterruptedException {
+        switch (policy.getMode()) {
+            case ITERATE:
+                draining = true;
+                try {
+                    consumeTask.stop();
+                }
+                finally {
+                    threads.shutdown();
+                    wakeConsumer();
+                }
+
+                if (!iterationDone.await(policy.getTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    log.warn("Timed out waiting for buffered events to be consumed, dropping " + eventQueue.size() + " remaining");
+                }
+
+                closed = true;
+                wakeConsumer();
+                break;
+            default:
+                shutdown();
+                break;
+        }
+
+        iterationLock.lockInterruptibly();
+        try {
+            if (policy.getMode() == DrainPolicy.Mode.HAND_OFF) {
+                handOff(policy.getConsumer().get(), policy.getTimeoutMillis());
+            }
+
+            releaseBuffers();
+            return checkpoint.get();
+        }
+        finally {
+            iterationLock.unlock();
+        }
+    }
+
+    private void handOff(Consumer<String> consumer, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        String event;
+        while ((event = eventQueue.poll()) != null) {
+            if (event.isEmpty()) {
+                continue;
+            }
+
+            consumer.accept(event);
+            delivered(event);
+
+            if (System.nanoTime() - deadline > 0L) {
+                log.warn("Timed out handing off buffered events, dropping " + eventQueue.size() + " remaining");
+                break;
+            }
+        }
+    }
+
+    private void wakeConsumer() {
+        // If the queue is full the consumer isn't blocked and will notice the close/exit before it next waits
+        eventQueue.offer(WAKE);
+    }
+
     @Override
     public String computeNext() {
+        iterationLock.lock();
+        try {
+            return takeNext();
+        }
+        finally {
+            iterationLock.unlock();
+        }
+    }
+
+    private String takeNext() {
         String event = null;
         while (event == null) {
 
+            if (closed) {
+                break;
+            }
+
             SourceExit exit = this.sourceExit.get();
             if (exit != null) {
                 // Source is no longer providing data
                 if (exit.error.isPresent()) {
+                    iterationDone.countDown();
                     throw Throwables.propagate(exit.error.get());
                 }
 
-                break;
+                if (!draining) {
+                    break;
+                }
+
+                // Reading stopped so the buffered events could be drained, hand out whatever is left
+                event = eventQueue.poll();
+                if (event == null) {
+                    break;
+                }
+            }
+            else {
+                try {
+                    event = eventQueue.take();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
             }
 
-            try {
-                event = eventQueue.poll(1, TimeUnit.SECONDS);
+            if (event.isEmpty()) {
+                event = null;
             }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+        }
+
+        if (event == null) {
+            if (!closed) {
+                // The source ended by itself; when closing it's left to the close, which may still hand events off
+                releaseBuffers();
             }
+            iterationDone.countDown();
+            return endOfData();
         }
 
-        return event == null ? endOfData() : event;
+        delivered(event);
+        return event;
+    }
+
+    private void delivered(String event) {
+        checkpoint.delivered(event);
+        if (memoryAccount.isPresent()) {
+            memoryAccount.get().release(MemoryBudget.sizeOf(event));
+        }
+        if (eventLatency.isPresent()) {
+            eventLatency.get().consumed();
+        }
     }
 
     private static final class SourceExit {
@@ -183,6 +437,7 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
             }
             finally {
                 sourceExit.set(new SourceExit(Optional.fromNullable(error)));
+                wakeConsumer();
             }
         }
     }
@@ -192,6 +447,15 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
         private StartPosition startingPosition = null;
         private StreamConnectionSupplier connSupplier = null;
         private RequestClient requestClient = null;
+        private boolean offsetUpdatesAsCheckpoints = false;
+        private ConnectionRetryStrategy connectionRetryStrategy = null;
+        private ConnectionCircuitBreaker circuitBreaker = null;
+        private StreamMetrics metrics = null;
+        private EventLatency eventLatency = null;
+        private SpillingQueue spillingQueue = null;
+        private MemoryBudget memoryBudget = null;
+        private Integer maxEventBytes = null;
+        private OversizedEventHandler oversizedEventHandler = null;
 
         public Builder setDescriptor(StreamQueryDescriptor descriptor) {
             this.descriptor = descriptor;
@@ -213,8 +477,99 @@ public final class Stream extends AbstractIterator<String> implements ConnectStr
             return this;
         }
 
+        /**
+         * Sets the strategy used to retry failed connection attempts. Streams can share a strategy, for example a
+         * {@link com.urbanairship.connect.client.consume.DecorrelatedJitterRetryStrategy} with a common
+         * {@link com.urbanairship.connect.client.consume.RetryBudget}, so that their reconnects are spread out and
+         * bounded as a whole.
+         */
+        public Builder setConnectionRetryStrategy(ConnectionRetryStrategy connectionRetryStrategy) {
+            this.connectionRetryStrategy = connectionRetryStrategy;
+            return this;
+        }
+
+        /**
+         * Sets the circuit breaker guarding connection attempts, for instance to share one between streams for the same
+         * endpoint or to observe its state. By default each stream has its own breaker.
+         */
+        public Builder setCircuitBreaker(ConnectionCircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Sets the metrics that receive measurements of the stream's throughput, queue depth and connections. A single
+         * {@link StreamMetrics} may be shared by several streams. By default no measurements are taken.
+         */
+        public Builder setMetrics(StreamMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Sets the histograms in which the stream records how far behind real time its events are, both when they are
+         * received and when they are handed out. Each stream needs its own {@link EventLatency}.
+         */
+        public Builder setEventLatency(EventLatency eventLatency) {
+            this.eventLatency = eventLatency;
+            return this;
+        }
+
+        /**
+         * Buffers events received ahead of the consumer in the given queue, which spills them to disk once its memory
+         * capacity is reached, in place of the default queue of 100 events held in memory. The connection then keeps
+         * reading at the rate events arrive however slow the consumer is, up to the queue's maximum spill size. The
+         * stream closes the queue when it is closed.
+         */
+        public Builder setSpillingQueue(SpillingQueue spillingQueue) {
+            this.spillingQueue = spillingQueue;
+            return this;
+        }
+
+        /**
+         * Reserves the memory taken by events buffered ahead of the consumer from a budget shared with other streams,
+         * under an account named after the stream's app key. Once the budget is used up the stream stops reading from
+         * its connection until buffered events have been handed out, by this stream or another. Can't be combined
+         * with {@link #setSpillingQueue(SpillingQueue)}, which bounds memory on its own.
+         */
+        public Builder setMemoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Sets the size above which an event is not buffered but passed to the oversized event handler, or skipped if
+         * there is none. Defaults to 16MB.
+         */
+        public Builder setMaxEventBytes(int maxEventBytes) {
+            this.maxEventBytes = maxEventBytes;
+            return this;
+        }
+
+        /**
+         * Sets a handler that receives events larger than the maximum event size in parts, in place of them being
+         * skipped. See {@link com.urbanairship.connect.client.sink.OversizedEventFiles} for one that writes them to
+         * files.
+         */
+        public Builder setOversizedEventHandler(OversizedEventHandler oversizedEventHandler) {
+            this.oversizedEventHandler = oversizedEventHandler;
+            return this;
+        }
+
+        /**
+         * When enabled, OFFSET_UPDATE records are not returned from the stream. Instead they are recognized as the
+         * response is framed and only advance the stream's resume position and {@link Stream#getCheckpoint()}.
+         *
+         * This requires offset updates to be enabled on the descriptor.
+         */
+        public Builder setOffsetUpdatesAsCheckpoints(boolean offsetUpdatesAsCheckpoints) {
+            this.offsetUpdatesAsCheckpoints = offsetUpdatesAsCheckpoints;
+            return this;
+        }
+
         public Stream build() {
             Preconditions.checkNotNull(descriptor, "descriptor must be set.");
+            Preconditions.checkArgument(spillingQueue == null || memoryBudget == null, "A stream can't have both a spilling queue and a memory budget.");
             return new Stream(this);
         }
     }
@@ -0,0 +1,72 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tracks the offset a {@link Stream} consumer can safely resume from, given the events that have been handed out of
+ * the stream and any OFFSET_UPDATE records that were received in between them.
+ *
+ * The offset of a delivered event is only extracted when the checkpoint is requested.
+ */
+final class StreamCheckpoint implements OffsetUpdateListener {
+
+    private long delivered = 0L;
+
+    private String lastEvent = null;
+    private String offset;
+
+    private String pendingOffset = null;
+    private long pendingAfter = 0L;
+
+    StreamCheckpoint(Optional<String> initialOffset) {
+        this.offset = initialOffset.orNull();
+    }
+
+    synchronized void delivered(String event) {
+        delivered++;
+        lastEvent = event;
+
+        if (pendingOffset != null && delivered >= pendingAfter) {
+            apply(pendingOffset);
+        }
+    }
+
+    @Override
+    public synchronized void offsetUpdate(String offset, long enqueuedEvents) {
+        if (enqueuedEvents <= delivered) {
+            apply(offset);
+            return;
+        }
+
+        // Events ahead of the update are still buffered, hold on to it until they have all been delivered. A newer
+        // update supersedes an older pending one.
+        pendingOffset = offset;
+        pendingAfter = enqueuedEvents;
+    }
+
+    synchronized Optional<String> get() {
+        if (lastEvent != null) {
+            byte[] bytes = lastEvent.getBytes(StandardCharsets.UTF_8);
+            String eventOffset = EventFieldScanner.scalar(bytes, 0, bytes.length, EventFieldScanner.OFFSET);
+            if (eventOffset != null) {
+                offset = eventOffset;
+            }
+            lastEvent = null;
+        }
+
+        return Optional.fromNullable(offset);
+    }
+
+    private void apply(String updateOffset) {
+        offset = updateOffset;
+        lastEvent = null;
+        pendingOffset = null;
+    }
+}
@@ -17,12 +17,17 @@ import org.asynchttpclient.AsyncHandler;
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.BoundRequestBuilder;
 import org.asynchttpclient.ListenableFuture;
+import com.urbanairship.connect.client.consume.ConnectionCircuitBreaker;
 import com.urbanairship.connect.client.consume.ConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.FramingOptions;
 import com.urbanairship.connect.client.consume.FullBodyConsumer;
 import com.urbanairship.connect.client.consume.MobileEventStreamBodyConsumer;
 import com.urbanairship.connect.client.consume.MobileEventStreamConnectFuture;
 import com.urbanairship.connect.client.consume.MobileEventStreamResponseHandler;
 import com.urbanairship.connect.client.consume.StatusAndHeaders;
+import com.urbanairship.connect.client.jfr.FlightRecorderEvents;
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
+import com.urbanairship.connect.client.metrics.StreamMetrics;
 import com.urbanairship.connect.client.model.Creds;
 import com.urbanairship.connect.client.model.GsonUtil;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
@@ -31,8 +36,8 @@ import com.urbanairship.connect.client.model.request.StreamRequestPayload;
 import com.urbanairship.connect.java8.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sun.net.www.protocol.http.HttpURLConnection;
 
+import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -42,6 +47,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -64,19 +70,27 @@ public class StreamConnection implements AutoCloseable {
 
     public static final String X_UA_APPKEY = "X-UA-Appkey";
     public static final String ACCEPT_HEADER = "application/vnd.urbanairship+x-ndjson; version=3;";
+    public static final String ACCEPT_ENCODING_HEADER = "gzip, deflate";
 
     private static final Gson GSON = GsonUtil.getGson();
 
+    // Upper bound on a single wait for the circuit breaker so changes made by other streams sharing it are noticed
+    private static final long CIRCUIT_BREAKER_POLL_MILLIS = 1000L;
+
     private final StreamQueryDescriptor descriptor;
     private final AsyncHttpClient client;
     private final ConnectionRetryStrategy connectionRetryStrategy;
+    private final Optional<ConnectionCircuitBreaker> circuitBreaker;
+    private final StreamMetrics metrics;
     private final Consumer<String> eventConsumer;
+    private final FramingOptions framingOptions;
     private final String url;
 
     private final AtomicBoolean gate = new AtomicBoolean(false);
 
     private volatile Connection connection = null;
     private volatile CountDownLatch bodyConsumeLatch = null;
+    private long connectedNanos;
 
     private volatile boolean closed = false;
 
@@ -85,15 +99,48 @@ public class StreamConnection implements AutoCloseable {
     public StreamConnection(StreamQueryDescriptor descriptor,
                             AsyncHttpClient client,
                             ConnectionRetryStrategy connectionRetryStrategy,
+                            Optional<ConnectionCircuitBreaker> circuitBreaker,
+                            StreamMetrics metrics,
                             Consumer<String> eventConsumer,
+                            FramingOptions framingOptions,
                             String url) {
         this.descriptor = descriptor;
         this.client = client;
         this.connectionRetryStrategy = connectionRetryStrategy;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
         this.eventConsumer = eventConsumer;
+        this.framingOptions = framingOptions;
         this.url = url;
     }
 
+    public StreamConnection(StreamQueryDescriptor descriptor,
+                            AsyncHttpClient client,
+                            ConnectionRetryStrategy connectionRetryStrategy,
+                            Optional<ConnectionCircuitBreaker> circuitBreaker,
+                            StreamMetrics metrics,
+                            Consumer<String> eventConsumer,
+                            String url) {
+        this(descriptor, client, connectionRetryStrategy, circuitBreaker, metrics, eventConsumer, FramingOptions.defaults(), url);
+    }
+
+    public StreamConnection(StreamQueryDescriptor descriptor,
+                            AsyncHttpClient client,
+                            ConnectionRetryStrategy connectionRetryStrategy,
+                            Optional<ConnectionCircuitBreaker> circuitBreaker,
+                            Consumer<String> eventConsumer,
+                            String url) {
+        this(descriptor, client, connectionRetryStrategy, circuitBreaker, new NoopStreamMetrics(), eventConsumer, url);
+    }
+
+    public StreamConnection(StreamQueryDescriptor descriptor,
+                            AsyncHttpClient client,
+                            ConnectionRetryStrategy connectionRetryStrategy,
+                            Consumer<String> eventConsumer,
+                            String url) {
+        this(descriptor, client, connectionRetryStrategy, Optional.<ConnectionCircuitBreaker>absent(), eventConsumer, url);
+    }
+
     public StreamConnection(StreamQueryDescriptor descriptor,
                             AsyncHttpClient client,
                             ConnectionRetryStrategy connectionRetryStrategy,
@@ -107,6 +154,9 @@ public class StreamConnection implements AutoCloseable {
      *
      * @param startPosition optionally specifies the starting position to consume from.
      *
+     * If a circuit breaker is in use, each connection attempt first waits until the breaker permits it. Time spent
+     * waiting on the breaker does not count as an attempt.
+     *
      * @throws ConnectionException thrown if a connection cannot be successfully made and indicates a problem with either
      * the request or unexpected behavior from the API.
      * @throws InterruptedException this method is blocking and this will be thrown if the underlying blocking calls are
@@ -122,24 +172,35 @@ public class StreamConnection implements AutoCloseable {
         int attempt = 0;
         Optional<? extends Exception> failure = Optional.absent();
         do {
+            if (!awaitCircuitBreaker()) {
+                break;
+            }
+
             attempt++;
 
             // The sync is shared with the cleanup method and ensures we don't miss a "close" signal and potentially setup
             // resources after the close and thus don't have those resources cleaned up in the case of a race between a call
             // to cleanup and this method.
-            synchronized (transitionLock) {
-                if (closed) {
-                    break;
+            boolean attempted = false;
+            try {
+                synchronized (transitionLock) {
+                    if (closed) {
+                        break;
+                    }
+                    failure = begin(startPosition, attempt);
+                    connected = !failure.isPresent();
+                    attempted = true;
                 }
-                failure = begin(startPosition, attempt);
-                connected = !failure.isPresent();
+            }
+            finally {
+                recordAttempt(attempted, failure);
             }
 
             retry = false;
             if (!connected && !closed) {
                 retry = connectionRetryStrategy.shouldRetry(attempt);
                 if (retry) {
-                    Thread.sleep(connectionRetryStrategy.getPauseMillis(attempt));
+                    pause(connectionRetryStrategy.getPauseMillis(attempt));
                 }
             }
         } while (!connected && retry);
@@ -161,37 +222,115 @@ public class StreamConnection implements AutoCloseable {
         }
     }
 
+    /**
+     * Sleeps between attempts, returning early if the connection is closed in the meantime.
+     */
+    private void pause(long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        synchronized (transitionLock) {
+            long remaining;
+            while (!closed && (remaining = deadline - System.nanoTime()) > 0L) {
+                TimeUnit.NANOSECONDS.timedWait(transitionLock, remaining);
+            }
+        }
+    }
+
+    private boolean awaitCircuitBreaker() throws InterruptedException {
+        if (!circuitBreaker.isPresent()) {
+            return true;
+        }
+
+        ConnectionCircuitBreaker breaker = circuitBreaker.get();
+        synchronized (transitionLock) {
+            while (!closed) {
+                if (breaker.tryAcquire()) {
+                    return true;
+                }
+
+                long wait = Math.max(1L, Math.min(breaker.getRetryAfterMillis(), CIRCUIT_BREAKER_POLL_MILLIS));
+                log.debug("Circuit breaker for app " + getAppKey() + " is " + breaker.getState() + ", waiting " + wait + "ms");
+                transitionLock.wait(wait);
+            }
+        }
+
+        return false;
+    }
+
+    private void recordAttempt(boolean attempted, Optional<? extends Exception> failure) {
+        if (!circuitBreaker.isPresent()) {
+            return;
+        }
+
+        ConnectionCircuitBreaker breaker = circuitBreaker.get();
+        if (!attempted) {
+            breaker.release();
+        }
+        else if (failure.isPresent() && isOutageFailure(failure.get())) {
+            breaker.recordFailure();
+        }
+        else {
+            // Includes requests the API rejected, which show the endpoint itself is responding
+            breaker.recordSuccess();
+        }
+    }
+
+    private static boolean isOutageFailure(Exception failure) {
+        if (!(failure instanceof ConnectionException)) {
+            return true;
+        }
+
+        int code = ((ConnectionException) failure).getErrorCode();
+        return code < 400 || code == 429 || code >= 500;
+    }
+
     private Optional<? extends Exception> begin(Optional<StartPosition> startPosition, int attempt) throws InterruptedException {
+        metrics.connectAttempted();
+        long startNanos = System.nanoTime();
         try {
-            connection = connect(Collections.<Cookie>emptyList(), startPosition);
+            connection = connect(Collections.<Cookie>emptyList(), startPosition, startNanos);
         }
         catch (InterruptedException e) {
             throw e;
         }
         catch (ConnectionException e) {
+            long duration = System.nanoTime() - startNanos;
+            metrics.connectFailed(e.getErrorCode(), duration);
+            FlightRecorderEvents.connect(getAppKey(), url, attempt, e.getErrorCode(), duration);
             return Optional.of(e);
         }
         catch (Exception e) {
+            long duration = System.nanoTime() - startNanos;
+            metrics.connectFailed(0, duration);
+            FlightRecorderEvents.connect(getAppKey(), url, attempt, 0, duration);
             return Optional.of(e);
         }
 
+        connectedNanos = System.nanoTime();
+        metrics.connectSucceeded(connectedNanos - startNanos);
+        FlightRecorderEvents.connect(getAppKey(), url, attempt, 200, connectedNanos - startNanos);
+
         bodyConsumeLatch = new CountDownLatch(1);
-        connection.consume(bodyConsumeLatch, eventConsumer);
+        connection.consume(bodyConsumeLatch, eventConsumer, framingOptions, metrics);
 
         return Optional.absent();
     }
 
     private void consume() throws InterruptedException {
+        Optional<Throwable> error = Optional.absent();
         try {
+            // The body is read on this thread, so a consumer that blocks only holds up reading from this connection
+            connection.deliver();
             bodyConsumeLatch.await();
 
-            Optional<Throwable> error = connection.getConsumeError();
+            error = connection.getConsumeError();
             if (error.isPresent()) {
                 throw new RuntimeException("Error occurred consuming stream for app " + getAppKey(), error.get());
             }
         }
         finally {
             cleanup();
+            FlightRecorderEvents.disconnect(getAppKey(), System.nanoTime() - connectedNanos,
+                    error.isPresent() ? String.valueOf(error.get()) : null);
         }
     }
 
@@ -205,6 +344,8 @@ public class StreamConnection implements AutoCloseable {
             }
 
             closed = true;
+            // Wake a read that is pausing between attempts or waiting on the circuit breaker
+            transitionLock.notifyAll();
         }
 
         if (bodyConsumeLatch != null) {
@@ -221,12 +362,12 @@ public class StreamConnection implements AutoCloseable {
         cleanup();
     }
 
-    private Connection connect(Collection<Cookie> cookies, Optional<StartPosition> startPosition) throws InterruptedException, ExecutionException, ConnectionException {
+    private Connection connect(Collection<Cookie> cookies, Optional<StartPosition> startPosition, long startNanos) throws InterruptedException, ExecutionException, ConnectionException {
 
         BoundRequestBuilder request = buildRequest(cookies, startPosition);
 
         MobileEventStreamConnectFuture connectFuture = new MobileEventStreamConnectFuture();
-        MobileEventStreamResponseHandler responseHandler = new MobileEventStreamResponseHandler(connectFuture);
+        MobileEventStreamResponseHandler responseHandler = new MobileEventStreamResponseHandler(connectFuture, metrics, startNanos);
 
         ListenableFuture<Boolean> future = request.execute(responseHandler);
 
@@ -249,7 +390,9 @@ public class StreamConnection implements AutoCloseable {
             throw buildErrorException(responseHandler, future, status);
         }
 
-        return handleRedirect(statusAndHeaders, startPosition);
+        metrics.redirected();
+        FlightRecorderEvents.redirect(getAppKey(), url);
+        return handleRedirect(statusAndHeaders, startPosition, startNanos);
     }
 
     private ConnectionException buildErrorException(MobileEventStreamResponseHandler responseHandler,
@@ -262,6 +405,7 @@ public class StreamConnection implements AutoCloseable {
         FullBodyConsumer bodyReader = new FullBodyConsumer();
         try {
             responseHandler.consumeBody(bodyReader);
+            responseHandler.deliverBody();
             future.get();
         }
         finally {
@@ -292,6 +436,11 @@ public class StreamConnection implements AutoCloseable {
             request.addHeader(entry.getKey(), entry.getValue());
         }
 
+        // Compressed responses are inflated chunk by chunk by the client's HTTP pipeline before the body is framed
+        if (descriptor.compressionEnabled()) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING_HEADER);
+        }
+
         for (Cookie cookie : cookies) {
             request.addCookie(cookie);
         }
@@ -301,7 +450,7 @@ public class StreamConnection implements AutoCloseable {
         return request;
     }
 
-    private Connection handleRedirect(StatusAndHeaders statusAndHeaders, Optional<StartPosition> startPosition) throws InterruptedException, ExecutionException, ConnectionException {
+    private Connection handleRedirect(StatusAndHeaders statusAndHeaders, Optional<StartPosition> startPosition, long startNanos) throws InterruptedException, ExecutionException, ConnectionException {
 
         String value = statusAndHeaders.getHeaders().get("Set-Cookie");
         if (value == null) {
@@ -315,7 +464,7 @@ public class StreamConnection implements AutoCloseable {
         }
 
         try {
-            return connect(new ArrayList<Cookie>(cookies), startPosition);
+            return connect(new ArrayList<Cookie>(cookies), startPosition, startNanos);
         } catch (Exception e) {
             throw e;
         }
@@ -351,7 +500,7 @@ public class StreamConnection implements AutoCloseable {
             this.handler = handler;
         }
 
-        public void consume(final CountDownLatch doneLatch, Consumer<String> eventConsumer) {
+        public void consume(final CountDownLatch doneLatch, Consumer<String> eventConsumer, FramingOptions framingOptions, StreamMetrics metrics) {
             Runnable doneLatchCountDownRunnable = new Runnable() {
                 @Override
                 public void run() {
@@ -361,10 +510,14 @@ public class StreamConnection implements AutoCloseable {
 
             future.addListener(doneLatchCountDownRunnable, MoreExecutors.directExecutor());
 
-            MobileEventStreamBodyConsumer bodyConsumer = new MobileEventStreamBodyConsumer(eventConsumer);
+            MobileEventStreamBodyConsumer bodyConsumer = new MobileEventStreamBodyConsumer(eventConsumer, framingOptions, metrics);
             handler.consumeBody(bodyConsumer);
         }
 
+        public void deliver() throws InterruptedException {
+            handler.deliverBody();
+        }
+
         public Optional<Throwable> getConsumeError() {
             return handler.getError();
         }
@@ -4,6 +4,7 @@ Copyright 2015-2022 Airship and Contributors
 
 package com.urbanairship.connect.client;
 
+import com.urbanairship.connect.client.consume.FramingOptions;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
 import com.urbanairship.connect.java8.Consumer;
 import org.asynchttpclient.AsyncHttpClient;
@@ -19,9 +20,11 @@ interface StreamConnectionSupplier {
      * @param descriptor StreamQueryDescriptor containing the app credentials and request info.
      * @param client AsyncHttpClient
      * @param eventConsumer {@code Consumer<String>} of the API response events.
+     * @param framingOptions what else to do with the framed events, to be passed on to the connection.
      * @return StreamConnection instance.
      */
     StreamConnection get(StreamQueryDescriptor descriptor,
                          AsyncHttpClient client,
-                         Consumer<String> eventConsumer);
+                         Consumer<String> eventConsumer,
+                         FramingOptions framingOptions);
 }
@@ -11,26 +11,40 @@ import com.google.common.base.Supplier;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.urbanairship.connect.client.consume.BackoffConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.ConnectionCircuitBreaker;
 import com.urbanairship.connect.client.consume.ConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.consume.FramingOptions;
+import com.urbanairship.connect.client.consume.MemoryBudget;
+import com.urbanairship.connect.client.consume.MobileEventStreamBodyConsumer;
+import com.urbanairship.connect.client.consume.OffsetUpdateConsumer;
+import com.urbanairship.connect.client.consume.OversizedLineConsumer;
+import com.urbanairship.connect.client.consume.PartialLineObserver;
+import com.urbanairship.connect.client.consume.RawEventConsumer;
+import com.urbanairship.connect.client.consume.RawEventObserver;
+import com.urbanairship.connect.client.jfr.FlightRecorderEvents;
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
+import com.urbanairship.connect.client.metrics.StreamMetrics;
 import com.urbanairship.connect.client.model.GsonUtil;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
 import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.sink.EventSink;
 import com.urbanairship.connect.java8.Consumer;
 import org.asynchttpclient.AsyncHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A class for handling {@link StreamConnection} interactions and expose the data received from the Airship Real-Time Data Streaming
- * API out through a {@link BlockingQueue} provided by the user. Includes basic stream connection/consumption and
- * reconnection on retryable errors.
+ * API out through a {@link BlockingQueue} provided by the user, or into an {@link EventSink}. Includes basic stream
+ * connection/consumption and reconnection on retryable errors.
  * <p>
  * Proper use of this class requires that only a single call ever be made to the {@link #run()} method. The {@link #stop()}
  * method can be called by any thread, but should not be called before {@link #run()} is called.
@@ -45,9 +59,16 @@ public final class StreamConsumeTask implements Runnable {
     private final StreamQueryDescriptor streamQueryDescriptor;
     private final Optional<StartPosition> initialPosition;
     private final StreamConnectionSupplier supplier;
+    private final ConnectionCircuitBreaker circuitBreaker;
+    private final StreamMetrics metrics;
     private final boolean manageHttpLifecycle;
+    private final int maxEventBytes;
+    private final OversizedEventHandler oversizedEventHandler;
 
-    private final EnqueuingConsumer consumer;
+    private final DeliveringConsumer consumer;
+    private final FramingOptions framingOptions;
+
+    private volatile IOException sinkFailure = null;
 
     private final AtomicBoolean active = new AtomicBoolean(true);
     private final CountDownLatch done = new CountDownLatch(1);
@@ -61,17 +82,49 @@ public final class StreamConsumeTask implements Runnable {
 
     private StreamConsumeTask(AsyncHttpClient client,
                               StreamQueryDescriptor streamQueryDescriptor,
-                              BlockingQueue<String> targetQueue,
+                              Optional<BlockingQueue<String>> targetQueue,
+                              Optional<EventSink> sink,
                               Optional<StartPosition> initialPosition,
                               StreamConnectionSupplier supplier,
+                              ConnectionCircuitBreaker circuitBreaker,
+                              StreamMetrics metrics,
+                              Optional<EventLatency> eventLatency,
+                              Optional<OffsetUpdateListener> offsetUpdateListener,
+                              Optional<MemoryBudget.Account> memoryAccount,
+                              int maxEventBytes,
+                              Optional<OversizedEventHandler> oversizedEventHandler,
                               boolean manageHttpLifecycle) {
         this.http = client;
         this.streamQueryDescriptor = streamQueryDescriptor;
         this.initialPosition = initialPosition;
         this.supplier = supplier;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
         this.manageHttpLifecycle = manageHttpLifecycle;
+        this.maxEventBytes = maxEventBytes;
+        this.oversizedEventHandler = oversizedEventHandler.orNull();
+
+        this.consumer = sink.isPresent()
+                ? new SinkConsumer(sink.get(), eventLatency.orNull(), memoryAccount.orNull())
+                : new EnqueuingConsumer(GsonUtil.getGson(), targetQueue.get(), eventLatency.orNull(), memoryAccount.orNull());
+        if (initialPosition.isPresent() && !initialPosition.get().isRelative()) {
+            // Treat the starting offset as already seen so the event at that offset, which was consumed by whoever
+            // recorded it, is not delivered a second time
+            consumer.lastOffset.set(initialPosition.get().getOffset());
+        }
 
-        this.consumer = new EnqueuingConsumer(GsonUtil.getGson(), targetQueue);
+        FramingOptions.Builder framing = FramingOptions.newBuilder()
+                .setRawEventObserver(consumer)
+                .setPartialLineObserver(consumer)
+                .setOversizedLineConsumer(consumer)
+                .setMaxLineBytes(maxEventBytes);
+        if (sink.isPresent()) {
+            framing.setRawEventConsumer((SinkConsumer) consumer);
+        }
+        if (offsetUpdateListener.isPresent()) {
+            framing.setOffsetUpdateConsumer(new OffsetUpdateDivertingConsumer(consumer, offsetUpdateListener.get()));
+        }
+        this.framingOptions = framing.build();
     }
 
     /**
@@ -103,7 +156,7 @@ public final class StreamConsumeTask implements Runnable {
 
             Optional<StartPosition> position = getPosition();
             log.debug("Opening new stream connection at position " + position);
-            try (StreamConnection newStreamConnection = supplier.get(streamQueryDescriptor, http, consumer)) {
+            try (StreamConnection newStreamConnection = supplier.get(streamQueryDescriptor, http, consumer, framingOptions)) {
                 transitionToReading(position, newStreamConnection);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -118,6 +171,12 @@ public final class StreamConsumeTask implements Runnable {
                 // offset, and processing will continue from there.
                 log.warn("caught exception consuming from connect stream, will resume reading from last successfully consumed event", throwable);
             }
+
+            if (sinkFailure != null) {
+                throw new IllegalStateException("Failed to write to sink for app " + streamQueryDescriptor.getCreds().getAppKey(), sinkFailure);
+            }
+
+            consumer.disconnected();
         }
     }
 
@@ -148,6 +207,16 @@ public final class StreamConsumeTask implements Runnable {
         streamConnection.read(position);
     }
 
+    /**
+     * Provides the circuit breaker guarding connection attempts made by this task, through which the current state of
+     * the breaker can be observed.
+     *
+     * @return the circuit breaker.
+     */
+    public ConnectionCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
     /**
      * Stops the task and causes the {@link #run()} method to exit.
      */
@@ -159,6 +228,10 @@ public final class StreamConsumeTask implements Runnable {
 
         log.info("Shutting down stream handler for app " + streamQueryDescriptor.getCreds().getAppKey());
 
+        // Free up the delivering thread if it is blocked on a full queue, otherwise closing the connection below would
+        // have to wait for it.
+        consumer.wakeForStop();
+
         // The streamLock sync is used to guard the potential race between a call to stop and an iteration inside the
         // stream method. We want to ensure that if the streamConnection resource is setup, we close it. The streamLock
         // is used on swapping that resource and so we know it cannot change and its state is consistent inside the sync.
@@ -175,11 +248,20 @@ public final class StreamConsumeTask implements Runnable {
 
     public static final class Builder {
 
-        private StreamConnectionSupplier supplier = new MobileEventStreamConnectionSupplier();
+        private StreamConnectionSupplier supplier = null;
+        private ConnectionRetryStrategy connectionRetryStrategy = DEFAULT_CONNECTION_RETRY_STRATEGY;
+        private ConnectionCircuitBreaker circuitBreaker = null;
+        private StreamMetrics metrics = new NoopStreamMetrics();
+        private Optional<EventLatency> eventLatency = Optional.absent();
 
         private StreamQueryDescriptor streamQueryDescriptor = null;
         private Optional<StartPosition> initialPosition = Optional.absent();
         private BlockingQueue<String> targetQueue = null;
+        private EventSink sink = null;
+        private Optional<OffsetUpdateListener> offsetUpdateListener = Optional.absent();
+        private Optional<MemoryBudget.Account> memoryAccount = Optional.absent();
+        private int maxEventBytes = MobileEventStreamBodyConsumer.DEFAULT_MAX_LINE_BYTES;
+        private Optional<OversizedEventHandler> oversizedEventHandler = Optional.absent();
 
         private AsyncHttpClient http = null;
 
@@ -196,6 +278,22 @@ public final class StreamConsumeTask implements Runnable {
             return this;
         }
 
+        /**
+         * Specify a sink to which received events are appended as raw bytes, in place of a target queue. Events are
+         * never decoded into strings. The sink is not closed by the task, it should be closed once {@link #run()} has
+         * returned.
+         * <p>
+         * Unless a starting position is specified, the task starts from the sink's durable offset when it has one, so
+         * a task fed into a sink that recovered from a previous run continues where that run's output ends. If the
+         * sink fails to append an event the task stops and {@link #run()} throws.
+         *
+         * @param sink the sink to append events to.
+         */
+        public Builder setSink(EventSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
         /**
          * Specify the parameters for the stream request.
          *
@@ -216,6 +314,20 @@ public final class StreamConsumeTask implements Runnable {
             return this;
         }
 
+        /**
+         * Optionally divert OFFSET_UPDATE records away from the target queue. When set, offset updates are recognized
+         * as the response body is framed, advance the offset the task resumes from on reconnect and are passed to the
+         * listener. They are never parsed or placed on the target queue.
+         * <p>
+         * This only has an effect when offset updates are enabled on the stream query descriptor.
+         *
+         * @param listener receives the offset of each update.
+         */
+        public Builder setOffsetUpdateListener(OffsetUpdateListener listener) {
+            this.offsetUpdateListener = Optional.of(listener);
+            return this;
+        }
+
         /**
          * Optionally set the http client that will be used for connecting to the API endpoint. If the client is not
          * specified, the default client specified by {@link HttpClientUtil#defaultHttpClient()} will be used.
@@ -235,6 +347,91 @@ public final class StreamConsumeTask implements Runnable {
             return this;
         }
 
+        /**
+         * Optionally set the strategy that dictates how failed connection attempts are retried. If not specified, up to
+         * 10 attempts are made with an exponential backoff starting at 500ms and capped at 30 seconds.
+         *
+         * @param strategy the retry strategy.
+         */
+        public Builder setConnectionRetryStrategy(ConnectionRetryStrategy strategy) {
+            this.connectionRetryStrategy = strategy;
+            return this;
+        }
+
+        /**
+         * Optionally set the circuit breaker guarding connection attempts. The breaker spans every connection the task
+         * makes, so repeated failures pause reconnects until the endpoint recovers rather than starting over with each
+         * new connection. A breaker may be shared by several tasks.
+         * <p>
+         * If not specified, the task uses its own breaker with the defaults of {@link ConnectionCircuitBreaker.Builder}.
+         *
+         * @param circuitBreaker the circuit breaker.
+         */
+        public Builder setCircuitBreaker(ConnectionCircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Optionally set the metrics that receive measurements of the task's connections and the events it delivers.
+         * If not specified, no measurements are taken.
+         *
+         * @param metrics the metrics.
+         */
+        public Builder setMetrics(StreamMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Optionally record how far behind real time delivered events are, from their {@code processed} timestamps.
+         * Only the processed to received latency is recorded by the task itself; the received to consumed latency is
+         * recorded when the task is run by a {@link Stream}, which hands the events out. No receipt times are kept
+         * otherwise.
+         *
+         * @param eventLatency the latency histograms, which must not be shared with another task.
+         */
+        public Builder setEventLatency(EventLatency eventLatency) {
+            this.eventLatency = Optional.of(eventLatency);
+            return this;
+        }
+
+        /**
+         * Optionally charge the memory taken by events placed on the target queue, and by partial lines held between
+         * body parts, to an account with a {@link MemoryBudget}. When the budget is used up, placing an event on the
+         * queue waits, which stops the connection being read. Whoever takes events from the queue must release them
+         * from the account, see {@link MemoryBudget#sizeOf(String)}.
+         *
+         * @param memoryAccount the account, which must not be shared with another task.
+         */
+        public Builder setMemoryAccount(MemoryBudget.Account memoryAccount) {
+            this.memoryAccount = Optional.of(memoryAccount);
+            return this;
+        }
+
+        /**
+         * Optionally set the maximum size of an event. A larger event is not buffered beyond this size: it is passed to
+         * the oversized event handler if one is set, or else skipped and logged. Either way it is reported to the
+         * metrics. Defaults to 16MB.
+         *
+         * @param maxEventBytes the maximum size, in bytes.
+         */
+        public Builder setMaxEventBytes(int maxEventBytes) {
+            this.maxEventBytes = maxEventBytes;
+            return this;
+        }
+
+        /**
+         * Optionally set a handler that receives events larger than the maximum event size, in parts, in place of them
+         * being skipped.
+         *
+         * @param handler the handler.
+         */
+        public Builder setOversizedEventHandler(OversizedEventHandler handler) {
+            this.oversizedEventHandler = Optional.of(handler);
+            return this;
+        }
+
         @VisibleForTesting
         Builder setStreamConnectionSupplier(StreamConnectionSupplier supplier) {
             this.supplier = supplier;
@@ -243,7 +440,21 @@ public final class StreamConsumeTask implements Runnable {
 
         public StreamConsumeTask build() {
             Preconditions.checkNotNull(streamQueryDescriptor, "Stream query descriptor must be provided");
-            Preconditions.checkNotNull(targetQueue, "Target queue must be provided");
+            Preconditions.checkArgument(targetQueue == null || sink == null, "Only one of a target queue or sink may be provided");
+            if (sink == null) {
+                Preconditions.checkNotNull(targetQueue, "Target queue must be provided");
+            }
+            Preconditions.checkNotNull(connectionRetryStrategy, "Connection retry strategy must not be null");
+            Preconditions.checkNotNull(metrics, "Metrics must not be null");
+            Preconditions.checkArgument(maxEventBytes > 0, "Max event bytes must be > 0");
+
+            if (circuitBreaker == null) {
+                circuitBreaker = ConnectionCircuitBreaker.newBuilder().build();
+            }
+
+            if (supplier == null) {
+                supplier = new MobileEventStreamConnectionSupplier(connectionRetryStrategy, circuitBreaker, metrics);
+            }
 
             boolean manageHttpLifecycle = false;
             if (http == null) {
@@ -251,47 +462,185 @@ public final class StreamConsumeTask implements Runnable {
                 manageHttpLifecycle = true;
             }
 
+            Optional<StartPosition> position = initialPosition;
+            if (sink != null && !position.isPresent() && sink.getDurableOffset().isPresent()) {
+                position = Optional.of(StartPosition.offset(sink.getDurableOffset().get()));
+            }
+
             return new StreamConsumeTask(
                     http,
                     streamQueryDescriptor,
-                    targetQueue,
-                    initialPosition,
+                    Optional.fromNullable(targetQueue),
+                    Optional.fromNullable(sink),
+                    position,
                     supplier,
+                    circuitBreaker,
+                    metrics,
+                    eventLatency,
+                    offsetUpdateListener,
+                    memoryAccount,
+                    maxEventBytes,
+                    oversizedEventHandler,
                     manageHttpLifecycle
             );
         }
     }
 
-    private static final ConnectionRetryStrategy CONNECTION_RETRY_STRATEGY = BackoffConnectionRetryStrategy.newBuilder()
+    private static final ConnectionRetryStrategy DEFAULT_CONNECTION_RETRY_STRATEGY = BackoffConnectionRetryStrategy.newBuilder()
             .setMaxAttempts(10)
             .setInterval(500L)
             .setMaxWaitSeconds(30L)
             .build();
 
+    // False for NoopStreamMetrics, and for subclasses of it that leave eventEnqueued alone
+    private static boolean measuresQueueDepth(StreamMetrics metrics) {
+        try {
+            return metrics.getClass().getMethod("eventEnqueued", int.class).getDeclaringClass() != NoopStreamMetrics.class;
+        }
+        catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
     // Default StreamConnectionSupplier implementation
     private static class MobileEventStreamConnectionSupplier implements StreamConnectionSupplier {
+
+        private final ConnectionRetryStrategy connectionRetryStrategy;
+        private final ConnectionCircuitBreaker circuitBreaker;
+        private final StreamMetrics metrics;
+
+        private MobileEventStreamConnectionSupplier(ConnectionRetryStrategy connectionRetryStrategy,
+                                                    ConnectionCircuitBreaker circuitBreaker,
+                                                    StreamMetrics metrics) {
+            this.connectionRetryStrategy = connectionRetryStrategy;
+            this.circuitBreaker = circuitBreaker;
+            this.metrics = metrics;
+        }
+
         @Override
         public StreamConnection get(StreamQueryDescriptor descriptor,
                                     AsyncHttpClient client,
-                                    Consumer<String> eventConsumer) {
-            return new StreamConnection(descriptor, client, CONNECTION_RETRY_STRATEGY, eventConsumer);
+                                    Consumer<String> eventConsumer,
+                                    FramingOptions framingOptions) {
+            return new StreamConnection(descriptor, client, connectionRetryStrategy, Optional.of(circuitBreaker),
+                    metrics, eventConsumer, framingOptions, descriptor.getEndpointUrl());
         }
     }
 
-    private final class EnqueuingConsumer implements Consumer<String>, Supplier<Optional<String>> {
+    /**
+     * Delivers events received on the stream's connections and tracks the offset to resume from.
+     */
+    private abstract class DeliveringConsumer implements Consumer<String>, RawEventObserver, PartialLineObserver, OversizedLineConsumer, Supplier<Optional<String>> {
+
+        protected final AtomicReference<String> lastOffset = new AtomicReference<>(null);
+
+        // Only ever written by the thread delivering events
+        protected volatile long enqueued = 0L;
+
+        // When the last connection was lost, 0 while data is flowing
+        private volatile long disconnectedNanos = 0L;
 
-        private final AtomicReference<String> lastOffset = new AtomicReference<>(null);
+        // Size of the oversized event being passed over so far, -1 when there is none
+        private volatile long oversizedBytes = -1L;
+
+        protected final EventLatency latency;
+        protected final MemoryBudget.Account memoryAccount;
+
+        protected DeliveringConsumer(EventLatency latency, MemoryBudget.Account memoryAccount) {
+            this.latency = latency;
+            this.memoryAccount = memoryAccount;
+        }
+
+        @Override
+        public void observe(byte[] bytes, int offset, int length) {
+            if (latency != null) {
+                latency.received(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void partialLine(int bytes) {
+            if (memoryAccount != null) {
+                memoryAccount.hold(bytes);
+            }
+        }
+
+        @Override
+        public void acceptOversizedPart(byte[] bytes, int offset, int length, boolean last) {
+            oversizedBytes = Math.max(oversizedBytes, 0L) + length;
+            if (oversizedEventHandler != null) {
+                oversizedEventHandler.acceptPart(bytes, offset, length, last);
+            }
+            else if (last) {
+                log.warn("Skipped an event of " + oversizedBytes + " bytes for app " + streamQueryDescriptor.getCreds().getAppKey()
+                        + ", larger than the maximum of " + maxEventBytes);
+            }
+
+            if (last) {
+                oversizedBytes = -1L;
+            }
+        }
+
+        /**
+         * Notes that a connection has ended so the time until the next one delivers data can be measured. Successive
+         * failed connections count towards the same gap.
+         */
+        public void disconnected() {
+            // Whatever partial line the connection left behind has gone with it
+            partialLine(0);
+            if (oversizedBytes >= 0L) {
+                oversizedBytes = -1L;
+                if (oversizedEventHandler != null) {
+                    oversizedEventHandler.abandoned();
+                }
+            }
+
+            if (disconnectedNanos == 0L) {
+                disconnectedNanos = System.nanoTime();
+            }
+        }
+
+        protected void received() {
+            long since = disconnectedNanos;
+            if (since != 0L) {
+                disconnectedNanos = 0L;
+                metrics.reconnectGap(System.nanoTime() - since);
+            }
+        }
+
+        /**
+         * Frees up the delivering thread if it is blocked handing off an event.
+         */
+        public void wakeForStop() { }
+
+        @Override
+        public Optional<String> get() {
+            return Optional.fromNullable(lastOffset.get());
+        }
+    }
+
+    private final class EnqueuingConsumer extends DeliveringConsumer {
+
+        private final Object offerLock = new Object();
+        private Thread offeringThread = null;
+        private boolean interruptedForStop = false;
 
         private final Gson gson;
         private final BlockingQueue<String> targetQueue;
+        private final boolean measuresQueueDepth;
 
-        public EnqueuingConsumer(Gson gson, BlockingQueue<String> targetQueue) {
+        public EnqueuingConsumer(Gson gson, BlockingQueue<String> targetQueue, EventLatency latency, MemoryBudget.Account memoryAccount) {
+            super(latency, memoryAccount);
             this.gson = gson;
             this.targetQueue = targetQueue;
+            this.measuresQueueDepth = measuresQueueDepth(metrics);
         }
 
         @Override
         public void accept(String event) {
+            received();
+            long receivedNanos = latency != null ? System.nanoTime() : 0L;
+
             String offset = getOffset(event);
 
             // Possible that a reconnection reset the stream to our last offset and thus we could get an event we've
@@ -300,16 +649,78 @@ public final class StreamConsumeTask implements Runnable {
                 return;
             }
 
+            synchronized (offerLock) {
+                if (!active.get()) {
+                    return;
+                }
+                offeringThread = Thread.currentThread();
+            }
+
+            // A stop that happens from here on will interrupt the put via wakeForStop
+            long blockedSince = 0L;
+            long reserved = 0L;
             try {
-                while (active.get()) {
-                    if (targetQueue.offer(event, 1, TimeUnit.SECONDS)) {
-                        lastOffset.set(offset);
-                        break;
-                    }
+                if (latency != null) {
+                    latency.enqueuing(receivedNanos);
+                }
 
+                if (memoryAccount != null) {
+                    // Waits while the budget is used up, holding up reads from the connection
+                    memoryAccount.reserve(MemoryBudget.sizeOf(event));
+                    reserved = MemoryBudget.sizeOf(event);
                 }
+
+                if (!targetQueue.offer(event)) {
+                    blockedSince = System.nanoTime();
+                    targetQueue.put(event);
+                }
+                reserved = 0L;
+                lastOffset.set(offset);
+                enqueued++;
+                if (latency != null) {
+                    latency.enqueued();
+                }
+                // Counting the queue can take its lock, so it is only done for metrics that use the depth
+                metrics.eventEnqueued(measuresQueueDepth ? targetQueue.size() : 0);
             } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                synchronized (offerLock) {
+                    if (!interruptedForStop) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } finally {
+                if (reserved != 0L) {
+                    // The event never made it onto the queue
+                    memoryAccount.release(reserved);
+                }
+
+                if (blockedSince != 0L) {
+                    long blocked = System.nanoTime() - blockedSince;
+                    metrics.enqueueBlocked(blocked);
+                    FlightRecorderEvents.queueBlocked(streamQueryDescriptor.getCreds().getAppKey(), blocked, targetQueue.size());
+                }
+
+                synchronized (offerLock) {
+                    offeringThread = null;
+                    // The interrupt from wakeForStop belongs to us, don't leave it behind on the delivering thread
+                    if (interruptedForStop) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Interrupts a thread blocked offering to the target queue. The interrupt is only ever delivered while the
+         * thread is inside {@link #accept(String)} and is cleared again before it leaves.
+         */
+        @Override
+        public void wakeForStop() {
+            synchronized (offerLock) {
+                if (offeringThread != null && !interruptedForStop) {
+                    interruptedForStop = true;
+                    offeringThread.interrupt();
+                }
             }
         }
 
@@ -317,10 +728,72 @@ public final class StreamConsumeTask implements Runnable {
             JsonObject obj = gson.fromJson(event, JsonObject.class);
             return obj.get("offset").getAsString();
         }
+    }
+
+    private final class SinkConsumer extends DeliveringConsumer implements RawEventConsumer {
+
+        private final EventSink sink;
+
+        public SinkConsumer(EventSink sink, EventLatency latency, MemoryBudget.Account memoryAccount) {
+            super(latency, memoryAccount);
+            this.sink = sink;
+        }
 
         @Override
-        public Optional<String> get() {
-            return Optional.fromNullable(lastOffset.get());
+        public void accept(String event) {
+            byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            acceptRaw(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void acceptRaw(byte[] bytes, int offset, int length) {
+            received();
+            if (!active.get()) {
+                return;
+            }
+
+            String eventOffset = EventFieldScanner.scalar(bytes, offset, length, EventFieldScanner.OFFSET);
+
+            // As for the queue, a reconnect resumes at the last offset so its event may be received again
+            if (eventOffset == null || eventOffset.equals(lastOffset.get())) {
+                return;
+            }
+
+            try {
+                sink.append(bytes, offset, length, eventOffset);
+            } catch (IOException e) {
+                // Ends the connection, the task then stops rather than reconnecting
+                sinkFailure = e;
+                active.set(false);
+                throw new IllegalStateException("Failed to append event to sink", e);
+            }
+
+            lastOffset.set(eventOffset);
+            enqueued++;
+            metrics.eventEnqueued(0);
+        }
+    }
+
+    private final class OffsetUpdateDivertingConsumer implements OffsetUpdateConsumer {
+
+        private final DeliveringConsumer delegate;
+        private final OffsetUpdateListener listener;
+
+        public OffsetUpdateDivertingConsumer(DeliveringConsumer delegate, OffsetUpdateListener listener) {
+            this.delegate = delegate;
+            this.listener = listener;
+        }
+
+        @Override
+        public void acceptOffsetUpdate(String offset) {
+            delegate.received();
+            if (!active.get()) {
+                return;
+            }
+
+            // Everything received before the update has been queued, so a reconnect can safely resume from here
+            delegate.lastOffset.set(offset);
+            listener.offsetUpdate(offset, delegate.enqueued);
         }
     }
 }
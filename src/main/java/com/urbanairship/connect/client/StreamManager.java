@@ -0,0 +1,550 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.urbanairship.connect.client.consume.MemoryBudget;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.java8.Consumer;
+import org.asynchttpclient.AsyncHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the streams of many apps side by side, sharing one HTTP client and a fixed pool of threads that deliver their
+ * events to per stream consumers. Streams can be added and removed while the manager runs.
+ *
+ * Each stream buffers a limited number of events of its own, so an app that sends more than its consumer keeps up with
+ * only ever fills its own buffer and holds up its own connection. Delivery threads take turns between the streams with
+ * events buffered, handing out a number of events proportional to the stream's weight on each turn (weighted round
+ * robin), so a busy app can't keep the threads from the others. A stream is only delivered by one thread at a time, so
+ * its consumer sees its events in order.
+ *
+ * Each stream still has a thread of its own reading its connection, as a {@link Stream} does, but that thread only
+ * moves events from the connection to the stream's buffer. It waits there when the buffer is full, and the connection
+ * is not read meanwhile, while the client's I/O threads go on reading the other streams' connections. These threads
+ * come from a pool of a fixed size, which is the most streams the manager runs at once. Given a {@link MemoryBudget},
+ * the streams' buffers are also bounded in bytes as a whole, each stream reserving under an account named after it.
+ *
+ * A stream that stops on an error it doesn't retry, such as a request the API rejects, stays in the manager with its
+ * error available from {@link #getFailure(String)} until it is removed. Its checkpoint can be used to start it again.
+ *
+ * <pre>
+ *     try (StreamManager manager = StreamManager.newBuilder().build()) {
+ *         manager.addStream("app-1", descriptor, Optional.&lt;StartPosition&gt;absent(), 2, consumer);
+ *         ...
+ *         Optional&lt;String&gt; resumeFrom = manager.removeStream("app-1");
+ *     }
+ * </pre>
+ */
+public final class StreamManager implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamManager.class);
+
+    private final AsyncHttpClient http;
+    private final boolean manageHttpLifecycle;
+    private final int eventsPerTurn;
+    private final int bufferedEventsPerStream;
+    private final int connectionThreadCount;
+    private final Optional<StreamConnectionSupplier> connSupplier;
+    private final Optional<MemoryBudget> memoryBudget;
+
+    private final ExecutorService connectionThreads;
+    private final ExecutorService deliveryThreads;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition runnable = lock.newCondition();
+    private final Condition released = lock.newCondition();
+    private final Map<String, ManagedStream> streams = new HashMap<>();
+    private final ArrayDeque<ManagedStream> turns = new ArrayDeque<>();
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private StreamManager(Builder builder) {
+        this.manageHttpLifecycle = builder.requestClient == null;
+        this.http = manageHttpLifecycle ? HttpClientUtil.defaultHttpClient() : builder.requestClient.getRequestClient();
+        this.eventsPerTurn = builder.eventsPerTurn;
+        this.bufferedEventsPerStream = builder.bufferedEventsPerStream;
+        this.connectionThreadCount = builder.connectionThreads;
+        this.connSupplier = Optional.fromNullable(builder.connSupplier);
+        this.memoryBudget = Optional.fromNullable(builder.memoryBudget);
+
+        this.connectionThreads = Executors.newFixedThreadPool(builder.connectionThreads, new ThreadFactoryBuilder()
+                .setDaemon(false)
+                .setNameFormat("Stream manager connection thread %d")
+                .build());
+        this.deliveryThreads = Executors.newFixedThreadPool(builder.deliveryThreads, new ThreadFactoryBuilder()
+                .setDaemon(false)
+                .setNameFormat("Stream manager delivery thread %d")
+                .build());
+        for (int i = 0; i < builder.deliveryThreads; i++) {
+            deliveryThreads.submit(new Deliverer());
+        }
+    }
+
+    /**
+     * Starts a stream with a weight of 1 from the position the API defaults to.
+     *
+     * @see #addStream(String, StreamQueryDescriptor, Optional, int, Consumer)
+     */
+    public void addStream(String name, StreamQueryDescriptor descriptor, Consumer<String> consumer) {
+        addStream(name, descriptor, Optional.<StartPosition>absent(), 1, consumer);
+    }
+
+    /**
+     * Starts a stream whose events are delivered to the given consumer by the manager's delivery threads, one event at
+     * a time and in order. An exception thrown by the consumer is logged and delivery carries on with the next event.
+     *
+     * @param name identifies the stream within the manager.
+     * @param descriptor the app credentials and request for the stream.
+     * @param startPosition where to start the stream, absent for the API's default.
+     * @param weight the stream's share of delivery relative to the other streams, at least 1.
+     * @param consumer receives the stream's events.
+     * @throws IllegalStateException if the manager is closed or already runs as many streams as it has connection
+     * threads.
+     */
+    public void addStream(String name,
+                          StreamQueryDescriptor descriptor,
+                          Optional<StartPosition> startPosition,
+                          int weight,
+                          Consumer<String> consumer) {
+        Preconditions.checkNotNull(name, "Name must be set");
+        Preconditions.checkNotNull(descriptor, "Descriptor must be set");
+        Preconditions.checkNotNull(consumer, "Consumer must be set");
+        Preconditions.checkArgument(weight > 0, "Weight must be > 0");
+
+        lock.lock();
+        try {
+            Preconditions.checkState(!closed, "Stream manager is closed");
+            Preconditions.checkArgument(!streams.containsKey(name), "A stream named %s is already running", name);
+            Preconditions.checkState(streams.size() < connectionThreadCount, "Stream manager already runs %s streams",
+                    connectionThreadCount);
+
+            final ManagedStream stream = new ManagedStream(name, descriptor, startPosition, weight, consumer);
+            streams.put(name, stream);
+            connectionThreads.submit(new Runnable() {
+                @Override
+                public void run() {
+                    stream.consume();
+                }
+            });
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops a stream and drops any of its events that have not been delivered yet. If one of its events is being
+     * delivered, waits for its consumer to return unless called from that consumer.
+     *
+     * @param name the stream to remove.
+     * @return the offset to start the stream from later to carry on after the last event delivered, absent if no event
+     * was delivered and the stream was not started at an offset.
+     * @throws InterruptedException if interrupted while waiting for an event to be delivered.
+     */
+    public Optional<String> removeStream(String name) throws InterruptedException {
+        ManagedStream stream;
+        lock.lock();
+        try {
+            stream = streams.remove(name);
+            Preconditions.checkArgument(stream != null, "No stream named %s is running", name);
+
+            stream.removed = true;
+            turns.remove(stream);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        stream.task.stop();
+        stream.queue.clear();
+        stream.releaseMemory();
+
+        lock.lock();
+        try {
+            while (stream.deliverer != null && stream.deliverer != Thread.currentThread()) {
+                released.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return stream.checkpoint.get();
+    }
+
+    /**
+     * @return the names of the streams currently running.
+     */
+    public ImmutableSet<String> getStreams() {
+        lock.lock();
+        try {
+            return ImmutableSet.copyOf(streams.keySet());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Provides the offset a stream should be started from in order to carry on after the last of its events that was
+     * delivered, as {@link Stream#getCheckpoint()} does for a single stream.
+     *
+     * @param name the stream.
+     * @return the offset, or absent if no event has been delivered and the stream was not started at an offset.
+     */
+    public Optional<String> getCheckpoint(String name) {
+        ManagedStream stream;
+        lock.lock();
+        try {
+            stream = streams.get(name);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        Preconditions.checkArgument(stream != null, "No stream named %s is running", name);
+        return stream.checkpoint.get();
+    }
+
+    /**
+     * @param name the stream.
+     * @return the error the stream stopped receiving events on, or absent if it is still running.
+     */
+    public Optional<Throwable> getFailure(String name) {
+        ManagedStream stream;
+        lock.lock();
+        try {
+            stream = streams.get(name);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        Preconditions.checkArgument(stream != null, "No stream named %s is running", name);
+        return Optional.fromNullable(stream.failure);
+    }
+
+    /**
+     * Stops every stream and the delivery threads. Events not yet delivered are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        ImmutableSet<ManagedStream> running;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = ImmutableSet.copyOf(streams.values());
+            streams.clear();
+            turns.clear();
+            runnable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        try {
+            for (ManagedStream stream : running) {
+                stream.removed = true;
+                stream.task.stop();
+                stream.releaseMemory();
+            }
+        }
+        finally {
+            connectionThreads.shutdown();
+            deliveryThreads.shutdown();
+            if (manageHttpLifecycle) {
+                http.close();
+            }
+        }
+    }
+
+    /**
+     * Waits for the manager's threads to finish after it has been closed.
+     *
+     * @return true if they finished within the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return connectionThreads.awaitTermination(timeout, unit)
+                && deliveryThreads.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    // Called once an event has been buffered, gives the stream a turn unless it already has one
+    private void buffered(ManagedStream stream) {
+        lock.lock();
+        try {
+            if (!stream.scheduled && !stream.removed) {
+                stream.scheduled = true;
+                turns.addLast(stream);
+                runnable.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private final class ManagedStream {
+
+        private final String name;
+        private final int weight;
+        private final Consumer<String> consumer;
+        private final StreamCheckpoint checkpoint;
+        private final BlockingQueue<String> queue;
+        private final StreamConsumeTask task;
+        private final Optional<MemoryBudget.Account> memoryAccount;
+
+        // Guarded by the manager's lock. A stream is scheduled from the time it is given a turn until its deliverer
+        // finds its buffer empty.
+        private boolean scheduled = false;
+        private Thread deliverer = null;
+        private volatile boolean removed = false;
+        private volatile Throwable failure = null;
+
+        ManagedStream(String name,
+                      StreamQueryDescriptor descriptor,
+                      Optional<StartPosition> startPosition,
+                      int weight,
+                      Consumer<String> consumer) {
+            this.name = name;
+            this.weight = weight;
+            this.consumer = consumer;
+            this.checkpoint = new StreamCheckpoint(startPosition.isPresent() && !startPosition.get().isRelative()
+                    ? Optional.of(startPosition.get().getOffset())
+                    : Optional.<String>absent());
+            this.queue = new LinkedBlockingQueue<String>(bufferedEventsPerStream) {
+                @Override
+                public boolean offer(String event) {
+                    boolean added = super.offer(event);
+                    if (added) {
+                        buffered(ManagedStream.this);
+                    }
+                    return added;
+                }
+
+                @Override
+                public void put(String event) throws InterruptedException {
+                    super.put(event);
+                    buffered(ManagedStream.this);
+                }
+            };
+
+            StreamConsumeTask.Builder builder = StreamConsumeTask.newBuilder()
+                    .setTargetQueue(queue)
+                    .setStreamQueryDescriptor(descriptor)
+                    .setHttpClient(http);
+
+            if (startPosition.isPresent()) {
+                builder.setStartingPosition(startPosition.get());
+            }
+
+            if (connSupplier.isPresent()) {
+                builder.setStreamConnectionSupplier(connSupplier.get());
+            }
+
+            this.memoryAccount = memoryBudget.isPresent()
+                    ? Optional.of(memoryBudget.get().newAccount(name))
+                    : Optional.<MemoryBudget.Account>absent();
+            if (memoryAccount.isPresent()) {
+                builder.setMemoryAccount(memoryAccount.get());
+            }
+
+            this.task = builder.build();
+        }
+
+        void consume() {
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                failure = e;
+                log.error("Stream " + name + " stopped receiving events", e);
+            }
+        }
+
+        // Delivers up to the stream's share of events for one turn
+        void deliver() {
+            int share = weight * eventsPerTurn;
+            String event;
+            while (share-- > 0 && !removed && (event = queue.poll()) != null) {
+                if (memoryAccount.isPresent()) {
+                    memoryAccount.get().release(MemoryBudget.sizeOf(event));
+                }
+
+                try {
+                    consumer.accept(event);
+                }
+                catch (RuntimeException e) {
+                    log.warn("Consumer of stream " + name + " failed to process an event", e);
+                }
+                checkpoint.delivered(event);
+            }
+        }
+
+        void releaseMemory() {
+            if (memoryAccount.isPresent()) {
+                memoryAccount.get().close();
+            }
+        }
+    }
+
+    private final class Deliverer implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                ManagedStream stream;
+                lock.lock();
+                try {
+                    while (!closed && turns.isEmpty()) {
+                        runnable.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    stream = turns.removeFirst();
+                    stream.deliverer = Thread.currentThread();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                try {
+                    stream.deliver();
+                }
+                finally {
+                    lock.lock();
+                    try {
+                        stream.deliverer = null;
+                        if (!stream.removed && !stream.queue.isEmpty()) {
+                            // Back of the line, behind every other stream with events waiting
+                            turns.addLast(stream);
+                            runnable.signal();
+                        }
+                        else {
+                            stream.scheduled = false;
+                        }
+                        released.signalAll();
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private RequestClient requestClient = null;
+        private int deliveryThreads = Runtime.getRuntime().availableProcessors();
+        private int eventsPerTurn = 50;
+        private int bufferedEventsPerStream = 100;
+        private int connectionThreads = 100;
+        private StreamConnectionSupplier connSupplier = null;
+        private MemoryBudget memoryBudget = null;
+
+        private Builder() { }
+
+        /**
+         * Sets the HTTP client shared by every stream. The manager doesn't close a client it is given. By default the
+         * manager creates a client with {@link HttpClientUtil#defaultHttpClient()} and closes it when it is closed.
+         */
+        public Builder setRequestClient(RequestClient requestClient) {
+            this.requestClient = requestClient;
+            return this;
+        }
+
+        /**
+         * @param deliveryThreads number of threads delivering events to consumers. Defaults to the number of
+         * available processors.
+         */
+        public Builder setDeliveryThreads(int deliveryThreads) {
+            this.deliveryThreads = deliveryThreads;
+            return this;
+        }
+
+        /**
+         * @param eventsPerTurn number of events a stream of weight 1 is delivered on each turn before the thread moves
+         * on to the next stream. Defaults to 50.
+         */
+        public Builder setEventsPerTurn(int eventsPerTurn) {
+            this.eventsPerTurn = eventsPerTurn;
+            return this;
+        }
+
+        /**
+         * @param bufferedEventsPerStream number of events each stream buffers ahead of its consumer before it stops
+         * reading from its connection. Defaults to 100.
+         */
+        public Builder setBufferedEventsPerStream(int bufferedEventsPerStream) {
+            this.bufferedEventsPerStream = bufferedEventsPerStream;
+            return this;
+        }
+
+        /**
+         * @param connectionThreads number of threads reading the streams' connections, one per stream, and so the
+         * most streams the manager runs at once. Failed streams keep their place until removed. Defaults to 100.
+         */
+        public Builder setConnectionThreads(int connectionThreads) {
+            this.connectionThreads = connectionThreads;
+            return this;
+        }
+
+        /**
+         * Bounds the memory taken by events buffered across every stream, in addition to the number of events each
+         * stream buffers. The budget may also be shared with streams outside the manager.
+         */
+        public Builder setMemoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setConnectionSupplier(StreamConnectionSupplier connSupplier) {
+            this.connSupplier = connSupplier;
+            return this;
+        }
+
+        public StreamManager build() {
+            Preconditions.checkArgument(deliveryThreads > 0, "Delivery threads must be > 0");
+            Preconditions.checkArgument(eventsPerTurn > 0, "Events per turn must be > 0");
+            Preconditions.checkArgument(bufferedEventsPerStream > 0, "Buffered events per stream must be > 0");
+            Preconditions.checkArgument(connectionThreads > 0, "Connection threads must be > 0");
+
+            return new StreamManager(this);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.urbanairship.connect.client.model.event.EventType;
+
+/**
+ * An immutable copy of the aggregates an {@link EventAggregator} held over a window of event time.
+ */
+public final class AggregateSnapshot {
+
+    private final long windowEndMillis;
+    private final long windowMillis;
+    private final long[] typeCounts;
+    private final long uniqueChannels;
+    private final ImmutableList<TopK.Entry> top;
+    private final long futureDatedCount;
+
+    AggregateSnapshot(long windowEndMillis, long windowMillis, long[] typeCounts, long uniqueChannels,
+                      ImmutableList<TopK.Entry> top, long futureDatedCount) {
+        this.windowEndMillis = windowEndMillis;
+        this.windowMillis = windowMillis;
+        this.typeCounts = typeCounts;
+        this.uniqueChannels = uniqueChannels;
+        this.top = top;
+        this.futureDatedCount = futureDatedCount;
+    }
+
+    /**
+     * @return the end of the window, in milliseconds since the epoch, or {@link Long#MIN_VALUE} if no event had been
+     * seen.
+     */
+    public long getWindowEndMillis() {
+        return windowEndMillis;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @return number of events of the type in the window.
+     */
+    public long getCount(EventType type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    /**
+     * @return number of events of any type in the window.
+     */
+    public long getTotalCount() {
+        long total = 0L;
+        for (long count : typeCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return estimated number of distinct channels with events in the window.
+     */
+    public long getUniqueChannels() {
+        return uniqueChannels;
+    }
+
+    /**
+     * @return the keys with the most events since the aggregator was created, most first.
+     */
+    public ImmutableList<TopK.Entry> getTop() {
+        return top;
+    }
+
+    /**
+     * @return number of events since the aggregator was created that occurred, by the device's clock, further after
+     * they were processed than the allowed clock skew, and so were placed by their processed time.
+     */
+    public long getFutureDatedCount() {
+        return futureDatedCount;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("windowEndMillis", windowEndMillis)
+                .add("windowMillis", windowMillis)
+                .add("totalCount", getTotalCount())
+                .add("uniqueChannels", uniqueChannels)
+                .add("top", top)
+                .add("futureDatedCount", futureDatedCount)
+                .toString();
+    }
+}
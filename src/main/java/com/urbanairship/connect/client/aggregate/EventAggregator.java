@@ -0,0 +1,212 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.urbanairship.connect.client.consume.EventProjection;
+import com.urbanairship.connect.client.model.event.EventDevice;
+import com.urbanairship.connect.client.model.event.EventType;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates typed events as they are consumed, for dashboards that only need a few figures rather than the events
+ * themselves:
+ *
+ * <ul>
+ *     <li>counts per event type over a window, see {@link WindowedCounter}</li>
+ *     <li>distinct channels with events over the same window, see {@link WindowedUniqueCounter}</li>
+ *     <li>the keys with the most events, by default the pushes with the most opens, see {@link TopK}</li>
+ * </ul>
+ *
+ * Events are placed in the window by their {@code occurred} time, or {@code processed} time if they have none, and the
+ * window ends with the latest of those seen. The {@code occurred} time comes from the device's clock, so an event that
+ * occurred further after it was processed than the allowed clock skew is placed by its {@code processed} time instead,
+ * and counted in {@link AggregateSnapshot#getFutureDatedCount()}. One device with its clock set ahead can so not move
+ * the window past the times of every other event. Top keys are counted since the aggregator was created.
+ *
+ * Events must be added from one thread at a time, as a stream delivers them; adding takes no locks and allocates
+ * little. Snapshots may be taken from any thread without blocking the adding thread.
+ */
+public final class EventAggregator {
+
+    private static final EventProjection CONVERTING_PUSH_ID = EventProjection.newBuilder()
+            .addPaths("converting_push.push_id")
+            .build();
+
+    /**
+     * Keys OPEN events by the push they are attributed to, the {@code converting_push} in their body, and skips all
+     * other events.
+     */
+    public static final EventKey OPENED_PUSH = new EventKey() {
+        @Override
+        public String keyOf(StreamEvent event) {
+            if (event.getType() != EventType.OPEN || !event.getBodyJson().isPresent()) {
+                return null;
+            }
+            return CONVERTING_PUSH_ID.project(event.getBodyJson().get()).getString(0);
+        }
+    };
+
+    private final WindowedCounter typeCounts;
+    private final WindowedUniqueCounter uniqueChannels;
+    private final TopK top;
+    private final EventKey topKey;
+    private final int topCount;
+    private final long maxSkewMillis;
+
+    // Only written by the thread adding events
+    private volatile long futureDated = 0L;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private EventAggregator(Builder builder) {
+        this.typeCounts = WindowedCounter.newBuilder()
+                .setKeyCount(EventType.values().length)
+                .setBucketDuration(builder.bucketMillis, TimeUnit.MILLISECONDS)
+                .setBucketCount(builder.bucketCount)
+                .build();
+        this.uniqueChannels = WindowedUniqueCounter.newBuilder()
+                .setPrecision(builder.precision)
+                .setBucketDuration(builder.bucketMillis, TimeUnit.MILLISECONDS)
+                .setBucketCount(builder.bucketCount)
+                .build();
+        this.top = new TopK(builder.topCapacity);
+        this.topKey = builder.topKey;
+        this.topCount = builder.topCount;
+        this.maxSkewMillis = builder.maxSkewMillis;
+    }
+
+    public void add(StreamEvent event) {
+        long time = event.getOccurred();
+        if (time == StreamEvent.NO_TIME) {
+            time = event.getProcessed();
+        }
+        else {
+            long processed = event.getProcessed();
+            long limit = (processed != StreamEvent.NO_TIME ? processed : System.currentTimeMillis()) + maxSkewMillis;
+            if (time > limit) {
+                futureDated++;
+                time = processed;
+            }
+        }
+
+        if (time != StreamEvent.NO_TIME) {
+            typeCounts.add(event.getType().ordinal(), time);
+
+            Optional<EventDevice> device = event.getDevice();
+            if (device.isPresent() && device.get().getChannel().isPresent()) {
+                uniqueChannels.add(device.get().getChannel().get(), time);
+            }
+        }
+
+        String key = topKey.keyOf(event);
+        if (key != null) {
+            top.add(key);
+        }
+    }
+
+    /**
+     * @return the aggregates over the window ending with the latest event time seen.
+     */
+    public AggregateSnapshot getSnapshot() {
+        return getSnapshot(typeCounts.getLatestMillis());
+    }
+
+    /**
+     * @param endMillis the end of the window, for instance the current time.
+     * @return the aggregates over the window ending with the given time.
+     */
+    public AggregateSnapshot getSnapshot(long endMillis) {
+        return new AggregateSnapshot(endMillis, typeCounts.getWindowMillis(), typeCounts.getCounts(endMillis),
+                uniqueChannels.getEstimate(endMillis), top.getTop(topCount), futureDated);
+    }
+
+    public static final class Builder {
+
+        private long bucketMillis = TimeUnit.MINUTES.toMillis(1L);
+        private int bucketCount = 60;
+        private int precision = HyperLogLog.DEFAULT_PRECISION;
+        private int topCapacity = 1000;
+        private int topCount = 10;
+        private EventKey topKey = OPENED_PUSH;
+        private long maxSkewMillis = TimeUnit.MINUTES.toMillis(5L);
+
+        private Builder() { }
+
+        /**
+         * @param duration span of event time the window moves forward by. Defaults to one minute.
+         */
+        public Builder setBucketDuration(long duration, TimeUnit unit) {
+            this.bucketMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param bucketCount number of buckets in the window, 1 for a tumbling window. Defaults to 60, so that by
+         *                    default the window is the last hour, moving forward a minute at a time.
+         */
+        public Builder setBucketCount(int bucketCount) {
+            this.bucketCount = bucketCount;
+            return this;
+        }
+
+        /**
+         * @param precision precision of the {@link HyperLogLog} sketches counting distinct channels. Defaults to
+         *                  {@link HyperLogLog#DEFAULT_PRECISION}.
+         */
+        public Builder setPrecision(int precision) {
+            this.precision = precision;
+            return this;
+        }
+
+        /**
+         * @param topKey picks the key events are ranked by. Defaults to {@link #OPENED_PUSH}.
+         */
+        public Builder setTopKey(EventKey topKey) {
+            this.topKey = topKey;
+            return this;
+        }
+
+        /**
+         * @param topCapacity number of keys counted at once, see {@link TopK}. Larger capacities give more accurate
+         *                    counts for the top keys. Defaults to 1000.
+         */
+        public Builder setTopCapacity(int topCapacity) {
+            this.topCapacity = topCapacity;
+            return this;
+        }
+
+        /**
+         * @param topCount number of top keys in a snapshot. Defaults to 10.
+         */
+        public Builder setTopCount(int topCount) {
+            this.topCount = topCount;
+            return this;
+        }
+
+        /**
+         * @param skew how far after its {@code processed} time an event may have occurred, by the device's clock,
+         *             and still be placed by its {@code occurred} time. Events without a {@code processed} time are
+         *             held to the current time instead. Defaults to five minutes.
+         */
+        public Builder setMaxClockSkew(long skew, TimeUnit unit) {
+            this.maxSkewMillis = unit.toMillis(skew);
+            return this;
+        }
+
+        public EventAggregator build() {
+            Preconditions.checkNotNull(topKey, "Top key must not be null");
+            Preconditions.checkArgument(topCount > 0 && topCount <= topCapacity, "Top count must be > 0 and <= top capacity");
+            Preconditions.checkArgument(maxSkewMillis >= 0L, "Max clock skew must be >= 0");
+
+            return new EventAggregator(this);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.urbanairship.connect.client.model.event.StreamEvent;
+
+/**
+ * Picks the key an {@link EventAggregator} ranks events by, such as the push an open is attributed to.
+ */
+public interface EventKey {
+
+    /**
+     * @param event the event.
+     * @return the event's key, or null if the event should not be ranked.
+     */
+    String keyOf(StreamEvent event);
+
+}
@@ -0,0 +1,146 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A concurrent HyperLogLog sketch that estimates the number of distinct values added to it, such as channels, in a
+ * fixed amount of memory: 2^precision registers of a byte each. The standard error of the estimate is about
+ * 1.04 / sqrt(2^precision), so around 1.6% at the default precision of 12, which takes 4KB. Small cardinalities are
+ * estimated by linear counting, which is close to exact.
+ *
+ * Adding is lock free and allocates nothing. Once most registers have settled, an add is a hash and a read.
+ */
+public final class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final int precision;
+    private final int registerCount;
+    // Four registers packed into each int, a byte apiece
+    private final AtomicIntegerArray registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision number of bits of the hash that pick a register, between 4 and 16.
+     */
+    public HyperLogLog(int precision) {
+        Preconditions.checkArgument(precision >= 4 && precision <= 16, "Precision must be between 4 and 16");
+
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.registers = new AtomicIntegerArray(registerCount / 4);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(CharSequence value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * @param hash a well mixed 64 bit hash of the value, as given by {@link #hash(CharSequence)}.
+     */
+    public void addHash(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        // The marker bit bounds the rank when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        raise(register, rank);
+    }
+
+    /**
+     * Adds every value added to another sketch of the same precision to this one.
+     */
+    public void merge(HyperLogLog other) {
+        Preconditions.checkArgument(other.precision == precision, "Sketches must have the same precision");
+
+        for (int i = 0; i < registers.length(); i++) {
+            int packed = other.registers.get(i);
+            for (int j = 0; j < 4; j++) {
+                int rank = (packed >>> (8 * j)) & 0xFF;
+                if (rank > 0) {
+                    raise(4 * i + j, rank);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added.
+     */
+    public long cardinality() {
+        double sum = 0D;
+        int zeros = 0;
+        for (int i = 0; i < registers.length(); i++) {
+            int packed = registers.get(i);
+            for (int j = 0; j < 4; j++) {
+                int rank = (packed >>> (8 * j)) & 0xFF;
+                sum += Double.longBitsToDouble((1023L - rank) << 52);
+                if (rank == 0) {
+                    zeros++;
+                }
+            }
+        }
+
+        double m = registerCount;
+        double estimate = alpha() * m * m / sum;
+        if (estimate <= 2.5D * m && zeros > 0) {
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * A 64 bit hash of the value's characters, FNV-1a followed by the MurmurHash3 finalizer to spread the bits.
+     */
+    public static long hash(CharSequence value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private void raise(int register, int rank) {
+        int index = register >>> 2;
+        int shift = 8 * (register & 3);
+
+        int packed;
+        do {
+            packed = registers.get(index);
+            if (((packed >>> shift) & 0xFF) >= rank) {
+                return;
+            }
+        } while (!registers.compareAndSet(index, packed, (packed & ~(0xFF << shift)) | (rank << shift)));
+    }
+
+    private double alpha() {
+        switch (registerCount) {
+            case 16: return 0.673D;
+            case 32: return 0.697D;
+            case 64: return 0.709D;
+            default: return 0.7213D / (1D + 1.079D / registerCount);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ring of buckets, each covering a fixed span of event time, that together make up a window ending with the latest
+ * event time seen. A slot in the ring is reused by swapping in a fresh bucket once time moves past the bucket it held,
+ * so buckets are only allocated when time moves on. The ring has one more bucket than the window, so the window just
+ * before the current one can still be read, for instance to report the last complete tumbling window. A value added to
+ * a bucket just as it is swapped out is lost, but such a value is for a time that had already left that window.
+ */
+abstract class TimeBuckets<B> {
+
+    private final long bucketMillis;
+    private final int bucketCount;
+    private final AtomicReferenceArray<Bucket<B>> buckets;
+    private final AtomicLong latestMillis = new AtomicLong(Long.MIN_VALUE);
+
+    TimeBuckets(long bucketMillis, int bucketCount) {
+        this.bucketMillis = bucketMillis;
+        this.bucketCount = bucketCount;
+        this.buckets = new AtomicReferenceArray<>(bucketCount + 1);
+    }
+
+    protected abstract B newBucket();
+
+    /**
+     * @return the bucket for the time, or null if the time is before the window that ends with the latest time.
+     */
+    final B bucket(long timeMillis) {
+        long latest;
+        do {
+            latest = latestMillis.get();
+        } while (timeMillis > latest && !latestMillis.compareAndSet(latest, timeMillis));
+
+        long index = index(timeMillis);
+        if (index <= index(Math.max(latest, timeMillis)) - bucketCount) {
+            return null;
+        }
+
+        int slot = slot(index);
+        while (true) {
+            Bucket<B> bucket = buckets.get(slot);
+            if (bucket != null && bucket.index == index) {
+                return bucket.value;
+            }
+            if (bucket != null && bucket.index > index) {
+                // Time has already moved on past this one
+                return null;
+            }
+
+            Bucket<B> fresh = new Bucket<>(index, newBucket());
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                return fresh.value;
+            }
+        }
+    }
+
+    /**
+     * @return the buckets holding values for the window that ends with the given time, oldest first.
+     */
+    final List<B> window(long endMillis) {
+        long end = index(endMillis);
+        List<B> window = new ArrayList<>(bucketCount);
+        for (long index = end - bucketCount + 1; index <= end; index++) {
+            Bucket<B> bucket = buckets.get(slot(index));
+            if (bucket != null && bucket.index == index) {
+                window.add(bucket.value);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * @return the latest event time seen, or {@link Long#MIN_VALUE} if there has been none.
+     */
+    final long getLatestMillis() {
+        return latestMillis.get();
+    }
+
+    final long getWindowMillis() {
+        return bucketMillis * bucketCount;
+    }
+
+    private long index(long timeMillis) {
+        long index = timeMillis / bucketMillis;
+        return timeMillis % bucketMillis < 0L ? index - 1L : index;
+    }
+
+    private int slot(long index) {
+        int slot = (int) (index % buckets.length());
+        return slot < 0 ? slot + buckets.length() : slot;
+    }
+
+    private static final class Bucket<B> {
+
+        private final long index;
+        private final B value;
+
+        private Bucket(long index, B value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+}
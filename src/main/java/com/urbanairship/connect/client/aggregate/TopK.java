@@ -0,0 +1,231 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds the most frequent keys, such as the pushes with the most opens, using the Space-Saving algorithm in a fixed
+ * number of counters. A key that is not being counted takes over the counter with the smallest count, inheriting that
+ * count as its possible overcount, so any key whose true count exceeds the total divided by the capacity is sure to be
+ * counted. Counts are never too low, and too high by at most their {@link Entry#getError() error}. The counter with
+ * the smallest count is found through a heap, so an add takes O(log capacity) time.
+ *
+ * Keys must be added from one thread at a time, as a stream delivers its events; adding takes no locks. The top keys
+ * can be read from any thread while keys are being added, without blocking the adding thread.
+ */
+public final class TopK {
+
+    private static final Comparator<Entry> BY_COUNT = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Long.compare(b.count, a.count);
+        }
+    };
+
+    private final int capacity;
+
+    // Read by snapshots. A counter's key is cleared while it is handed to another key, so that a snapshot reading the
+    // same key before and after the count has read a count belonging to that key.
+    private final AtomicReferenceArray<String> keys;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray errors;
+
+    // Only accessed by the adding thread
+    private final Map<String, Integer> counters;
+    private final int[] heap;
+    private final int[] heapPositions;
+    private volatile int size = 0;
+
+    public TopK(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be > 0");
+
+        this.capacity = capacity;
+        this.keys = new AtomicReferenceArray<>(capacity);
+        this.counts = new AtomicLongArray(capacity);
+        this.errors = new AtomicLongArray(capacity);
+        this.counters = new HashMap<>(2 * capacity);
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void add(String key) {
+        Integer counter = counters.get(key);
+        if (counter != null) {
+            counts.lazySet(counter, counts.get(counter) + 1L);
+            siftDown(heapPositions[counter]);
+            return;
+        }
+
+        if (size < capacity) {
+            int fresh = size;
+            errors.set(fresh, 0L);
+            counts.set(fresh, 1L);
+            keys.set(fresh, key);
+            counters.put(key, fresh);
+            heap[fresh] = fresh;
+            heapPositions[fresh] = fresh;
+            size++;
+            siftUp(fresh);
+            return;
+        }
+
+        int smallest = heap[0];
+        long count = counts.get(smallest);
+        counters.remove(keys.get(smallest));
+        keys.set(smallest, null);
+        errors.set(smallest, count);
+        counts.set(smallest, count + 1L);
+        keys.set(smallest, key);
+        counters.put(key, smallest);
+        siftDown(0);
+    }
+
+    /**
+     * @param k number of keys wanted.
+     * @return up to k keys with the highest counts, highest first.
+     */
+    public ImmutableList<Entry> getTop(int k) {
+        List<Entry> entries = new ArrayList<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            while (true) {
+                String key = keys.get(i);
+                if (key == null && i >= size) {
+                    break;
+                }
+                long count = counts.get(i);
+                long error = errors.get(i);
+                if (key != null && key == keys.get(i)) {
+                    entries.add(new Entry(key, count, error));
+                    break;
+                }
+                // Being handed to another key, which only takes a moment
+            }
+        }
+
+        Collections.sort(entries, BY_COUNT);
+        return ImmutableList.copyOf(entries.subList(0, Math.min(k, entries.size())));
+    }
+
+    private void siftUp(int position) {
+        int counter = heap[position];
+        long count = counts.get(counter);
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts.get(heap[parent]) <= count) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(counter, position);
+    }
+
+    private void siftDown(int position) {
+        int counter = heap[position];
+        long count = counts.get(counter);
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts.get(heap[child + 1]) < counts.get(heap[child])) {
+                child++;
+            }
+            if (counts.get(heap[child]) >= count) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(counter, position);
+    }
+
+    private void place(int counter, int position) {
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    /**
+     * A key and its estimated count.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final long count;
+        private final long error;
+
+        Entry(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the estimated count, at least the true count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return how much the count may exceed the true count by.
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return the count the key is sure to have reached.
+         */
+        public long getGuaranteedCount() {
+            return count - error;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry that = (Entry) o;
+            return count == that.count &&
+                    error == that.error &&
+                    Objects.equals(key, that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, count, error);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("key", key)
+                    .add("count", count)
+                    .add("error", error)
+                    .toString();
+        }
+    }
+}
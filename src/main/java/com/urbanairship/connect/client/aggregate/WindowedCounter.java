@@ -0,0 +1,132 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events per key, such as per event type, over a window of event time. The window is made of a number of
+ * buckets of equal duration and ends with the bucket holding the latest event time seen: with one bucket it tumbles
+ * from one bucket to the next, and with several it slides forward a bucket at a time. Keys are small integers, and each
+ * bucket holds a count per key in a primitive array.
+ *
+ * Counting is lock free and only allocates when time moves on to a new bucket. Events for a time before the window
+ * are not counted. Counts may be read from any thread while events are being added, for the current window or the one
+ * before it.
+ */
+public final class WindowedCounter {
+
+    private final int keyCount;
+    private final TimeBuckets<AtomicLongArray> buckets;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private WindowedCounter(final int keyCount, long bucketMillis, int bucketCount) {
+        this.keyCount = keyCount;
+        this.buckets = new TimeBuckets<AtomicLongArray>(bucketMillis, bucketCount) {
+            @Override
+            protected AtomicLongArray newBucket() {
+                return new AtomicLongArray(keyCount);
+            }
+        };
+    }
+
+    /**
+     * @param key between 0 and the number of keys.
+     * @param timeMillis the event time, in milliseconds since the epoch.
+     */
+    public void add(int key, long timeMillis) {
+        Preconditions.checkElementIndex(key, keyCount);
+
+        AtomicLongArray bucket = buckets.bucket(timeMillis);
+        if (bucket != null) {
+            bucket.incrementAndGet(key);
+        }
+    }
+
+    /**
+     * @return the count for each key over the window ending with the latest event time seen.
+     */
+    public long[] getCounts() {
+        return getCounts(buckets.getLatestMillis());
+    }
+
+    /**
+     * @param endMillis the end of the window, for instance the current time.
+     * @return the count for each key over the window ending with the given time.
+     */
+    public long[] getCounts(long endMillis) {
+        long[] counts = new long[keyCount];
+        List<AtomicLongArray> window = buckets.window(endMillis);
+        for (AtomicLongArray bucket : window) {
+            for (int key = 0; key < keyCount; key++) {
+                counts[key] += bucket.get(key);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the latest event time seen, or {@link Long#MIN_VALUE} if there has been none.
+     */
+    public long getLatestMillis() {
+        return buckets.getLatestMillis();
+    }
+
+    public long getWindowMillis() {
+        return buckets.getWindowMillis();
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public static final class Builder {
+
+        private int keyCount = 0;
+        private long bucketMillis = TimeUnit.MINUTES.toMillis(1L);
+        private int bucketCount = 1;
+
+        private Builder() { }
+
+        /**
+         * @param keyCount number of distinct keys counted.
+         */
+        public Builder setKeyCount(int keyCount) {
+            this.keyCount = keyCount;
+            return this;
+        }
+
+        /**
+         * @param duration span of event time each bucket covers. Defaults to one minute.
+         */
+        public Builder setBucketDuration(long duration, TimeUnit unit) {
+            this.bucketMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param bucketCount number of buckets in the window, 1 for a tumbling window. Defaults to 1.
+         */
+        public Builder setBucketCount(int bucketCount) {
+            this.bucketCount = bucketCount;
+            return this;
+        }
+
+        public WindowedCounter build() {
+            Preconditions.checkArgument(keyCount > 0, "Key count must be > 0");
+            Preconditions.checkArgument(bucketMillis > 0L, "Bucket duration must be at least a millisecond");
+            Preconditions.checkArgument(bucketCount > 0, "Bucket count must be > 0");
+
+            return new WindowedCounter(keyCount, bucketMillis, bucketCount);
+        }
+    }
+}
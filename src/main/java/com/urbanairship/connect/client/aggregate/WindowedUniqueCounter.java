@@ -0,0 +1,124 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the number of distinct values, such as channels, seen over a window of event time, windowed in the same
+ * way as a {@link WindowedCounter}. Each bucket holds a {@link HyperLogLog}, and the buckets in the window are merged
+ * to give the estimate, so a value seen in several buckets is only counted once.
+ *
+ * Adding is lock free and only allocates when time moves on to a new bucket.
+ */
+public final class WindowedUniqueCounter {
+
+    private final int precision;
+    private final TimeBuckets<HyperLogLog> buckets;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private WindowedUniqueCounter(final int precision, long bucketMillis, int bucketCount) {
+        this.precision = precision;
+        this.buckets = new TimeBuckets<HyperLogLog>(bucketMillis, bucketCount) {
+            @Override
+            protected HyperLogLog newBucket() {
+                return new HyperLogLog(precision);
+            }
+        };
+    }
+
+    /**
+     * @param value the value seen.
+     * @param timeMillis the event time, in milliseconds since the epoch.
+     */
+    public void add(CharSequence value, long timeMillis) {
+        addHash(HyperLogLog.hash(value), timeMillis);
+    }
+
+    /**
+     * @param hash hash of the value seen, see {@link HyperLogLog#addHash(long)}.
+     * @param timeMillis the event time, in milliseconds since the epoch.
+     */
+    public void addHash(long hash, long timeMillis) {
+        HyperLogLog bucket = buckets.bucket(timeMillis);
+        if (bucket != null) {
+            bucket.addHash(hash);
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values over the window ending with the latest event time seen.
+     */
+    public long getEstimate() {
+        return getEstimate(buckets.getLatestMillis());
+    }
+
+    /**
+     * @param endMillis the end of the window, for instance the current time.
+     * @return the estimated number of distinct values over the window ending with the given time.
+     */
+    public long getEstimate(long endMillis) {
+        HyperLogLog merged = new HyperLogLog(precision);
+        for (HyperLogLog bucket : buckets.window(endMillis)) {
+            merged.merge(bucket);
+        }
+        return merged.cardinality();
+    }
+
+    public long getLatestMillis() {
+        return buckets.getLatestMillis();
+    }
+
+    public long getWindowMillis() {
+        return buckets.getWindowMillis();
+    }
+
+    public static final class Builder {
+
+        private int precision = HyperLogLog.DEFAULT_PRECISION;
+        private long bucketMillis = TimeUnit.MINUTES.toMillis(1L);
+        private int bucketCount = 1;
+
+        private Builder() { }
+
+        /**
+         * @param precision precision of each bucket's {@link HyperLogLog}. Defaults to
+         *                  {@link HyperLogLog#DEFAULT_PRECISION}.
+         */
+        public Builder setPrecision(int precision) {
+            this.precision = precision;
+            return this;
+        }
+
+        /**
+         * @param duration span of event time each bucket covers. Defaults to one minute.
+         */
+        public Builder setBucketDuration(long duration, TimeUnit unit) {
+            this.bucketMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param bucketCount number of buckets in the window, 1 for a tumbling window. Defaults to 1.
+         */
+        public Builder setBucketCount(int bucketCount) {
+            this.bucketCount = bucketCount;
+            return this;
+        }
+
+        public WindowedUniqueCounter build() {
+            Preconditions.checkArgument(precision >= 4 && precision <= 16, "Precision must be between 4 and 16");
+            Preconditions.checkArgument(bucketMillis > 0L, "Bucket duration must be at least a millisecond");
+            Preconditions.checkArgument(bucketCount > 0, "Bucket count must be > 0");
+
+            return new WindowedUniqueCounter(precision, bucketMillis, bucketCount);
+        }
+    }
+}
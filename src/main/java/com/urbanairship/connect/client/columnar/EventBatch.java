@@ -0,0 +1,295 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.consume.EventTimestamps;
+import com.urbanairship.connect.client.consume.JsonMembers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of events held as columns rather than as one object per event, for handing to columnar formats and analytics
+ * libraries. Events are added as their raw UTF-8 bytes, as framed from the stream, and their fields are copied straight
+ * into the columns without building strings or objects.
+ *
+ * The columns are the event offset, type, occurred time, device channel and device type, followed by any number of
+ * fields of the event body chosen when the batch is built. Each column is laid out as an Arrow vector in off heap
+ * buffers, see {@link LongColumn} and {@link StringColumn}. A row is null where the event has no such field.
+ *
+ * A batch is meant to be filled, handed out and {@link #clear() cleared} over and over, reusing its buffers. Its
+ * columns, and any views of their buffers, are only valid until it is cleared. A batch is not safe for use by several
+ * threads at once.
+ */
+public final class EventBatch {
+
+    private static final byte[] DEVICE = EventFieldScanner.key("device");
+    private static final byte[] BODY = EventFieldScanner.key("body");
+    private static final byte[] CHANNEL = EventFieldScanner.key("channel");
+    private static final byte[] DEVICE_TYPE = EventFieldScanner.key("device_type");
+
+    private static final int OFFSET_INDEX = 0;
+    private static final int TYPE = 1;
+    private static final int CHANNEL_INDEX = 2;
+    private static final int DEVICE_TYPE_INDEX = 3;
+    private static final int BODY_FIELDS = 4;
+
+    private final int capacity;
+    private final ImmutableList<String> bodyFieldNames;
+    private final byte[][] bodyFieldKeys;
+
+    private final StringColumn offsets;
+    private final LongColumn occurred;
+    private final StringColumn types;
+    private final StringColumn channels;
+    private final StringColumn deviceTypes;
+    private final StringColumn[] bodyFields;
+
+    // Where each string column's value lies in the event being added, start -1 when absent
+    private final int[] valueStarts;
+    private final int[] valueEnds;
+    // Strings with escapes, which are decoded rather than copied as they are
+    private final byte[][] decoded;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private EventBatch(int capacity, List<String> bodyFieldNames, int initialDataBytes) {
+        this.capacity = capacity;
+        this.bodyFieldNames = ImmutableList.copyOf(bodyFieldNames);
+        this.bodyFieldKeys = new byte[bodyFieldNames.size()][];
+        for (int i = 0; i < bodyFieldKeys.length; i++) {
+            bodyFieldKeys[i] = EventFieldScanner.key(bodyFieldNames.get(i));
+        }
+
+        this.offsets = new StringColumn(capacity, capacity * 20);
+        this.occurred = new LongColumn(capacity);
+        this.types = new StringColumn(capacity, capacity * 16);
+        this.channels = new StringColumn(capacity, capacity * 40);
+        this.deviceTypes = new StringColumn(capacity, capacity * 8);
+        this.bodyFields = new StringColumn[bodyFieldKeys.length];
+        for (int i = 0; i < bodyFields.length; i++) {
+            bodyFields[i] = new StringColumn(capacity, initialDataBytes);
+        }
+
+        this.valueStarts = new int[BODY_FIELDS + bodyFields.length];
+        this.valueEnds = new int[valueStarts.length];
+        this.decoded = new byte[valueStarts.length][];
+    }
+
+    /**
+     * Adds an event as a new row. The event is read in full before anything is added, so a malformed event leaves the
+     * batch as it was.
+     *
+     * @param bytes buffer holding the event
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @throws JsonParseException if the event is not a JSON object.
+     * @throws IllegalStateException if the batch is full.
+     */
+    public void add(byte[] bytes, int offset, int length) {
+        Preconditions.checkState(!isFull(), "Batch is full");
+
+        Arrays.fill(valueStarts, -1);
+        long occurredMillis = EventTimestamps.ABSENT;
+
+        JsonMembers members = new JsonMembers(bytes, offset, length);
+        while (members.next()) {
+            if (members.nameIs(EventFieldScanner.OFFSET)) {
+                mark(OFFSET_INDEX, members);
+            }
+            else if (members.nameIs(EventFieldScanner.TYPE)) {
+                mark(TYPE, members);
+            }
+            else if (members.nameIs(EventTimestamps.OCCURRED)) {
+                occurredMillis = members.timestampValue();
+            }
+            else if (members.nameIs(DEVICE) && members.isObject()) {
+                JsonMembers device = members.members();
+                while (device.next()) {
+                    if (device.nameIs(CHANNEL)) {
+                        mark(CHANNEL_INDEX, device);
+                    }
+                    else if (device.nameIs(DEVICE_TYPE)) {
+                        mark(DEVICE_TYPE_INDEX, device);
+                    }
+                }
+            }
+            else if (members.nameIs(BODY) && members.isObject() && bodyFieldKeys.length > 0) {
+                JsonMembers body = members.members();
+                while (body.next()) {
+                    for (int i = 0; i < bodyFieldKeys.length; i++) {
+                        if (body.nameIs(bodyFieldKeys[i])) {
+                            mark(BODY_FIELDS + i, body);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        add(offsets, bytes, OFFSET_INDEX);
+        occurred.add(occurredMillis, occurredMillis != EventTimestamps.ABSENT);
+        add(types, bytes, TYPE);
+        add(channels, bytes, CHANNEL_INDEX);
+        add(deviceTypes, bytes, DEVICE_TYPE_INDEX);
+        for (int i = 0; i < bodyFields.length; i++) {
+            add(bodyFields[i], bytes, BODY_FIELDS + i);
+        }
+    }
+
+    private void mark(int column, JsonMembers members) {
+        valueStarts[column] = members.isNull() ? -1 : members.valueStart();
+        valueEnds[column] = members.valueEnd();
+        decoded[column] = members.isString() && !members.isPlainString()
+                ? members.stringValue().getBytes(StandardCharsets.UTF_8)
+                : null;
+    }
+
+    // Strings are added without their quotes, other values as their JSON text
+    private void add(StringColumn column, byte[] bytes, int index) {
+        int start = valueStarts[index];
+        if (start < 0) {
+            column.addNull();
+            return;
+        }
+
+        int end = valueEnds[index];
+        if (bytes[start] != '"') {
+            column.add(bytes, start, end - start);
+            return;
+        }
+
+        if (decoded[index] != null) {
+            column.add(decoded[index], 0, decoded[index].length);
+        }
+        else {
+            column.add(bytes, start + 1, end - start - 2);
+        }
+    }
+
+    /**
+     * Empties the batch so it can be filled again, keeping its buffers.
+     */
+    public void clear() {
+        offsets.clear();
+        occurred.clear();
+        types.clear();
+        channels.clear();
+        deviceTypes.clear();
+        for (StringColumn column : bodyFields) {
+            column.clear();
+        }
+    }
+
+    public int getRowCount() {
+        return offsets.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return getRowCount() == capacity;
+    }
+
+    /**
+     * @return each event's offset, exactly as given in the event, as offsets are decimals of any length.
+     */
+    public StringColumn getOffsets() {
+        return offsets;
+    }
+
+    public StringColumn getTypes() {
+        return types;
+    }
+
+    /**
+     * @return when each event occurred, in milliseconds since the epoch.
+     */
+    public LongColumn getOccurred() {
+        return occurred;
+    }
+
+    public StringColumn getChannels() {
+        return channels;
+    }
+
+    public StringColumn getDeviceTypes() {
+        return deviceTypes;
+    }
+
+    /**
+     * @return the names of the body fields, in the order of their columns.
+     */
+    public ImmutableList<String> getBodyFieldNames() {
+        return bodyFieldNames;
+    }
+
+    /**
+     * @param name one of {@link #getBodyFieldNames()}.
+     * @return the field's value in each event. Values that aren't strings are given as JSON.
+     * @throws IllegalArgumentException if the batch doesn't hold the field.
+     */
+    public StringColumn getBodyField(String name) {
+        int index = bodyFieldNames.indexOf(name);
+        Preconditions.checkArgument(index >= 0, "Batch has no body field " + name);
+        return bodyFields[index];
+    }
+
+    public static final class Builder {
+
+        private int capacity = 4096;
+        private ImmutableList<String> bodyFields = ImmutableList.of();
+        private int initialBodyFieldBytes = 32;
+
+        private Builder() { }
+
+        /**
+         * @param capacity number of events the batch holds. Defaults to 4096.
+         */
+        public Builder setCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param bodyFields names of the top level fields of the event body to give a column each.
+         */
+        public Builder setBodyFields(Iterable<String> bodyFields) {
+            this.bodyFields = ImmutableList.copyOf(bodyFields);
+            return this;
+        }
+
+        public Builder setBodyFields(String... bodyFields) {
+            return setBodyFields(ImmutableList.copyOf(bodyFields));
+        }
+
+        /**
+         * @param bytes expected size of a body field's value, which sets the initial size of its buffer. The buffer
+         *              grows as needed. Defaults to 32.
+         */
+        public Builder setInitialBodyFieldBytes(int bytes) {
+            this.initialBodyFieldBytes = bytes;
+            return this;
+        }
+
+        public EventBatch build() {
+            Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 24, "Capacity must be > 0 and <= 2^24");
+            Preconditions.checkArgument(initialBodyFieldBytes > 0, "Initial body field bytes must be > 0");
+            Preconditions.checkArgument(ImmutableSet.copyOf(bodyFields).size() == bodyFields.size(), "Body fields must be distinct");
+
+            return new EventBatch(capacity, bodyFields, (int) Math.min((long) capacity * initialBodyFieldBytes, Integer.MAX_VALUE - 8));
+        }
+    }
+}
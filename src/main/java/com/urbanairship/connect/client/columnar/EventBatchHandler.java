@@ -0,0 +1,23 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import java.io.IOException;
+
+/**
+ * Receives full batches of events from a {@link com.urbanairship.connect.client.sink.ColumnarBatchSink}.
+ */
+public interface EventBatchHandler {
+
+    /**
+     * Handles a batch, for instance by writing it to a columnar file. The batch is cleared and refilled once the call
+     * returns, so its contents must be copied if they are needed afterwards.
+     *
+     * @param batch the batch, holding at least one event.
+     * @throws IOException if the batch could not be handled, in which case the sink fails.
+     */
+    void handle(EventBatch batch) throws IOException;
+
+}
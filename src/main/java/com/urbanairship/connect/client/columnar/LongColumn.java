@@ -0,0 +1,66 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A column of 64 bit integers held off heap, laid out as an Arrow fixed width vector: a buffer of values in native
+ * byte order and a validity bitmap. The value of a null row is 0.
+ */
+public final class LongColumn {
+
+    private final ByteBuffer values;
+    private final Validity validity;
+    private int size = 0;
+
+    LongColumn(int capacity) {
+        this.values = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+        this.validity = new Validity(capacity);
+    }
+
+    void add(long value, boolean valid) {
+        values.putLong(size * 8, valid ? value : 0L);
+        validity.set(size, valid);
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int row) {
+        Preconditions.checkElementIndex(row, size);
+        return !validity.isValid(row);
+    }
+
+    public long get(int row) {
+        Preconditions.checkElementIndex(row, size);
+        return values.getLong(row * 8);
+    }
+
+    /**
+     * @return a read only view of the values, 8 bytes per row in native byte order.
+     */
+    public ByteBuffer getValueBuffer() {
+        ByteBuffer view = values.duplicate();
+        view.clear().limit(size * 8);
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return a read only view of the validity bitmap.
+     */
+    public ByteBuffer getValidityBuffer() {
+        return validity.view(size);
+    }
+}
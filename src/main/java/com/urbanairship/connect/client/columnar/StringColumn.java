@@ -0,0 +1,125 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A column of UTF-8 strings held off heap, laid out as an Arrow variable width vector: the bytes of every value one
+ * after another, a buffer of 32 bit offsets in native byte order where row {@code i} spans
+ * {@code [offset(i), offset(i + 1))}, and a validity bitmap. A null row is empty.
+ */
+public final class StringColumn {
+
+    private final ByteBuffer offsets;
+    private final Validity validity;
+    private ByteBuffer data;
+    private int size = 0;
+
+    StringColumn(int capacity, int initialDataBytes) {
+        this.offsets = ByteBuffer.allocateDirect((capacity + 1) * 4).order(ByteOrder.nativeOrder());
+        this.validity = new Validity(capacity);
+        this.data = ByteBuffer.allocateDirect(initialDataBytes);
+        offsets.putInt(0, 0);
+    }
+
+    void add(byte[] bytes, int offset, int length) {
+        int start = offsets.getInt(size * 4);
+        ensureData(start + length);
+
+        ByteBuffer target = data.duplicate();
+        target.position(start);
+        target.put(bytes, offset, length);
+
+        offsets.putInt((size + 1) * 4, start + length);
+        validity.set(size, true);
+        size++;
+    }
+
+    void addNull() {
+        offsets.putInt((size + 1) * 4, offsets.getInt(size * 4));
+        validity.set(size, false);
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private void ensureData(int required) {
+        if (required <= data.capacity()) {
+            return;
+        }
+
+        // Kept across batches, so this only happens until the column has seen its largest batch
+        ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(Math.max(2L * data.capacity(), required), Integer.MAX_VALUE - 8));
+        ByteBuffer used = data.duplicate();
+        used.clear().limit(offsets.getInt(size * 4));
+        larger.put(used);
+        data = larger;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int row) {
+        Preconditions.checkElementIndex(row, size);
+        return !validity.isValid(row);
+    }
+
+    /**
+     * @return the value of the row, or null.
+     */
+    public String getString(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+
+        ByteBuffer value = getBytes(row);
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a read only view of the UTF-8 bytes of the row, without copying them.
+     */
+    public ByteBuffer getBytes(int row) {
+        Preconditions.checkElementIndex(row, size);
+        ByteBuffer view = data.duplicate();
+        view.clear().limit(offsets.getInt((row + 1) * 4)).position(offsets.getInt(row * 4));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read only view of the offsets, {@code size() + 1} 32 bit integers in native byte order.
+     */
+    public ByteBuffer getOffsetBuffer() {
+        ByteBuffer view = offsets.duplicate();
+        view.clear().limit((size + 1) * 4);
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return a read only view of the bytes of every row.
+     */
+    public ByteBuffer getDataBuffer() {
+        ByteBuffer view = data.duplicate();
+        view.clear().limit(offsets.getInt(size * 4));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read only view of the validity bitmap.
+     */
+    public ByteBuffer getValidityBuffer() {
+        return validity.view(size);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A column's validity bitmap, one bit per row set when the row holds a value, least significant bit first.
+ */
+final class Validity {
+
+    private final ByteBuffer bits;
+
+    Validity(int capacity) {
+        this.bits = ByteBuffer.allocateDirect((capacity + 7) / 8);
+    }
+
+    void set(int row, boolean valid) {
+        int index = row >>> 3;
+        int mask = 1 << (row & 7);
+        byte current = bits.get(index);
+        bits.put(index, (byte) (valid ? current | mask : current & ~mask));
+    }
+
+    boolean isValid(int row) {
+        return (bits.get(row >>> 3) & (1 << (row & 7))) != 0;
+    }
+
+    ByteBuffer view(int rows) {
+        ByteBuffer view = bits.duplicate();
+        view.clear().limit((rows + 7) / 8);
+        return view.slice().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guards connection attempts to the Airship Real-Time Data Streaming endpoint. The breaker outlives any single
+ * connection, so consecutive failures are counted across reconnects and can optionally be shared by several streams.
+ *
+ * <ul>
+ *     <li>CLOSED - attempts are permitted. After the configured number of consecutive failures the breaker opens.</li>
+ *     <li>OPEN - attempts are refused until the open duration has elapsed.</li>
+ *     <li>HALF_OPEN - a single probe attempt has been permitted. Its success closes the breaker, its failure opens it
+ *     again. Other attempts are refused while the probe is outstanding.</li>
+ * </ul>
+ */
+public final class ConnectionCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long transitionNanos;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private ConnectionCircuitBreaker(int failureThreshold, long openNanos, Ticker ticker) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.ticker = ticker;
+        this.transitionNanos = ticker.read();
+    }
+
+    /**
+     * Asks permission to make a connection attempt. Every permitted attempt must be followed by a call to one of
+     * {@link #recordSuccess()}, {@link #recordFailure()} or {@link #release()}.
+     *
+     * @return true if the attempt may be made.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        // Applies to HALF_OPEN as well so a probe that never reported back can't keep the breaker half open forever
+        if (elapsedNanos() < openNanos) {
+            return false;
+        }
+
+        transition(State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * @return the number of milliseconds until an attempt may next be permitted, 0 if one may be permitted now.
+     */
+    public synchronized long getRetryAfterMillis() {
+        if (state == State.CLOSED) {
+            return 0L;
+        }
+
+        return Math.max(0L, TimeUnit.NANOSECONDS.toMillis(openNanos - elapsedNanos()));
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Gives back a permitted attempt that was abandoned without an outcome, for instance because the connection was
+     * closed. An outstanding probe is released so that another can be made immediately.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            transitionNanos = ticker.read() - openNanos;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    private long elapsedNanos() {
+        return ticker.read() - transitionNanos;
+    }
+
+    private void transition(State newState) {
+        state = newState;
+        transitionNanos = ticker.read();
+    }
+
+    public static final class Builder {
+
+        private int failureThreshold = 5;
+        private long openNanos = TimeUnit.SECONDS.toNanos(30L);
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() { }
+
+        /**
+         * @param failureThreshold consecutive failed attempts after which the breaker opens. Defaults to 5.
+         */
+        public Builder setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * @param duration how long the breaker stays open before permitting a probe. Defaults to 30 seconds.
+         */
+        public Builder setOpenDuration(long duration, TimeUnit unit) {
+            this.openNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public ConnectionCircuitBreaker build() {
+            Preconditions.checkArgument(failureThreshold > 0, "Failure threshold must be > 0");
+            Preconditions.checkArgument(openNanos > 0, "Open duration must be > 0");
+
+            return new ConnectionCircuitBreaker(failureThreshold, openNanos, ticker);
+        }
+    }
+}
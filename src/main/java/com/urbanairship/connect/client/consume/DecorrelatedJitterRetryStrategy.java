@@ -0,0 +1,122 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link ConnectionRetryStrategy} that pauses using "decorrelated jitter", where each pause is drawn
+ * at random between the base interval and three times the previous pause, capped at a maximum. Compared to
+ * {@link BackoffConnectionRetryStrategy} this spreads the retries of streams that failed at the same moment much more
+ * widely.
+ *
+ * The strategy holds no per-connection state, so a single instance can be shared by many streams. The pause for a given
+ * attempt is produced by walking the jitter sequence from the first attempt, which gives each pause the same distribution
+ * as a stateful implementation would.
+ *
+ * Optionally a {@link RetryBudget} shared between streams bounds the overall rate of retries. When the budget is in
+ * debt the pause is extended until the retry's token is available.
+ */
+public final class DecorrelatedJitterRetryStrategy implements ConnectionRetryStrategy {
+
+    private final int maxAttempts;
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Optional<RetryBudget> budget;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private DecorrelatedJitterRetryStrategy(int maxAttempts, long baseMillis, long maxMillis, Optional<RetryBudget> budget) {
+        this.maxAttempts = maxAttempts;
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean shouldRetry(int previousAttempts) {
+        return previousAttempts < maxAttempts;
+    }
+
+    @Override
+    public long getPauseMillis(int previousAttempts) {
+        if (previousAttempts <= 0) {
+            return 0L;
+        }
+
+        long pause = jitter(previousAttempts);
+        if (budget.isPresent()) {
+            pause = Math.max(pause, budget.get().reserve());
+        }
+
+        return pause;
+    }
+
+    private long jitter(int previousAttempts) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long pause = baseMillis;
+        for (int i = 0; i < previousAttempts && pause < maxMillis; i++) {
+            long upper = Math.min(maxMillis, pause * 3L);
+            pause = upper > baseMillis ? random.nextLong(baseMillis, upper + 1L) : baseMillis;
+        }
+
+        return Math.min(pause, maxMillis);
+    }
+
+    public static final class Builder {
+
+        private int maxAttempts = -1;
+        private long baseMillis = -1L;
+        private long maxMillis = -1L;
+        private RetryBudget budget = null;
+
+        private Builder() { }
+
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param base the minimum pause between attempts.
+         */
+        public Builder setBase(long base, TimeUnit unit) {
+            this.baseMillis = unit.toMillis(base);
+            return this;
+        }
+
+        /**
+         * @param max the maximum pause between attempts, not counting any wait imposed by a retry budget.
+         */
+        public Builder setMax(long max, TimeUnit unit) {
+            this.maxMillis = unit.toMillis(max);
+            return this;
+        }
+
+        /**
+         * Optionally limit retries by a budget. To bound retries across streams the same budget instance should be used
+         * by each of their strategies.
+         */
+        public Builder setRetryBudget(RetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        public ConnectionRetryStrategy build() {
+            Preconditions.checkArgument(maxAttempts > 0, "Max attempts must be > 0");
+            Preconditions.checkArgument(baseMillis > 0, "Base must be > 0");
+            Preconditions.checkArgument(maxMillis >= baseMillis, "Max must be >= base");
+
+            return new DecorrelatedJitterRetryStrategy(maxAttempts, baseMillis, maxMillis, Optional.fromNullable(budget));
+        }
+    }
+}
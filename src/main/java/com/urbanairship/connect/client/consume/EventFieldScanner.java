@@ -0,0 +1,306 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Locates top level fields in the raw UTF-8 bytes of a single event without building a parse tree. Only the bytes
+ * up to the requested field are examined and nested objects/arrays are skipped over, so keys of the same name inside
+ * an event body are never matched.
+ *
+ * The scanner assumes well formed JSON and makes no attempt to validate the event.
+ */
+public final class EventFieldScanner {
+
+    public static final byte[] OFFSET = key("offset");
+    public static final byte[] TYPE = key("type");
+
+    private static final byte[] OFFSET_UPDATE = "OFFSET_UPDATE".getBytes(StandardCharsets.UTF_8);
+
+    private EventFieldScanner() { }
+
+    /**
+     * Converts a field name to the form expected by the scanning methods.
+     *
+     * @param name the field name
+     * @return field name bytes
+     */
+    public static byte[] key(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the start of the value of the given top level field.
+     *
+     * @param bytes buffer holding the event
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @param key field name, as produced by {@link #key(String)}
+     * @return index of the first byte of the value (the opening quote for string values) or -1 if the field is absent
+     */
+    public static int valueStart(byte[] bytes, int offset, int length, byte[] key) {
+        int end = offset + length;
+        int depth = 0;
+        boolean expectKey = false;
+
+        int i = offset;
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '"') {
+                int close = stringEnd(bytes, i, end);
+                if (close < 0) {
+                    return -1;
+                }
+
+                if (depth == 1 && expectKey) {
+                    expectKey = false;
+                    if (regionEquals(bytes, i + 1, close - i - 1, key)) {
+                        int value = skipWhitespace(bytes, close + 1, end);
+                        if (value < end && bytes[value] == ':') {
+                            value = skipWhitespace(bytes, value + 1, end);
+                            return value < end ? value : -1;
+                        }
+                        return -1;
+                    }
+                }
+
+                i = close + 1;
+                continue;
+            }
+
+            if (b == '{' || b == '[') {
+                depth++;
+                expectKey = (b == '{' && depth == 1);
+            }
+            else if (b == '}' || b == ']') {
+                depth--;
+            }
+            else if (b == ',' && depth == 1) {
+                expectKey = true;
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the value of a top level field holding a string or number.
+     *
+     * @return the value with surrounding quotes removed, or null if the field is absent or is not a scalar.
+     */
+    public static String scalar(byte[] bytes, int offset, int length, byte[] key) {
+        int end = offset + length;
+        int start = valueStart(bytes, offset, length, key);
+        if (start < 0) {
+            return null;
+        }
+
+        if (bytes[start] == '"') {
+            int close = stringEnd(bytes, start, end);
+            return close < 0 ? null : new String(bytes, start + 1, close - start - 1, StandardCharsets.UTF_8);
+        }
+
+        int i = start;
+        while (i < end && bytes[i] != ',' && bytes[i] != '}' && bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r') {
+            if (bytes[i] == '{' || bytes[i] == '[') {
+                return null;
+            }
+            i++;
+        }
+
+        return i > start ? new String(bytes, start, i - start, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Determines whether the top level field holds a string exactly equal to the expected bytes. No strings are
+     * materialized when making the comparison.
+     */
+    public static boolean stringEquals(byte[] bytes, int offset, int length, byte[] key, byte[] expected) {
+        int start = valueStart(bytes, offset, length, key);
+        if (start < 0 || bytes[start] != '"') {
+            return false;
+        }
+
+        int close = stringEnd(bytes, start, offset + length);
+        return close >= 0 && regionEquals(bytes, start + 1, close - start - 1, expected);
+    }
+
+    /**
+     * Determines whether the event is an OFFSET_UPDATE record, which carries a position in the stream but no activity.
+     */
+    public static boolean isOffsetUpdate(byte[] bytes, int offset, int length) {
+        return stringEquals(bytes, offset, length, TYPE, OFFSET_UPDATE);
+    }
+
+    /**
+     * Index of the closing quote of the string that opens at {@code quote}, or -1 if it is not terminated before end.
+     */
+    static int stringEnd(byte[] bytes, int quote, int end) {
+        int i = quote + 1;
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '\\') {
+                i += 2;
+                continue;
+            }
+            if (b == '"') {
+                return i;
+            }
+            i++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Index just past the value that starts at {@code start}, nested objects and arrays included, or -1 if it is not
+     * complete before end.
+     */
+    static int valueEnd(byte[] bytes, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+
+        if (bytes[start] == '"') {
+            int close = stringEnd(bytes, start, end);
+            return close < 0 ? -1 : close + 1;
+        }
+
+        if (bytes[start] != '{' && bytes[start] != '[') {
+            int i = start;
+            while (i < end && bytes[i] != ',' && bytes[i] != '}' && bytes[i] != ']'
+                    && bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r' && bytes[i] != '\n') {
+                i++;
+            }
+            return i > start ? i : -1;
+        }
+
+        int depth = 0;
+        int i = start;
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '"') {
+                int close = stringEnd(bytes, i, end);
+                if (close < 0) {
+                    return -1;
+                }
+                i = close + 1;
+                continue;
+            }
+
+            if (b == '{' || b == '[') {
+                depth++;
+            }
+            else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decodes the string between the quote at {@code quote} and the closing quote at {@code close}, resolving escapes.
+     */
+    static String decodeString(byte[] bytes, int quote, int close) {
+        int start = quote + 1;
+        if (!hasEscape(bytes, start, close)) {
+            return new String(bytes, start, close - start, StandardCharsets.UTF_8);
+        }
+
+        StringBuilder decoded = new StringBuilder(close - start);
+        int runStart = start;
+        int i = start;
+        while (i < close) {
+            if (bytes[i] != '\\') {
+                i++;
+                continue;
+            }
+
+            decoded.append(new String(bytes, runStart, i - runStart, StandardCharsets.UTF_8));
+            char escaped = i + 1 < close ? (char) bytes[i + 1] : '\\';
+            switch (escaped) {
+                case 'b': decoded.append('\b'); break;
+                case 'f': decoded.append('\f'); break;
+                case 'n': decoded.append('\n'); break;
+                case 'r': decoded.append('\r'); break;
+                case 't': decoded.append('\t'); break;
+                case 'u':
+                    if (i + 6 <= close) {
+                        decoded.append((char) Integer.parseInt(new String(bytes, i + 2, 4, StandardCharsets.US_ASCII), 16));
+                        i += 4;
+                    }
+                    break;
+                default: decoded.append(escaped);
+            }
+            i += 2;
+            runStart = i;
+        }
+        decoded.append(new String(bytes, runStart, close - runStart, StandardCharsets.UTF_8));
+
+        return decoded.toString();
+    }
+
+    /**
+     * Reads the value from {@code start} to {@code stop} as a decimal integer, given either as a number or a string.
+     *
+     * @param absent returned if the value is not a decimal integer that fits in a long.
+     */
+    static long decimal(byte[] bytes, int start, int stop, long absent) {
+        if (bytes[start] == '"') {
+            start++;
+            stop--;
+        }
+        if (start >= stop || stop - start > 18) {
+            return absent;
+        }
+
+        long value = 0L;
+        for (int i = start; i < stop; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return absent;
+            }
+            value = value * 10L + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    static boolean hasEscape(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int skipWhitespace(byte[] bytes, int i, int end) {
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    static boolean regionEquals(byte[] bytes, int start, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] != expected[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
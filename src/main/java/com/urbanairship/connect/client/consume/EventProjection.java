@@ -0,0 +1,216 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonParseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks a fixed set of fields out of events, for consumers that need only a few of them, such as {@code type},
+ * {@code occurred}, {@code device.channel} and {@code body.push_id}. The paths are compiled once into a tree of member
+ * names, and each event is read in a single pass over its bytes that only steps into the objects on the way to one of
+ * the paths, without building a parse tree. The values found are copied into a {@link ProjectedEvent} with a slot for
+ * each path, and the pass stops as soon as every path has been found.
+ *
+ * A path is a list of member names separated by dots, each name compared with the raw bytes of the event's member
+ * names. Values that are objects or arrays are kept as their JSON text; paths can't reach into arrays. If an event has
+ * the same member more than once the first is kept. Only as much of an event is validated as is read.
+ *
+ * A projection is immutable and may be used from several threads at once, each projecting into its own record.
+ */
+public final class EventProjection {
+
+    private static final Splitter PATH_SPLITTER = Splitter.on('.');
+
+    private final ImmutableList<String> paths;
+    private final Node root;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private EventProjection(ImmutableList<String> paths) {
+        this.paths = paths;
+        this.root = new Node(null);
+        for (int slot = 0; slot < paths.size(); slot++) {
+            Node node = root;
+            for (String name : PATH_SPLITTER.split(paths.get(slot))) {
+                node = node.child(EventFieldScanner.key(name));
+            }
+            node.slot = slot;
+        }
+    }
+
+    /**
+     * @return the paths, in slot order.
+     */
+    public ImmutableList<String> getPaths() {
+        return paths;
+    }
+
+    public int getSlotCount() {
+        return paths.size();
+    }
+
+    /**
+     * @param path one of {@link #getPaths()}.
+     * @return the slot holding the path's value.
+     * @throws IllegalArgumentException if the path is not one of the projection's.
+     */
+    public int getSlot(String path) {
+        int slot = paths.indexOf(path);
+        Preconditions.checkArgument(slot >= 0, "Projection has no path " + path);
+        return slot;
+    }
+
+    /**
+     * @return an empty record to project events into.
+     */
+    public ProjectedEvent newEvent() {
+        return new ProjectedEvent(this);
+    }
+
+    /**
+     * @param event a single event.
+     * @return a new record holding the event's values.
+     * @throws JsonParseException if the event is not a JSON object.
+     */
+    public ProjectedEvent project(String event) {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        return project(bytes, 0, bytes.length, newEvent());
+    }
+
+    /**
+     * @param bytes buffer holding the event, for instance as handed to a {@link RawEventConsumer}.
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @return a new record holding the event's values.
+     * @throws JsonParseException if the event is not a JSON object.
+     */
+    public ProjectedEvent project(byte[] bytes, int offset, int length) {
+        return project(bytes, offset, length, newEvent());
+    }
+
+    /**
+     * Projects an event into an existing record, replacing the values it held, so that many events can be read
+     * without allocating a record for each.
+     *
+     * @param bytes buffer holding the event
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @param into a record from {@link #newEvent()}.
+     * @return the record.
+     * @throws JsonParseException if the event is not a JSON object.
+     */
+    public ProjectedEvent project(byte[] bytes, int offset, int length, ProjectedEvent into) {
+        Preconditions.checkArgument(into.getProjection() == this, "Record belongs to a different projection");
+
+        into.clear();
+        project(new JsonMembers(bytes, offset, length), root, into);
+        return into;
+    }
+
+    // Returns true once every path has been found, so the rest of the event need not be read
+    private boolean project(JsonMembers members, Node node, ProjectedEvent into) {
+        while (members.next()) {
+            Node child = node.find(members);
+            if (child == null) {
+                continue;
+            }
+
+            if (child.slot >= 0) {
+                if (members.isNull()) {
+                    into.setNull(child.slot);
+                }
+                else {
+                    into.set(child.slot, members.getBytes(), members.valueStart(), members.valueEnd());
+                }
+            }
+
+            if (child.children.size() > 0 && members.isObject() && project(members.members(), child, into)) {
+                return true;
+            }
+
+            if (into.getResolvedCount() == paths.size()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static final class Node {
+
+        private final byte[] name;
+        private final List<Node> children = new ArrayList<>();
+        private int slot = -1;
+
+        private Node(byte[] name) {
+            this.name = name;
+        }
+
+        private Node child(byte[] name) {
+            for (Node child : children) {
+                if (EventFieldScanner.regionEquals(name, 0, name.length, child.name)) {
+                    return child;
+                }
+            }
+
+            Node child = new Node(name);
+            children.add(child);
+            return child;
+        }
+
+        private Node find(JsonMembers members) {
+            for (int i = 0; i < children.size(); i++) {
+                Node child = children.get(i);
+                if (members.nameIs(child.name)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final class Builder {
+
+        private final ImmutableList.Builder<String> paths = ImmutableList.builder();
+
+        private Builder() { }
+
+        /**
+         * @param paths paths of the fields to pick out, such as {@code device.channel}.
+         */
+        public Builder addPaths(String... paths) {
+            this.paths.add(paths);
+            return this;
+        }
+
+        public Builder addPaths(Iterable<String> paths) {
+            this.paths.addAll(paths);
+            return this;
+        }
+
+        public EventProjection build() {
+            ImmutableList<String> paths = this.paths.build();
+            Preconditions.checkArgument(!paths.isEmpty(), "At least one path must be added");
+            for (String path : paths) {
+                for (String name : PATH_SPLITTER.split(path)) {
+                    Preconditions.checkArgument(!name.isEmpty(), "Path " + path + " has an empty member name");
+                }
+            }
+            Preconditions.checkArgument(paths.size() == ImmutableSet.copyOf(paths).size(), "Paths must not repeat");
+
+            return new EventProjection(paths);
+        }
+    }
+}
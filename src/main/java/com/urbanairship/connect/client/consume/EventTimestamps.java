@@ -0,0 +1,134 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+/**
+ * Reads the ISO-8601 timestamps carried by every event, such as {@code "processed": "2015-05-05T12:00:00.000Z"},
+ * directly from the raw UTF-8 bytes of the event. Nothing is allocated and the event is only scanned as far as the
+ * requested field.
+ */
+public final class EventTimestamps {
+
+    public static final byte[] OCCURRED = EventFieldScanner.key("occurred");
+    public static final byte[] PROCESSED = EventFieldScanner.key("processed");
+
+    /**
+     * Returned when the field is absent or does not hold a timestamp that could be read.
+     */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_MINUTE = 60L * 1000L;
+    private static final long MILLIS_PER_DAY = 24L * 60L * MILLIS_PER_MINUTE;
+
+    private EventTimestamps() { }
+
+    /**
+     * Reads the value of a top level timestamp field.
+     *
+     * @param bytes buffer holding the event
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @param key field name, for instance {@link #PROCESSED}
+     * @return the timestamp in milliseconds since the epoch, or {@link #ABSENT}
+     */
+    public static long epochMillis(byte[] bytes, int offset, int length, byte[] key) {
+        int start = EventFieldScanner.valueStart(bytes, offset, length, key);
+        if (start < 0 || bytes[start] != '"') {
+            return ABSENT;
+        }
+
+        return parse(bytes, start + 1, offset + length);
+    }
+
+    /**
+     * Parses {@code yyyy-MM-ddTHH:mm:ss[.fraction][Z|+HH:MM|-HH:MM]} up to the closing quote. A timestamp without a
+     * zone is taken to be UTC.
+     */
+    static long parse(byte[] b, int i, int end) {
+        if (end - i < 19
+                || b[i + 4] != '-' || b[i + 7] != '-' || b[i + 10] != 'T' || b[i + 13] != ':' || b[i + 16] != ':') {
+            return ABSENT;
+        }
+
+        int year = digits(b, i, 4);
+        int month = digits(b, i + 5, 2);
+        int day = digits(b, i + 8, 2);
+        int hour = digits(b, i + 11, 2);
+        int minute = digits(b, i + 14, 2);
+        int second = digits(b, i + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return ABSENT;
+        }
+        i += 19;
+
+        int millis = 0;
+        if (i < end && b[i] == '.') {
+            i++;
+            int start = i;
+            int scale = 100;
+            while (i < end && isDigit(b[i])) {
+                millis += (b[i] - '0') * scale;
+                scale /= 10;
+                i++;
+            }
+            if (i == start) {
+                return ABSENT;
+            }
+        }
+
+        long zoneMillis = 0L;
+        if (i < end && b[i] == 'Z') {
+            i++;
+        }
+        else if (i < end && (b[i] == '+' || b[i] == '-')) {
+            if (end - i < 6 || b[i + 3] != ':') {
+                return ABSENT;
+            }
+            int zoneHours = digits(b, i + 1, 2);
+            int zoneMinutes = digits(b, i + 4, 2);
+            if (zoneHours < 0 || zoneMinutes < 0) {
+                return ABSENT;
+            }
+            zoneMillis = (zoneHours * 60L + zoneMinutes) * MILLIS_PER_MINUTE;
+            if (b[i] == '-') {
+                zoneMillis = -zoneMillis;
+            }
+            i += 6;
+        }
+
+        if (i >= end || b[i] != '"') {
+            return ABSENT;
+        }
+
+        long timeOfDay = ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + timeOfDay - zoneMillis;
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    private static int digits(byte[] b, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (!isDigit(b[i])) {
+                return -1;
+            }
+            value = value * 10 + (b[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
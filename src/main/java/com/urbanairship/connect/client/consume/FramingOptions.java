@@ -0,0 +1,140 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * What a {@link MobileEventStreamBodyConsumer} does with framed lines besides decoding them and handing them to its
+ * event handler: the listeners that take lines as raw bytes, take OFFSET_UPDATE records apart from the rest, observe
+ * lines or partial lines, or take lines longer than the maximum line size.
+ *
+ * The options are given alongside the event handler rather than found on it, so wrapping the handler, for instance in a
+ * custom {@link com.urbanairship.connect.client.StreamConnection}, doesn't lose any of them.
+ */
+public final class FramingOptions {
+
+    private static final FramingOptions DEFAULTS = newBuilder().build();
+
+    private final Optional<OffsetUpdateConsumer> offsetUpdateConsumer;
+    private final Optional<RawEventObserver> rawEventObserver;
+    private final Optional<RawEventConsumer> rawEventConsumer;
+    private final Optional<PartialLineObserver> partialLineObserver;
+    private final Optional<OversizedLineConsumer> oversizedLineConsumer;
+    private final int maxLineBytes;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return options with no listeners and the default maximum line size.
+     */
+    public static FramingOptions defaults() {
+        return DEFAULTS;
+    }
+
+    private FramingOptions(Builder builder) {
+        this.offsetUpdateConsumer = Optional.fromNullable(builder.offsetUpdateConsumer);
+        this.rawEventObserver = Optional.fromNullable(builder.rawEventObserver);
+        this.rawEventConsumer = Optional.fromNullable(builder.rawEventConsumer);
+        this.partialLineObserver = Optional.fromNullable(builder.partialLineObserver);
+        this.oversizedLineConsumer = Optional.fromNullable(builder.oversizedLineConsumer);
+        this.maxLineBytes = builder.maxLineBytes;
+    }
+
+    public Optional<OffsetUpdateConsumer> getOffsetUpdateConsumer() {
+        return offsetUpdateConsumer;
+    }
+
+    public Optional<RawEventObserver> getRawEventObserver() {
+        return rawEventObserver;
+    }
+
+    public Optional<RawEventConsumer> getRawEventConsumer() {
+        return rawEventConsumer;
+    }
+
+    public Optional<PartialLineObserver> getPartialLineObserver() {
+        return partialLineObserver;
+    }
+
+    public Optional<OversizedLineConsumer> getOversizedLineConsumer() {
+        return oversizedLineConsumer;
+    }
+
+    public int getMaxLineBytes() {
+        return maxLineBytes;
+    }
+
+    public static final class Builder {
+
+        private OffsetUpdateConsumer offsetUpdateConsumer = null;
+        private RawEventObserver rawEventObserver = null;
+        private RawEventConsumer rawEventConsumer = null;
+        private PartialLineObserver partialLineObserver = null;
+        private OversizedLineConsumer oversizedLineConsumer = null;
+        private int maxLineBytes = MobileEventStreamBodyConsumer.DEFAULT_MAX_LINE_BYTES;
+
+        private Builder() { }
+
+        /**
+         * Diverts OFFSET_UPDATE records to the given consumer, see {@link OffsetUpdateConsumer}.
+         */
+        public Builder setOffsetUpdateConsumer(OffsetUpdateConsumer offsetUpdateConsumer) {
+            this.offsetUpdateConsumer = offsetUpdateConsumer;
+            return this;
+        }
+
+        /**
+         * Shows every line to the given observer before it is handed out, see {@link RawEventObserver}.
+         */
+        public Builder setRawEventObserver(RawEventObserver rawEventObserver) {
+            this.rawEventObserver = rawEventObserver;
+            return this;
+        }
+
+        /**
+         * Hands lines to the given consumer as raw bytes in place of the event handler, see {@link RawEventConsumer}.
+         */
+        public Builder setRawEventConsumer(RawEventConsumer rawEventConsumer) {
+            this.rawEventConsumer = rawEventConsumer;
+            return this;
+        }
+
+        /**
+         * Tells the given observer the size of the partial line held between body parts, see
+         * {@link PartialLineObserver}.
+         */
+        public Builder setPartialLineObserver(PartialLineObserver partialLineObserver) {
+            this.partialLineObserver = partialLineObserver;
+            return this;
+        }
+
+        /**
+         * Hands lines longer than the maximum line size to the given consumer in parts, in place of them being
+         * skipped, see {@link OversizedLineConsumer}.
+         */
+        public Builder setOversizedLineConsumer(OversizedLineConsumer oversizedLineConsumer) {
+            this.oversizedLineConsumer = oversizedLineConsumer;
+            return this;
+        }
+
+        /**
+         * @param maxLineBytes size beyond which a line is not buffered but is oversized. Defaults to
+         *                     {@link MobileEventStreamBodyConsumer#DEFAULT_MAX_LINE_BYTES}.
+         */
+        public Builder setMaxLineBytes(int maxLineBytes) {
+            this.maxLineBytes = maxLineBytes;
+            return this;
+        }
+
+        public FramingOptions build() {
+            Preconditions.checkArgument(maxLineBytes > 0, "Max line bytes must be > 0");
+            return new FramingOptions(this);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.gson.JsonParseException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Steps through the members of a JSON object held as raw UTF-8 bytes, such as a single event, without building a parse
+ * tree. Each call to {@link #next()} moves to the next member, whose name and value can then be compared and read in
+ * place. Nested objects are stepped through with {@link #members()}; once those have been stepped through to the end,
+ * the next member follows on from where they finished, so the object's bytes are not scanned a second time.
+ *
+ * Only as much of the JSON is validated as is needed to find each member.
+ */
+public final class JsonMembers {
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+    private boolean started = false;
+    // Set once next() has reached the closing brace, where position then is
+    private boolean finished = false;
+
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    // Found when first needed, -1 until then
+    private int valueEnd;
+    // Members of the current value being stepped through, if any
+    private JsonMembers entered;
+
+    /**
+     * @param bytes buffer holding the object
+     * @param offset index of the first byte of the object
+     * @param length number of bytes in the object
+     * @throws JsonParseException if the bytes don't start with an object.
+     */
+    public JsonMembers(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.end = offset + length;
+
+        int open = EventFieldScanner.skipWhitespace(bytes, offset, end);
+        if (open >= end || bytes[open] != '{') {
+            throw new JsonParseException("Expected an object");
+        }
+        this.position = open + 1;
+    }
+
+    /**
+     * Moves to the next member.
+     *
+     * @return false once there are no more members.
+     * @throws JsonParseException if the object is malformed or incomplete.
+     */
+    public boolean next() {
+        if (started) {
+            position = valueEnd();
+        }
+
+        int i = EventFieldScanner.skipWhitespace(bytes, position, end);
+        if (i < end && bytes[i] == '}') {
+            position = i;
+            finished = true;
+            return false;
+        }
+        if (started) {
+            if (i >= end || bytes[i] != ',') {
+                throw new JsonParseException("Expected ',' or '}' at " + i);
+            }
+            i = EventFieldScanner.skipWhitespace(bytes, i + 1, end);
+        }
+        started = true;
+
+        if (i >= end || bytes[i] != '"') {
+            throw new JsonParseException("Expected a member name at " + i);
+        }
+        int close = EventFieldScanner.stringEnd(bytes, i, end);
+        if (close < 0) {
+            throw new JsonParseException("Unterminated member name at " + i);
+        }
+        nameStart = i + 1;
+        nameEnd = close;
+
+        i = EventFieldScanner.skipWhitespace(bytes, close + 1, end);
+        if (i >= end || bytes[i] != ':') {
+            throw new JsonParseException("Expected ':' at " + i);
+        }
+        valueStart = EventFieldScanner.skipWhitespace(bytes, i + 1, end);
+        if (valueStart >= end) {
+            throw new JsonParseException("Incomplete value at " + valueStart);
+        }
+        valueEnd = -1;
+        entered = null;
+        return true;
+    }
+
+    /**
+     * @param name member name, as produced by {@link EventFieldScanner#key(String)}.
+     * @return whether the current member has the name.
+     */
+    public boolean nameIs(byte[] name) {
+        return EventFieldScanner.regionEquals(bytes, nameStart, nameEnd - nameStart, name);
+    }
+
+    /**
+     * @return the name of the current member.
+     */
+    public String name() {
+        return EventFieldScanner.decodeString(bytes, nameStart - 1, nameEnd);
+    }
+
+    /**
+     * @return the name of the current member, shared through the interner.
+     */
+    public String name(StringInterner interner) {
+        return intern(interner, nameStart - 1, nameEnd);
+    }
+
+    /**
+     * @return index of the first byte of the current member's name, just after its opening quote.
+     */
+    public int nameStart() {
+        return nameStart;
+    }
+
+    /**
+     * @return index of the closing quote of the current member's name.
+     */
+    public int nameEnd() {
+        return nameEnd;
+    }
+
+    /**
+     * @return whether the current member's name has no escapes, so that its UTF-8 bytes can be used as they are from
+     * {@link #nameStart()} to {@link #nameEnd()}.
+     */
+    public boolean isPlainName() {
+        return !EventFieldScanner.hasEscape(bytes, nameStart, nameEnd);
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return index of the first byte of the current value, the opening quote for strings.
+     */
+    public int valueStart() {
+        return valueStart;
+    }
+
+    /**
+     * @return index just past the last byte of the current value, past the closing quote for strings.
+     * @throws JsonParseException if the value is incomplete.
+     */
+    public int valueEnd() {
+        if (valueEnd < 0) {
+            if (entered != null && entered.finished) {
+                valueEnd = entered.position + 1;
+            }
+            else {
+                valueEnd = EventFieldScanner.valueEnd(bytes, valueStart, end);
+            }
+            if (valueEnd < 0) {
+                throw new JsonParseException("Incomplete value at " + valueStart);
+            }
+        }
+        return valueEnd;
+    }
+
+    public boolean isString() {
+        return bytes[valueStart] == '"';
+    }
+
+    /**
+     * @return whether the current value is a string without escapes, whose UTF-8 bytes can be used as they are from
+     * just after {@link #valueStart()} to just before {@link #valueEnd()}.
+     */
+    public boolean isPlainString() {
+        return isString() && !EventFieldScanner.hasEscape(bytes, valueStart + 1, valueEnd() - 1);
+    }
+
+    public boolean isObject() {
+        return bytes[valueStart] == '{';
+    }
+
+    public boolean isNull() {
+        return bytes[valueStart] == 'n';
+    }
+
+    /**
+     * @return the members of the current value, which must be an object.
+     */
+    public JsonMembers members() {
+        entered = new JsonMembers(bytes, valueStart, (valueEnd < 0 ? end : valueEnd) - valueStart);
+        return entered;
+    }
+
+    /**
+     * Reads the current value as a decimal integer, given either as a number or a string.
+     *
+     * @param absent returned if the value is not a decimal integer that fits in a long.
+     */
+    public long longValue(long absent) {
+        return EventFieldScanner.decimal(bytes, valueStart, valueEnd(), absent);
+    }
+
+    /**
+     * Reads the current value as an ISO-8601 timestamp, see {@link EventTimestamps}.
+     *
+     * @return the timestamp in milliseconds since the epoch, or {@link EventTimestamps#ABSENT}.
+     */
+    public long timestampValue() {
+        return isString() ? EventTimestamps.parse(bytes, valueStart + 1, valueEnd()) : EventTimestamps.ABSENT;
+    }
+
+    /**
+     * @return the current value if it is a string, the JSON text of any other value, or null for a null.
+     */
+    public String stringValue() {
+        if (isString()) {
+            return EventFieldScanner.decodeString(bytes, valueStart, valueEnd() - 1);
+        }
+        return isNull() ? null : new String(bytes, valueStart, valueEnd() - valueStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * As {@link #stringValue()}, with the value shared through the interner.
+     */
+    public String stringValue(StringInterner interner) {
+        if (isString()) {
+            return intern(interner, valueStart, valueEnd() - 1);
+        }
+        return isNull() ? null : interner.intern(bytes, valueStart, valueEnd() - valueStart);
+    }
+
+    private String intern(StringInterner interner, int quote, int close) {
+        if (EventFieldScanner.hasEscape(bytes, quote + 1, close)) {
+            return EventFieldScanner.decodeString(bytes, quote, close);
+        }
+        return interner.intern(bytes, quote + 1, close - quote - 1);
+    }
+}
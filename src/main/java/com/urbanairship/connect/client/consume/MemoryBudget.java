@@ -0,0 +1,272 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A limit on the memory taken by events buffered across every stream in the process, so that the heap needed doesn't
+ * grow with the number of streams or the size of their events. A single budget is intended to be shared by every
+ * stream, each of which opens an {@link Account} with it.
+ *
+ * A stream reserves the size of each event before buffering it and releases it once the event has been handed out.
+ * When the budget is used up the reservation waits, which holds up the thread reading the stream's connection and so
+ * stops data being read from its socket until other streams have caught up. The partial line a stream holds between
+ * body parts is charged to its account too, but never waits, as the line can only be completed by reading more.
+ *
+ * A fraction of the budget, half by default, is divided equally between the open accounts as their guaranteed shares,
+ * and the rest is borrowed by whichever accounts need more. A reservation waits unless the budget has room for it on
+ * top of what every other account has yet to use of its share, so reservations never take the memory used beyond the
+ * budget, and borrowing never eats into another account's share. A stream whose events are not being handed out can
+ * so take no more than its share and what is left to borrow, and the other streams still have their shares. An account
+ * opened while others have borrowed gets its share as they release what they borrowed.
+ *
+ * A reservation only waits while other events are buffered, as those are certain to be released as they are handed
+ * out, so an event larger than the whole budget is let through once nothing else is buffered rather than waiting
+ * forever.
+ */
+public final class MemoryBudget {
+
+    // Object header, fields and array header of a String, rounded up
+    private static final long STRING_OVERHEAD = 56L;
+
+    private final long capacityBytes;
+    private final long guaranteedBytes;
+    private final Set<Account> accounts = new LinkedHashSet<>();
+    private long usedBytes = 0L;
+    private long reservedBytes = 0L;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private MemoryBudget(long capacityBytes, long guaranteedBytes) {
+        this.capacityBytes = capacityBytes;
+        this.guaranteedBytes = guaranteedBytes;
+    }
+
+    /**
+     * Estimates the memory taken by a buffered event, at two bytes per character so it is never an underestimate.
+     *
+     * @param event the event.
+     * @return the estimate, in bytes.
+     */
+    public static long sizeOf(String event) {
+        return STRING_OVERHEAD + 2L * event.length();
+    }
+
+    /**
+     * Opens an account through which a stream reserves memory from the budget.
+     *
+     * @param name identifies the stream in {@link #getUsage()}.
+     * @return the account, to be closed when the stream is done with it.
+     */
+    public Account newAccount(String name) {
+        Preconditions.checkNotNull(name, "Name must be set");
+        Account account = new Account(name);
+        synchronized (this) {
+            accounts.add(account);
+        }
+        return account;
+    }
+
+    /**
+     * @return the size of the budget, in bytes.
+     */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * @return the memory currently reserved or held across every account, in bytes. It can exceed the capacity while
+     * partial lines are held or an oversized event is buffered.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the memory currently used by each open account, in bytes, by account name. Accounts sharing a name are
+     * added together.
+     */
+    public synchronized ImmutableMap<String, Long> getUsage() {
+        Map<String, Long> usage = new HashMap<>();
+        for (Account account : accounts) {
+            Long used = usage.get(account.name);
+            usage.put(account.name, (used == null ? 0L : used) + account.reservedBytes + account.heldBytes);
+        }
+        return ImmutableMap.copyOf(usage);
+    }
+
+    private synchronized void reserve(Account account, long bytes) throws InterruptedException {
+        while (!account.closed && reservedBytes > 0L && !hasRoom(account, bytes)) {
+            wait();
+        }
+
+        if (!account.closed) {
+            usedBytes += bytes;
+            reservedBytes += bytes;
+            account.reservedBytes += bytes;
+        }
+    }
+
+    // Guarded by this
+    private boolean hasRoom(Account account, long bytes) {
+        long share = guaranteedBytes / accounts.size();
+        long unclaimed = 0L;
+        for (Account other : accounts) {
+            if (other != account) {
+                unclaimed += Math.max(0L, share - other.reservedBytes - other.heldBytes);
+            }
+        }
+        return usedBytes + bytes + unclaimed <= capacityBytes;
+    }
+
+    private synchronized void release(Account account, long bytes) {
+        if (account.closed) {
+            return;
+        }
+
+        long released = Math.min(bytes, account.reservedBytes);
+        account.reservedBytes -= released;
+        reservedBytes -= released;
+        usedBytes -= released;
+        notifyAll();
+    }
+
+    private synchronized void hold(Account account, long bytes) {
+        if (account.closed) {
+            return;
+        }
+
+        usedBytes += bytes - account.heldBytes;
+        account.heldBytes = bytes;
+        notifyAll();
+    }
+
+    private synchronized void close(Account account) {
+        if (account.closed) {
+            return;
+        }
+
+        account.closed = true;
+        usedBytes -= account.reservedBytes + account.heldBytes;
+        reservedBytes -= account.reservedBytes;
+        account.reservedBytes = 0L;
+        account.heldBytes = 0L;
+        accounts.remove(account);
+        notifyAll();
+    }
+
+    /**
+     * A single stream's share of a {@link MemoryBudget}. Reservations are released individually as events are handed
+     * out, anything left is released when the account is closed. Once closed an account reserves nothing and never
+     * waits.
+     */
+    public final class Account implements AutoCloseable {
+
+        private final String name;
+
+        // Guarded by the budget
+        private long reservedBytes = 0L;
+        private long heldBytes = 0L;
+        private boolean closed = false;
+
+        private Account(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Reserves memory for an event about to be buffered, waiting until the budget has room for it without taking
+         * from the shares of other accounts.
+         *
+         * @param bytes the size of the event, see {@link MemoryBudget#sizeOf(String)}.
+         * @throws InterruptedException if interrupted while waiting, in which case nothing is reserved.
+         */
+        public void reserve(long bytes) throws InterruptedException {
+            MemoryBudget.this.reserve(this, bytes);
+        }
+
+        /**
+         * Releases memory reserved for an event that has been handed out.
+         *
+         * @param bytes the size reserved for the event.
+         */
+        public void release(long bytes) {
+            MemoryBudget.this.release(this, bytes);
+        }
+
+        /**
+         * Sets the memory held outside of reservations, such as a partial line, replacing the amount held before.
+         * Never waits.
+         *
+         * @param bytes the size held.
+         */
+        public void hold(long bytes) {
+            MemoryBudget.this.hold(this, bytes);
+        }
+
+        /**
+         * @return the memory currently reserved and held by the account, in bytes.
+         */
+        public long getUsedBytes() {
+            synchronized (MemoryBudget.this) {
+                return reservedBytes + heldBytes;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Releases everything the account has reserved or holds.
+         */
+        @Override
+        public void close() {
+            MemoryBudget.this.close(this);
+        }
+    }
+
+    public static final class Builder {
+
+        private long capacityBytes = -1L;
+        private double guaranteedFraction = 0.5;
+
+        private Builder() { }
+
+        /**
+         * @param capacityBytes memory buffered events may take across every stream sharing the budget.
+         */
+        public Builder setCapacityBytes(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+            return this;
+        }
+
+        /**
+         * @param guaranteedFraction the fraction of the capacity divided equally between the open accounts as their
+         *                           guaranteed shares, from 0 to 1. The rest can be borrowed by any account. Defaults
+         *                           to 0.5.
+         */
+        public Builder setGuaranteedFraction(double guaranteedFraction) {
+            this.guaranteedFraction = guaranteedFraction;
+            return this;
+        }
+
+        public MemoryBudget build() {
+            Preconditions.checkArgument(capacityBytes > 0L, "Capacity must be > 0");
+            Preconditions.checkArgument(0.0 <= guaranteedFraction && guaranteedFraction <= 1.0,
+                    "Guaranteed fraction must be between 0 and 1");
+
+            return new MemoryBudget(capacityBytes, (long) (capacityBytes * guaranteedFraction));
+        }
+    }
+}
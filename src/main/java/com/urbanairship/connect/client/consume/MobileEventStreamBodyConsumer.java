@@ -4,69 +4,188 @@ Copyright 2015-2022 Airship and Contributors
 
 package com.urbanairship.connect.client.consume;
 
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
+import com.urbanairship.connect.client.metrics.StreamMetrics;
 import com.urbanairship.connect.java8.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Receives raw bytes from a stream and handles grouping them together into full lines and thus full events.
+ *
+ * Lines that lie within a single body part are handed out straight from it. Only a line that continues into the next
+ * body part is copied, into a buffer that grows as needed, so each byte is scanned and copied at most once. A line
+ * longer than the maximum line size is not buffered beyond it: it is handed in parts to an {@link OversizedLineConsumer}
+ * if one is given, or else skipped, and in either case reported to the metrics.
+ *
+ * The {@link FramingOptions} set the maximum line size and any other listeners for framed lines. If they have an
+ * {@link OffsetUpdateConsumer}, OFFSET_UPDATE records are diverted to it without being decoded into strings. A
+ * {@link RawEventObserver} sees every other line before it is handed out, and a {@link RawEventConsumer} takes lines
+ * without them being decoded at all, in place of the event handler. A {@link PartialLineObserver} is told the size of
+ * the partial line held between body parts.
  */
 public final class MobileEventStreamBodyConsumer implements Consumer<byte[]> {
 
-    private static final byte[] EMPTY = new byte[0];
+    private static final Logger log = LoggerFactory.getLogger(MobileEventStreamBodyConsumer.class);
+
+    /**
+     * Maximum size of a line unless the options set their own, see {@link FramingOptions#getMaxLineBytes()}.
+     */
+    public static final int DEFAULT_MAX_LINE_BYTES = 16 * 1024 * 1024;
+
+    // Size the partial line buffer returns to once a line that needed more has been handed out
+    private static final int INITIAL_BUFFER_BYTES = 8 * 1024;
 
     private final Consumer<String> eventHandler;
+    private final OffsetUpdateConsumer offsetUpdateHandler;
+    private final RawEventObserver rawEventObserver;
+    private final RawEventConsumer rawEventConsumer;
+    private final PartialLineObserver partialLineObserver;
+    private final OversizedLineConsumer oversizedLineConsumer;
+    private final StreamMetrics metrics;
+    private final int maxLineBytes;
+
+    // The start of a line carried over from previous body parts
+    private byte[] partial = new byte[INITIAL_BUFFER_BYTES];
+    private int partialLength = 0;
 
-    private byte[] remaining = EMPTY;
+    // Size of the oversized line being passed over, -1 when there is none
+    private long oversizedLength = -1L;
 
     public MobileEventStreamBodyConsumer(Consumer<String> eventHandler) {
+        this(eventHandler, new NoopStreamMetrics());
+    }
+
+    public MobileEventStreamBodyConsumer(Consumer<String> eventHandler, StreamMetrics metrics) {
+        this(eventHandler, FramingOptions.defaults(), metrics);
+    }
+
+    public MobileEventStreamBodyConsumer(Consumer<String> eventHandler, FramingOptions options, StreamMetrics metrics) {
         this.eventHandler = eventHandler;
+        this.metrics = metrics;
+        this.offsetUpdateHandler = options.getOffsetUpdateConsumer().orNull();
+        this.rawEventObserver = options.getRawEventObserver().orNull();
+        this.rawEventConsumer = options.getRawEventConsumer().orNull();
+        this.partialLineObserver = options.getPartialLineObserver().orNull();
+        this.oversizedLineConsumer = options.getOversizedLineConsumer().orNull();
+        this.maxLineBytes = options.getMaxLineBytes();
     }
 
     @Override
     public void accept(byte[] bodyContent) {
-        byte[] available;
-        // If we have a chunk left over from previous call(s), prepend it to the latest chunk
-        if (remaining.length > 0) {
-            int totalSize = remaining.length + bodyContent.length;
-            available = new byte[totalSize];
-            System.arraycopy(remaining, 0, available, 0, remaining.length);
-            System.arraycopy(bodyContent, 0, available, remaining.length, bodyContent.length);
+        int heldBefore = partialLength;
+
+        int lineStart = 0;
+        for (int i = 0; i < bodyContent.length; i++) {
+            if ('\n' == bodyContent[i]) {
+                continueLine(bodyContent, lineStart, i - lineStart, true);
+                lineStart = i + 1;
+            }
+        }
+
+        // Capture any remaining bytes that were not handed out as part of a full line
+        if (lineStart < bodyContent.length) {
+            continueLine(bodyContent, lineStart, bodyContent.length - lineStart, false);
         }
-        else {
-            available = bodyContent;
+
+        if (partialLineObserver != null && partialLength != heldBefore) {
+            partialLineObserver.partialLine(partialLength);
         }
+    }
 
-        // Search for occurrences of new lines in the bytes
-        List<Integer> newLineIndexes = new ArrayList<>();
-        for (int i = 0; i < available.length; i++) {
-            if ('\n' == available[i]) {
-                newLineIndexes.add(i);
+    // Adds bytes to the line being received, handing it out if they complete it
+    private void continueLine(byte[] bytes, int offset, int length, boolean complete) {
+        if (oversizedLength < 0L && partialLength + (long) length > maxLineBytes) {
+            // Stop buffering, pass on what has been buffered so far and everything after it as it arrives
+            oversizedLength = 0L;
+            if (partialLength > 0) {
+                oversizedPart(partial, 0, partialLength, false);
+                clearPartial();
             }
         }
 
-        // Pass out the lines we've discovered in the bytes we have
-        int rollingIdx = 0;
-        for (Integer idx : newLineIndexes) {
-            int lineBytesLength  = (idx - rollingIdx);
-            if (lineBytesLength > 0) {
-                String line = new String(available, rollingIdx, lineBytesLength, StandardCharsets.UTF_8);
-                eventHandler.accept(line);
+        if (oversizedLength >= 0L) {
+            oversizedPart(bytes, offset, length, complete);
+            if (complete) {
+                oversizedLineEnded();
             }
+            return;
+        }
 
-            rollingIdx += lineBytesLength + 1;
+        if (!complete) {
+            appendPartial(bytes, offset, length);
+            return;
         }
 
-        // Capture any remaining bytes that were not handed out as part of a full line
-        byte[] newRemaining = EMPTY;
-        if (rollingIdx < available.length) {
-            int remainingLength = (available.length - rollingIdx);
-            newRemaining = new byte[remainingLength];
-            System.arraycopy(available, rollingIdx, newRemaining, 0, remainingLength);
+        if (partialLength == 0) {
+            if (length > 0) {
+                handleLine(bytes, offset, length);
+            }
+            return;
+        }
+
+        appendPartial(bytes, offset, length);
+        handleLine(partial, 0, partialLength);
+        clearPartial();
+    }
+
+    private void appendPartial(byte[] bytes, int offset, int length) {
+        if (partialLength + length > partial.length) {
+            byte[] larger = new byte[(int) Math.min(Math.max(2L * partial.length, partialLength + length), Integer.MAX_VALUE - 8)];
+            System.arraycopy(partial, 0, larger, 0, partialLength);
+            partial = larger;
+        }
+
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+
+    private void clearPartial() {
+        partialLength = 0;
+        if (partial.length > INITIAL_BUFFER_BYTES) {
+            // Don't hold on to the memory a rare long line needed
+            partial = new byte[INITIAL_BUFFER_BYTES];
+        }
+    }
+
+    private void oversizedPart(byte[] bytes, int offset, int length, boolean last) {
+        oversizedLength += length;
+        if (oversizedLineConsumer != null) {
+            oversizedLineConsumer.acceptOversizedPart(bytes, offset, length, last);
+        }
+    }
+
+    private void oversizedLineEnded() {
+        metrics.oversizedLine(oversizedLength);
+        if (oversizedLineConsumer == null) {
+            log.warn("Skipped a line of " + oversizedLength + " bytes, longer than the maximum of " + maxLineBytes);
+        }
+        oversizedLength = -1L;
+    }
+
+    private void handleLine(byte[] bytes, int offset, int length) {
+        metrics.eventFramed();
+
+        if (offsetUpdateHandler != null && EventFieldScanner.isOffsetUpdate(bytes, offset, length)) {
+            String updateOffset = EventFieldScanner.scalar(bytes, offset, length, EventFieldScanner.OFFSET);
+            if (updateOffset != null) {
+                offsetUpdateHandler.acceptOffsetUpdate(updateOffset);
+                return;
+            }
+        }
+
+        if (rawEventObserver != null) {
+            rawEventObserver.observe(bytes, offset, length);
+        }
+
+        if (rawEventConsumer != null) {
+            rawEventConsumer.acceptRaw(bytes, offset, length);
+            return;
         }
 
-        remaining = newRemaining;
+        String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        eventHandler.accept(line);
     }
 }
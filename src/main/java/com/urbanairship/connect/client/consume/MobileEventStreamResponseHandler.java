@@ -5,17 +5,23 @@ Copyright 2015-2022 Airship and Contributors
 package com.urbanairship.connect.client.consume;
 
 import com.google.common.base.Optional;
+import com.urbanairship.connect.client.jfr.FlightRecorderEvents;
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
+import com.urbanairship.connect.client.metrics.StreamMetrics;
 import com.urbanairship.connect.java8.Consumer;
 import io.netty.handler.codec.http.HttpHeaders;
-import org.asynchttpclient.AsyncHandler;
 import org.asynchttpclient.HttpResponseBodyPart;
 import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.handler.StreamedAsyncHandler;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -28,17 +34,31 @@ import java.util.concurrent.atomic.AtomicReference;
  * caller should call {@link #consumeBody(Consumer)}. The handler will *not* read any of the response body until
  * {@link #consumeBody(Consumer)} is called.  This is done so that the caller can deal with any special handling that may be
  * needed based on response status code and/or headers before receiving the streamed body.
+ *
+ * The client hands the body over through {@link #onStream(Publisher)}, and the caller then delivers it to the receiver
+ * on a thread of its own with {@link #deliverBody()}. Only a few parts are ever requested ahead of the receiver, so a
+ * receiver that blocks stops reading from its own connection only, rather than holding up the client's I/O threads,
+ * which every connection made through the client shares.
  */
-public final class MobileEventStreamResponseHandler implements AsyncHandler<Boolean> {
+public final class MobileEventStreamResponseHandler implements StreamedAsyncHandler<Boolean> {
 
-    private final AtomicBoolean stop = new AtomicBoolean(false);
+    private static final long PARTS_READ_AHEAD = 4L;
+
+    // Queued after the last body part, or on stopping, to wake the thread delivering the body
+    private static final ReceivedPart END = new ReceivedPart(null, 0L);
 
+    private final AtomicBoolean stop = new AtomicBoolean(false);
+    private final AtomicBoolean permitTaken = new AtomicBoolean(false);
 
+    private final BlockingQueue<ReceivedPart> parts = new LinkedBlockingQueue<>();
+    private final AtomicReference<Subscription> subscription = new AtomicReference<>(null);
 
     private final CountDownLatch consumeLatch = new CountDownLatch(1);
     private final Semaphore consumePermit = new Semaphore(1);
 
     private final ConnectCallback connectCallback;
+    private final StreamMetrics metrics;
+    private final long startNanos;
 
     private final AtomicReference<Throwable> error = new AtomicReference<>(null);
 
@@ -47,8 +67,23 @@ public final class MobileEventStreamResponseHandler implements AsyncHandler<Bool
     private volatile String statusMessage;
     private volatile Consumer<byte[]> receiver = null;
 
+    // Only accessed from the thread delivering the body
+    private boolean bodyStarted = false;
+
     public MobileEventStreamResponseHandler(ConnectCallback connectCallback) {
+        this(connectCallback, new NoopStreamMetrics(), System.nanoTime());
+    }
+
+    /**
+     * @param connectCallback notified once the response status and headers are received.
+     * @param metrics receives the size of each body part and the time to the first one.
+     * @param startNanos {@link System#nanoTime()} at the start of the connection attempt, from which the time to first
+     * byte is measured.
+     */
+    public MobileEventStreamResponseHandler(ConnectCallback connectCallback, StreamMetrics metrics, long startNanos) {
         this.connectCallback = connectCallback;
+        this.metrics = metrics;
+        this.startNanos = startNanos;
     }
 
     @Override
@@ -58,13 +93,10 @@ public final class MobileEventStreamResponseHandler implements AsyncHandler<Bool
         }
 
         error.set(t);
-        try {
-            stop();
-        }
-        catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("Interrupted stopping handler on error receipt!", e);
-        }
+
+        // Called on one of the client's I/O threads, so this doesn't wait for a body part being delivered. The thread
+        // delivering it sees the stop once the receiver returns.
+        end();
     }
 
     @Override
@@ -94,19 +126,105 @@ public final class MobileEventStreamResponseHandler implements AsyncHandler<Bool
         consumeLatch.countDown();
     }
 
+    @Override
+    public State onStream(Publisher<HttpResponseBodyPart> publisher) {
+        publisher.subscribe(new Subscriber<HttpResponseBodyPart>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+                if (stop.get()) {
+                    s.cancel();
+                }
+                else {
+                    s.request(PARTS_READ_AHEAD);
+                }
+            }
+
+            @Override
+            public void onNext(HttpResponseBodyPart bodyPart) {
+                long arrivedNanos = FlightRecorderEvents.isBodyPartEnabled() ? System.nanoTime() : 0L;
+                parts.offer(new ReceivedPart(bodyPart, arrivedNanos));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error.compareAndSet(null, t);
+                parts.offer(END);
+            }
+
+            @Override
+            public void onComplete() {
+                parts.offer(END);
+            }
+        });
+
+        return State.CONTINUE;
+    }
+
+    /**
+     * Delivers the body received through {@link #onStream(Publisher)} to the receiver given to
+     * {@link #consumeBody(Consumer)}, on the calling thread, until the body ends or the handler is stopped. Another
+     * part is requested from the connection each time the receiver returns.
+     *
+     * @throws InterruptedException if interrupted while waiting for the body.
+     */
+    public void deliverBody() throws InterruptedException {
+        consumeLatch.await();
+
+        while (true) {
+            ReceivedPart part = parts.take();
+            if (part == END) {
+                // Left for any later call
+                parts.offer(END);
+                return;
+            }
+
+            if (deliver(part.bodyPart, part.arrivedNanos) == State.ABORT) {
+                return;
+            }
+
+            subscription.get().request(1L);
+        }
+    }
+
     @Override
     public State onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+        long arrivedNanos = FlightRecorderEvents.isBodyPartEnabled() ? System.nanoTime() : 0L;
+
         consumeLatch.await();
 
+        return deliver(bodyPart, arrivedNanos);
+    }
+
+    private State deliver(HttpResponseBodyPart bodyPart, long arrivedNanos) {
         if (!consumePermit.tryAcquire()) {
             return State.ABORT;
         }
 
+        boolean recordEvent = arrivedNanos != 0L;
+        long deliveringNanos = recordEvent ? System.nanoTime() : 0L;
+        int size = 0;
         try {
-            receiver.accept(bodyPart.getBodyPartBytes());
+            if (stop.get()) {
+                return State.ABORT;
+            }
+
+            byte[] bytes = bodyPart.getBodyPartBytes();
+            size = bytes.length;
+            if (!bodyStarted) {
+                bodyStarted = true;
+                metrics.firstByte(System.nanoTime() - startNanos);
+            }
+            metrics.bytesReceived(bytes.length);
+
+            receiver.accept(bytes);
         }
         finally {
             consumePermit.release();
+
+            if (recordEvent) {
+                FlightRecorderEvents.bodyPart(size, deliveringNanos - arrivedNanos, System.nanoTime() - deliveringNanos);
+            }
         }
 
         return stop.get() ? State.ABORT : State.CONTINUE;
@@ -122,12 +240,42 @@ public final class MobileEventStreamResponseHandler implements AsyncHandler<Bool
     }
 
     public void stop() throws InterruptedException {
+        end();
+
+        if (permitTaken.compareAndSet(false, true)) {
+            if (!consumePermit.tryAcquire()) {
+                // A body part is being delivered, wait for it to be finished with
+                long waitStart = System.nanoTime();
+                consumePermit.acquire();
+                FlightRecorderEvents.consumePermitWait(System.nanoTime() - waitStart);
+            }
+        }
+    }
+
+    private void end() {
         if (stop.compareAndSet(false, true)) {
-            consumePermit.acquire();
+            parts.offer(END);
+
+            // Closes the connection, unless the body has already been read in full
+            Subscription s = subscription.get();
+            if (s != null) {
+                s.cancel();
+            }
 
-            // Trip the consume latch in case consumeBody was never called since we may have received a body part
-            // asynchronously, in which case the onBodyPartReceived call will be stuck waiting on the consumeLatch
+            // Trip the consume latch in case consumeBody was never called, so anything waiting on it finds the handler
+            // stopped
             consumeLatch.countDown();
         }
     }
+
+    private static final class ReceivedPart {
+
+        private final HttpResponseBodyPart bodyPart;
+        private final long arrivedNanos;
+
+        ReceivedPart(HttpResponseBodyPart bodyPart, long arrivedNanos) {
+            this.bodyPart = bodyPart;
+            this.arrivedNanos = arrivedNanos;
+        }
+    }
 }
@@ -0,0 +1,21 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+/**
+ * An event consumer that wants OFFSET_UPDATE records kept apart from the rest of the stream.
+ *
+ * When set on the {@link FramingOptions} given to a {@link MobileEventStreamBodyConsumer}, OFFSET_UPDATE records are
+ * recognized from the raw bytes as lines are framed and only their offset is passed to
+ * {@link #acceptOffsetUpdate(String)}. Such records are never decoded or handed to the event handler.
+ */
+public interface OffsetUpdateConsumer {
+
+    /**
+     * @param offset the offset carried by an OFFSET_UPDATE record.
+     */
+    void acceptOffsetUpdate(String offset);
+
+}
@@ -0,0 +1,27 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+/**
+ * An event consumer that sets the maximum size of a line and handles lines beyond it.
+ *
+ * When set on the {@link FramingOptions} given to a {@link MobileEventStreamBodyConsumer}, the bytes of a line longer
+ * than {@link FramingOptions#getMaxLineBytes()} are passed to {@link #acceptOversizedPart(byte[], int, int, boolean)}
+ * as they arrive, in one or more parts, rather than the line being framed. Without it such lines are skipped.
+ */
+public interface OversizedLineConsumer {
+
+    /**
+     * The bytes are only valid for the duration of the call and must not be modified. The first part after a last part
+     * starts a new line.
+     *
+     * @param bytes buffer holding the part
+     * @param offset index of the first byte of the part
+     * @param length number of bytes in the part, possibly 0 for a last part
+     * @param last whether the part ends the line
+     */
+    void acceptOversizedPart(byte[] bytes, int offset, int length, boolean last);
+
+}
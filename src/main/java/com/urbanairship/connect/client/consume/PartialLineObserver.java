@@ -0,0 +1,20 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+/**
+ * An event consumer that wants to know how much of an incomplete line is being held between body parts.
+ *
+ * When set on the {@link FramingOptions} given to a {@link MobileEventStreamBodyConsumer}, {@link #partialLine(int)}
+ * is called whenever the size of the partial line carried over to the next body part changes.
+ */
+public interface PartialLineObserver {
+
+    /**
+     * @param bytes size of the partial line now held, 0 once nothing is held.
+     */
+    void partialLine(int bytes);
+
+}
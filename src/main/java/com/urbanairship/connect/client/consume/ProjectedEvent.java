@@ -0,0 +1,173 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The values an {@link EventProjection} picked out of an event, one slot per path in the order the paths were added.
+ * Each value is held as the JSON bytes it was read from, all in one buffer, and only decoded when asked for; a slot is
+ * absent if the event has no value at its path or the value is null.
+ *
+ * A record is reused from one event to the next by {@link EventProjection#project(byte[], int, int, ProjectedEvent)},
+ * so values that have to outlive the next event should be read out or the record {@link #copy() copied}.
+ */
+public final class ProjectedEvent {
+
+    private static final int INITIAL_DATA_BYTES = 256;
+
+    // Start of a slot whose path has not been found, or whose value is null
+    private static final int UNRESOLVED = -1;
+    private static final int NULL = -2;
+
+    private final EventProjection projection;
+    private final int[] starts;
+    private final int[] ends;
+    private byte[] data;
+    private int dataLength = 0;
+    private int resolvedCount = 0;
+
+    ProjectedEvent(EventProjection projection) {
+        this(projection, new int[projection.getSlotCount()], new int[projection.getSlotCount()], new byte[INITIAL_DATA_BYTES]);
+        clear();
+    }
+
+    private ProjectedEvent(EventProjection projection, int[] starts, int[] ends, byte[] data) {
+        this.projection = projection;
+        this.starts = starts;
+        this.ends = ends;
+        this.data = data;
+    }
+
+    public EventProjection getProjection() {
+        return projection;
+    }
+
+    public int getSlotCount() {
+        return starts.length;
+    }
+
+    public boolean isPresent(int slot) {
+        return starts[slot] >= 0;
+    }
+
+    /**
+     * @return whether the value in the slot is a string.
+     */
+    public boolean isString(int slot) {
+        return isPresent(slot) && data[starts[slot]] == '"';
+    }
+
+    /**
+     * @return whether the value in the slot is an object.
+     */
+    public boolean isObject(int slot) {
+        return isPresent(slot) && data[starts[slot]] == '{';
+    }
+
+    /**
+     * @return the value in the slot if it is a string, the JSON text of any other value, or null if it is absent.
+     */
+    public String getString(int slot) {
+        if (!isPresent(slot)) {
+            return null;
+        }
+        if (isString(slot)) {
+            return EventFieldScanner.decodeString(data, starts[slot], ends[slot] - 1);
+        }
+        return new String(data, starts[slot], ends[slot] - starts[slot], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * As {@link #getString(int)}, for the slot of one of the projection's paths.
+     *
+     * @throws IllegalArgumentException if the path is not one of the projection's.
+     */
+    public String getString(String path) {
+        return getString(projection.getSlot(path));
+    }
+
+    /**
+     * @return the JSON text of the value in the slot, or null if it is absent.
+     */
+    public String getJson(int slot) {
+        if (!isPresent(slot)) {
+            return null;
+        }
+        return new String(data, starts[slot], ends[slot] - starts[slot], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the value in the slot as a decimal integer, given either as a number or a string.
+     *
+     * @param absent returned if the slot is absent or its value is not a decimal integer that fits in a long.
+     */
+    public long getLong(int slot, long absent) {
+        return isPresent(slot) ? EventFieldScanner.decimal(data, starts[slot], ends[slot], absent) : absent;
+    }
+
+    /**
+     * Reads the value in the slot as an ISO-8601 timestamp, see {@link EventTimestamps}.
+     *
+     * @return the timestamp in milliseconds since the epoch, or {@link EventTimestamps#ABSENT}.
+     */
+    public long getTimestamp(int slot) {
+        return isString(slot) ? EventTimestamps.parse(data, starts[slot] + 1, ends[slot]) : EventTimestamps.ABSENT;
+    }
+
+    /**
+     * @return a record holding the same values that later projections into this one leave unchanged.
+     */
+    public ProjectedEvent copy() {
+        ProjectedEvent copy = new ProjectedEvent(projection, starts.clone(), ends.clone(), Arrays.copyOf(data, Math.max(dataLength, 1)));
+        copy.dataLength = dataLength;
+        copy.resolvedCount = resolvedCount;
+        return copy;
+    }
+
+    void clear() {
+        Arrays.fill(starts, UNRESOLVED);
+        Arrays.fill(ends, UNRESOLVED);
+        dataLength = 0;
+        resolvedCount = 0;
+    }
+
+    /**
+     * Fills the slot from a value in an event, unless an earlier member with the same path already has.
+     */
+    void set(int slot, byte[] bytes, int start, int end) {
+        if (starts[slot] != UNRESOLVED) {
+            return;
+        }
+
+        int length = end - start;
+        if (dataLength + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(2 * data.length, dataLength + length));
+        }
+        System.arraycopy(bytes, start, data, dataLength, length);
+        starts[slot] = dataLength;
+        ends[slot] = dataLength + length;
+        dataLength += length;
+        resolvedCount++;
+    }
+
+    /**
+     * Records that the event has a null at the slot's path, which leaves the slot absent.
+     */
+    void setNull(int slot) {
+        if (starts[slot] == UNRESOLVED) {
+            starts[slot] = NULL;
+            resolvedCount++;
+        }
+    }
+
+    /**
+     * @return number of slots whose path has been found in the event, whether or not the value was null.
+     */
+    int getResolvedCount() {
+        return resolvedCount;
+    }
+}
@@ -0,0 +1,24 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import java.io.IOException;
+
+/**
+ * Receives the projected fields of each event from a {@link com.urbanairship.connect.client.sink.ProjectionSink}.
+ */
+public interface ProjectedEventHandler {
+
+    /**
+     * Handles an event. The record is reused for the next event once the call returns, so it must be
+     * {@link ProjectedEvent#copy() copied} if it is needed afterwards.
+     *
+     * @param event the event's projected fields.
+     * @param eventOffset the event's offset in the stream.
+     * @throws IOException if the event could not be handled, in which case the sink fails.
+     */
+    void handle(ProjectedEvent event, String eventOffset) throws IOException;
+
+}
@@ -0,0 +1,25 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+/**
+ * An event consumer that takes events as raw UTF-8 bytes, for instance to write them out unchanged.
+ *
+ * When set on the {@link FramingOptions} given to a {@link MobileEventStreamBodyConsumer}, every line is passed to
+ * {@link #acceptRaw(byte[], int, int)} in place of being decoded and handed to the event handler. A
+ * {@link RawEventObserver} set alongside it observes each line first.
+ */
+public interface RawEventConsumer {
+
+    /**
+     * The bytes are only valid for the duration of the call and must not be modified.
+     *
+     * @param bytes buffer holding the event
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     */
+    void acceptRaw(byte[] bytes, int offset, int length);
+
+}
@@ -0,0 +1,25 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+/**
+ * An event consumer that wants to look at each event while it is still raw bytes.
+ *
+ * When set on the {@link FramingOptions} given to a {@link MobileEventStreamBodyConsumer}, every line is passed to
+ * {@link #observe(byte[], int, int)} just before it is handed out. OFFSET_UPDATE records diverted to an
+ * {@link OffsetUpdateConsumer} are not observed.
+ */
+public interface RawEventObserver {
+
+    /**
+     * The bytes are only valid for the duration of the call and must not be modified.
+     *
+     * @param bytes buffer holding the event
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     */
+    void observe(byte[] bytes, int offset, int length);
+
+}
@@ -0,0 +1,110 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits the overall rate of connection retries. A single budget is intended to be shared by every
+ * stream in the process so that an outage affecting all of them results in a bounded, evenly spread rate of reconnect
+ * attempts rather than a storm.
+ *
+ * Each retry takes a token. When the bucket is empty the retry is not refused, instead the token is borrowed against
+ * future refills and the caller is told how long it must wait for it. Retries made while the bucket is in debt are
+ * therefore queued up behind each other at the refill rate.
+ */
+public final class RetryBudget {
+
+    private final Ticker ticker;
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private RetryBudget(Ticker ticker, int capacity, double tokensPerSecond) {
+        this.ticker = ticker;
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1L);
+        this.tokens = capacity;
+        this.lastRefillNanos = ticker.read();
+    }
+
+    /**
+     * Takes a token from the budget.
+     *
+     * @return number of milliseconds the caller must wait before the token it took is available, 0 if one was available
+     * immediately.
+     */
+    public synchronized long reserve() {
+        refill();
+        tokens -= 1D;
+        if (tokens >= 0D) {
+            return 0L;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis((long) Math.ceil(-tokens / tokensPerNano));
+    }
+
+    /**
+     * @return the number of tokens currently available, negative when retries have been borrowed against future refills.
+     */
+    public synchronized double getAvailableTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+
+    public static final class Builder {
+
+        private int capacity = -1;
+        private double tokensPerSecond = -1D;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() { }
+
+        /**
+         * @param capacity the number of retries that may be made back to back before the refill rate applies.
+         */
+        public Builder setCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param tokensPerSecond the sustained rate of retries permitted across everything sharing the budget.
+         */
+        public Builder setTokensPerSecond(double tokensPerSecond) {
+            this.tokensPerSecond = tokensPerSecond;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public RetryBudget build() {
+            Preconditions.checkArgument(capacity > 0, "Capacity must be > 0");
+            Preconditions.checkArgument(tokensPerSecond > 0D, "Tokens per second must be > 0");
+
+            return new RetryBudget(ticker, capacity, tokensPerSecond);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.model.event.EventDevice;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads events into {@link StreamEvent}s straight from their UTF-8 bytes in a single pass, without building a parse
+ * tree.
+ *
+ * Values that repeat from one event to the next are shared rather than copied into every event: event and device types
+ * map to the {@link com.urbanairship.connect.client.model.event.EventType} and
+ * {@link com.urbanairship.connect.client.model.request.filters.DeviceType} enums, and the type name, channel, named
+ * user and device attribute names and values are looked up in a bounded {@link StringInterner}. Consumers that hold
+ * many events, for instance over a time window, then need a fraction of the memory.
+ *
+ * A parser may be used from several threads at once.
+ */
+public final class StreamEventParser {
+
+    private static final byte[] ID = EventFieldScanner.key("id");
+    private static final byte[] DEVICE = EventFieldScanner.key("device");
+    private static final byte[] BODY = EventFieldScanner.key("body");
+    private static final byte[] CHANNEL = EventFieldScanner.key("channel");
+    private static final byte[] DEVICE_TYPE = EventFieldScanner.key("device_type");
+    private static final byte[] NAMED_USER_ID = EventFieldScanner.key("named_user_id");
+    private static final byte[] ATTRIBUTES = EventFieldScanner.key("attributes");
+
+    private final StringInterner interner;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private StreamEventParser(StringInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * @param event a single event.
+     * @return the event.
+     * @throws JsonParseException if the event is not a JSON object.
+     */
+    public StreamEvent parse(String event) {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param bytes buffer holding the event, for instance as handed to a {@link RawEventConsumer}.
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @return the event.
+     * @throws JsonParseException if the event is not a JSON object.
+     */
+    public StreamEvent parse(byte[] bytes, int offset, int length) {
+        StreamEvent.Builder event = StreamEvent.newBuilder();
+        String typeName = null;
+
+        JsonMembers members = new JsonMembers(bytes, offset, length);
+        while (members.next()) {
+            if (members.nameIs(EventFieldScanner.TYPE)) {
+                typeName = members.stringValue(interner);
+            }
+            else if (members.nameIs(EventFieldScanner.OFFSET)) {
+                // Kept as given, offsets being decimals of any length
+                event.setOffset(members.stringValue());
+            }
+            else if (members.nameIs(EventTimestamps.OCCURRED)) {
+                event.setOccurred(members.timestampValue());
+            }
+            else if (members.nameIs(EventTimestamps.PROCESSED)) {
+                event.setProcessed(members.timestampValue());
+            }
+            else if (members.nameIs(ID)) {
+                // Unique to every event, not worth interning
+                if (members.isString()) {
+                    event.setId(members.stringValue());
+                }
+            }
+            else if (members.nameIs(DEVICE)) {
+                if (members.isObject()) {
+                    event.setDevice(device(members.members()));
+                }
+            }
+            else if (members.nameIs(BODY)) {
+                if (members.isObject()) {
+                    event.setBodyJson(members.stringValue());
+                }
+            }
+        }
+
+        if (typeName == null) {
+            throw new JsonParseException("Event has no type");
+        }
+
+        return event.setTypeName(typeName).build();
+    }
+
+    private EventDevice device(JsonMembers members) {
+        EventDevice.Builder device = EventDevice.newBuilder();
+
+        while (members.next()) {
+            if (members.nameIs(CHANNEL)) {
+                device.setChannel(members.stringValue(interner));
+            }
+            else if (members.nameIs(DEVICE_TYPE)) {
+                device.setDeviceTypeName(members.stringValue(interner));
+            }
+            else if (members.nameIs(NAMED_USER_ID)) {
+                device.setNamedUserId(members.stringValue(interner));
+            }
+            else if (members.nameIs(ATTRIBUTES) && members.isObject()) {
+                device.setAttributes(attributes(members.members()));
+            }
+        }
+
+        return device.build();
+    }
+
+    private Map<String, String> attributes(JsonMembers members) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+
+        while (members.next()) {
+            String value = members.stringValue(interner);
+            if (value != null) {
+                attributes.put(members.name(interner), value);
+            }
+        }
+
+        return attributes;
+    }
+
+    public static final class Builder {
+
+        private StringInterner interner = null;
+
+        private Builder() { }
+
+        /**
+         * Optionally set the interner used to share repeated values between events, for instance to share one between
+         * several parsers. By default each parser has its own.
+         */
+        public Builder setInterner(StringInterner interner) {
+            this.interner = interner;
+            return this;
+        }
+
+        public StreamEventParser build() {
+            return new StreamEventParser(interner != null ? interner : StringInterner.newBuilder().build());
+        }
+    }
+}
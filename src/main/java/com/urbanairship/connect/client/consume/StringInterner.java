@@ -0,0 +1,148 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A bounded cache of canonical strings, looked up by their raw UTF-8 bytes so that a value seen before is returned
+ * without decoding or allocating anything. Values such as channel ids, named users and attribute values repeat across
+ * many events; interning them means events held in memory share one instance of each rather than a copy per event.
+ *
+ * The cache is a fixed size table in which each value has a single slot, so a value evicts whichever other value had
+ * its slot. Memory use is bounded by the capacity and maximum length however many distinct values are seen, at the
+ * cost of some duplicates when values with more distinct strings than the capacity are interned. Lookups take no locks
+ * and the cache may be shared between threads; a race between two threads at most loses one of their values.
+ */
+public final class StringInterner {
+
+    private static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final Entry[] table;
+    private final int mask;
+    private final int maxLength;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private StringInterner(int capacity, int maxLength) {
+        this.table = new Entry[capacity];
+        this.mask = capacity - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the canonical instance of the string encoded by the bytes, which must hold UTF-8 without JSON escapes.
+     * Strings longer than the maximum length are decoded but not cached.
+     *
+     * @param bytes buffer holding the string
+     * @param offset index of the first byte of the string
+     * @param length number of bytes in the string
+     * @return the string.
+     */
+    public String intern(byte[] bytes, int offset, int length) {
+        if (length > maxLength) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry entry = table[slot];
+        if (entry != null && entry.hash == hash && entry.matches(bytes, offset, length)) {
+            return entry.value;
+        }
+
+        byte[] key = new byte[length];
+        System.arraycopy(bytes, offset, key, 0, length);
+        String value = new String(key, StandardCharsets.UTF_8);
+        table[slot] = new Entry(hash, key, value);
+        return value;
+    }
+
+    /**
+     * @return number of strings the cache holds at most.
+     */
+    public int getCapacity() {
+        return table.length;
+    }
+
+    /**
+     * @return length in bytes above which strings are not cached.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    // Immutable, so an entry read without synchronization is always seen whole
+    private static final class Entry {
+
+        private final int hash;
+        private final byte[] key;
+        private final String value;
+
+        private Entry(int hash, byte[] key, String value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        private boolean matches(byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static final class Builder {
+
+        private int capacity = 4096;
+        private int maxLength = 64;
+
+        private Builder() { }
+
+        /**
+         * @param capacity number of strings cached at most, rounded up to a power of two. Defaults to 4096.
+         */
+        public Builder setCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param maxLength length in bytes above which strings are not cached, as long values rarely repeat. Defaults
+         *                  to 64.
+         */
+        public Builder setMaxLength(int maxLength) {
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        public StringInterner build() {
+            Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Capacity must be > 0 and <= 2^30");
+            Preconditions.checkArgument(maxLength >= 0, "Max length must be >= 0");
+
+            return new StringInterner(roundUp(capacity), maxLength);
+        }
+
+        private static int roundUp(int capacity) {
+            int rounded = Integer.highestOneBit(capacity);
+            return rounded == capacity ? capacity : rounded << 1;
+        }
+    }
+}
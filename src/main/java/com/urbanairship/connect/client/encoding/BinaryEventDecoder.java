@@ -0,0 +1,321 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.encoding;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.model.event.EventDevice;
+import com.urbanairship.connect.client.model.event.EventType;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+import com.urbanairship.connect.client.model.request.filters.DeviceType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.HAS_BODY;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.HAS_DEVICE;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.HAS_ID;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.HAS_OCCURRED;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.HAS_OFFSET;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.HAS_PROCESSED;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.OFFSET_LITERAL;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.REF_ABSENT;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.REF_FIRST_ENTRY;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.REF_LITERAL;
+import static com.urbanairship.connect.client.encoding.BinaryEventEncoder.REF_NEW;
+
+/**
+ * Decodes records written by a {@link BinaryEventEncoder}, one at a time and in the order they were encoded. Decoding a
+ * record copies nothing: the id, channel, named user and body of the current record are read only views of the buffer
+ * it was decoded from, and dictionary values are strings decoded once and shared by every record that refers to them.
+ *
+ * The fields of the current record are valid until the next record is decoded or the buffer holding it is changed. A
+ * decoder is not safe for use by several threads at once.
+ */
+public final class BinaryEventDecoder {
+
+    private final List<String> dictionary = new ArrayList<>();
+    private long lastOffset = 0L;
+    private long lastOccurred = 0L;
+    private long lastProcessed = 0L;
+
+    private boolean hasOffset;
+    private long offset;
+    private ByteBuffer offsetLiteral;
+    private String typeName;
+    private long occurred;
+    private long processed;
+    private ByteBuffer id;
+    private boolean hasDevice;
+    private String deviceTypeName;
+    private ByteBuffer channel;
+    private ByteBuffer namedUserId;
+    private final List<String> attributeNames = new ArrayList<>();
+    private final List<String> attributeValues = new ArrayList<>();
+    private ByteBuffer body;
+
+    /**
+     * Starts a new sequence of records, as after {@link BinaryEventEncoder#reset()}.
+     */
+    public void reset() {
+        dictionary.clear();
+        lastOffset = 0L;
+        lastOccurred = 0L;
+        lastProcessed = 0L;
+    }
+
+    /**
+     * Decodes the record at the buffer's position, advancing past it.
+     *
+     * @param in buffer holding records.
+     * @return false, leaving the buffer as it was, if the buffer holds no complete record.
+     * @throws IllegalArgumentException if the record is malformed, after which the decoder must be reset.
+     */
+    public boolean decode(ByteBuffer in) {
+        int start = in.position();
+        int lengthEnd = start;
+        while (lengthEnd < in.limit() && (in.get(lengthEnd) & 0x80) != 0) {
+            lengthEnd++;
+        }
+        if (lengthEnd >= in.limit()) {
+            return false;
+        }
+
+        int length = Varints.readInt(in);
+        if (in.remaining() < length) {
+            in.position(start);
+            return false;
+        }
+
+        ByteBuffer record = in.slice();
+        record.limit(length);
+        in.position(in.position() + length);
+
+        read(record.asReadOnlyBuffer());
+        return true;
+    }
+
+    private void read(ByteBuffer record) {
+        if (!record.hasRemaining()) {
+            throw new IllegalArgumentException("Empty record");
+        }
+        int flags = record.get() & 0xFF;
+
+        hasOffset = (flags & HAS_OFFSET) != 0;
+        offsetLiteral = null;
+        if (hasOffset && (flags & OFFSET_LITERAL) != 0) {
+            offsetLiteral = readLiteral(record);
+            if (offsetLiteral == null) {
+                throw new IllegalArgumentException("Record has an empty offset literal");
+            }
+        }
+        else if (hasOffset) {
+            offset = lastOffset + Varints.unZigZag(Varints.read(record));
+            lastOffset = offset;
+        }
+
+        typeName = readRef(record);
+        if (typeName == null) {
+            throw new IllegalArgumentException("Record has no type");
+        }
+
+        occurred = StreamEvent.NO_TIME;
+        if ((flags & HAS_OCCURRED) != 0) {
+            occurred = lastOccurred + Varints.unZigZag(Varints.read(record));
+            lastOccurred = occurred;
+        }
+
+        processed = StreamEvent.NO_TIME;
+        if ((flags & HAS_PROCESSED) != 0) {
+            processed = lastProcessed + Varints.unZigZag(Varints.read(record));
+            lastProcessed = processed;
+        }
+
+        id = (flags & HAS_ID) != 0 ? readLiteral(record) : null;
+
+        hasDevice = (flags & HAS_DEVICE) != 0;
+        deviceTypeName = null;
+        channel = null;
+        namedUserId = null;
+        attributeNames.clear();
+        attributeValues.clear();
+        if (hasDevice) {
+            deviceTypeName = readRef(record);
+            channel = readLiteral(record);
+            namedUserId = readLiteral(record);
+            int attributes = Varints.readInt(record);
+            for (int i = 0; i < attributes; i++) {
+                attributeNames.add(readRef(record));
+                attributeValues.add(readRef(record));
+            }
+        }
+
+        body = null;
+        if ((flags & HAS_BODY) != 0) {
+            body = slice(record, Varints.readInt(record));
+        }
+    }
+
+    private String readRef(ByteBuffer record) {
+        int ref = Varints.readInt(record);
+        if (ref == REF_ABSENT) {
+            return null;
+        }
+        if (ref >= REF_FIRST_ENTRY) {
+            int index = ref - REF_FIRST_ENTRY;
+            if (index >= dictionary.size()) {
+                throw new IllegalArgumentException("Unknown dictionary entry " + index);
+            }
+            return dictionary.get(index);
+        }
+
+        String value = StandardCharsets.UTF_8.decode(slice(record, Varints.readInt(record))).toString();
+        if (ref == REF_NEW) {
+            dictionary.add(value);
+        }
+        return value;
+    }
+
+    private static ByteBuffer readLiteral(ByteBuffer record) {
+        int length = Varints.readInt(record);
+        return length == 0 ? null : slice(record, length - 1);
+    }
+
+    private static ByteBuffer slice(ByteBuffer record, int length) {
+        if (record.remaining() < length) {
+            throw new IllegalArgumentException("Truncated record");
+        }
+        ByteBuffer slice = record.slice();
+        slice.limit(length);
+        record.position(record.position() + length);
+        return slice;
+    }
+
+    /**
+     * @return the offset of the current record exactly as it was given in the event, or null.
+     */
+    public String getOffset() {
+        if (!hasOffset) {
+            return null;
+        }
+        return offsetLiteral != null ? string(offsetLiteral) : Long.toString(offset);
+    }
+
+    public EventType getType() {
+        return EventType.fromName(typeName);
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * @return when the event occurred in milliseconds since the epoch, or {@link StreamEvent#NO_TIME}.
+     */
+    public long getOccurred() {
+        return occurred;
+    }
+
+    /**
+     * @return when the event was processed in milliseconds since the epoch, or {@link StreamEvent#NO_TIME}.
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return the UTF-8 bytes of the event id, or null.
+     */
+    public ByteBuffer getId() {
+        return duplicate(id);
+    }
+
+    public boolean hasDevice() {
+        return hasDevice;
+    }
+
+    /**
+     * @return the UTF-8 bytes of the device channel, or null.
+     */
+    public ByteBuffer getChannel() {
+        return duplicate(channel);
+    }
+
+    public Optional<DeviceType> getDeviceType() {
+        return deviceTypeName == null ? Optional.<DeviceType>absent() : DeviceType.find(deviceTypeName);
+    }
+
+    /**
+     * @return the device type as given in the event, or null.
+     */
+    public String getDeviceTypeName() {
+        return deviceTypeName;
+    }
+
+    /**
+     * @return the UTF-8 bytes of the named user, or null.
+     */
+    public ByteBuffer getNamedUserId() {
+        return duplicate(namedUserId);
+    }
+
+    public int getAttributeCount() {
+        return attributeNames.size();
+    }
+
+    public String getAttributeName(int index) {
+        return attributeNames.get(index);
+    }
+
+    public String getAttributeValue(int index) {
+        return attributeValues.get(index);
+    }
+
+    /**
+     * @return the raw JSON bytes of the event body, or null.
+     */
+    public ByteBuffer getBody() {
+        return duplicate(body);
+    }
+
+    /**
+     * Copies the current record into a {@link StreamEvent}, which stays valid after the next record is decoded.
+     */
+    public StreamEvent toStreamEvent() {
+        StreamEvent.Builder event = StreamEvent.newBuilder()
+                .setTypeName(typeName)
+                .setOffset(getOffset())
+                .setOccurred(occurred)
+                .setProcessed(processed)
+                .setId(string(id))
+                .setBodyJson(string(body));
+
+        if (hasDevice) {
+            Map<String, String> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < attributeNames.size(); i++) {
+                attributes.put(attributeNames.get(i), attributeValues.get(i));
+            }
+            event.setDevice(EventDevice.newBuilder()
+                    .setChannel(string(channel))
+                    .setDeviceTypeName(deviceTypeName)
+                    .setNamedUserId(string(namedUserId))
+                    .setAttributes(attributes)
+                    .build());
+        }
+
+        return event.build();
+    }
+
+    private static ByteBuffer duplicate(ByteBuffer bytes) {
+        return bytes == null ? null : bytes.duplicate();
+    }
+
+    private static String string(ByteBuffer bytes) {
+        return bytes == null ? null : StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+    }
+}
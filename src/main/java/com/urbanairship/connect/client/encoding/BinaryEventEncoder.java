@@ -0,0 +1,458 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.encoding;
+
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.consume.EventTimestamps;
+import com.urbanairship.connect.client.consume.JsonMembers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes events, as framed from the stream, into a compact binary form for handing to other services that would
+ * otherwise parse the JSON again. The encoding holds the fields of a
+ * {@link com.urbanairship.connect.client.model.event.StreamEvent}: offsets and timestamps as variable length deltas
+ * from the previous event, apart from offsets too long for a delta which are kept as they are, the event type, device type and device attributes as references into a dictionary built up
+ * as events are encoded, and the event body as its raw JSON bytes. Other fields are dropped.
+ *
+ * Events are encoded one record at a time, each prefixed with its length. Because of the deltas and dictionary a
+ * record can only be decoded by a {@link BinaryEventDecoder} that has decoded every record before it from the same
+ * encoder, in order. {@link #reset()} starts a new sequence, for instance for a new file or connection.
+ *
+ * The format of a record, where varints are unsigned LEB128 and deltas are zig-zag encoded varints:
+ * <pre>
+ * record     := varint length, flags byte, [offset delta | offset literal], type ref, [occurred delta],
+ *               [processed delta], [id literal], [device], [varint length, body bytes]
+ * device     := device type ref, channel literal, named user literal, varint count, (name ref, value ref)*
+ * ref        := varint 0 (absent) | 1, varint length, bytes (literal) | 2, varint length, bytes (new dictionary entry)
+ *               | varint 3 + index (dictionary entry)
+ * literal    := varint 0 (absent) | varint length + 1, bytes
+ * </pre>
+ * The flags mark which of offset (1), occurred (2), processed (4), id (8), device (16) and body (32) are present, and
+ * whether the offset is a literal (64). An offset is a delta when it is a decimal of up to 18 digits without leading
+ * zeros, so that it is decoded exactly as it was given.
+ * Strings are UTF-8 with JSON escapes resolved; device attribute values that aren't strings are given as JSON.
+ *
+ * An encoder is not safe for use by several threads at once.
+ */
+public final class BinaryEventEncoder {
+
+    static final int HAS_OFFSET = 1;
+    static final int HAS_OCCURRED = 2;
+    static final int HAS_PROCESSED = 4;
+    static final int HAS_ID = 8;
+    static final int HAS_DEVICE = 16;
+    static final int HAS_BODY = 32;
+    static final int OFFSET_LITERAL = 64;
+
+    static final int REF_ABSENT = 0;
+    static final int REF_LITERAL = 1;
+    static final int REF_NEW = 2;
+    static final int REF_FIRST_ENTRY = 3;
+
+    private static final byte[] ID = EventFieldScanner.key("id");
+    private static final byte[] DEVICE = EventFieldScanner.key("device");
+    private static final byte[] BODY = EventFieldScanner.key("body");
+    private static final byte[] CHANNEL = EventFieldScanner.key("channel");
+    private static final byte[] DEVICE_TYPE = EventFieldScanner.key("device_type");
+    private static final byte[] NAMED_USER_ID = EventFieldScanner.key("named_user_id");
+    private static final byte[] ATTRIBUTES = EventFieldScanner.key("attributes");
+
+    private static final int TYPE_FIELD = 0;
+    private static final int ID_FIELD = 1;
+    private static final int CHANNEL_FIELD = 2;
+    private static final int DEVICE_TYPE_FIELD = 3;
+    private static final int NAMED_USER_FIELD = 4;
+    private static final int BODY_FIELD = 5;
+    private static final int ATTRIBUTES_FIELD = 6;
+    private static final int ATTRIBUTE_VALUE_FIELD = 7;
+    private static final int OFFSET_FIELD = 8;
+    private static final int FIELDS = 9;
+
+    // Room left ahead of the record for its length
+    private static final int HEADER_BYTES = 5;
+
+    private final int maxDictionaryEntries;
+    private final int maxEntryBytes;
+
+    private Dictionary dictionary;
+    private long lastOffset;
+    private long lastOccurred;
+    private long lastProcessed;
+
+    private byte[] out = new byte[1024];
+    private int position;
+
+    // Where each field lies in the event being encoded, start -1 when absent
+    private final int[] valueStarts = new int[FIELDS];
+    private final int[] valueEnds = new int[FIELDS];
+    private final byte[][] decoded = new byte[FIELDS][];
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private BinaryEventEncoder(int maxDictionaryEntries, int maxEntryBytes) {
+        this.maxDictionaryEntries = maxDictionaryEntries;
+        this.maxEntryBytes = maxEntryBytes;
+        reset();
+    }
+
+    /**
+     * Starts a new sequence of records, with an empty dictionary and no previous event.
+     */
+    public void reset() {
+        dictionary = new Dictionary(maxDictionaryEntries);
+        lastOffset = 0L;
+        lastOccurred = 0L;
+        lastProcessed = 0L;
+    }
+
+    /**
+     * Encodes an event. The event is read in full before anything is encoded, so a malformed event leaves the encoder
+     * as it was.
+     *
+     * @param bytes buffer holding the event, for instance as handed to an {@link com.urbanairship.connect.client.sink.EventSink}
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @return a read only view of the record, length prefix included, valid until the next call.
+     * @throws JsonParseException if the event is not a JSON object or has no type.
+     */
+    public ByteBuffer encode(byte[] bytes, int offset, int length) {
+        long numericOffset = -1L;
+        long occurred = EventTimestamps.ABSENT;
+        long processed = EventTimestamps.ABSENT;
+        boolean hasDevice = false;
+        int attributeCount = 0;
+        for (int i = 0; i < FIELDS; i++) {
+            valueStarts[i] = -1;
+        }
+
+        JsonMembers members = new JsonMembers(bytes, offset, length);
+        while (members.next()) {
+            if (members.nameIs(EventFieldScanner.TYPE)) {
+                mark(TYPE_FIELD, members);
+            }
+            else if (members.nameIs(EventFieldScanner.OFFSET)) {
+                mark(OFFSET_FIELD, members);
+                numericOffset = members.longValue(-1L);
+            }
+            else if (members.nameIs(EventTimestamps.OCCURRED)) {
+                occurred = members.timestampValue();
+            }
+            else if (members.nameIs(EventTimestamps.PROCESSED)) {
+                processed = members.timestampValue();
+            }
+            else if (members.nameIs(ID)) {
+                mark(ID_FIELD, members);
+            }
+            else if (members.nameIs(BODY) && members.isObject()) {
+                mark(BODY_FIELD, members);
+            }
+            else if (members.nameIs(DEVICE) && members.isObject()) {
+                hasDevice = true;
+                JsonMembers device = members.members();
+                while (device.next()) {
+                    if (device.nameIs(CHANNEL)) {
+                        mark(CHANNEL_FIELD, device);
+                    }
+                    else if (device.nameIs(DEVICE_TYPE)) {
+                        mark(DEVICE_TYPE_FIELD, device);
+                    }
+                    else if (device.nameIs(NAMED_USER_ID)) {
+                        mark(NAMED_USER_FIELD, device);
+                    }
+                    else if (device.nameIs(ATTRIBUTES) && device.isObject()) {
+                        mark(ATTRIBUTES_FIELD, device);
+                        attributeCount = countAttributes(device.members());
+                    }
+                }
+            }
+        }
+
+        if (valueStarts[TYPE_FIELD] < 0) {
+            throw new JsonParseException("Event has no type");
+        }
+
+        long eventOffset = deltaOffset(bytes, numericOffset);
+
+        // Nothing below can fail, so the deltas and dictionary stay in step with the decoder
+        position = HEADER_BYTES;
+        int flags = (valueStarts[OFFSET_FIELD] >= 0 ? HAS_OFFSET : 0)
+                | (valueStarts[OFFSET_FIELD] >= 0 && eventOffset < 0L ? OFFSET_LITERAL : 0)
+                | (occurred != EventTimestamps.ABSENT ? HAS_OCCURRED : 0)
+                | (processed != EventTimestamps.ABSENT ? HAS_PROCESSED : 0)
+                | (valueStarts[ID_FIELD] >= 0 ? HAS_ID : 0)
+                | (hasDevice ? HAS_DEVICE : 0)
+                | (valueStarts[BODY_FIELD] >= 0 ? HAS_BODY : 0);
+        ensure(1);
+        out[position++] = (byte) flags;
+
+        if (eventOffset >= 0L) {
+            writeVarint(Varints.zigZag(eventOffset - lastOffset));
+            lastOffset = eventOffset;
+        }
+        else if (valueStarts[OFFSET_FIELD] >= 0) {
+            writeLiteral(bytes, OFFSET_FIELD);
+        }
+        writeRef(bytes, TYPE_FIELD);
+        if (occurred != EventTimestamps.ABSENT) {
+            writeVarint(Varints.zigZag(occurred - lastOccurred));
+            lastOccurred = occurred;
+        }
+        if (processed != EventTimestamps.ABSENT) {
+            writeVarint(Varints.zigZag(processed - lastProcessed));
+            lastProcessed = processed;
+        }
+        if (valueStarts[ID_FIELD] >= 0) {
+            writeLiteral(bytes, ID_FIELD);
+        }
+        if (hasDevice) {
+            writeRef(bytes, DEVICE_TYPE_FIELD);
+            writeLiteral(bytes, CHANNEL_FIELD);
+            writeLiteral(bytes, NAMED_USER_FIELD);
+            writeVarint(attributeCount);
+            if (attributeCount > 0) {
+                writeAttributes(bytes);
+            }
+        }
+        if (valueStarts[BODY_FIELD] >= 0) {
+            int bodyLength = valueEnds[BODY_FIELD] - valueStarts[BODY_FIELD];
+            writeVarint(bodyLength);
+            writeBytes(bytes, valueStarts[BODY_FIELD], bodyLength);
+        }
+
+        int recordLength = position - HEADER_BYTES;
+        int start = HEADER_BYTES - Varints.size(recordLength);
+        Varints.write(out, start, recordLength);
+        return ByteBuffer.wrap(out, start, position - start).slice().asReadOnlyBuffer();
+    }
+
+    private void mark(int field, JsonMembers members) {
+        valueStarts[field] = members.isNull() ? -1 : members.valueStart();
+        valueEnds[field] = members.valueEnd();
+        decoded[field] = members.isString() && !members.isPlainString()
+                ? members.stringValue().getBytes(StandardCharsets.UTF_8)
+                : null;
+    }
+
+    // The offset as a number, or -1 if it can't be written as a delta and still be decoded exactly as it was given
+    private long deltaOffset(byte[] bytes, long numericOffset) {
+        int start = valueStarts[OFFSET_FIELD];
+        if (start < 0 || numericOffset < 0L) {
+            return -1L;
+        }
+
+        // Every character is a digit, a leading zero would be lost
+        boolean quoted = bytes[start] == '"';
+        int first = quoted ? start + 1 : start;
+        int digits = (quoted ? valueEnds[OFFSET_FIELD] - 1 : valueEnds[OFFSET_FIELD]) - first;
+        return digits > 1 && bytes[first] == '0' ? -1L : numericOffset;
+    }
+
+    private static int countAttributes(JsonMembers attributes) {
+        int count = 0;
+        while (attributes.next()) {
+            if (!attributes.isNull()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void writeAttributes(byte[] bytes) {
+        JsonMembers attributes = new JsonMembers(bytes, valueStarts[ATTRIBUTES_FIELD],
+                valueEnds[ATTRIBUTES_FIELD] - valueStarts[ATTRIBUTES_FIELD]);
+        while (attributes.next()) {
+            if (attributes.isNull()) {
+                continue;
+            }
+
+            if (attributes.isPlainName()) {
+                writeRef(bytes, attributes.nameStart(), attributes.nameEnd() - attributes.nameStart());
+            }
+            else {
+                byte[] name = attributes.name().getBytes(StandardCharsets.UTF_8);
+                writeRef(name, 0, name.length);
+            }
+
+            mark(ATTRIBUTE_VALUE_FIELD, attributes);
+            writeRef(bytes, ATTRIBUTE_VALUE_FIELD);
+        }
+    }
+
+    private void writeRef(byte[] bytes, int field) {
+        int start = valueStarts[field];
+        if (start < 0) {
+            writeVarint(REF_ABSENT);
+        }
+        else if (decoded[field] != null) {
+            writeRef(decoded[field], 0, decoded[field].length);
+        }
+        else if (bytes[start] == '"') {
+            writeRef(bytes, start + 1, valueEnds[field] - start - 2);
+        }
+        else {
+            writeRef(bytes, start, valueEnds[field] - start);
+        }
+    }
+
+    private void writeRef(byte[] bytes, int offset, int length) {
+        int index = dictionary.find(bytes, offset, length);
+        if (index >= 0) {
+            writeVarint(REF_FIRST_ENTRY + index);
+            return;
+        }
+
+        if (length <= maxEntryBytes && dictionary.size() < maxDictionaryEntries) {
+            dictionary.add(bytes, offset, length);
+            writeVarint(REF_NEW);
+        }
+        else {
+            writeVarint(REF_LITERAL);
+        }
+        writeVarint(length);
+        writeBytes(bytes, offset, length);
+    }
+
+    private void writeLiteral(byte[] bytes, int field) {
+        int start = valueStarts[field];
+        if (start < 0) {
+            writeVarint(0L);
+        }
+        else if (decoded[field] != null) {
+            writeVarint(decoded[field].length + 1L);
+            writeBytes(decoded[field], 0, decoded[field].length);
+        }
+        else if (bytes[start] == '"') {
+            writeVarint(valueEnds[field] - start - 1L);
+            writeBytes(bytes, start + 1, valueEnds[field] - start - 2);
+        }
+        else {
+            writeVarint(valueEnds[field] - start + 1L);
+            writeBytes(bytes, start, valueEnds[field] - start);
+        }
+    }
+
+    private void writeVarint(long value) {
+        ensure(Varints.MAX_BYTES);
+        position = Varints.write(out, position, value);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, out, position, length);
+        position += length;
+    }
+
+    private void ensure(int bytes) {
+        if (position + bytes > out.length) {
+            byte[] larger = new byte[(int) Math.min(Math.max(2L * out.length, (long) position + bytes), Integer.MAX_VALUE - 8)];
+            System.arraycopy(out, 0, larger, 0, position);
+            out = larger;
+        }
+    }
+
+    /**
+     * Byte strings by index, looked up without decoding them.
+     */
+    private static final class Dictionary {
+
+        private final byte[][] entries;
+        private final int[] slots;
+        private final int mask;
+        private int size = 0;
+
+        private Dictionary(int maxEntries) {
+            this.entries = new byte[maxEntries][];
+            int capacity = Integer.highestOneBit(Math.max(2, maxEntries * 2 - 1)) << 1;
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int find(byte[] bytes, int offset, int length) {
+            for (int slot = hash(bytes, offset, length) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                byte[] entry = entries[slots[slot] - 1];
+                if (equal(entry, bytes, offset, length)) {
+                    return slots[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        private void add(byte[] bytes, int offset, int length) {
+            byte[] entry = new byte[length];
+            System.arraycopy(bytes, offset, entry, 0, length);
+            entries[size++] = entry;
+
+            int slot = hash(bytes, offset, length) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = size;
+        }
+
+        private static int hash(byte[] bytes, int offset, int length) {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equal(byte[] entry, byte[] bytes, int offset, int length) {
+            if (entry.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (entry[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static final class Builder {
+
+        private int maxDictionaryEntries = 4096;
+        private int maxEntryBytes = 64;
+
+        private Builder() { }
+
+        /**
+         * @param maxDictionaryEntries number of distinct values the dictionary holds, after which new values are
+         *                             written in full every time. Defaults to 4096.
+         */
+        public Builder setMaxDictionaryEntries(int maxDictionaryEntries) {
+            this.maxDictionaryEntries = maxDictionaryEntries;
+            return this;
+        }
+
+        /**
+         * @param maxEntryBytes length above which values are written in full rather than added to the dictionary.
+         *                      Defaults to 64.
+         */
+        public Builder setMaxEntryBytes(int maxEntryBytes) {
+            this.maxEntryBytes = maxEntryBytes;
+            return this;
+        }
+
+        public BinaryEventEncoder build() {
+            Preconditions.checkArgument(maxDictionaryEntries > 0 && maxDictionaryEntries <= 1 << 24,
+                    "Max dictionary entries must be > 0 and <= 2^24");
+            Preconditions.checkArgument(maxEntryBytes >= 0, "Max entry bytes must be >= 0");
+
+            return new BinaryEventEncoder(maxDictionaryEntries, maxEntryBytes);
+        }
+    }
+}
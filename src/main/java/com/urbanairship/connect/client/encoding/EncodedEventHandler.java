@@ -0,0 +1,26 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the binary record of each event from a {@link com.urbanairship.connect.client.sink.BinaryEventSink}.
+ */
+public interface EncodedEventHandler {
+
+    /**
+     * Handles a record, for instance by writing it to a file or a socket. Records must be kept in the order they are
+     * handed out, as each one can only be decoded after those before it.
+     *
+     * @param record the record, length prefix included. It is overwritten by the next record once the call returns,
+     *               so it must be copied if it is needed afterwards.
+     * @param eventOffset the event's offset in the stream.
+     * @throws IOException if the record could not be handled, in which case the sink fails.
+     */
+    void handle(ByteBuffer record, String eventOffset) throws IOException;
+
+}
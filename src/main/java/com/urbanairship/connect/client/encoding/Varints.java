@@ -0,0 +1,80 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.encoding;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 variable length integers, and zig-zag encoding for signed values so that small negative numbers stay
+ * small.
+ */
+final class Varints {
+
+    static final int MAX_BYTES = 10;
+
+    private Varints() { }
+
+    /**
+     * @return index just past the written value.
+     */
+    static int write(byte[] out, int position, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    static int size(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0L) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    /**
+     * Reads a value at the buffer's position, advancing it.
+     *
+     * @throws IllegalArgumentException if the value is incomplete or too long.
+     */
+    static long read(ByteBuffer in) {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads an int value at the buffer's position, advancing it.
+     *
+     * @throws IllegalArgumentException if the value is incomplete or doesn't fit in a non negative int.
+     */
+    static int readInt(ByteBuffer in) {
+        long value = read(in);
+        if (value < 0L || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value out of range: " + value);
+        }
+        return (int) value;
+    }
+}
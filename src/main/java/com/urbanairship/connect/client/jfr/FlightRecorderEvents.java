@@ -0,0 +1,82 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+/**
+ * Emits Java Flight Recorder events describing the behavior of streams, so that it can be correlated with GC, CPU and
+ * other activity in a recording. Intended for use by the library itself.
+ *
+ * This version is used on Java runtimes older than 11, where every method does nothing. The library jar is a
+ * multi-release jar and on Java 11 or later an implementation built on {@code jdk.jfr} is used instead. Its events are
+ * disabled by default and have to be enabled in the recording settings, under the "Airship" category, for example:
+ * <pre>
+ *     jcmd &lt;pid&gt; JFR.start settings=custom.jfc
+ * </pre>
+ * with {@code com.urbanairship.connect.*} events enabled in {@code custom.jfc}.
+ */
+public final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() { }
+
+    /**
+     * A connection attempt completed.
+     *
+     * @param appKey the app the stream belongs to.
+     * @param url the endpoint the attempt was made to.
+     * @param attempt number of the attempt, starting at 1, within the current connection.
+     * @param statusCode the final response status code, or 0 if no response was received.
+     * @param durationNanos time taken by the attempt, including any redirect.
+     */
+    public static void connect(String appKey, String url, int attempt, int statusCode, long durationNanos) { }
+
+    /**
+     * The endpoint redirected a connection attempt.
+     *
+     * @param appKey the app the stream belongs to.
+     * @param url the endpoint that redirected.
+     */
+    public static void redirect(String appKey, String url) { }
+
+    /**
+     * An established connection ended.
+     *
+     * @param appKey the app the stream belongs to.
+     * @param connectedNanos how long the connection was established for.
+     * @param error description of the error that ended the connection, or null.
+     */
+    public static void disconnect(String appKey, long connectedNanos, String error) { }
+
+    /**
+     * @return whether body part events are recorded. When they are not, callers can skip measuring them.
+     */
+    public static boolean isBodyPartEnabled() {
+        return false;
+    }
+
+    /**
+     * A part of a response body was delivered.
+     *
+     * @param bytes size of the body part.
+     * @param consumerWaitNanos time the body part waited for the body to start being consumed.
+     * @param deliveryNanos time taken to frame and deliver the events in the body part.
+     */
+    public static void bodyPart(int bytes, long consumerWaitNanos, long deliveryNanos) { }
+
+    /**
+     * Stopping a response handler had to wait for a body part being delivered to finish.
+     *
+     * @param waitNanos time spent waiting for the consume permit.
+     */
+    public static void consumePermitWait(long waitNanos) { }
+
+    /**
+     * Delivery of an event was held up by a full queue.
+     *
+     * @param appKey the app the stream belongs to.
+     * @param blockedNanos time spent blocked.
+     * @param queueSize number of events in the queue once the delivery finished or was abandoned.
+     */
+    public static void queueBlocked(String appKey, long blockedNanos, int queueSize) { }
+}
@@ -0,0 +1,210 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link StreamMetrics} that keeps running totals in memory, suitable for periodically polling and publishing to a
+ * monitoring system. Durations are reported in nanoseconds.
+ */
+public final class InMemoryStreamMetrics implements StreamMetrics {
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong eventsFramed = new AtomicLong();
+    private final AtomicLong oversizedLines = new AtomicLong();
+    private final AtomicLong eventsEnqueued = new AtomicLong();
+    private final AtomicLong enqueueBlockedNanos = new AtomicLong();
+    private final AtomicLong enqueueBlockedCount = new AtomicLong();
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connectSuccesses = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong redirects = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong totalReconnectGapNanos = new AtomicLong();
+    private final AtomicLong maxReconnectGapNanos = new AtomicLong();
+
+    private volatile int queueDepth = 0;
+    private volatile int lastFailureStatusCode = -1;
+    private volatile long lastConnectNanos = -1L;
+    private volatile long lastFirstByteNanos = -1L;
+
+    @Override
+    public void bytesReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    @Override
+    public void eventFramed() {
+        eventsFramed.incrementAndGet();
+    }
+
+    @Override
+    public void oversizedLine(long bytes) {
+        oversizedLines.incrementAndGet();
+    }
+
+    @Override
+    public void eventEnqueued(int queueDepth) {
+        eventsEnqueued.incrementAndGet();
+        this.queueDepth = queueDepth;
+    }
+
+    @Override
+    public void enqueueBlocked(long nanos) {
+        enqueueBlockedCount.incrementAndGet();
+        enqueueBlockedNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public void connectAttempted() {
+        connectAttempts.incrementAndGet();
+    }
+
+    @Override
+    public void connectSucceeded(long nanos) {
+        connectSuccesses.incrementAndGet();
+        lastConnectNanos = nanos;
+    }
+
+    @Override
+    public void connectFailed(int statusCode, long nanos) {
+        connectFailures.incrementAndGet();
+        lastFailureStatusCode = statusCode;
+    }
+
+    @Override
+    public void redirected() {
+        redirects.incrementAndGet();
+    }
+
+    @Override
+    public void firstByte(long nanos) {
+        lastFirstByteNanos = nanos;
+    }
+
+    @Override
+    public void reconnectGap(long nanos) {
+        reconnects.incrementAndGet();
+        totalReconnectGapNanos.addAndGet(nanos);
+
+        long max;
+        do {
+            max = maxReconnectGapNanos.get();
+        } while (nanos > max && !maxReconnectGapNanos.compareAndSet(max, nanos));
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getEventsFramed() {
+        return eventsFramed.get();
+    }
+
+    /**
+     * @return the number of lines received that were longer than the maximum event size.
+     */
+    public long getOversizedLines() {
+        return oversizedLines.get();
+    }
+
+    public long getEventsEnqueued() {
+        return eventsEnqueued.get();
+    }
+
+    /**
+     * @return the queue depth seen when the most recent event was enqueued.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the number of times delivery blocked on a full queue.
+     */
+    public long getEnqueueBlockedCount() {
+        return enqueueBlockedCount.get();
+    }
+
+    /**
+     * @return total time delivery spent blocked on a full queue.
+     */
+    public long getEnqueueBlockedNanos() {
+        return enqueueBlockedNanos.get();
+    }
+
+    public long getConnectAttempts() {
+        return connectAttempts.get();
+    }
+
+    public long getConnectSuccesses() {
+        return connectSuccesses.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    /**
+     * @return the status code of the most recent failed attempt, 0 if it received no response or -1 if no attempt has
+     * failed.
+     */
+    public int getLastFailureStatusCode() {
+        return lastFailureStatusCode;
+    }
+
+    /**
+     * @return connect time of the most recent successful attempt, or -1 if none has succeeded.
+     */
+    public long getLastConnectNanos() {
+        return lastConnectNanos;
+    }
+
+    public long getRedirects() {
+        return redirects.get();
+    }
+
+    /**
+     * @return time to first byte of the most recent connection to receive any data, or -1 if none has.
+     */
+    public long getLastFirstByteNanos() {
+        return lastFirstByteNanos;
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getTotalReconnectGapNanos() {
+        return totalReconnectGapNanos.get();
+    }
+
+    public long getMaxReconnectGapNanos() {
+        return maxReconnectGapNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("bytesReceived", getBytesReceived())
+                .add("eventsFramed", getEventsFramed())
+                .add("oversizedLines", getOversizedLines())
+                .add("eventsEnqueued", getEventsEnqueued())
+                .add("queueDepth", getQueueDepth())
+                .add("enqueueBlockedCount", getEnqueueBlockedCount())
+                .add("enqueueBlockedNanos", getEnqueueBlockedNanos())
+                .add("connectAttempts", getConnectAttempts())
+                .add("connectSuccesses", getConnectSuccesses())
+                .add("connectFailures", getConnectFailures())
+                .add("redirects", getRedirects())
+                .add("lastFirstByteNanos", getLastFirstByteNanos())
+                .add("reconnects", getReconnects())
+                .add("maxReconnectGapNanos", getMaxReconnectGapNanos())
+                .toString();
+    }
+}
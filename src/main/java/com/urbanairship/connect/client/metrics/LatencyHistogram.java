@@ -0,0 +1,94 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of non-negative values in the style of HdrHistogram. Values are counted in buckets whose
+ * width grows with their magnitude so that any recorded value is reported with a relative error of at most 1/32
+ * (about 3%), while the histogram itself stays a fixed size. Values below 32 are counted exactly.
+ *
+ * Recording is lock free and allocates nothing. Values larger than {@link #MAX_TRACKABLE_VALUE} are counted as that
+ * value and negative values as 0.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    public static final long MAX_TRACKABLE_VALUE = (1L << (MAX_EXPONENT + 1)) - 1L;
+
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        else if (value > MAX_TRACKABLE_VALUE) {
+            value = MAX_TRACKABLE_VALUE;
+        }
+
+        counts.incrementAndGet(bucket(value));
+        total.addAndGet(value);
+
+        long current;
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+    public LatencySnapshot getSnapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Takes a snapshot and starts counting afresh, for reporting the distribution over successive intervals. Values
+     * recorded while the snapshot is being taken land in either this snapshot or the next one.
+     */
+    public LatencySnapshot getSnapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private LatencySnapshot snapshot(boolean reset) {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = reset ? counts.getAndSet(i, 0L) : counts.get(i);
+        }
+
+        long sum = reset ? total.getAndSet(0L) : total.get();
+        long maxValue = reset ? max.getAndSet(0L) : max.get();
+        return new LatencySnapshot(copy, sum, maxValue);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The largest value counted in the given bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1L;
+    }
+}
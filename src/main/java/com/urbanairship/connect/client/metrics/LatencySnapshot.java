@@ -0,0 +1,94 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable copy of the distribution held by a {@link LatencyHistogram}. Values are in whatever unit was recorded.
+ */
+public final class LatencySnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    LatencySnapshot(long[] counts, long sum, long max) {
+        long count = 0L;
+        for (long c : counts) {
+            count += c;
+        }
+
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0L ? 0D : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the value at or below which the given percentage of recorded values fall, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0D && percentile <= 100D, "Percentile must be between 0 and 100");
+        if (count == 0L) {
+            return 0L;
+        }
+
+        long target = Math.max(1L, (long) Math.ceil(percentile / 100D * count));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(LatencyHistogram.highestValue(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50D);
+    }
+
+    public long getP90() {
+        return getValueAtPercentile(90D);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99D);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9D);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("count", count)
+                .add("mean", getMean())
+                .add("p50", getP50())
+                .add("p90", getP90())
+                .add("p99", getP99())
+                .add("p999", getP999())
+                .add("max", max)
+                .toString();
+    }
+}
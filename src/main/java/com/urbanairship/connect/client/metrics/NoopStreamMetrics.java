@@ -0,0 +1,45 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+/**
+ * {@link StreamMetrics} that ignores every measurement. This is the default for streams that have not been given any
+ * metrics, and a convenient base class for implementations that are only interested in some of the hooks.
+ */
+public class NoopStreamMetrics implements StreamMetrics {
+
+    @Override
+    public void bytesReceived(int bytes) { }
+
+    @Override
+    public void eventFramed() { }
+
+    @Override
+    public void oversizedLine(long bytes) { }
+
+    @Override
+    public void eventEnqueued(int queueDepth) { }
+
+    @Override
+    public void enqueueBlocked(long nanos) { }
+
+    @Override
+    public void connectAttempted() { }
+
+    @Override
+    public void connectSucceeded(long nanos) { }
+
+    @Override
+    public void connectFailed(int statusCode, long nanos) { }
+
+    @Override
+    public void redirected() { }
+
+    @Override
+    public void firstByte(long nanos) { }
+
+    @Override
+    public void reconnectGap(long nanos) { }
+}
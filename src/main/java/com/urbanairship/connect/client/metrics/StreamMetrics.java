@@ -0,0 +1,92 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+/**
+ * Receives measurements from a stream as it connects to the Airship Real-Time Data Streaming endpoint and consumes
+ * events. A single instance may be shared by several streams.
+ *
+ * Most hooks are called from the thread delivering the response body, once per body part or event, so implementations
+ * must be thread safe, should not block and should avoid allocating. Durations are in nanoseconds.
+ *
+ * See {@link NoopStreamMetrics}, which can also be extended to implement only some of the hooks, and
+ * {@link InMemoryStreamMetrics}.
+ */
+public interface StreamMetrics {
+
+    /**
+     * A part of the response body was received.
+     *
+     * @param bytes size of the body part.
+     */
+    void bytesReceived(int bytes);
+
+    /**
+     * A complete line was framed out of the response body, including OFFSET_UPDATE records.
+     */
+    void eventFramed();
+
+    /**
+     * A line longer than the maximum event size was received, and was handed to an oversized event handler or skipped
+     * rather than framed.
+     *
+     * @param bytes size of the line.
+     */
+    void oversizedLine(long bytes);
+
+    /**
+     * An event was placed on the stream's queue.
+     *
+     * @param queueDepth number of events in the queue just after the event was added.
+     */
+    void eventEnqueued(int queueDepth);
+
+    /**
+     * Delivery of an event was held up because the stream's queue was full, reported once the event was enqueued or
+     * delivery was abandoned.
+     *
+     * @param nanos time spent blocked.
+     */
+    void enqueueBlocked(long nanos);
+
+    /**
+     * A connection attempt is being made.
+     */
+    void connectAttempted();
+
+    /**
+     * A connection attempt succeeded, following any redirect.
+     *
+     * @param nanos time from the start of the attempt until the successful response status and headers were received.
+     */
+    void connectSucceeded(long nanos);
+
+    /**
+     * A connection attempt failed.
+     *
+     * @param statusCode the response status code, or 0 if no response was received.
+     * @param nanos time from the start of the attempt until it failed.
+     */
+    void connectFailed(int statusCode, long nanos);
+
+    /**
+     * The endpoint redirected a connection attempt.
+     */
+    void redirected();
+
+    /**
+     * The first part of the response body was received on a connection.
+     *
+     * @param nanos time from the start of the connection attempt.
+     */
+    void firstByte(long nanos);
+
+    /**
+     * Data started flowing again after a connection was lost.
+     *
+     * @param nanos time from the end of the lost connection until the first line was received on its replacement.
+     */
+    void reconnectGap(long nanos);
+}
@@ -28,6 +28,7 @@ public final class StreamQueryDescriptor {
     private final Optional<Subset> subset;
     private final Optional<Boolean> offsetUpdatesEnabled;
     private final String endpointUrl;
+    private final boolean compressionEnabled;
 
     /**
      * StreamDescriptor builder
@@ -37,12 +38,13 @@ public final class StreamQueryDescriptor {
         return new Builder();
     }
 
-    private StreamQueryDescriptor(Creds creds, Set<Filter> filters, Optional<Subset> subset, Optional<Boolean> offsetUpdatesEnabled, String endpointUrl) {
+    private StreamQueryDescriptor(Creds creds, Set<Filter> filters, Optional<Subset> subset, Optional<Boolean> offsetUpdatesEnabled, String endpointUrl, boolean compressionEnabled) {
         this.creds = creds;
         this.filters = filters;
         this.subset = subset;
         this.offsetUpdatesEnabled = offsetUpdatesEnabled;
         this.endpointUrl = endpointUrl;
+        this.compressionEnabled = compressionEnabled;
     }
 
     /**
@@ -90,6 +92,15 @@ public final class StreamQueryDescriptor {
         return endpointUrl;
     }
 
+    /**
+     * Get whether a compressed response is requested
+     *
+     * @return true if the response may be gzip or deflate encoded, false otherwise
+     */
+    public boolean compressionEnabled() {
+        return compressionEnabled;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -99,12 +110,13 @@ public final class StreamQueryDescriptor {
                 Objects.equals(filters, that.filters) &&
                 Objects.equals(subset, that.subset) &&
                 Objects.equals(offsetUpdatesEnabled, that.offsetUpdatesEnabled) &&
-                Objects.equals(endpointUrl, that.endpointUrl);
+                Objects.equals(endpointUrl, that.endpointUrl) &&
+                compressionEnabled == that.compressionEnabled;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(creds, filters, subset, offsetUpdatesEnabled, endpointUrl);
+        return Objects.hash(creds, filters, subset, offsetUpdatesEnabled, endpointUrl, compressionEnabled);
     }
 
     public static final class Builder {
@@ -115,6 +127,7 @@ public final class StreamQueryDescriptor {
         private Subset subset = null;
         private Optional<Boolean> offsetUpdatesEnabled = Optional.absent();
         private String endpointUrl = Constants.API_URL;
+        private boolean compressionEnabled = false;
 
         private Builder() {}
 
@@ -176,6 +189,17 @@ public final class StreamQueryDescriptor {
             return this;
         }
 
+        /**
+         * Request the response in gzip or deflate encoding. The response is decompressed incrementally as it is
+         * received, so events and offsets are unaffected, at the cost of some CPU for a large saving in bandwidth.
+         *
+         * @return Builder
+         */
+        public Builder enableCompression() {
+            this.compressionEnabled = true;
+            return this;
+        }
+
         /**
          * Builder a StreamDescriptor object.
          * @return StreamDescriptor
@@ -189,7 +213,8 @@ public final class StreamQueryDescriptor {
                     ImmutableSet.copyOf(filters),
                     Optional.fromNullable(subset),
                     offsetUpdatesEnabled,
-                    endpointUrl);
+                    endpointUrl,
+                    compressionEnabled);
         }
     }
 }
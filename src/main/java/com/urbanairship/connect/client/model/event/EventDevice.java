@@ -0,0 +1,126 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.model.event;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.urbanairship.connect.client.model.request.filters.DeviceType;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The device an event is associated with, from the event's {@code device} field.
+ */
+public final class EventDevice {
+
+    private final String channel;
+    private final String deviceTypeName;
+    private final DeviceType deviceType;
+    private final String namedUserId;
+    private final ImmutableMap<String, String> attributes;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private EventDevice(String channel, String deviceTypeName, String namedUserId, ImmutableMap<String, String> attributes) {
+        this.channel = channel;
+        this.deviceTypeName = deviceTypeName;
+        this.deviceType = deviceTypeName == null ? null : DeviceType.find(deviceTypeName).orNull();
+        this.namedUserId = namedUserId;
+        this.attributes = attributes;
+    }
+
+    public Optional<String> getChannel() {
+        return Optional.fromNullable(channel);
+    }
+
+    /**
+     * @return the device type, absent if the event has none or it is not one known to this release.
+     */
+    public Optional<DeviceType> getDeviceType() {
+        return Optional.fromNullable(deviceType);
+    }
+
+    /**
+     * @return the device type as given in the event.
+     */
+    public Optional<String> getDeviceTypeName() {
+        return Optional.fromNullable(deviceTypeName);
+    }
+
+    public Optional<String> getNamedUserId() {
+        return Optional.fromNullable(namedUserId);
+    }
+
+    /**
+     * @return the device's attributes. Values that aren't strings are given as JSON.
+     */
+    public ImmutableMap<String, String> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EventDevice)) return false;
+        EventDevice that = (EventDevice) o;
+        return Objects.equals(channel, that.channel) &&
+                Objects.equals(deviceTypeName, that.deviceTypeName) &&
+                Objects.equals(namedUserId, that.namedUserId) &&
+                Objects.equals(attributes, that.attributes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(channel, deviceTypeName, namedUserId, attributes);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("channel", channel)
+                .add("deviceType", deviceTypeName)
+                .add("namedUserId", namedUserId)
+                .add("attributes", attributes)
+                .toString();
+    }
+
+    public static final class Builder {
+
+        private String channel = null;
+        private String deviceTypeName = null;
+        private String namedUserId = null;
+        private ImmutableMap<String, String> attributes = ImmutableMap.of();
+
+        private Builder() { }
+
+        public Builder setChannel(String channel) {
+            this.channel = channel;
+            return this;
+        }
+
+        public Builder setDeviceTypeName(String deviceTypeName) {
+            this.deviceTypeName = deviceTypeName;
+            return this;
+        }
+
+        public Builder setNamedUserId(String namedUserId) {
+            this.namedUserId = namedUserId;
+            return this;
+        }
+
+        public Builder setAttributes(Map<String, String> attributes) {
+            this.attributes = ImmutableMap.copyOf(attributes);
+            return this;
+        }
+
+        public EventDevice build() {
+            return new EventDevice(channel, deviceTypeName, namedUserId, attributes);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.model.event;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The kinds of event sent by the Real-Time Data Streaming API, as given by an event's {@code type} field. Types added
+ * to the API after this release are read as {@link #UNKNOWN}, with the type name still available from
+ * {@link StreamEvent#getTypeName()}.
+ */
+public enum EventType {
+
+    ATTRIBUTE_OPERATION,
+    CLOSE,
+    CONTROL,
+    CUSTOM,
+    FIRST_OPEN,
+    IN_APP_BUTTON_TAP,
+    IN_APP_EXPERIENCES,
+    IN_APP_FORM_DISPLAY,
+    IN_APP_FORM_RESULT,
+    IN_APP_MESSAGE_DISPLAY,
+    IN_APP_MESSAGE_EXPIRATION,
+    IN_APP_MESSAGE_RESOLUTION,
+    IN_APP_PAGE_SWIPE,
+    IN_APP_PAGE_VIEW,
+    IN_APP_PAGER_COMPLETED,
+    IN_APP_PAGER_SUMMARY,
+    IN_APP_PERMISSION_RESULT,
+    LOCATION,
+    MOBILE_ORIGINATED,
+    OFFSET_UPDATE,
+    OPEN,
+    PUSH_BODY,
+    REGION,
+    RICH_DELETE,
+    RICH_DELIVERY,
+    RICH_READ,
+    SCREEN_VIEWED,
+    SEND,
+    SEND_ABORTED,
+    SEND_REJECTED,
+    SHORT_LINK_CLICK,
+    SUBSCRIPTION,
+    TAG_CHANGE,
+    UNINSTALL,
+    WEB_CLICK,
+    WEB_SESSION,
+    UNKNOWN;
+
+    private static final ImmutableMap<String, EventType> BY_NAME;
+    static {
+        ImmutableMap.Builder<String, EventType> byName = ImmutableMap.builder();
+        for (EventType type : values()) {
+            if (type != UNKNOWN) {
+                byName.put(type.name(), type);
+            }
+        }
+        BY_NAME = byName.build();
+    }
+
+    /**
+     * @param name the value of an event's {@code type} field.
+     * @return the matching type, or {@link #UNKNOWN}.
+     */
+    public static EventType fromName(String name) {
+        EventType type = BY_NAME.get(name);
+        return type == null ? UNKNOWN : type;
+    }
+}
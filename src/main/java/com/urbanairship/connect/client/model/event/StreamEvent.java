@@ -0,0 +1,200 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.model.event;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.Objects;
+
+/**
+ * A typed view of a single event from the Real-Time Data Streaming API, as read by
+ * {@link com.urbanairship.connect.client.consume.StreamEventParser}.
+ *
+ * The fields common to every event are held as primitives, enums and strings shared between events where the parser
+ * interns them. The event body varies by type and is kept as its JSON text, which takes far less memory than a parse
+ * tree, and is only parsed when asked for with {@link #parseBody()}.
+ */
+public final class StreamEvent {
+
+    /**
+     * Time of an event without the timestamp, see {@link com.urbanairship.connect.client.consume.EventTimestamps#ABSENT}.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private final String id;
+    private final String offset;
+    private final String typeName;
+    private final EventType type;
+    private final long occurred;
+    private final long processed;
+    private final EventDevice device;
+    private final String body;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private StreamEvent(Builder builder) {
+        this.id = builder.id;
+        this.offset = builder.offset;
+        this.typeName = builder.typeName;
+        this.type = EventType.fromName(builder.typeName);
+        this.occurred = builder.occurred;
+        this.processed = builder.processed;
+        this.device = builder.device;
+        this.body = builder.body;
+    }
+
+    public Optional<String> getId() {
+        return Optional.fromNullable(id);
+    }
+
+    /**
+     * @return the event's position in the stream, exactly as given in the event. Offsets are decimal numbers of any
+     * length; pass one to {@link com.urbanairship.connect.client.model.request.StartPosition#offset(String)} to resume
+     * from it.
+     */
+    public Optional<String> getOffset() {
+        return Optional.fromNullable(offset);
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * @return the type as given in the event, which is of use when the type is {@link EventType#UNKNOWN}.
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * @return when the event occurred in milliseconds since the epoch, or {@link #NO_TIME}.
+     */
+    public long getOccurred() {
+        return occurred;
+    }
+
+    /**
+     * @return when the event was processed by Airship in milliseconds since the epoch, or {@link #NO_TIME}.
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public Optional<EventDevice> getDevice() {
+        return Optional.fromNullable(device);
+    }
+
+    /**
+     * @return the JSON text of the event body.
+     */
+    public Optional<String> getBodyJson() {
+        return Optional.fromNullable(body);
+    }
+
+    /**
+     * Parses the event body. The result is not kept, so callers that need the body more than once should hold on to it.
+     *
+     * @return the body, empty if the event has none.
+     */
+    public JsonObject parseBody() {
+        return body == null ? new JsonObject() : JsonParser.parseString(body).getAsJsonObject();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StreamEvent)) return false;
+        StreamEvent that = (StreamEvent) o;
+        return occurred == that.occurred &&
+                processed == that.processed &&
+                Objects.equals(id, that.id) &&
+                Objects.equals(offset, that.offset) &&
+                Objects.equals(typeName, that.typeName) &&
+                Objects.equals(device, that.device) &&
+                Objects.equals(body, that.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, offset, typeName, occurred, processed, device, body);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("offset", offset)
+                .add("type", typeName)
+                .add("occurred", occurred)
+                .add("processed", processed)
+                .add("device", device)
+                .add("body", body)
+                .toString();
+    }
+
+    public static final class Builder {
+
+        private String id = null;
+        private String offset = null;
+        private String typeName = null;
+        private long occurred = NO_TIME;
+        private long processed = NO_TIME;
+        private EventDevice device = null;
+        private String body = null;
+
+        private Builder() { }
+
+        public Builder setId(String id) {
+            this.id = id;
+            return this;
+        }
+
+        public Builder setOffset(String offset) {
+            this.offset = offset;
+            return this;
+        }
+
+        public Builder setTypeName(String typeName) {
+            this.typeName = typeName;
+            return this;
+        }
+
+        public Builder setOccurred(long occurred) {
+            this.occurred = occurred;
+            return this;
+        }
+
+        public Builder setProcessed(long processed) {
+            this.processed = processed;
+            return this;
+        }
+
+        public Builder setDevice(EventDevice device) {
+            this.device = device;
+            return this;
+        }
+
+        /**
+         * @param body JSON text of the event body.
+         */
+        public Builder setBodyJson(String body) {
+            this.body = body;
+            return this;
+        }
+
+        public StreamEvent build() {
+            Preconditions.checkNotNull(typeName, "Type must be set");
+
+            return new StreamEvent(this);
+        }
+    }
+}
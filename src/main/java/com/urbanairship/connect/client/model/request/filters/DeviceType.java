@@ -1,5 +1,7 @@
 package com.urbanairship.connect.client.model.request.filters;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
@@ -9,7 +11,17 @@ import java.lang.reflect.Type;
 
 public enum DeviceType {
 
-    IOS("ios"), ANDROID("android"), AMAZON("amazon"), SMS("sms"), OPEN("open"), EMAIL("email");
+    IOS("ios"), ANDROID("android"), AMAZON("amazon"), SMS("sms"), OPEN("open"), EMAIL("email"), WEB("web");
+
+    private static final ImmutableMap<String, DeviceType> BY_VALUE;
+    static {
+        ImmutableMap.Builder<String, DeviceType> byValue = ImmutableMap.builder();
+        for (DeviceType deviceType : values()) {
+            byValue.put(deviceType.name(), deviceType);
+            byValue.put(deviceType.serializedValue, deviceType);
+        }
+        BY_VALUE = byValue.build();
+    }
 
     private final String serializedValue;
 
@@ -21,6 +33,14 @@ public enum DeviceType {
         return serializedValue;
     }
 
+    /**
+     * Finds the device type named by a value such as the {@code device_type} of an event, which may be in upper or
+     * lower case.
+     */
+    public static Optional<DeviceType> find(String value) {
+        return Optional.fromNullable(BY_VALUE.get(value));
+    }
+
     public static final JsonSerializer<DeviceType> SERIALIZER = new JsonSerializer<DeviceType>() {
         @Override
         public JsonElement serialize(DeviceType deviceType, Type type, JsonSerializationContext jsonSerializationContext) {
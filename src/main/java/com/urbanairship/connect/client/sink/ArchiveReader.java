@@ -0,0 +1,499 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.consume.EventTimestamps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads events back, in order, from a directory written by {@link RollingFileSink} or {@link SegmentArchiveSink}.
+ * Files are memory mapped rather than read through streams, and only the durable part of each file is read: NDJSON
+ * files up to their checkpoint and segments up to their last indexed block.
+ *
+ * The reader can first be positioned with {@link #seekAfterOffset(String)} or {@link #seekOccurredFrom(long)}. Whole
+ * files are skipped using their checkpoints or indexes, and within a segment reading starts from the indexed block
+ * holding the position, so only the events from that block on are decompressed and scanned.
+ *
+ * The files present when the reader is opened are read. Instances are not thread safe.
+ */
+public final class ArchiveReader implements Closeable {
+
+    // NDJSON files are mapped a window at a time so files of any size can be read
+    private static final long WINDOW_BYTES = 64L * 1024L * 1024L;
+
+    private final List<EventFile> files;
+    private int fileIndex = 0;
+    private boolean pending = false;
+    private boolean closed = false;
+
+    /**
+     * Opens the files written to a directory by a sink.
+     *
+     * @param directory the sink's directory.
+     * @param prefix the sink's file name prefix.
+     * @throws IOException if the directory could not be listed.
+     * @throws IllegalArgumentException if the directory holds both NDJSON files and segments with the prefix.
+     */
+    public static ArchiveReader open(Path directory, String prefix) throws IOException {
+        return open(directory, prefix, WINDOW_BYTES);
+    }
+
+    @VisibleForTesting
+    static ArchiveReader open(Path directory, String prefix, long windowBytes) throws IOException {
+        TreeMap<Long, Path> ndjson = SinkFiles.list(directory, SinkFiles.pattern(prefix, RollingFileSink.DATA_SUFFIX));
+        TreeMap<Long, Path> segments = SinkFiles.list(directory, SinkFiles.pattern(prefix, SegmentArchiveSink.DATA_SUFFIX));
+        Preconditions.checkArgument(ndjson.isEmpty() || segments.isEmpty(),
+                "Directory %s holds both NDJSON files and segments named %s", directory, prefix);
+
+        List<EventFile> files = new ArrayList<>();
+        for (Path file : ndjson.values()) {
+            files.add(new NdjsonFile(file, windowBytes));
+        }
+        for (Path segment : segments.values()) {
+            files.add(new SegmentFile(segment));
+        }
+
+        return new ArchiveReader(files);
+    }
+
+    private ArchiveReader(List<EventFile> files) {
+        this.files = files;
+    }
+
+    /**
+     * Positions the reader so the next event is the first with an offset after the given one.
+     */
+    public void seekAfterOffset(String offset) throws IOException {
+        Preconditions.checkState(fileIndex == 0 && !pending, "Reader has already been read from");
+
+        while (fileIndex < files.size() && !files.get(fileIndex).seekAfterOffset(offset)) {
+            files.get(fileIndex++).close();
+        }
+
+        while (next()) {
+            String eventOffset = EventFieldScanner.scalar(bytes(), offset(), length(), EventFieldScanner.OFFSET);
+            if (eventOffset != null && SegmentIndex.compareOffsets(eventOffset, offset) > 0) {
+                pending = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Positions the reader so the next event is the first that occurred at or after the given time. Events after it
+     * are read regardless of when they occurred.
+     *
+     * @param epochMillis the time in milliseconds since the epoch.
+     */
+    public void seekOccurredFrom(long epochMillis) throws IOException {
+        Preconditions.checkState(fileIndex == 0 && !pending, "Reader has already been read from");
+
+        while (fileIndex < files.size() && !files.get(fileIndex).seekOccurredFrom(epochMillis)) {
+            files.get(fileIndex++).close();
+        }
+
+        while (next()) {
+            long occurred = EventTimestamps.epochMillis(bytes(), offset(), length(), EventTimestamps.OCCURRED);
+            if (occurred != EventTimestamps.ABSENT && occurred >= epochMillis) {
+                pending = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Advances to the next event, which is then available from {@link #bytes()}, {@link #offset()} and
+     * {@link #length()} until the following call.
+     *
+     * @return false if every event has been read.
+     */
+    public boolean next() throws IOException {
+        Preconditions.checkState(!closed, "Reader is closed");
+
+        if (pending) {
+            pending = false;
+            return true;
+        }
+
+        while (fileIndex < files.size()) {
+            if (files.get(fileIndex).next()) {
+                return true;
+            }
+            files.get(fileIndex++).close();
+        }
+
+        return false;
+    }
+
+    /**
+     * @return buffer holding the current event, UTF-8 encoded without a trailing newline.
+     */
+    public byte[] bytes() {
+        return files.get(fileIndex).bytes();
+    }
+
+    /**
+     * @return index of the first byte of the current event.
+     */
+    public int offset() {
+        return files.get(fileIndex).offset();
+    }
+
+    /**
+     * @return number of bytes in the current event.
+     */
+    public int length() {
+        return files.get(fileIndex).length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (int i = fileIndex; i < files.size(); i++) {
+            files.get(i).close();
+        }
+    }
+
+    private interface EventFile extends Closeable {
+
+        /**
+         * Skips ahead towards the first event after the offset, without passing it.
+         *
+         * @return false if the file holds no event after the offset.
+         */
+        boolean seekAfterOffset(String offset) throws IOException;
+
+        /**
+         * Skips ahead towards the first event that occurred at or after the time, without passing it.
+         *
+         * @return false if the file is known to hold no such event.
+         */
+        boolean seekOccurredFrom(long epochMillis) throws IOException;
+
+        boolean next() throws IOException;
+
+        byte[] bytes();
+
+        int offset();
+
+        int length();
+    }
+
+    private static final class NdjsonFile implements EventFile {
+
+        private final Path file;
+        private final long windowBytes;
+        private FileChannel channel = null;
+        private String lastOffset = null;
+        private long limit;
+
+        private MappedByteBuffer window = null;
+        private long windowStart = 0L;
+        private long position = 0L;
+
+        private byte[] line = new byte[8192];
+        private int length = 0;
+
+        NdjsonFile(Path file, long windowBytes) {
+            this.file = file;
+            this.windowBytes = windowBytes;
+        }
+
+        private void open() throws IOException {
+            if (channel != null) {
+                return;
+            }
+
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            limit = channel.size();
+
+            // Anything beyond the checkpoint was not synced and would be truncated were the sink reopened
+            Path checkpoint = file.resolveSibling(file.getFileName() + RollingFileSink.CHECKPOINT_SUFFIX);
+            if (Files.exists(checkpoint)) {
+                List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+                lastOffset = lines.get(0).trim();
+                limit = Math.min(limit, Long.parseLong(lines.get(1).trim()));
+            }
+        }
+
+        @Override
+        public boolean seekAfterOffset(String offset) throws IOException {
+            open();
+            return lastOffset == null || SegmentIndex.compareOffsets(lastOffset, offset) > 0;
+        }
+
+        @Override
+        public boolean seekOccurredFrom(long epochMillis) throws IOException {
+            open();
+            return true;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            open();
+
+            while (position < limit) {
+                long windowEnd = windowStart + (window == null ? 0 : window.limit());
+                if (window == null || position >= windowEnd) {
+                    map(position, windowBytes);
+                    windowEnd = windowStart + window.limit();
+                }
+
+                int start = (int) (position - windowStart);
+                int newline = -1;
+                for (int i = start; i < window.limit(); i++) {
+                    if (window.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+
+                if (newline < 0) {
+                    if (windowEnd >= limit) {
+                        // A partial last line, never part of a checkpoint
+                        position = limit;
+                        return false;
+                    }
+                    // The line runs past the window, map again from its start with room for the whole of it
+                    map(position, Math.max(windowBytes, 2L * window.limit()));
+                    continue;
+                }
+
+                length = newline - start;
+                position = windowStart + newline + 1;
+                if (length == 0) {
+                    continue;
+                }
+
+                if (length > line.length) {
+                    line = new byte[Math.max(length, 2 * line.length)];
+                }
+                window.position(start);
+                window.get(line, 0, length);
+                return true;
+            }
+
+            return false;
+        }
+
+        private void map(long from, long size) throws IOException {
+            long mapped = Math.min(Math.min(size, Integer.MAX_VALUE), limit - from);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, mapped);
+            windowStart = from;
+        }
+
+        @Override
+        public byte[] bytes() {
+            return line;
+        }
+
+        @Override
+        public int offset() {
+            return 0;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class SegmentFile implements EventFile {
+
+        private static final int HEADER_LENGTH = 10;
+        private static final int TRAILER_LENGTH = 8;
+
+        private final Path segment;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+
+        private SegmentIndex index = null;
+        private MappedByteBuffer mapped = null;
+        private int blockIndex = 0;
+
+        private byte[] compressed = new byte[0];
+        private byte[] block = new byte[0];
+        private int blockLength = 0;
+        private int position = 0;
+
+        private int start = 0;
+        private int length = 0;
+
+        SegmentFile(Path segment) {
+            this.segment = segment;
+        }
+
+        private void open() throws IOException {
+            if (index != null) {
+                return;
+            }
+
+            Path indexFile = SegmentArchiveSink.indexOf(segment);
+            index = Files.exists(indexFile) ? SegmentIndex.read(indexFile) : SegmentIndex.parse(new byte[0]);
+
+            long dataLength = index.getDataLength();
+            if (dataLength > Integer.MAX_VALUE) {
+                throw new IOException("Segment " + segment + " is too large to map");
+            }
+
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                if (channel.size() < dataLength) {
+                    throw new IOException("Segment " + segment + " is shorter than its index");
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, dataLength);
+            }
+        }
+
+        @Override
+        public boolean seekAfterOffset(String offset) throws IOException {
+            open();
+            return seek(index.findAfterOffset(offset).or(-1));
+        }
+
+        @Override
+        public boolean seekOccurredFrom(long epochMillis) throws IOException {
+            open();
+            return seek(index.findOccurredFrom(epochMillis).or(-1));
+        }
+
+        private boolean seek(int found) {
+            if (found < 0) {
+                blockIndex = index.getBlocks().size();
+                return false;
+            }
+
+            blockIndex = found;
+            return true;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            open();
+
+            while (true) {
+                if (position >= blockLength) {
+                    if (blockIndex >= index.getBlocks().size()) {
+                        return false;
+                    }
+                    inflate(index.getBlocks().get(blockIndex++));
+                }
+
+                int newline = position;
+                while (newline < blockLength && block[newline] != '\n') {
+                    newline++;
+                }
+
+                start = position;
+                length = newline - position;
+                position = newline + 1;
+                if (length > 0) {
+                    return true;
+                }
+            }
+        }
+
+        private void inflate(SegmentIndex.Block indexed) throws IOException {
+            int blockBytes = indexed.getLength();
+            if (compressed.length < blockBytes) {
+                compressed = new byte[blockBytes];
+            }
+            mapped.position((int) indexed.getPosition());
+            mapped.get(compressed, 0, blockBytes);
+
+            if (blockBytes < HEADER_LENGTH + TRAILER_LENGTH || compressed[0] != 0x1f || compressed[1] != (byte) 0x8b
+                    || compressed[3] != 0) {
+                throw new IOException("Block at " + indexed.getPosition() + " of " + segment + " is not a gzip member written by the archive");
+            }
+
+            int expectedCrc = readIntLE(compressed, blockBytes - TRAILER_LENGTH);
+            int inflatedLength = readIntLE(compressed, blockBytes - 4);
+            if (block.length < inflatedLength) {
+                block = new byte[inflatedLength];
+            }
+
+            inflater.reset();
+            inflater.setInput(compressed, HEADER_LENGTH, blockBytes - HEADER_LENGTH - TRAILER_LENGTH);
+            try {
+                int inflated = 0;
+                while (inflated < inflatedLength && !inflater.finished()) {
+                    int n = inflater.inflate(block, inflated, inflatedLength - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                if (inflated != inflatedLength) {
+                    throw new IOException("Block at " + indexed.getPosition() + " of " + segment + " is truncated");
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException("Block at " + indexed.getPosition() + " of " + segment + " is corrupt", e);
+            }
+
+            crc.reset();
+            crc.update(block, 0, inflatedLength);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Block at " + indexed.getPosition() + " of " + segment + " failed its checksum");
+            }
+
+            blockLength = inflatedLength;
+            position = 0;
+        }
+
+        private static int readIntLE(byte[] b, int at) {
+            return (b[at] & 0xff) | (b[at + 1] & 0xff) << 8 | (b[at + 2] & 0xff) << 16 | (b[at + 3] & 0xff) << 24;
+        }
+
+        @Override
+        public byte[] bytes() {
+            return block;
+        }
+
+        @Override
+        public int offset() {
+            return start;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mapped = null;
+            inflater.end();
+        }
+    }
+}
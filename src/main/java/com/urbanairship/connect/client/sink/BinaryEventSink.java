@@ -0,0 +1,112 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.encoding.BinaryEventEncoder;
+import com.urbanairship.connect.client.encoding.EncodedEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link EventSink} that encodes each event with a {@link BinaryEventEncoder}, straight from the framed bytes, and
+ * hands the record to an {@link EncodedEventHandler}. Events are never decoded into strings and the encoder's one
+ * output buffer is reused for every record. OFFSET_UPDATE records are not encoded, and malformed events are logged and
+ * skipped, which leaves the encoder as it was so the records handed out still decode in sequence.
+ *
+ * All records from the sink form a single sequence, to be decoded by one
+ * {@link com.urbanairship.connect.client.encoding.BinaryEventDecoder} in order. The durable offset is that of the last
+ * event the handler returned from.
+ */
+public final class BinaryEventSink implements EventSink {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryEventSink.class);
+
+    private final BinaryEventEncoder encoder;
+    private final EncodedEventHandler handler;
+
+    private volatile String durableOffset = null;
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private BinaryEventSink(BinaryEventEncoder encoder, EncodedEventHandler handler) {
+        this.encoder = encoder;
+        this.handler = handler;
+    }
+
+    /**
+     * @throws IOException if the handler failed to handle the record.
+     */
+    @Override
+    public synchronized void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+        Preconditions.checkState(!closed, "Sink is closed");
+
+        if (!EventFieldScanner.isOffsetUpdate(bytes, offset, length)) {
+            ByteBuffer record = null;
+            try {
+                record = encoder.encode(bytes, offset, length);
+            }
+            catch (JsonParseException e) {
+                log.warn("Skipping malformed event at offset " + eventOffset, e);
+            }
+
+            if (record != null) {
+                handler.handle(record, eventOffset);
+            }
+        }
+
+        durableOffset = eventOffset;
+    }
+
+    @Override
+    public Optional<String> getDurableOffset() {
+        return Optional.fromNullable(durableOffset);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public static final class Builder {
+
+        private BinaryEventEncoder encoder = null;
+        private EncodedEventHandler handler = null;
+
+        private Builder() { }
+
+        /**
+         * @param encoder the encoder, which sets the dictionary limits. Defaults to an encoder with default limits.
+         */
+        public Builder setEncoder(BinaryEventEncoder encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        public Builder setHandler(EncodedEventHandler handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        public BinaryEventSink build() {
+            Preconditions.checkNotNull(handler, "Handler must be set");
+
+            if (encoder == null) {
+                encoder = BinaryEventEncoder.newBuilder().build();
+            }
+
+            return new BinaryEventSink(encoder, handler);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.columnar.EventBatch;
+import com.urbanairship.connect.client.columnar.EventBatchHandler;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link EventSink} that gathers events into an {@link EventBatch}, reading their fields straight from the framed
+ * bytes into columns, and hands each full batch to an {@link EventBatchHandler}. The one batch and its buffers are
+ * reused for every batch. OFFSET_UPDATE records are not added to batches, and malformed events are logged and skipped.
+ *
+ * A batch is handed out once it is full, once the first event in it is older than the maximum batch age when another
+ * event arrives, and when the sink is closed. The durable offset is that of the last event in the last batch the
+ * handler returned from.
+ */
+public final class ColumnarBatchSink implements EventSink {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnarBatchSink.class);
+
+    private final EventBatch batch;
+    private final EventBatchHandler handler;
+    private final long maxBatchAgeNanos;
+    private final Ticker ticker;
+
+    private long batchStartedNanos;
+    private String batchOffset = null;
+    private volatile String durableOffset = null;
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private ColumnarBatchSink(Builder builder) {
+        this.batch = builder.batch;
+        this.handler = builder.handler;
+        this.maxBatchAgeNanos = builder.maxBatchAgeNanos;
+        this.ticker = builder.ticker;
+    }
+
+    /**
+     * @throws IOException if a full batch could not be handled.
+     */
+    @Override
+    public synchronized void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+        Preconditions.checkState(!closed, "Sink is closed");
+
+        if (batchOffset != null && ticker.read() - batchStartedNanos >= maxBatchAgeNanos) {
+            flush();
+        }
+
+        if (!EventFieldScanner.isOffsetUpdate(bytes, offset, length)) {
+            if (batch.getRowCount() == 0) {
+                batchStartedNanos = ticker.read();
+            }
+            try {
+                batch.add(bytes, offset, length);
+            }
+            catch (JsonParseException e) {
+                log.warn("Skipping malformed event at offset " + eventOffset, e);
+            }
+        }
+        else if (batchOffset == null) {
+            batchStartedNanos = ticker.read();
+        }
+        batchOffset = eventOffset;
+
+        if (batch.isFull()) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the events gathered so far to the handler, even if the batch is not full.
+     *
+     * @throws IOException if the batch could not be handled.
+     */
+    public synchronized void flush() throws IOException {
+        if (batchOffset == null) {
+            return;
+        }
+
+        if (batch.getRowCount() > 0) {
+            handler.handle(batch);
+            batch.clear();
+        }
+        durableOffset = batchOffset;
+        batchOffset = null;
+    }
+
+    @Override
+    public Optional<String> getDurableOffset() {
+        return Optional.fromNullable(durableOffset);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            flush();
+        }
+        finally {
+            closed = true;
+        }
+    }
+
+    public static final class Builder {
+
+        private EventBatch batch = null;
+        private EventBatchHandler handler = null;
+        private long maxBatchAgeNanos = TimeUnit.SECONDS.toNanos(10L);
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() { }
+
+        /**
+         * @param batch the batch to fill, which sets the batch size and the body fields read. Defaults to a batch of
+         *              4096 events without body fields.
+         */
+        public Builder setBatch(EventBatch batch) {
+            this.batch = batch;
+            return this;
+        }
+
+        public Builder setHandler(EventBatchHandler handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        /**
+         * @param maxAge how long events wait for a batch to fill before it is handed out anyway. Defaults to 10
+         *               seconds.
+         */
+        public Builder setMaxBatchAge(long maxAge, TimeUnit unit) {
+            this.maxBatchAgeNanos = unit.toNanos(maxAge);
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public ColumnarBatchSink build() {
+            Preconditions.checkNotNull(handler, "Handler must be set");
+            Preconditions.checkArgument(maxBatchAgeNanos >= 0L, "Max batch age must be >= 0");
+
+            if (batch == null) {
+                batch = EventBatch.newBuilder().build();
+            }
+
+            return new ColumnarBatchSink(this);
+        }
+    }
+}
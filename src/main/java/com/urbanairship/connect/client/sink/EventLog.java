@@ -0,0 +1,286 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A local write-ahead log of a stream's events, decoupling the rate events are received at from the rate they are
+ * processed. The log is an {@link EventSink}: given to {@link com.urbanairship.connect.client.StreamConsumeTask} it
+ * receives every event before anything else sees it, and the task resumes from the offset of the last event made
+ * durable, so the log holds each event exactly once across restarts. Events are stored as a {@link RollingFileSink}
+ * stores them.
+ *
+ * Any number of readers, each identified by a name, consume the log independently with {@link EventLogReader}. A
+ * reader only sees events once they are durable and keeps its position in a cursor file it commits explicitly. After a
+ * restart a reader carries on from its cursor straight away, without waiting for the stream to reconnect.
+ *
+ * Files every reader has committed past can optionally be deleted as readers commit.
+ */
+public final class EventLog implements EventSink {
+
+    private static final Logger log = LoggerFactory.getLogger(EventLog.class);
+
+    static final String CURSOR_SUFFIX = ".cursor";
+    private static final Pattern READER_NAME = Pattern.compile("[A-Za-z0-9_]+");
+
+    private final Path directory;
+    private final String prefix;
+    private final Pattern fileNamePattern;
+    private final boolean deleteConsumedFiles;
+    private final RollingFileSink sink;
+
+    private final Object durableLock = new Object();
+    private long durableSequence = 0L;
+    private long durableLength = 0L;
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private EventLog(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.prefix = builder.prefix;
+        this.fileNamePattern = SinkFiles.pattern(prefix, RollingFileSink.DATA_SUFFIX);
+        this.deleteConsumedFiles = builder.deleteConsumedFiles;
+        this.sink = builder.files
+                .setSyncListener(new RollingFileSink.SyncListener() {
+                    @Override
+                    public void synced(long sequence, Path file, long length) {
+                        durable(sequence, length);
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+        sink.append(bytes, offset, length, eventOffset);
+    }
+
+    @Override
+    public Optional<String> getDurableOffset() {
+        return sink.getDurableOffset();
+    }
+
+    /**
+     * Makes everything appended so far durable and visible to readers. This happens automatically at the configured
+     * sync interval.
+     */
+    public void sync() throws IOException {
+        sink.sync();
+    }
+
+    /**
+     * Opens a reader positioned at its committed cursor, or at the start of the log if it has never committed.
+     *
+     * @param name identifies the reader across restarts, letters, digits and underscores only.
+     * @throws IOException if the reader's cursor could not be read.
+     */
+    public EventLogReader openReader(String name) throws IOException {
+        Preconditions.checkArgument(READER_NAME.matcher(name).matches(), "Reader name may only hold letters, digits and underscores");
+        return new EventLogReader(this, name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sink.close();
+        }
+        finally {
+            synchronized (durableLock) {
+                closed = true;
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    private void durable(long sequence, long length) {
+        synchronized (durableLock) {
+            durableSequence = sequence;
+            durableLength = length;
+            durableLock.notifyAll();
+        }
+    }
+
+    Path file(long sequence) {
+        return SinkFiles.path(directory, prefix, sequence, RollingFileSink.DATA_SUFFIX);
+    }
+
+    Path cursorFile(String name) {
+        return directory.resolve(prefix + "." + name + CURSOR_SUFFIX);
+    }
+
+    /**
+     * @return the sequence number of the first file after the given one, or 0 if there is none yet.
+     */
+    long nextFile(long sequence) throws IOException {
+        Long next = SinkFiles.list(directory, fileNamePattern).higherKey(sequence);
+        return next == null ? 0L : next;
+    }
+
+    /**
+     * Finds how much of a file can be read.
+     *
+     * @return the durable length of the file, or -1 if it is complete and a later file has events.
+     */
+    long readableLength(long sequence) {
+        synchronized (durableLock) {
+            if (sequence < durableSequence) {
+                return -1L;
+            }
+            return sequence == durableSequence ? durableLength : 0L;
+        }
+    }
+
+    /**
+     * Waits for the durable end of the log to move past the given position.
+     *
+     * @return false if the log was closed.
+     */
+    boolean awaitBeyond(long sequence, long length, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (durableLock) {
+            while (!closed && durableSequence <= sequence && (durableSequence < sequence || durableLength <= length)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    return true;
+                }
+                TimeUnit.NANOSECONDS.timedWait(durableLock, remaining);
+            }
+            return !closed;
+        }
+    }
+
+    boolean isClosed() {
+        synchronized (durableLock) {
+            return closed;
+        }
+    }
+
+    /**
+     * Deletes the files every reader has committed past, when enabled.
+     */
+    void committed() {
+        if (!deleteConsumedFiles) {
+            return;
+        }
+
+        try {
+            long oldestCursor = Long.MAX_VALUE;
+            Set<Path> cursors = new HashSet<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, prefix + ".*" + CURSOR_SUFFIX)) {
+                for (Path entry : entries) {
+                    cursors.add(entry);
+                }
+            }
+            for (Path cursor : cursors) {
+                List<String> lines = Files.readAllLines(cursor, StandardCharsets.UTF_8);
+                oldestCursor = Math.min(oldestCursor, Long.parseLong(lines.get(0).trim()));
+            }
+
+            TreeMap<Long, Path> files = SinkFiles.list(directory, fileNamePattern);
+            for (Map.Entry<Long, Path> file : files.headMap(oldestCursor, false).entrySet()) {
+                Files.deleteIfExists(file.getValue().resolveSibling(file.getValue().getFileName() + RollingFileSink.CHECKPOINT_SUFFIX));
+                Files.deleteIfExists(file.getValue());
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("Unable to delete consumed files from " + directory, e);
+        }
+    }
+
+    public static final class Builder {
+
+        private final RollingFileSink.Builder files = RollingFileSink.newBuilder();
+        private Path directory = null;
+        private String prefix = "events";
+        private boolean deleteConsumedFiles = false;
+
+        private Builder() { }
+
+        /**
+         * @param directory where the log is written, created if it does not exist.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            files.setDirectory(directory);
+            return this;
+        }
+
+        /**
+         * @param prefix start of every file name, to allow several logs to share a directory. Defaults to "events".
+         */
+        public Builder setPrefix(String prefix) {
+            this.prefix = prefix;
+            files.setPrefix(prefix);
+            return this;
+        }
+
+        /**
+         * @param maxFileBytes size after which a new file is started. Defaults to 256MB.
+         */
+        public Builder setMaxFileBytes(long maxFileBytes) {
+            files.setMaxFileBytes(maxFileBytes);
+            return this;
+        }
+
+        /**
+         * @param maxAge age after which a new file is started. Defaults to an hour.
+         */
+        public Builder setMaxFileAge(long maxAge, TimeUnit unit) {
+            files.setMaxFileAge(maxAge, unit);
+            return this;
+        }
+
+        /**
+         * @param interval how often appended events are made durable, which is also how far behind readers can be.
+         * 0 to only do so when a file is rolled, the log is closed or {@link EventLog#sync()} is called. Defaults to
+         * 1 second.
+         */
+        public Builder setSyncInterval(long interval, TimeUnit unit) {
+            files.setSyncInterval(interval, unit);
+            return this;
+        }
+
+        /**
+         * @param deleteConsumedFiles whether to delete files once every reader that has ever committed a cursor has
+         * committed past them. A reader that has never committed doesn't hold files back. Defaults to false.
+         */
+        public Builder setDeleteConsumedFiles(boolean deleteConsumedFiles) {
+            this.deleteConsumedFiles = deleteConsumedFiles;
+            return this;
+        }
+
+        /**
+         * Opens the log, recovering anything left by a previous run in the directory.
+         *
+         * @throws IOException if the directory could not be created or recovered.
+         */
+        public EventLog build() throws IOException {
+            Preconditions.checkNotNull(directory, "Directory must be set");
+            Preconditions.checkArgument(prefix != null && !prefix.isEmpty(), "Prefix must not be empty");
+
+            return new EventLog(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.urbanairship.connect.client.ConnectStreamApi;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the events of an {@link EventLog} in order, through the same {@link ConnectStreamApi} as a live
+ * {@link com.urbanairship.connect.client.Stream}. Like a live stream, {@link #hasNext()} waits for the next event to
+ * arrive, here for it to be made durable in the log. Iteration ends once the reader is closed, or once the log is
+ * closed and every durable event has been handed out.
+ *
+ * The reader's position is only saved by {@link #commit()}, which records it in the reader's cursor file. A reader
+ * opened under the same name, for instance after a restart, carries on after the last committed event, so events
+ * handed out after the last commit are handed out again.
+ *
+ * Instances are not thread safe, apart from {@link #close()} which may be called from any thread to end iteration.
+ */
+public final class EventLogReader extends AbstractIterator<String> implements ConnectStreamApi {
+
+    // Bounds how long a wait can miss a close of the reader itself, which doesn't notify the log
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    private final EventLog eventLog;
+    private final Path cursorFile;
+
+    private long sequence;
+    private long position;
+    private FileChannel channel = null;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private long bufferStart = 0L;
+
+    private String lastOffset = null;
+    private volatile boolean closed = false;
+
+    EventLogReader(EventLog eventLog, String name) throws IOException {
+        this.eventLog = eventLog;
+        this.cursorFile = eventLog.cursorFile(name);
+
+        if (Files.exists(cursorFile)) {
+            List<String> lines = Files.readAllLines(cursorFile, StandardCharsets.UTF_8);
+            sequence = Long.parseLong(lines.get(0).trim());
+            position = Long.parseLong(lines.get(1).trim());
+            lastOffset = lines.size() > 2 && !lines.get(2).trim().isEmpty() ? lines.get(2).trim() : null;
+        }
+        else {
+            sequence = eventLog.nextFile(0L);
+            position = 0L;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Saves the reader's position after the last event handed out, so that a reader opened under the same name
+     * carries on from there.
+     */
+    public void commit() throws IOException {
+        String offset = lastOffset == null ? "" : lastOffset;
+        SinkFiles.writeAtomically(cursorFile, (sequence + "\n" + position + "\n" + offset + "\n").getBytes(StandardCharsets.UTF_8));
+        eventLog.committed();
+    }
+
+    /**
+     * @return the offset of the last event handed out, or of the last event committed if none has been handed out
+     * since the reader was opened. Absent if neither is known.
+     */
+    public Optional<String> getCheckpoint() {
+        return Optional.fromNullable(lastOffset);
+    }
+
+    /**
+     * Ends iteration, waking a consumer waiting for events within a short time. The position is not committed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+    }
+
+    @Override
+    protected String computeNext() {
+        try {
+            while (!closed) {
+                // Once the log is closed nothing more becomes readable, so what is readable now is all there is
+                boolean logClosed = eventLog.isClosed();
+                if (sequence == 0L) {
+                    // Nothing has been written to the log yet
+                    sequence = eventLog.nextFile(0L);
+                    if (sequence == 0L) {
+                        if (logClosed) {
+                            break;
+                        }
+                        eventLog.awaitBeyond(0L, 0L, WAIT_NANOS);
+                        continue;
+                    }
+                }
+
+                long readable = eventLog.readableLength(sequence);
+                String event = readLine(readable);
+                if (event != null) {
+                    return event;
+                }
+
+                if (readable < 0L) {
+                    // The file is complete, move on to the next
+                    long next = eventLog.nextFile(sequence);
+                    if (next != 0L) {
+                        closeFile();
+                        sequence = next;
+                        position = 0L;
+                        continue;
+                    }
+                }
+
+                if (logClosed) {
+                    break;
+                }
+                eventLog.awaitBeyond(sequence, position, WAIT_NANOS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        closeQuietly();
+        return endOfData();
+    }
+
+    // Reads the line at the current position if the whole of it is readable, a limit < 0 meaning the whole file
+    private String readLine(long limit) throws IOException {
+        if (limit >= 0L && position >= limit) {
+            return null;
+        }
+
+        if (channel == null) {
+            try {
+                channel = FileChannel.open(eventLog.file(sequence), StandardOpenOption.READ);
+            }
+            catch (NoSuchFileException e) {
+                throw new IOException("File " + eventLog.file(sequence) + " of the log is missing, it may have been "
+                        + "deleted as consumed by other readers", e);
+            }
+            bufferStart = position;
+            buffer.clear().flip();
+        }
+
+        long end = limit >= 0L ? limit : channel.size();
+        while (true) {
+            int start = (int) (position - bufferStart);
+            for (int i = start; i < buffer.limit(); i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+
+                int length = i - start;
+                position = bufferStart + i + 1;
+                if (length == 0) {
+                    return readLine(limit);
+                }
+
+                String event = new String(buffer.array(), start, length, StandardCharsets.UTF_8);
+                String offset = EventFieldScanner.scalar(buffer.array(), start, length, EventFieldScanner.OFFSET);
+                if (offset != null) {
+                    lastOffset = offset;
+                }
+                return event;
+            }
+
+            if (bufferStart + buffer.limit() >= end) {
+                return null;
+            }
+
+            // Keep the partial line and read more behind it, growing the buffer if the line fills it
+            buffer.position(start);
+            buffer.compact();
+            bufferStart += start;
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+
+            long readFrom = bufferStart + buffer.position();
+            int wanted = (int) Math.min(buffer.remaining(), end - readFrom);
+            ByteBuffer target = buffer.duplicate();
+            target.limit(target.position() + wanted);
+            while (target.hasRemaining()) {
+                if (channel.read(target, readFrom + (target.position() - buffer.position())) < 0) {
+                    break;
+                }
+            }
+            buffer.position(target.position());
+            buffer.flip();
+        }
+    }
+
+    private void closeFile() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeFile();
+        }
+        catch (IOException e) {
+            // Nothing more will be read
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for the raw events of a stream, fed by {@link com.urbanairship.connect.client.StreamConsumeTask} in
+ * place of a queue. Events are appended in stream order from a single thread.
+ */
+public interface EventSink extends Closeable {
+
+    /**
+     * Appends an event. The bytes are only valid for the duration of the call.
+     *
+     * @param bytes buffer holding the event, UTF-8 encoded without a trailing newline
+     * @param offset index of the first byte of the event
+     * @param length number of bytes in the event
+     * @param eventOffset the event's offset in the stream
+     * @throws IOException if the event could not be written, in which case the task feeding the sink stops.
+     */
+    void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException;
+
+    /**
+     * @return the offset of the last event known to be durably stored, from which a stream can resume without losing
+     * or repeating events. Absent if nothing has been stored.
+     */
+    Optional<String> getDurableOffset();
+
+}
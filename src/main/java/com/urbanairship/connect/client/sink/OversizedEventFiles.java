@@ -0,0 +1,160 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Preconditions;
+import com.urbanairship.connect.client.OversizedEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link OversizedEventHandler} that writes each oversized event to a file of its own, so it can be looked at or
+ * processed later without ever being held in memory. Files are numbered in the order events were received, and only
+ * appear under their final name once the whole event has been written. Files are not synced.
+ *
+ * If a file can't be written the error is logged and the rest of that event is dropped.
+ */
+public final class OversizedEventFiles implements OversizedEventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(OversizedEventFiles.class);
+
+    static final String SUFFIX = ".json";
+    private static final String PARTIAL_SUFFIX = SUFFIX + ".partial";
+
+    private final Path directory;
+    private final String prefix;
+
+    private long sequence;
+    private Path partialFile = null;
+    private FileChannel channel = null;
+    private boolean failed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private OversizedEventFiles(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.prefix = builder.prefix;
+
+        Files.createDirectories(directory);
+        for (Path partial : SinkFiles.list(directory, SinkFiles.pattern(prefix, PARTIAL_SUFFIX)).values()) {
+            // Left behind by a run that stopped part way through an event
+            Files.deleteIfExists(partial);
+        }
+
+        TreeMap<Long, Path> existing = SinkFiles.list(directory, SinkFiles.pattern(prefix, SUFFIX));
+        this.sequence = existing.isEmpty() ? 0L : existing.lastKey();
+    }
+
+    @Override
+    public synchronized void acceptPart(byte[] bytes, int offset, int length, boolean last) {
+        if (!failed) {
+            try {
+                if (channel == null) {
+                    sequence++;
+                    partialFile = SinkFiles.path(directory, prefix, sequence, PARTIAL_SUFFIX);
+                    channel = FileChannel.open(partialFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                }
+
+                SinkFiles.write(channel, ByteBuffer.wrap(bytes, offset, length));
+
+                if (last) {
+                    channel.close();
+                    channel = null;
+                    Files.move(partialFile, SinkFiles.path(directory, prefix, sequence, SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+                    partialFile = null;
+                }
+            }
+            catch (IOException e) {
+                log.error("Failed to write oversized event to " + partialFile + ", dropping it", e);
+                discard();
+                failed = true;
+            }
+        }
+
+        if (last) {
+            failed = false;
+        }
+    }
+
+    @Override
+    public synchronized void abandoned() {
+        discard();
+        failed = false;
+    }
+
+    /**
+     * @return the files written so far, in the order the events were received.
+     * @throws IOException if the directory could not be listed.
+     */
+    public Iterable<Path> getFiles() throws IOException {
+        Map<Long, Path> files = SinkFiles.list(directory, SinkFiles.pattern(prefix, SUFFIX));
+        return files.values();
+    }
+
+    private void discard() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (partialFile != null) {
+                Files.deleteIfExists(partialFile);
+            }
+        }
+        catch (IOException e) {
+            log.warn("Unable to remove partial oversized event " + partialFile, e);
+        }
+        finally {
+            channel = null;
+            partialFile = null;
+        }
+    }
+
+    public static final class Builder {
+
+        private Path directory = null;
+        private String prefix = "oversized";
+
+        private Builder() { }
+
+        /**
+         * @param directory where the files are written, created if it does not exist.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param prefix start of every file name. Defaults to "oversized".
+         */
+        public Builder setPrefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @throws IOException if the directory could not be created or listed.
+         */
+        public OversizedEventFiles build() throws IOException {
+            Preconditions.checkNotNull(directory, "Directory must be set");
+            Preconditions.checkArgument(prefix != null && !prefix.isEmpty(), "Prefix must not be empty");
+
+            return new OversizedEventFiles(this);
+        }
+    }
+}
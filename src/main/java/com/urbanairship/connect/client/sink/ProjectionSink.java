@@ -0,0 +1,107 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.consume.EventFieldScanner;
+import com.urbanairship.connect.client.consume.EventProjection;
+import com.urbanairship.connect.client.consume.ProjectedEvent;
+import com.urbanairship.connect.client.consume.ProjectedEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * An {@link EventSink} that reads only the fields of an {@link EventProjection} from each event, straight from the
+ * framed bytes as the offset is, and hands them to a {@link ProjectedEventHandler}. Events are never decoded into
+ * strings and the one record is reused for every event. OFFSET_UPDATE records are not handed on, and malformed events
+ * are logged and skipped.
+ *
+ * The durable offset is that of the last event the handler returned from.
+ */
+public final class ProjectionSink implements EventSink {
+
+    private static final Logger log = LoggerFactory.getLogger(ProjectionSink.class);
+
+    private final EventProjection projection;
+    private final ProjectedEventHandler handler;
+    private final ProjectedEvent event;
+
+    private volatile String durableOffset = null;
+    private boolean closed = false;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private ProjectionSink(EventProjection projection, ProjectedEventHandler handler) {
+        this.projection = projection;
+        this.handler = handler;
+        this.event = projection.newEvent();
+    }
+
+    /**
+     * @throws IOException if the handler failed to handle the event.
+     */
+    @Override
+    public synchronized void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+        Preconditions.checkState(!closed, "Sink is closed");
+
+        if (!EventFieldScanner.isOffsetUpdate(bytes, offset, length)) {
+            boolean projected = false;
+            try {
+                projection.project(bytes, offset, length, event);
+                projected = true;
+            }
+            catch (JsonParseException e) {
+                log.warn("Skipping malformed event at offset " + eventOffset, e);
+            }
+
+            if (projected) {
+                handler.handle(event, eventOffset);
+            }
+        }
+
+        durableOffset = eventOffset;
+    }
+
+    @Override
+    public Optional<String> getDurableOffset() {
+        return Optional.fromNullable(durableOffset);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public static final class Builder {
+
+        private EventProjection projection = null;
+        private ProjectedEventHandler handler = null;
+
+        private Builder() { }
+
+        public Builder setProjection(EventProjection projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        public Builder setHandler(ProjectedEventHandler handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        public ProjectionSink build() {
+            Preconditions.checkNotNull(projection, "Projection must be set");
+            Preconditions.checkNotNull(handler, "Handler must be set");
+
+            return new ProjectionSink(projection, handler);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * An {@link EventSink} that writes events as NDJSON to a series of files in a directory, rolling over to a new file
+ * by size or age.
+ *
+ * Writes go through a large buffer and are made durable in groups: the file is synced at a fixed interval, when it is
+ * rolled and when the sink is closed, rather than per event. After each sync the offset of the last event synced and
+ * the length of the file at that point are recorded in a checkpoint file next to it, replaced atomically. Files are
+ * named {@code <prefix>-<sequence>.ndjson} with checkpoints {@code <prefix>-<sequence>.ndjson.checkpoint}.
+ *
+ * On opening, the sink recovers from a previous run in the same directory. The newest file is truncated back to its
+ * checkpoint, dropping any events written after the last sync, and {@link #getDurableOffset()} returns the
+ * checkpointed offset. A stream resumed from that offset continues exactly where the files leave off.
+ */
+public final class RollingFileSink implements EventSink {
+
+    private static final Logger log = LoggerFactory.getLogger(RollingFileSink.class);
+
+    static final String DATA_SUFFIX = ".ndjson";
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final byte NEWLINE = '\n';
+
+    private final Path directory;
+    private final String prefix;
+    private final Pattern fileNamePattern;
+    private final long maxFileBytes;
+    private final long maxFileAgeNanos;
+    private final Ticker ticker;
+    private final ByteBuffer buffer;
+    private final Optional<ScheduledExecutorService> syncThread;
+    private final Optional<SyncListener> syncListener;
+
+    private long sequence;
+    private FileChannel channel = null;
+    private Path file = null;
+    private long fileBytes = 0L;
+    private long fileOpenedNanos = 0L;
+
+    private String appendedOffset = null;
+    private boolean dirty = false;
+    private boolean closed = false;
+
+    private volatile String durableOffset = null;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private RollingFileSink(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.prefix = builder.prefix;
+        this.fileNamePattern = SinkFiles.pattern(prefix, DATA_SUFFIX);
+        this.maxFileBytes = builder.maxFileBytes;
+        this.maxFileAgeNanos = builder.maxFileAgeNanos;
+        this.ticker = builder.ticker;
+        this.buffer = ByteBuffer.allocate(builder.bufferSize);
+        this.syncListener = Optional.fromNullable(builder.syncListener);
+
+        Files.createDirectories(directory);
+        recover();
+
+        if (builder.syncIntervalNanos > 0L) {
+            ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("Rolling file sink sync thread %d")
+                    .build());
+            thread.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sync();
+                    }
+                    catch (IOException e) {
+                        log.error("Failed to sync " + file, e);
+                    }
+                }
+            }, builder.syncIntervalNanos, builder.syncIntervalNanos, TimeUnit.NANOSECONDS);
+            this.syncThread = Optional.of(thread);
+        }
+        else {
+            this.syncThread = Optional.absent();
+        }
+    }
+
+    @Override
+    public synchronized void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+        Preconditions.checkState(!closed, "Sink is closed");
+
+        if (channel == null) {
+            open();
+        }
+        else if (fileBytes > 0L && (fileBytes + length + 1 > maxFileBytes || ticker.read() - fileOpenedNanos >= maxFileAgeNanos)) {
+            roll();
+        }
+
+        if (length + 1 > buffer.remaining()) {
+            drain();
+        }
+
+        if (length + 1 > buffer.capacity()) {
+            write(ByteBuffer.wrap(bytes, offset, length));
+            buffer.put(NEWLINE);
+        }
+        else {
+            buffer.put(bytes, offset, length).put(NEWLINE);
+        }
+
+        fileBytes += length + 1;
+        appendedOffset = eventOffset;
+        dirty = true;
+    }
+
+    /**
+     * Makes everything appended so far durable and records its checkpoint. This happens automatically at the
+     * configured sync interval.
+     */
+    public synchronized void sync() throws IOException {
+        if (closed || !dirty || channel == null) {
+            return;
+        }
+
+        drain();
+        channel.force(false);
+        writeCheckpoint(file, appendedOffset, fileBytes);
+        durableOffset = appendedOffset;
+        dirty = false;
+
+        if (syncListener.isPresent()) {
+            syncListener.get().synced(sequence, file, fileBytes);
+        }
+    }
+
+    @Override
+    public Optional<String> getDurableOffset() {
+        return Optional.fromNullable(durableOffset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncThread.isPresent()) {
+            syncThread.get().shutdown();
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            try {
+                sync();
+            }
+            finally {
+                closed = true;
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        sync();
+        channel.close();
+        channel = null;
+        open();
+    }
+
+    private void open() throws IOException {
+        sequence++;
+        file = SinkFiles.path(directory, prefix, sequence, DATA_SUFFIX);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        fileBytes = 0L;
+        fileOpenedNanos = ticker.read();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        SinkFiles.write(channel, bytes);
+    }
+
+    private void writeCheckpoint(Path dataFile, String offset, long length) throws IOException {
+        Path checkpoint = dataFile.resolveSibling(dataFile.getFileName() + CHECKPOINT_SUFFIX);
+        SinkFiles.writeAtomically(checkpoint, (offset + "\n" + length + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = SinkFiles.list(directory, fileNamePattern);
+
+        sequence = files.isEmpty() ? 0L : files.lastKey();
+
+        // Only the newest file can hold events beyond its checkpoint, older ones were synced when they were rolled
+        while (!files.isEmpty()) {
+            Map.Entry<Long, Path> entry = files.pollLastEntry();
+            Path newest = entry.getValue();
+            Path checkpoint = newest.resolveSibling(newest.getFileName() + CHECKPOINT_SUFFIX);
+            if (!Files.exists(checkpoint)) {
+                log.info("Removing " + newest + " which has no checkpoint");
+                Files.delete(newest);
+                continue;
+            }
+
+            List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+            long length = Long.parseLong(lines.get(1).trim());
+            try (FileChannel data = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+                if (data.size() > length) {
+                    log.info("Truncating " + newest + " to its checkpoint at " + length + " bytes");
+                    data.truncate(length);
+                    data.force(false);
+                }
+            }
+
+            durableOffset = lines.get(0).trim();
+            if (syncListener.isPresent()) {
+                syncListener.get().synced(entry.getKey(), newest, length);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Told where the durable end of the files is, once on opening if anything was recovered and then after every
+     * sync. Called while the sink is locked.
+     */
+    interface SyncListener {
+
+        /**
+         * @param sequence sequence number of the file synced.
+         * @param file the file synced.
+         * @param length length of the file that is durable.
+         */
+        void synced(long sequence, Path file, long length);
+    }
+
+    public static final class Builder {
+
+        private Path directory = null;
+        private String prefix = "events";
+        private long maxFileBytes = 256L * 1024L * 1024L;
+        private long maxFileAgeNanos = TimeUnit.HOURS.toNanos(1L);
+        private long syncIntervalNanos = TimeUnit.SECONDS.toNanos(1L);
+        private int bufferSize = 1024 * 1024;
+        private Ticker ticker = Ticker.systemTicker();
+        private SyncListener syncListener = null;
+
+        private Builder() { }
+
+        /**
+         * @param directory where the files are written, created if it does not exist.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param prefix start of every file name, to allow several sinks to share a directory. Defaults to "events".
+         */
+        public Builder setPrefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @param maxFileBytes size after which a new file is started. Defaults to 256MB.
+         */
+        public Builder setMaxFileBytes(long maxFileBytes) {
+            this.maxFileBytes = maxFileBytes;
+            return this;
+        }
+
+        /**
+         * @param maxAge age after which a new file is started, checked as each event is appended. Defaults to an hour.
+         */
+        public Builder setMaxFileAge(long maxAge, TimeUnit unit) {
+            this.maxFileAgeNanos = unit.toNanos(maxAge);
+            return this;
+        }
+
+        /**
+         * @param interval how often appended events are synced to disk and checkpointed, 0 to only do so when a file is
+         * rolled, the sink is closed or {@link RollingFileSink#sync()} is called. Defaults to 1 second.
+         */
+        public Builder setSyncInterval(long interval, TimeUnit unit) {
+            this.syncIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * @param bufferSize bytes buffered in memory between writes to the file. Defaults to 1MB.
+         */
+        public Builder setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        Builder setSyncListener(SyncListener syncListener) {
+            this.syncListener = syncListener;
+            return this;
+        }
+
+        /**
+         * Opens the sink, recovering any files left by a previous run in the directory.
+         *
+         * @throws IOException if the directory could not be created or recovered.
+         */
+        public RollingFileSink build() throws IOException {
+            Preconditions.checkNotNull(directory, "Directory must be set");
+            Preconditions.checkArgument(prefix != null && !prefix.isEmpty(), "Prefix must not be empty");
+            Preconditions.checkArgument(maxFileBytes > 0L, "Max file bytes must be > 0");
+            Preconditions.checkArgument(maxFileAgeNanos > 0L, "Max file age must be > 0");
+            Preconditions.checkArgument(syncIntervalNanos >= 0L, "Sync interval must be >= 0");
+            Preconditions.checkArgument(bufferSize > 0, "Buffer size must be > 0");
+
+            return new RollingFileSink(this);
+        }
+    }
+}
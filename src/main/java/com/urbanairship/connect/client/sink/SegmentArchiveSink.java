@@ -0,0 +1,443 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.urbanairship.connect.client.consume.EventTimestamps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link EventSink} that archives events as compressed NDJSON segments, each with a sidecar {@link SegmentIndex}.
+ *
+ * Events are gathered into blocks which are compressed independently, each as a complete gzip member. A segment is
+ * therefore an ordinary gzip file that standard tools can read in full, while the index records the position of each
+ * block along with the offsets and {@code occurred} times of the events in it so a reader can start from any block.
+ * Segments are named {@code <prefix>-<sequence>.ndjson.gz} with indexes {@code <prefix>-<sequence>.ndjson.gz.idx}, and
+ * are rolled over by compressed size or age.
+ *
+ * A block is completed when it reaches the block size or when the sink is synced, which happens at a fixed interval,
+ * when a segment is rolled and when the sink is closed. Syncing forces the segment to disk and only then appends the
+ * entries for its new blocks to the index, so the index never describes data that was not made durable.
+ * {@link #getDurableOffset()} returns the offset of the last event of the last indexed block.
+ *
+ * On opening, the sink recovers from a previous run in the same directory: the newest segment is truncated back to
+ * the end of its last indexed block, and removed if it has none.
+ */
+public final class SegmentArchiveSink implements EventSink {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentArchiveSink.class);
+
+    static final String DATA_SUFFIX = ".ndjson.gz";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final byte NEWLINE = '\n';
+
+    // A gzip member header with no optional fields, no modification time and an unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private final Path directory;
+    private final String prefix;
+    private final Pattern segmentNamePattern;
+    private final int blockSize;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeNanos;
+    private final Ticker ticker;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final Optional<ScheduledExecutorService> syncThread;
+
+    private long sequence;
+    private FileChannel data = null;
+    private FileChannel index = null;
+    private Path segment = null;
+    private long segmentBytes = 0L;
+    private long segmentOpenedNanos = 0L;
+
+    private byte[] block;
+    private int blockLength = 0;
+    private int blockEvents = 0;
+    private String blockFirstOffset = null;
+    private String blockLastOffset = null;
+    private long blockMinOccurred = EventTimestamps.ABSENT;
+    private long blockMaxOccurred = EventTimestamps.ABSENT;
+    private byte[] compressed;
+
+    private final List<SegmentIndex.Block> unsynced = new ArrayList<>();
+    private boolean closed = false;
+
+    private volatile String durableOffset = null;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private SegmentArchiveSink(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.prefix = builder.prefix;
+        this.segmentNamePattern = SinkFiles.pattern(prefix, DATA_SUFFIX);
+        this.blockSize = builder.blockSize;
+        this.maxSegmentBytes = builder.maxSegmentBytes;
+        this.maxSegmentAgeNanos = builder.maxSegmentAgeNanos;
+        this.ticker = builder.ticker;
+        this.deflater = new Deflater(builder.compressionLevel, true);
+        this.block = new byte[blockSize];
+        this.compressed = new byte[blockSize / 2 + GZIP_HEADER.length + GZIP_TRAILER_LENGTH];
+
+        Files.createDirectories(directory);
+        recover();
+
+        if (builder.syncIntervalNanos > 0L) {
+            ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("Segment archive sink sync thread %d")
+                    .build());
+            thread.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sync();
+                    }
+                    catch (IOException e) {
+                        log.error("Failed to sync " + segment, e);
+                    }
+                }
+            }, builder.syncIntervalNanos, builder.syncIntervalNanos, TimeUnit.NANOSECONDS);
+            this.syncThread = Optional.of(thread);
+        }
+        else {
+            this.syncThread = Optional.absent();
+        }
+    }
+
+    @Override
+    public synchronized void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+        Preconditions.checkState(!closed, "Sink is closed");
+
+        if (blockLength > 0 && blockLength + length + 1 > block.length) {
+            completeBlock();
+        }
+
+        if (data == null) {
+            open();
+        }
+        else if (blockLength == 0 && segmentBytes > 0L
+                && (segmentBytes >= maxSegmentBytes || ticker.read() - segmentOpenedNanos >= maxSegmentAgeNanos)) {
+            roll();
+        }
+
+        // An event larger than a block gets a block of its own
+        if (length + 1 > block.length) {
+            block = new byte[length + 1];
+        }
+
+        System.arraycopy(bytes, offset, block, blockLength, length);
+        block[blockLength + length] = NEWLINE;
+        blockLength += length + 1;
+
+        long occurred = EventTimestamps.epochMillis(bytes, offset, length, EventTimestamps.OCCURRED);
+        if (occurred != EventTimestamps.ABSENT) {
+            blockMinOccurred = blockMinOccurred == EventTimestamps.ABSENT ? occurred : Math.min(blockMinOccurred, occurred);
+            blockMaxOccurred = Math.max(blockMaxOccurred, occurred);
+        }
+
+        if (blockEvents == 0) {
+            blockFirstOffset = eventOffset;
+        }
+        blockLastOffset = eventOffset;
+        blockEvents++;
+    }
+
+    /**
+     * Completes the current block, makes everything appended so far durable and indexes it. This happens
+     * automatically at the configured sync interval.
+     */
+    public synchronized void sync() throws IOException {
+        if (closed || data == null) {
+            return;
+        }
+
+        if (blockLength > 0) {
+            completeBlock();
+        }
+        if (unsynced.isEmpty()) {
+            return;
+        }
+
+        data.force(false);
+
+        StringBuilder entries = new StringBuilder();
+        for (SegmentIndex.Block written : unsynced) {
+            entries.append(written.format());
+        }
+        SinkFiles.write(index, ByteBuffer.wrap(entries.toString().getBytes(StandardCharsets.UTF_8)));
+        index.force(false);
+
+        durableOffset = unsynced.get(unsynced.size() - 1).getLastOffset();
+        unsynced.clear();
+    }
+
+    @Override
+    public Optional<String> getDurableOffset() {
+        return Optional.fromNullable(durableOffset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncThread.isPresent()) {
+            syncThread.get().shutdown();
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            try {
+                sync();
+            }
+            finally {
+                closed = true;
+                deflater.end();
+                if (data != null) {
+                    data.close();
+                    index.close();
+                }
+            }
+        }
+    }
+
+    private void completeBlock() throws IOException {
+        int length = compress();
+        SinkFiles.write(data, ByteBuffer.wrap(compressed, 0, length));
+
+        unsynced.add(new SegmentIndex.Block(segmentBytes, length, blockEvents, blockFirstOffset, blockLastOffset,
+                blockMinOccurred, blockMaxOccurred));
+        segmentBytes += length;
+
+        if (block.length > blockSize) {
+            block = new byte[blockSize];
+        }
+        blockLength = 0;
+        blockEvents = 0;
+        blockFirstOffset = null;
+        blockLastOffset = null;
+        blockMinOccurred = EventTimestamps.ABSENT;
+        blockMaxOccurred = EventTimestamps.ABSENT;
+    }
+
+    // Compresses the current block into a complete gzip member, returning its length
+    private int compress() {
+        System.arraycopy(GZIP_HEADER, 0, compressed, 0, GZIP_HEADER.length);
+        int length = GZIP_HEADER.length;
+
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        crc.reset();
+        crc.update(block, 0, blockLength);
+
+        if (length + GZIP_TRAILER_LENGTH > compressed.length) {
+            compressed = Arrays.copyOf(compressed, length + GZIP_TRAILER_LENGTH);
+        }
+        writeIntLE(compressed, length, (int) crc.getValue());
+        writeIntLE(compressed, length + 4, blockLength);
+
+        return length + GZIP_TRAILER_LENGTH;
+    }
+
+    private static void writeIntLE(byte[] b, int at, int value) {
+        b[at] = (byte) value;
+        b[at + 1] = (byte) (value >>> 8);
+        b[at + 2] = (byte) (value >>> 16);
+        b[at + 3] = (byte) (value >>> 24);
+    }
+
+    private void roll() throws IOException {
+        sync();
+        data.close();
+        index.close();
+        data = null;
+        open();
+    }
+
+    private void open() throws IOException {
+        sequence++;
+        segment = SinkFiles.path(directory, prefix, sequence, DATA_SUFFIX);
+        data = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexOf(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        SinkFiles.syncDirectory(directory);
+        segmentBytes = 0L;
+        segmentOpenedNanos = ticker.read();
+    }
+
+    static Path indexOf(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + INDEX_SUFFIX);
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> segments = SinkFiles.list(directory, segmentNamePattern);
+        sequence = segments.isEmpty() ? 0L : segments.lastKey();
+
+        // Only the newest segment can hold blocks that were not indexed, older ones were synced when they were rolled
+        while (!segments.isEmpty()) {
+            Map.Entry<Long, Path> newest = segments.pollLastEntry();
+            Path indexFile = indexOf(newest.getValue());
+
+            SegmentIndex recovered = Files.exists(indexFile) ? SegmentIndex.read(indexFile) : null;
+            if (recovered == null || recovered.getBlocks().isEmpty()) {
+                log.info("Removing " + newest.getValue() + " which has no indexed blocks");
+                Files.delete(newest.getValue());
+                Files.deleteIfExists(indexFile);
+                continue;
+            }
+
+            truncate(newest.getValue(), recovered.getDataLength());
+            truncate(indexFile, recovered.getIndexedBytes());
+
+            List<SegmentIndex.Block> blocks = recovered.getBlocks();
+            durableOffset = blocks.get(blocks.size() - 1).getLastOffset();
+            return;
+        }
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > length) {
+                log.info("Truncating " + file + " to " + length + " bytes");
+                channel.truncate(length);
+                channel.force(false);
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private Path directory = null;
+        private String prefix = "events";
+        private int blockSize = 256 * 1024;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private long maxSegmentBytes = 64L * 1024L * 1024L;
+        private long maxSegmentAgeNanos = TimeUnit.HOURS.toNanos(1L);
+        private long syncIntervalNanos = TimeUnit.SECONDS.toNanos(5L);
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() { }
+
+        /**
+         * @param directory where the segments are written, created if it does not exist.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param prefix start of every segment name, to allow several sinks to share a directory. Defaults to "events".
+         */
+        public Builder setPrefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @param blockSize uncompressed bytes gathered into each block. Larger blocks compress better, smaller ones
+         * let readers seek more precisely. Defaults to 256KB.
+         */
+        public Builder setBlockSize(int blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * @param compressionLevel deflate level, 1 (fastest) to 9 (smallest). Defaults to 6.
+         */
+        public Builder setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * @param maxSegmentBytes compressed size after which a new segment is started. Defaults to 64MB.
+         */
+        public Builder setMaxSegmentBytes(long maxSegmentBytes) {
+            this.maxSegmentBytes = maxSegmentBytes;
+            return this;
+        }
+
+        /**
+         * @param maxAge age after which a new segment is started, checked as blocks are started. Defaults to an hour.
+         */
+        public Builder setMaxSegmentAge(long maxAge, TimeUnit unit) {
+            this.maxSegmentAgeNanos = unit.toNanos(maxAge);
+            return this;
+        }
+
+        /**
+         * @param interval how often the current block is completed, synced to disk and indexed, 0 to only do so when a
+         * segment is rolled, the sink is closed or {@link SegmentArchiveSink#sync()} is called. Each sync ends a
+         * block, so a short interval makes for smaller blocks when traffic is light. Defaults to 5 seconds.
+         */
+        public Builder setSyncInterval(long interval, TimeUnit unit) {
+            this.syncIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Opens the sink, recovering any segments left by a previous run in the directory.
+         *
+         * @throws IOException if the directory could not be created or recovered.
+         */
+        public SegmentArchiveSink build() throws IOException {
+            Preconditions.checkNotNull(directory, "Directory must be set");
+            Preconditions.checkArgument(prefix != null && !prefix.isEmpty(), "Prefix must not be empty");
+            Preconditions.checkArgument(blockSize > 0, "Block size must be > 0");
+            Preconditions.checkArgument(compressionLevel == Deflater.DEFAULT_COMPRESSION
+                    || (compressionLevel >= Deflater.BEST_SPEED && compressionLevel <= Deflater.BEST_COMPRESSION),
+                    "Compression level must be between 1 and 9");
+            Preconditions.checkArgument(maxSegmentBytes > 0L, "Max segment bytes must be > 0");
+            Preconditions.checkArgument(maxSegmentAgeNanos > 0L, "Max segment age must be > 0");
+            Preconditions.checkArgument(syncIntervalNanos >= 0L, "Sync interval must be >= 0");
+
+            return new SegmentArchiveSink(this);
+        }
+    }
+}
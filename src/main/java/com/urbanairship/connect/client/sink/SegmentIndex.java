@@ -0,0 +1,263 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.urbanairship.connect.client.consume.EventTimestamps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The sidecar index of a segment written by {@link SegmentArchiveSink}, describing each compressed block of the
+ * segment: where it is in the file, the range of offsets of the events in it and the range of their {@code occurred}
+ * times. A reader can use it to seek straight to the block holding a given offset or time and decompress only from
+ * there on.
+ *
+ * Each block is written as one line of tab separated fields:
+ * {@code position length events firstOffset lastOffset minOccurred maxOccurred}, with the occurred times in
+ * milliseconds since the epoch or {@code -} when none of the events in the block carried one. A line is only written
+ * once its block has been synced, so every line describes a complete block.
+ */
+public final class SegmentIndex {
+
+    private static final String ABSENT = "-";
+
+    private final List<Block> blocks;
+    private final long indexedBytes;
+
+    private SegmentIndex(List<Block> blocks, long indexedBytes) {
+        this.blocks = blocks;
+        this.indexedBytes = indexedBytes;
+    }
+
+    /**
+     * Reads an index. A trailing partial line, left by a write that was interrupted, is ignored.
+     */
+    public static SegmentIndex read(Path index) throws IOException {
+        return parse(Files.readAllBytes(index));
+    }
+
+    static SegmentIndex parse(byte[] contents) throws IOException {
+        ImmutableList.Builder<Block> blocks = ImmutableList.builder();
+        int start = 0;
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != '\n') {
+                continue;
+            }
+
+            blocks.add(Block.parse(new String(contents, start, i - start, StandardCharsets.UTF_8)));
+            start = i + 1;
+        }
+
+        return new SegmentIndex(blocks.build(), start);
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the length of the segment's data file covered by the index.
+     */
+    public long getDataLength() {
+        if (blocks.isEmpty()) {
+            return 0L;
+        }
+
+        Block last = blocks.get(blocks.size() - 1);
+        return last.getPosition() + last.getLength();
+    }
+
+    /**
+     * @return the length of the complete lines of the index file.
+     */
+    long getIndexedBytes() {
+        return indexedBytes;
+    }
+
+    /**
+     * Finds where to start reading to resume after the given offset.
+     *
+     * @return index of the first block holding an event after the offset, absent if every event in the segment is at
+     * or before it.
+     */
+    public Optional<Integer> findAfterOffset(String offset) {
+        for (int i = 0; i < blocks.size(); i++) {
+            if (compareOffsets(blocks.get(i).getLastOffset(), offset) > 0) {
+                return Optional.of(i);
+            }
+        }
+
+        return Optional.absent();
+    }
+
+    /**
+     * Finds where to start reading for events that occurred at or after the given time. Events are not strictly
+     * ordered by when they occurred, so this is the first block holding any such event.
+     *
+     * @return index of the first block holding an event that occurred at or after the time, absent if there is none.
+     */
+    public Optional<Integer> findOccurredFrom(long epochMillis) {
+        for (int i = 0; i < blocks.size(); i++) {
+            long maxOccurred = blocks.get(i).getMaxOccurred();
+            if (maxOccurred != EventTimestamps.ABSENT && maxOccurred >= epochMillis) {
+                return Optional.of(i);
+            }
+        }
+
+        return Optional.absent();
+    }
+
+    /**
+     * Orders stream offsets, which are decimal numbers of arbitrary length. Offsets that are not numeric are compared
+     * as strings.
+     */
+    public static int compareOffsets(String a, String b) {
+        if (isNumeric(a) && isNumeric(b)) {
+            String x = stripLeadingZeros(a);
+            String y = stripLeadingZeros(b);
+            if (x.length() != y.length()) {
+                return x.length() < y.length() ? -1 : 1;
+            }
+            return x.compareTo(y);
+        }
+
+        return a.compareTo(b);
+    }
+
+    private static boolean isNumeric(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripLeadingZeros(String s) {
+        int i = 0;
+        while (i < s.length() - 1 && s.charAt(i) == '0') {
+            i++;
+        }
+        return s.substring(i);
+    }
+
+    /**
+     * A single compressed block of a segment.
+     */
+    public static final class Block {
+
+        private final long position;
+        private final int length;
+        private final int events;
+        private final String firstOffset;
+        private final String lastOffset;
+        private final long minOccurred;
+        private final long maxOccurred;
+
+        Block(long position, int length, int events, String firstOffset, String lastOffset, long minOccurred, long maxOccurred) {
+            this.position = position;
+            this.length = length;
+            this.events = events;
+            this.firstOffset = firstOffset;
+            this.lastOffset = lastOffset;
+            this.minOccurred = minOccurred;
+            this.maxOccurred = maxOccurred;
+        }
+
+        static Block parse(String line) throws IOException {
+            String[] fields = line.split("\t");
+            if (fields.length != 7) {
+                throw new IOException("Malformed segment index entry: " + line);
+            }
+
+            try {
+                return new Block(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                        fields[3], fields[4], parseOccurred(fields[5]), parseOccurred(fields[6]));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Malformed segment index entry: " + line, e);
+            }
+        }
+
+        String format() {
+            return position + "\t" + length + "\t" + events + "\t" + firstOffset + "\t" + lastOffset + "\t"
+                    + formatOccurred(minOccurred) + "\t" + formatOccurred(maxOccurred) + "\n";
+        }
+
+        private static long parseOccurred(String field) {
+            return ABSENT.equals(field) ? EventTimestamps.ABSENT : Long.parseLong(field);
+        }
+
+        private static String formatOccurred(long occurred) {
+            return occurred == EventTimestamps.ABSENT ? ABSENT : Long.toString(occurred);
+        }
+
+        /**
+         * @return position of the block in the segment's data file.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return compressed length of the block.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        public String getFirstOffset() {
+            return firstOffset;
+        }
+
+        public String getLastOffset() {
+            return lastOffset;
+        }
+
+        /**
+         * @return earliest {@code occurred} time of the events in the block in milliseconds since the epoch, or
+         * {@link EventTimestamps#ABSENT}.
+         */
+        public long getMinOccurred() {
+            return minOccurred;
+        }
+
+        /**
+         * @return latest {@code occurred} time of the events in the block in milliseconds since the epoch, or
+         * {@link EventTimestamps#ABSENT}.
+         */
+        public long getMaxOccurred() {
+            return maxOccurred;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("position", position)
+                    .add("length", length)
+                    .add("events", events)
+                    .add("firstOffset", firstOffset)
+                    .add("lastOffset", lastOffset)
+                    .add("minOccurred", minOccurred)
+                    .add("maxOccurred", maxOccurred)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * File handling shared by the sinks, which all write a numbered series of files to a directory.
+ */
+final class SinkFiles {
+
+    private static final Logger log = LoggerFactory.getLogger(SinkFiles.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private SinkFiles() { }
+
+    static Pattern pattern(String prefix, String suffix) {
+        return Pattern.compile(Pattern.quote(prefix) + "-(\\d+)" + Pattern.quote(suffix));
+    }
+
+    static Path path(Path directory, String prefix, long sequence, String suffix) {
+        return directory.resolve(String.format("%s-%010d%s", prefix, sequence, suffix));
+    }
+
+    /**
+     * @return the files in the directory matching the pattern, keyed by their sequence number.
+     */
+    static TreeMap<Long, Path> list(Path directory, Pattern pattern) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                Matcher matcher = pattern.matcher(entry.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), entry);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    static void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Replaces a small file atomically with the given contents, synced to disk, by way of a temporary file.
+     */
+    static void writeAtomically(Path file, byte[] contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, ByteBuffer.wrap(contents));
+            out.force(false);
+        }
+
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getParent());
+    }
+
+    // Makes the creation and renaming of files durable where the platform allows a directory to be synced
+    static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+        catch (IOException e) {
+            log.debug("Unable to sync directory " + directory, e);
+        }
+    }
+}
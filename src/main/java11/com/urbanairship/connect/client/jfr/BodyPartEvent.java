@@ -0,0 +1,38 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.urbanairship.connect.BodyPart")
+@Label("Stream Body Part")
+@Description("A part of a stream response body was delivered")
+@Category({"Airship", "Real-Time Data Streaming"})
+@Enabled(false)
+@StackTrace(false)
+final class BodyPartEvent extends Event {
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    int bytes;
+
+    @Label("Consumer Wait")
+    @Description("Time the body part waited for the body to start being consumed")
+    @Timespan(Timespan.NANOSECONDS)
+    long consumerWait;
+
+    @Label("Delivery")
+    @Description("Time taken to frame and deliver the events in the body part")
+    @Timespan(Timespan.NANOSECONDS)
+    long delivery;
+}
@@ -0,0 +1,40 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.urbanairship.connect.Connect")
+@Label("Stream Connect")
+@Description("A connection attempt to the Real-Time Data Streaming endpoint completed")
+@Category({"Airship", "Real-Time Data Streaming"})
+@Enabled(false)
+@StackTrace(false)
+final class ConnectEvent extends Event {
+
+    @Label("App Key")
+    String appKey;
+
+    @Label("URL")
+    String url;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Status Code")
+    @Description("Final response status code, 0 if no response was received")
+    int statusCode;
+
+    @Label("Connect Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectTime;
+}
@@ -0,0 +1,27 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.urbanairship.connect.ConsumePermitWait")
+@Label("Stream Consume Permit Wait")
+@Description("Stopping a stream response handler waited for a body part being delivered")
+@Category({"Airship", "Real-Time Data Streaming"})
+@Enabled(false)
+@StackTrace(false)
+final class ConsumePermitWaitEvent extends Event {
+
+    @Label("Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long wait;
+}
@@ -0,0 +1,33 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.urbanairship.connect.Disconnect")
+@Label("Stream Disconnect")
+@Description("An established stream connection ended")
+@Category({"Airship", "Real-Time Data Streaming"})
+@Enabled(false)
+@StackTrace(false)
+final class DisconnectEvent extends Event {
+
+    @Label("App Key")
+    String appKey;
+
+    @Label("Connected Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectedTime;
+
+    @Label("Error")
+    String error;
+}
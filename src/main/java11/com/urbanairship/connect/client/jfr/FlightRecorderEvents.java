@@ -0,0 +1,83 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Java 11+ implementation of the flight recorder events, see the version in {@code src/main/java} for documentation.
+ * The public methods must match that version exactly.
+ *
+ * Each event is checked before any of its fields are set, so disabled events cost no more than that check.
+ */
+public final class FlightRecorderEvents {
+
+    private static final EventType BODY_PART = EventType.getEventType(BodyPartEvent.class);
+
+    private FlightRecorderEvents() { }
+
+    public static void connect(String appKey, String url, int attempt, int statusCode, long durationNanos) {
+        ConnectEvent event = new ConnectEvent();
+        if (event.shouldCommit()) {
+            event.appKey = appKey;
+            event.url = url;
+            event.attempt = attempt;
+            event.statusCode = statusCode;
+            event.connectTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    public static void redirect(String appKey, String url) {
+        RedirectEvent event = new RedirectEvent();
+        if (event.shouldCommit()) {
+            event.appKey = appKey;
+            event.url = url;
+            event.commit();
+        }
+    }
+
+    public static void disconnect(String appKey, long connectedNanos, String error) {
+        DisconnectEvent event = new DisconnectEvent();
+        if (event.shouldCommit()) {
+            event.appKey = appKey;
+            event.connectedTime = connectedNanos;
+            event.error = error;
+            event.commit();
+        }
+    }
+
+    public static boolean isBodyPartEnabled() {
+        return BODY_PART.isEnabled();
+    }
+
+    public static void bodyPart(int bytes, long consumerWaitNanos, long deliveryNanos) {
+        BodyPartEvent event = new BodyPartEvent();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.consumerWait = consumerWaitNanos;
+            event.delivery = deliveryNanos;
+            event.commit();
+        }
+    }
+
+    public static void consumePermitWait(long waitNanos) {
+        ConsumePermitWaitEvent event = new ConsumePermitWaitEvent();
+        if (event.shouldCommit()) {
+            event.wait = waitNanos;
+            event.commit();
+        }
+    }
+
+    public static void queueBlocked(String appKey, long blockedNanos, int queueSize) {
+        QueueBlockedEvent event = new QueueBlockedEvent();
+        if (event.shouldCommit()) {
+            event.appKey = appKey;
+            event.blocked = blockedNanos;
+            event.queueSize = queueSize;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.urbanairship.connect.QueueBlocked")
+@Label("Stream Queue Blocked")
+@Description("Delivery of an event was held up by a full queue")
+@Category({"Airship", "Real-Time Data Streaming"})
+@Enabled(false)
+@StackTrace(false)
+final class QueueBlockedEvent extends Event {
+
+    @Label("App Key")
+    String appKey;
+
+    @Label("Blocked")
+    @Timespan(Timespan.NANOSECONDS)
+    long blocked;
+
+    @Label("Queue Size")
+    int queueSize;
+}
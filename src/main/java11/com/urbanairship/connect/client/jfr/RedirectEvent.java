@@ -0,0 +1,28 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.urbanairship.connect.Redirect")
+@Label("Stream Redirect")
+@Description("The Real-Time Data Streaming endpoint redirected a connection attempt")
+@Category({"Airship", "Real-Time Data Streaming"})
+@Enabled(false)
+@StackTrace(false)
+final class RedirectEvent extends Event {
+
+    @Label("App Key")
+    String appKey;
+
+    @Label("URL")
+    String url;
+}
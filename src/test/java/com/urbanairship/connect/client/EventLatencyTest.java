@@ -0,0 +1,47 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventLatencyTest {
+
+    @Test
+    public void testReceiptTimesOnlyKeptOnceConsumedTracked() throws Exception {
+        EventLatency latency = new EventLatency();
+
+        // As for a task run on its own, receipt times are dropped
+        for (int i = 0; i < 3 * EventLatency.CHUNK_SIZE; i++) {
+            latency.enqueuing(0L);
+            latency.enqueued();
+        }
+
+        latency.trackConsumed();
+        latency.enqueuing(System.nanoTime());
+        latency.enqueued();
+        latency.consumed();
+
+        // Matched with its own receipt time rather than one left over from before
+        assertEquals(1L, latency.getReceivedToConsumedMicros().getCount());
+        assertTrue(latency.getReceivedToConsumedMicros().getMax() < TimeUnit.MINUTES.toMicros(1L));
+    }
+
+    @Test
+    public void testProcessedToReceivedRecordedWithoutConsumedTracked() throws Exception {
+        EventLatency latency = new EventLatency();
+
+        byte[] event = "{\"processed\":\"2015-01-01T00:00:00.000Z\"}".getBytes(StandardCharsets.UTF_8);
+        latency.received(event, 0, event.length);
+
+        assertEquals(1L, latency.getProcessedToReceivedMillis().getCount());
+        assertEquals(0L, latency.getReceivedToConsumedMicros().getCount());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.sink.EventSink;
+import com.urbanairship.connect.client.sink.RollingFileSink;
+import com.urbanairship.connect.client.sink.SegmentArchiveSink;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayStreamTest {
+
+    // 2015-05-05T12:00:00Z
+    private static final long NOON = 1430827200000L;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private List<String> events;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("archive");
+        events = archive(SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setBlockSize(256)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 50);
+    }
+
+    @Test
+    public void testReplaysEverythingByDefault() throws Exception {
+        try (ReplayStream replay = ReplayStream.newBuilder().setDirectory(directory).build()) {
+            assertFalse(replay.getCheckpoint().isPresent());
+            assertEquals(events, drain(replay));
+            assertEquals(Optional.of("50"), replay.getCheckpoint());
+        }
+    }
+
+    @Test
+    public void testStartsAfterOffset() throws Exception {
+        try (ReplayStream replay = ReplayStream.newBuilder()
+                .setDirectory(directory)
+                .setStartPosition(StartPosition.offset("20"))
+                .build()) {
+            assertEquals(Optional.of("20"), replay.getCheckpoint());
+            assertEquals(events.get(20), replay.next());
+            assertEquals(Optional.of("21"), replay.getCheckpoint());
+        }
+    }
+
+    @Test
+    public void testStartsFromOccurred() throws Exception {
+        try (ReplayStream replay = ReplayStream.newBuilder()
+                .setDirectory(directory)
+                .setOccurredFrom(NOON + TimeUnit.MINUTES.toMillis(45L), TimeUnit.MILLISECONDS)
+                .build()) {
+            assertEquals(events.subList(44, 50), drain(replay));
+        }
+    }
+
+    @Test
+    public void testLatestReplaysNothing() throws Exception {
+        try (ReplayStream replay = ReplayStream.newBuilder()
+                .setDirectory(directory)
+                .setStartPosition(StartPosition.relative(StartPosition.RelativePosition.LATEST))
+                .build()) {
+            assertFalse(replay.hasNext());
+        }
+    }
+
+    @Test
+    public void testReplaysNdjson() throws Exception {
+        Path ndjson = folder.getRoot().toPath().resolve("ndjson");
+        List<String> archived = archive(RollingFileSink.newBuilder()
+                .setDirectory(ndjson)
+                .setPrefix("app")
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 10);
+
+        ConnectStreamApi replay = ReplayStream.newBuilder().setDirectory(ndjson).setPrefix("app").build();
+        try {
+            assertEquals(archived, drain(replay));
+        }
+        finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void testPacesEvents() throws Exception {
+        try (ReplayStream replay = ReplayStream.newBuilder()
+                .setDirectory(directory)
+                .setEventsPerSecond(200D)
+                .build()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 21; i++) {
+                replay.next();
+            }
+            // 20 intervals of 5ms follow the first event
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(95L));
+        }
+    }
+
+    @Test
+    public void testCloseWakesPacedConsumer() throws Exception {
+        final ReplayStream replay = ReplayStream.newBuilder()
+                .setDirectory(directory)
+                .setEventsPerSecond(0.01D)
+                .build();
+        replay.next();
+
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch waiting = new CountDownLatch(1);
+            Future<Boolean> hasNext = thread.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    waiting.countDown();
+                    return replay.hasNext();
+                }
+            });
+
+            assertTrue(waiting.await(10, TimeUnit.SECONDS));
+            Thread.sleep(50L);
+            replay.close();
+
+            assertFalse(hasNext.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            thread.shutdownNow();
+        }
+    }
+
+    // Event n has offset n and occurred n minutes after noon
+    private static List<String> archive(EventSink sink, int count) throws Exception {
+        ImmutableList.Builder<String> events = ImmutableList.builder();
+        try {
+            for (int i = 1; i <= count; i++) {
+                String event = String.format("{\"offset\":\"%d\",\"occurred\":\"2015-05-05T12:%02d:00.000Z\",\"type\":\"OPEN\"}", i, i);
+                byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+                sink.append(bytes, 0, bytes.length, Integer.toString(i));
+                events.add(event);
+            }
+        }
+        finally {
+            sink.close();
+        }
+        return events.build();
+    }
+
+    private static List<String> drain(ConnectStreamApi stream) {
+        List<String> events = new ArrayList<>();
+        while (stream.hasNext()) {
+            events.add(stream.next());
+        }
+        return events;
+    }
+}
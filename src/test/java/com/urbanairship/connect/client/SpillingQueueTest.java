@@ -0,0 +1,226 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingQueueTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private SpillingQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("spill");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) queue.close();
+    }
+
+    @Test
+    public void testSpillsBeyondMemoryAndPreservesOrder() throws Exception {
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(5)
+                .setDirectory(directory)
+                .setSegmentBytes(64)
+                .setBufferBytes(16)
+                .build();
+
+        List<String> events = events(0, 100);
+        for (String event : events) {
+            assertTrue(queue.offer(event));
+        }
+
+        assertEquals(100, queue.size());
+        assertEquals(95, queue.getSpilledCount());
+        assertTrue(spillFiles() > 1);
+
+        // Freeing memory doesn't let later events jump ahead of the spilled ones
+        assertEquals(events.get(0), queue.poll());
+        queue.offer("late");
+
+        List<String> taken = new ArrayList<>();
+        String event;
+        while ((event = queue.poll()) != null) {
+            taken.add(event);
+        }
+
+        List<String> expected = new ArrayList<>(events.subList(1, 100));
+        expected.add("late");
+        assertEquals(expected, taken);
+        assertEquals(0L, queue.getSpilledBytes());
+        assertEquals(0, spillFiles());
+    }
+
+    @Test
+    public void testEventLargerThanSegment() throws Exception {
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(1)
+                .setDirectory(directory)
+                .setSegmentBytes(16)
+                .setBufferBytes(16)
+                .build();
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append("\\u00e9v\\u00e9nement ");
+        }
+
+        queue.put("first");
+        queue.put(large.toString());
+        queue.put("last");
+
+        assertEquals("first", queue.take());
+        assertEquals(large.toString(), queue.peek());
+        assertEquals(large.toString(), queue.take());
+        assertEquals("last", queue.take());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBufferedEventsReadWithoutWritingLog() throws Exception {
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(2)
+                .setDirectory(directory)
+                .build();
+
+        List<String> events = events(0, 10);
+        for (String event : events) {
+            assertTrue(queue.offer(event));
+        }
+
+        // The spilled events haven't filled the write buffer, so haven't been written out
+        assertEquals(8, queue.getSpilledCount());
+        assertEquals(0, spillFiles());
+
+        List<String> taken = new ArrayList<>();
+        queue.drainTo(taken);
+        assertEquals(events, taken);
+        assertEquals(0L, queue.getSpilledBytes());
+    }
+
+    @Test
+    public void testOffersRefusedOnceSpillIsFull() throws Exception {
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(2)
+                .setDirectory(directory)
+                .setMaxSpillBytes(20L)
+                .build();
+
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertTrue(queue.offer("0123456789"));
+        assertFalse(queue.offer("0123456789"));
+        assertTrue(queue.offer("c"));
+        assertFalse(queue.offer("d", 10, TimeUnit.MILLISECONDS));
+
+        assertEquals("a", queue.poll());
+        assertEquals("b", queue.poll());
+        assertEquals("0123456789", queue.poll());
+        assertTrue(queue.offer("d"));
+        assertEquals("c", queue.poll());
+        assertEquals("d", queue.poll());
+    }
+
+    @Test
+    public void testCloseDropsSpilledEventsAndKeepsMemory() throws Exception {
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(2)
+                .setDirectory(directory)
+                .build();
+
+        for (String event : events(0, 10)) {
+            queue.offer(event);
+        }
+        queue.close();
+
+        assertEquals(2, queue.size());
+        assertEquals(0, spillFiles());
+        assertFalse(queue.offer("spilled"));
+        assertEquals("0", queue.poll());
+        assertTrue(queue.offer("10"));
+        assertEquals("1", queue.poll());
+        assertEquals("10", queue.poll());
+    }
+
+    @Test
+    public void testConcurrentProducerAndConsumer() throws Exception {
+        queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(16)
+                .setDirectory(directory)
+                .setSegmentBytes(256)
+                .setBufferBytes(64)
+                .build();
+
+        final List<String> events = events(0, 20000);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            threads.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (String event : events) {
+                        queue.put(event);
+                    }
+                    return null;
+                }
+            });
+            Future<List<String>> consumed = threads.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    List<String> taken = new ArrayList<>();
+                    while (taken.size() < events.size()) {
+                        taken.add(queue.take());
+                        if (taken.size() % 1000 == 0) {
+                            // Slow down so the producer gets ahead
+                            Thread.sleep(1L);
+                        }
+                    }
+                    return taken;
+                }
+            });
+
+            assertEquals(events, consumed.get(30, TimeUnit.SECONDS));
+        }
+        finally {
+            threads.shutdownNow();
+        }
+    }
+
+    // The directory is only created once events are written out
+    private int spillFiles() {
+        String[] files = directory.toFile().list();
+        return files == null ? 0 : files.length;
+    }
+
+    private static List<String> events(int from, int to) {
+        List<String> events = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            events.add(Integer.toString(i));
+        }
+        return events;
+    }
+}
@@ -16,7 +16,9 @@ import com.google.gson.JsonParser;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import com.urbanairship.connect.client.consume.ConnectionCircuitBreaker;
 import com.urbanairship.connect.client.consume.ConnectionRetryStrategy;
+import com.urbanairship.connect.client.metrics.InMemoryStreamMetrics;
 import com.urbanairship.connect.client.model.Creds;
 import com.urbanairship.connect.client.model.GsonUtil;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
@@ -222,6 +224,37 @@ public class StreamConnectionTest {
         assertEquals(descriptor.getCreds().getToken(), token);
     }
 
+    @Test
+    public void testAcceptEncodingWhenCompressionEnabled() throws Exception {
+        final AtomicReference<String> encoding = new AtomicReference<>();
+        final CountDownLatch received = new CountDownLatch(1);
+        Answer httpAnswer = new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                HttpExchange exchange = (HttpExchange) invocation.getArguments()[0];
+                encoding.set(exchange.getRequestHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+                exchange.sendResponseHeaders(200, 0L);
+                received.countDown();
+                return null;
+            }
+        };
+
+        doAnswer(httpAnswer).when(serverHandler).handle(Matchers.<HttpExchange>any());
+
+        StreamQueryDescriptor descriptor = StreamQueryDescriptor.newBuilder()
+                .setCreds(Creds.newBuilder()
+                        .setAppKey(randomAlphabetic(22))
+                        .setToken(randomAlphabetic(5))
+                        .build())
+                .enableCompression()
+                .build();
+        stream = new StreamConnection(descriptor, http, connectionRetryStrategy, consumer, url);
+        read(stream, Optional.<StartPosition>absent());
+
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(StreamConnection.ACCEPT_ENCODING_HEADER, encoding.get());
+    }
+
     @Test
     public void testRequestBodyWithOffset() throws Exception {
         final AtomicReference<String> body = new AtomicReference<>();
@@ -612,6 +645,61 @@ public class StreamConnectionTest {
         }
     }
 
+    @Test
+    public void testOpenCircuitBreakerHaltsAttemptsUntilClosed() throws Exception {
+        final CountDownLatch attempted = new CountDownLatch(1);
+        Answer errorAnswer = new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                HttpExchange exchange = (HttpExchange) invocation.getArguments()[0];
+                exchange.sendResponseHeaders(503, 0L);
+                exchange.close();
+                attempted.countDown();
+                return null;
+            }
+        };
+
+        doAnswer(errorAnswer).when(serverHandler).handle(Matchers.<HttpExchange>any());
+        when(connectionRetryStrategy.shouldRetry(anyInt())).thenReturn(true);
+
+        ConnectionCircuitBreaker breaker = ConnectionCircuitBreaker.newBuilder()
+                .setFailureThreshold(1)
+                .setOpenDuration(1L, TimeUnit.HOURS)
+                .build();
+
+        stream = new StreamConnection(descriptor(), http, connectionRetryStrategy, Optional.of(breaker), consumer, url);
+
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = thread.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    stream.read(Optional.<StartPosition>absent());
+                    return Boolean.TRUE;
+                }
+            });
+
+            assertTrue(attempted.await(10, TimeUnit.SECONDS));
+
+            // The breaker holds off the retry rather than letting it hit the endpoint again
+            try {
+                future.get(500, TimeUnit.MILLISECONDS);
+                fail();
+            }
+            catch (TimeoutException expected) {
+            }
+
+            assertEquals(ConnectionCircuitBreaker.State.OPEN, breaker.getState());
+            verify(serverHandler, times(1)).handle(Matchers.<HttpExchange>any());
+
+            stream.close();
+            future.get(1, TimeUnit.SECONDS);
+        }
+        finally {
+            thread.shutdownNow();
+        }
+    }
+
     @Test
     public void testBadRequest() throws Exception {
         Answer httpAnswer = new Answer() {
@@ -675,6 +763,48 @@ public class StreamConnectionTest {
         assertEquals(leaderHost, receivedLeaderHost.get());
     }
 
+    @Test
+    public void testMetricsRecordConnectAndBody() throws Exception {
+        final String line = randomAlphabetic(15);
+
+        Answer redirectAnswer = new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                HttpExchange exchange = (HttpExchange) invocation.getArguments()[0];
+                exchange.getResponseHeaders().add("Set-Cookie", "SRV=" + randomAlphanumeric(15));
+                exchange.sendResponseHeaders(307, 0L);
+                exchange.close();
+                return null;
+            }
+        };
+        Answer bodyAnswer = new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                HttpExchange exchange = (HttpExchange) invocation.getArguments()[0];
+                exchange.sendResponseHeaders(200, 0L);
+                exchange.getResponseBody().write((line + "\n" + line + "\n").getBytes(UTF_8));
+                exchange.close();
+                return null;
+            }
+        };
+        doAnswer(redirectAnswer)
+        .doAnswer(bodyAnswer)
+        .when(serverHandler).handle(Matchers.<HttpExchange>any());
+
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+        stream = new StreamConnection(descriptor(), http, connectionRetryStrategy,
+                Optional.<ConnectionCircuitBreaker>absent(), metrics, consumer, url);
+        stream.read(Optional.<StartPosition>absent());
+
+        assertEquals(1L, metrics.getConnectAttempts());
+        assertEquals(1L, metrics.getConnectSuccesses());
+        assertEquals(0L, metrics.getConnectFailures());
+        assertEquals(1L, metrics.getRedirects());
+        assertEquals(2L * (line.length() + 1), metrics.getBytesReceived());
+        assertEquals(2L, metrics.getEventsFramed());
+        assertTrue(metrics.getLastFirstByteNanos() >= metrics.getLastConnectNanos());
+    }
+
     @Test
     public void testExceptionDuringConsume() throws Exception {
         Answer httpAnswer = new Answer() {
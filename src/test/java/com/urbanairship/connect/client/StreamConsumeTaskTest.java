@@ -8,10 +8,18 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.gson.JsonObject;
+import com.urbanairship.connect.client.consume.FramingOptions;
+import com.urbanairship.connect.client.consume.MobileEventStreamBodyConsumer;
+import com.urbanairship.connect.client.encoding.BinaryEventDecoder;
+import com.urbanairship.connect.client.encoding.EncodedEventHandler;
+import com.urbanairship.connect.client.metrics.InMemoryStreamMetrics;
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
 import com.urbanairship.connect.client.model.Creds;
 import com.urbanairship.connect.client.model.GsonUtil;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
 import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.sink.BinaryEventSink;
+import com.urbanairship.connect.client.sink.EventSink;
 import com.urbanairship.connect.java8.Consumer;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.asynchttpclient.AsyncHttpClient;
@@ -20,13 +28,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
@@ -37,18 +51,24 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class StreamConsumeTaskTest {
@@ -60,13 +80,14 @@ public class StreamConsumeTaskTest {
 
     @Captor private ArgumentCaptor<Optional<StartPosition>> positionCaptor;
 
+    private final AtomicReference<FramingOptions> framing = new AtomicReference<>();
     private ExecutorService readThread;
 
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
 
-        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any()))
+        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
                 .thenReturn(stream);
 
         readThread = Executors.newSingleThreadExecutor();
@@ -108,7 +129,7 @@ public class StreamConsumeTaskTest {
 
             assertEquals(reduce(events), ImmutableList.copyOf(queue));
 
-            verify(supplier).get(eq(descriptor), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any());
+            verify(supplier).get(eq(descriptor), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any());
             verify(stream).read(Optional.<StartPosition>absent());
         }
         finally {
@@ -222,7 +243,7 @@ public class StreamConsumeTaskTest {
     public void testConnectException() throws Exception {
         task = task(descriptor(), new LinkedBlockingQueue<String>());
 
-        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any()))
+        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
                 .thenReturn(stream);
 
         doThrow(new ConnectionException("boom", 400)).when(stream).read(Matchers.<Optional<StartPosition>>any());
@@ -326,13 +347,50 @@ public class StreamConsumeTaskTest {
         assertEquals(events.get(0).json, queue.remove());
     }
 
+    @Test
+    public void testStopWakesDeliveryBlockedOnFullQueue() throws Exception {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>(1);
+        task = task(descriptor(), queue);
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+        final List<TestEvent> events = events(2);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicBoolean interruptLeftBehind = new AtomicBoolean(true);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                consume(hook.get(), events.subList(0, 1));
+                blocked.countDown();
+                consume(hook.get(), events.subList(1, 2));
+                interruptLeftBehind.set(Thread.currentThread().isInterrupted());
+                return null;
+            }
+        })
+        .when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        Future<?> future = readThread.submit(task);
+
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        // Give the second event a chance to block on the full queue
+        Thread.sleep(50L);
+
+        long start = System.nanoTime();
+        task.stop();
+        future.get(10, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500L);
+        assertEquals(ImmutableList.of(events.get(0).json), ImmutableList.copyOf(queue));
+        assertEquals(false, interruptLeftBehind.get());
+    }
+
     @Test
     public void testStopPreventsFurtherStreamRead() throws Exception {
         task = task(descriptor(), new LinkedBlockingQueue<String>());
 
         final CountDownLatch streamRequested = new CountDownLatch(1);
         final CountDownLatch stopped = new CountDownLatch(1);
-        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any()))
+        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
                 .thenAnswer(new Answer<StreamConnection>() {
                     @Override
                     public StreamConnection answer(InvocationOnMock invocation) throws Throwable {
@@ -355,6 +413,420 @@ public class StreamConsumeTaskTest {
         verify(stream, never()).read(Matchers.<Optional<StartPosition>>any());
     }
 
+    @Test
+    public void testOffsetUpdatesDivertedFromQueue() throws Exception {
+        final List<TestEvent> batch1 = events(2);
+        final List<TestEvent> batch2 = events(1);
+        final String updateOffset = randomAlphabetic(10);
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+
+        final CountDownLatch iterationsDone = new CountDownLatch(1);
+        final CountDownLatch assertionDone = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                consume(hook.get(), batch1);
+                framing.get().getOffsetUpdateConsumer().get().acceptOffsetUpdate(updateOffset);
+                throw new RuntimeException("Boom!");
+            }
+        })
+        .doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                consume(hook.get(), batch2);
+                iterationsDone.countDown();
+                assertionDone.await();
+                return null;
+            }
+        })
+        .doNothing()
+        .when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        OffsetUpdateListener listener = mock(OffsetUpdateListener.class);
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setTargetQueue(queue)
+                .setOffsetUpdateListener(listener)
+                .build();
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(iterationsDone.await(10, TimeUnit.SECONDS));
+
+            assertEquals(
+                ImmutableList.builder()
+                    .addAll(reduce(batch1))
+                    .addAll(reduce(batch2))
+                    .build(),
+                ImmutableList.copyOf(queue)
+            );
+
+            verify(listener).offsetUpdate(updateOffset, 2L);
+
+            verify(stream, atLeastOnce()).read(positionCaptor.capture());
+            assertEquals(Optional.of(StartPosition.offset(updateOffset)), positionCaptor.getAllValues().get(1));
+        }
+        finally {
+            assertionDone.countDown();
+        }
+    }
+
+    @Test
+    public void testOffsetUpdatesDivertedThroughWrappedConsumer() throws Exception {
+        final List<TestEvent> events = events(2);
+        final String update = "{\"offset\":\"7\",\"type\":\"OFFSET_UPDATE\"}";
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+
+        final CountDownLatch consumed = new CountDownLatch(1);
+        final CountDownLatch verified = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                // A custom connection that wraps the event consumer in its own
+                Consumer<String> wrapped = new Consumer<String>() {
+                    @Override
+                    public void accept(String event) {
+                        hook.get().accept(event);
+                    }
+                };
+                MobileEventStreamBodyConsumer framer = new MobileEventStreamBodyConsumer(wrapped, framing.get(), new NoopStreamMetrics());
+                framer.accept((events.get(0).json + "\n" + update + "\n" + events.get(1).json + "\n").getBytes(StandardCharsets.UTF_8));
+                consumed.countDown();
+                verified.await();
+                return null;
+            }
+        }).when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        OffsetUpdateListener listener = mock(OffsetUpdateListener.class);
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setTargetQueue(queue)
+                .setOffsetUpdateListener(listener)
+                .build();
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(consumed.await(10, TimeUnit.SECONDS));
+
+            assertEquals(reduce(events), ImmutableList.copyOf(queue));
+            verify(listener).offsetUpdate("7", 1L);
+        }
+        finally {
+            verified.countDown();
+        }
+    }
+
+    @Test
+    public void testOversizedEventsPassedToHandler() throws Exception {
+        final List<TestEvent> batch = events(2);
+        final byte[] oversized = ("{\"big\":\"" + randomAlphabetic(100) + "\"}\n").getBytes(StandardCharsets.UTF_8);
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+
+        final CountDownLatch iterationsDone = new CountDownLatch(1);
+        final CountDownLatch assertionDone = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                MobileEventStreamBodyConsumer framer = new MobileEventStreamBodyConsumer(hook.get(), framing.get(), new NoopStreamMetrics());
+                framer.accept((batch.get(0).json + "\n").getBytes(StandardCharsets.UTF_8));
+                framer.accept(Arrays.copyOf(oversized, 60));
+                throw new RuntimeException("Boom!");
+            }
+        })
+        .doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                MobileEventStreamBodyConsumer framer = new MobileEventStreamBodyConsumer(hook.get(), framing.get(), new NoopStreamMetrics());
+                framer.accept(oversized);
+                framer.accept((batch.get(1).json + "\n").getBytes(StandardCharsets.UTF_8));
+                iterationsDone.countDown();
+                assertionDone.await();
+                return null;
+            }
+        })
+        .doNothing()
+        .when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        OversizedEventHandler handler = mock(OversizedEventHandler.class);
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setTargetQueue(queue)
+                .setMaxEventBytes(50)
+                .setOversizedEventHandler(handler)
+                .build();
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(iterationsDone.await(10, TimeUnit.SECONDS));
+
+            assertEquals(reduce(batch), ImmutableList.copyOf(queue));
+
+            InOrder inOrder = inOrder(handler);
+            inOrder.verify(handler).acceptPart(Matchers.<byte[]>any(), anyInt(), anyInt(), eq(false));
+            inOrder.verify(handler).abandoned();
+            inOrder.verify(handler).acceptPart(Matchers.<byte[]>any(), eq(0), eq(oversized.length - 1), eq(true));
+            verifyNoMoreInteractions(handler);
+        }
+        finally {
+            assertionDone.countDown();
+        }
+    }
+
+    @Test
+    public void testMetricsRecordDeliveryAndReconnectGap() throws Exception {
+        final List<TestEvent> batch1 = events(2);
+        final List<TestEvent> batch2 = events(3).subList(2, 3);
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+
+        final CountDownLatch iterationsDone = new CountDownLatch(1);
+        final CountDownLatch assertionDone = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                consume(hook.get(), batch1);
+                throw new RuntimeException("Boom!");
+            }
+        })
+        .doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(20L);
+                consume(hook.get(), batch2);
+                iterationsDone.countDown();
+                assertionDone.await();
+                return null;
+            }
+        })
+        .doNothing()
+        .when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setTargetQueue(queue)
+                .setMetrics(metrics)
+                .build();
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(iterationsDone.await(10, TimeUnit.SECONDS));
+
+            assertEquals(3L, metrics.getEventsEnqueued());
+            assertEquals(3, metrics.getQueueDepth());
+            assertEquals(0L, metrics.getEnqueueBlockedCount());
+            assertEquals(1L, metrics.getReconnects());
+            assertTrue(metrics.getMaxReconnectGapNanos() >= TimeUnit.MILLISECONDS.toNanos(20L));
+        }
+        finally {
+            assertionDone.countDown();
+        }
+    }
+
+    @Test
+    public void testQueueNotCountedForNoopMetrics() throws Exception {
+        final AtomicReference<Consumer<String>> hook = hookStream();
+
+        final AtomicInteger sizeCalls = new AtomicInteger();
+        BlockingQueue<String> queue = new LinkedBlockingQueue<String>() {
+            @Override
+            public int size() {
+                sizeCalls.incrementAndGet();
+                return super.size();
+            }
+        };
+        task = task(descriptor(), queue);
+
+        final List<TestEvent> events = events(5);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        final CountDownLatch assertionDone = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                consume(hook.get(), events);
+                readDone.countDown();
+                assertionDone.await();
+                return null;
+            }
+        })
+        .doNothing()
+        .when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(readDone.await(10, TimeUnit.SECONDS));
+
+            assertEquals(0, sizeCalls.get());
+            assertEquals(reduce(events), ImmutableList.copyOf(queue));
+        }
+        finally {
+            assertionDone.countDown();
+        }
+    }
+
+    @Test
+    public void testSinkReceivesEventsAndStartsFromDurableOffset() throws Exception {
+        final RecordingSink sink = new RecordingSink(Optional.of("41"));
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setSink(sink)
+                .build();
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+        final List<TestEvent> events = events(5);
+
+        final CountDownLatch consumed = new CountDownLatch(1);
+        final CountDownLatch verified = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                MobileEventStreamBodyConsumer framer = new MobileEventStreamBodyConsumer(hook.get(), framing.get(), new NoopStreamMetrics());
+                for (TestEvent event : events) {
+                    framer.accept(event.json.getBytes(StandardCharsets.UTF_8));
+                    framer.accept(new byte[] {'\n'});
+                }
+                consumed.countDown();
+                verified.await();
+                return null;
+            }
+        }).when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(consumed.await(10, TimeUnit.SECONDS));
+
+            verify(stream).read(Optional.of(StartPosition.offset("41")));
+            assertEquals(reduce(events), sink.events);
+            assertEquals(ImmutableList.of("0", "1", "2", "3", "4"), sink.offsets);
+        }
+        finally {
+            verified.countDown();
+        }
+    }
+
+    @Test
+    public void testSinkFailureEndsTask() throws Exception {
+        final RecordingSink sink = new RecordingSink(Optional.<String>absent());
+        sink.failure = new IOException("disk full");
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setSink(sink)
+                .build();
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                MobileEventStreamBodyConsumer framer = new MobileEventStreamBodyConsumer(hook.get(), framing.get(), new NoopStreamMetrics());
+                try {
+                    framer.accept((events(1).get(0).json + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                catch (RuntimeException e) {
+                    // The connection would be torn down by the failed delivery
+                }
+                return null;
+            }
+        }).when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        Future<?> future = readThread.submit(task);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getCause() == sink.failure);
+        }
+
+        verify(stream).read(Matchers.<Optional<StartPosition>>any());
+    }
+
+    @Test
+    public void testBinarySinkEncodesFramedEvents() throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final List<String> recordOffsets = new ArrayList<>();
+        BinaryEventSink sink = BinaryEventSink.newBuilder()
+                .setHandler(new EncodedEventHandler() {
+                    @Override
+                    public void handle(ByteBuffer record, String eventOffset) {
+                        byte[] bytes = new byte[record.remaining()];
+                        record.get(bytes);
+                        records.write(bytes, 0, bytes.length);
+                        recordOffsets.add(eventOffset);
+                    }
+                })
+                .build();
+        task = StreamConsumeTask.newBuilder()
+                .setStreamQueryDescriptor(descriptor())
+                .setStreamConnectionSupplier(supplier)
+                .setSink(sink)
+                .build();
+
+        final AtomicReference<Consumer<String>> hook = hookStream();
+        final String body = "{\"type\":\"OPEN\",\"offset\":\"1\",\"device\":{\"channel\":\"c1\",\"device_type\":\"IOS\"}}\n"
+                + "{\"type\":\"OFFSET_UPDATE\",\"offset\":\"2\"}\n"
+                + "{\"type\":\"CLOSE\",\"offset\":\"3\",\"device\":{\"channel\":\"c2\",\"device_type\":\"IOS\"}}\n";
+
+        final CountDownLatch consumed = new CountDownLatch(1);
+        final CountDownLatch verified = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                MobileEventStreamBodyConsumer framer = new MobileEventStreamBodyConsumer(hook.get(), framing.get(), new NoopStreamMetrics());
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                framer.accept(Arrays.copyOfRange(bytes, 0, 40));
+                framer.accept(Arrays.copyOfRange(bytes, 40, bytes.length));
+                consumed.countDown();
+                verified.await();
+                return null;
+            }
+        }).when(stream).read(Matchers.<Optional<StartPosition>>any());
+
+        readThread.submit(task);
+
+        try {
+            assertTrue(consumed.await(10, TimeUnit.SECONDS));
+
+            assertEquals(ImmutableList.of("1", "3"), recordOffsets);
+            assertEquals(Optional.of("3"), sink.getDurableOffset());
+
+            ByteBuffer in = ByteBuffer.wrap(records.toByteArray());
+            BinaryEventDecoder decoder = new BinaryEventDecoder();
+            assertTrue(decoder.decode(in));
+            assertEquals("1", decoder.getOffset());
+            assertEquals("OPEN", decoder.getTypeName());
+            assertEquals(ByteBuffer.wrap("c1".getBytes(StandardCharsets.UTF_8)), decoder.getChannel());
+            assertTrue(decoder.decode(in));
+            assertEquals("3", decoder.getOffset());
+            assertEquals("CLOSE", decoder.getTypeName());
+            assertEquals("IOS", decoder.getDeviceTypeName());
+            assertFalse(in.hasRemaining());
+        }
+        finally {
+            verified.countDown();
+        }
+    }
+
     private void consume(Consumer<String> consumer, List<TestEvent> events) {
         for (TestEvent event : events) {
             consumer.accept(event.json);
@@ -366,13 +838,14 @@ public class StreamConsumeTaskTest {
         final AtomicReference<Consumer<String>> hook = new AtomicReference<>();
 
         final AtomicBoolean first = new AtomicBoolean(true);
-        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any()))
+        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
             .thenAnswer(new Answer<StreamConnection>() {
                 @Override
                 public StreamConnection answer(InvocationOnMock invocation) throws Throwable {
                     if (first.compareAndSet(true, false)) {
                         Consumer<String> consumer = (Consumer<String>) invocation.getArguments()[2];
                         hook.set(consumer);
+                        framing.set((FramingOptions) invocation.getArguments()[3]);
                     }
 
                     return stream;
@@ -423,6 +896,35 @@ public class StreamConsumeTaskTest {
         return builder.build();
     }
 
+    private static class RecordingSink implements EventSink {
+
+        private final Optional<String> durableOffset;
+        private final List<String> events = new ArrayList<>();
+        private final List<String> offsets = new ArrayList<>();
+        private volatile IOException failure = null;
+
+        RecordingSink(Optional<String> durableOffset) {
+            this.durableOffset = durableOffset;
+        }
+
+        @Override
+        public void append(byte[] bytes, int offset, int length, String eventOffset) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            events.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            offsets.add(eventOffset);
+        }
+
+        @Override
+        public Optional<String> getDurableOffset() {
+            return durableOffset;
+        }
+
+        @Override
+        public void close() { }
+    }
+
     private static class TestEvent {
 
         private final String offset;
@@ -0,0 +1,519 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.urbanairship.connect.client.consume.FramingOptions;
+import com.urbanairship.connect.client.consume.MemoryBudget;
+import com.urbanairship.connect.client.model.Creds;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.server.LocalConnectServer;
+import com.urbanairship.connect.java8.Consumer;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamManagerTest {
+
+    @Mock private StreamConnectionSupplier connSupplier;
+
+    private StreamManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (manager != null) {
+            manager.close();
+            assertTrue(manager.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testEventsDeliveredInOrderToEachStreamsConsumer() throws Exception {
+        manager = manager(2, 50);
+        StreamQueryDescriptor first = descriptor();
+        StreamQueryDescriptor second = descriptor();
+        connection(first, events("a", 200));
+        connection(second, events("b", 150));
+
+        Collector a = new Collector(200);
+        Collector b = new Collector(150);
+        manager.addStream("a", first, a);
+        manager.addStream("b", second, b);
+
+        assertTrue(a.done.await(10, TimeUnit.SECONDS));
+        assertTrue(b.done.await(10, TimeUnit.SECONDS));
+        assertEquals(events("a", 200), a.events);
+        assertEquals(events("b", 150), b.events);
+        assertEquals(ImmutableSet.of("a", "b"), manager.getStreams());
+
+        // The checkpoint moves on after the consumer has taken the event
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (!Optional.of("199").equals(manager.getCheckpoint("a")) && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(Optional.of("199"), manager.getCheckpoint("a"));
+    }
+
+    @Test
+    public void testStreamsShareHttpClient() throws Exception {
+        manager = manager(1, 50);
+        StreamQueryDescriptor first = descriptor();
+        StreamQueryDescriptor second = descriptor();
+        connection(first, events("a", 1));
+        connection(second, events("b", 1));
+
+        Collector collector = new Collector(2);
+        manager.addStream("a", first, collector);
+        manager.addStream("b", second, collector);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+
+        ArgumentCaptor<AsyncHttpClient> clients = ArgumentCaptor.forClass(AsyncHttpClient.class);
+        verify(connSupplier, Mockito.times(2)).get(Matchers.<StreamQueryDescriptor>any(), clients.capture(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any());
+        assertSame(clients.getAllValues().get(0), clients.getAllValues().get(1));
+    }
+
+    @Test
+    public void testDeliveryTakesWeightedTurns() throws Exception {
+        manager = manager(1, 5);
+        StreamQueryDescriptor light = descriptor();
+        StreamQueryDescriptor heavy = descriptor();
+        CountDownLatch lightSent = connection(light, events("light", 60));
+        CountDownLatch heavySent = connection(heavy, events("heavy", 60));
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(120);
+        manager.addStream("light", light, Optional.<StartPosition>absent(), 1, new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                if (order.isEmpty()) {
+                    holding.countDown();
+                    await(release);
+                }
+                order.add("light");
+                done.countDown();
+            }
+        });
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        manager.addStream("heavy", heavy, Optional.<StartPosition>absent(), 3, new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                order.add("heavy");
+                done.countDown();
+            }
+        });
+        assertTrue(lightSent.await(10, TimeUnit.SECONDS));
+        assertTrue(heavySent.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // Turns of 5 light events then 15 heavy ones
+        List<String> expected = new ArrayList<>();
+        for (int turn = 0; turn < 2; turn++) {
+            expected.addAll(Collections.nCopies(5, "light"));
+            expected.addAll(Collections.nCopies(15, "heavy"));
+        }
+        assertEquals(expected, order.subList(0, 40));
+    }
+
+    @Test
+    public void testBlockedConsumerDoesNotHoldUpOtherStreams() throws Exception {
+        manager = StreamManager.newBuilder()
+                .setConnectionSupplier(connSupplier)
+                .setDeliveryThreads(2)
+                .setBufferedEventsPerStream(10)
+                .build();
+        StreamQueryDescriptor noisy = descriptor();
+        StreamQueryDescriptor quiet = descriptor();
+        connection(noisy, events("noisy", 1000));
+        connection(quiet, events("quiet", 300));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        manager.addStream("noisy", noisy, new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                await(release);
+            }
+        });
+        Collector collector = new Collector(300);
+        manager.addStream("quiet", quiet, collector);
+
+        try {
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertEquals(events("quiet", 300), collector.events);
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFullBufferDoesNotStallOtherConnectionsOnSharedClient() throws Exception {
+        // A single I/O thread, so both connections are read by the same one
+        final AsyncHttpClient http = new DefaultAsyncHttpClient(HttpClientUtil.defaultHttpClientConfigBuilder()
+                .setIoThreadsCount(1)
+                .build());
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try (LocalConnectServer server = LocalConnectServer.newBuilder().setLogSize(100000L).build().start()) {
+            manager = StreamManager.newBuilder()
+                    .setRequestClient(new RequestClient() {
+                        @Override
+                        public AsyncHttpClient getRequestClient() {
+                            return http;
+                        }
+                    })
+                    .setDeliveryThreads(2)
+                    .setBufferedEventsPerStream(10)
+                    .build();
+
+            Optional<StartPosition> earliest = Optional.of(StartPosition.relative(StartPosition.RelativePosition.EARLIEST));
+            manager.addStream("stalled", descriptor(server.getUrl()), earliest, 1, new Consumer<String>() {
+                @Override
+                public void accept(String event) {
+                    stalled.countDown();
+                    await(release);
+                }
+            });
+            assertTrue(stalled.await(10, TimeUnit.SECONDS));
+
+            Collector collector = new Collector(5000);
+            manager.addStream("flowing", descriptor(server.getUrl()), earliest, 1, collector);
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i + 1, LocalConnectServer.offset(collector.events.get(i)));
+            }
+
+            release.countDown();
+            manager.close();
+            assertTrue(manager.awaitTermination(10, TimeUnit.SECONDS));
+            manager = null;
+        }
+        finally {
+            release.countDown();
+            http.close();
+        }
+    }
+
+    @Test
+    public void testRemoveStreamReturnsCheckpoint() throws Exception {
+        manager = manager(1, 50);
+        StreamQueryDescriptor descriptor = descriptor();
+        StreamConnection conn = mock(StreamConnection.class);
+        connection(descriptor, conn, events("a", 20));
+
+        Collector collector = new Collector(20);
+        manager.addStream("a", descriptor, Optional.of(StartPosition.offset("5")), 1, collector);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Optional.of("19"), manager.removeStream("a"));
+        assertEquals(ImmutableSet.<String>of(), manager.getStreams());
+        verify(conn, atLeastOnce()).close();
+
+        connection(descriptor, events("b", 1));
+        Collector again = new Collector(1);
+        manager.addStream("a", descriptor, again);
+        assertTrue(again.done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStreamRemovedFromItsOwnConsumer() throws Exception {
+        manager = manager(1, 50);
+        StreamQueryDescriptor descriptor = descriptor();
+        connection(descriptor, events("a", 20));
+
+        final CountDownLatch removed = new CountDownLatch(1);
+        final List<Optional<String>> checkpoint = new ArrayList<>();
+        manager.addStream("a", descriptor, new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                if (event.contains("\"4\"")) {
+                    try {
+                        checkpoint.add(manager.removeStream("a"));
+                    }
+                    catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    removed.countDown();
+                }
+            }
+        });
+
+        assertTrue(removed.await(10, TimeUnit.SECONDS));
+        assertEquals(Optional.of("3"), checkpoint.get(0));
+    }
+
+    @Test
+    public void testConsumerFailureDoesNotStopDelivery() throws Exception {
+        manager = manager(1, 50);
+        StreamQueryDescriptor descriptor = descriptor();
+        connection(descriptor, events("a", 10));
+
+        final Collector collector = new Collector(10);
+        manager.addStream("a", descriptor, new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                collector.accept(event);
+                throw new IllegalStateException("failed");
+            }
+        });
+
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals(events("a", 10), collector.events);
+    }
+
+    @Test
+    public void testStreamsReserveFromMemoryBudget() throws Exception {
+        MemoryBudget budget = MemoryBudget.newBuilder()
+                .setCapacityBytes(1000L)
+                .build();
+        manager = StreamManager.newBuilder()
+                .setConnectionSupplier(connSupplier)
+                .setDeliveryThreads(1)
+                .setMemoryBudget(budget)
+                .build();
+        StreamQueryDescriptor descriptor = descriptor();
+        CountDownLatch sent = connection(descriptor, events("a", 100));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Collector collector = new Collector(100);
+        manager.addStream("a", descriptor, new Consumer<String>() {
+            @Override
+            public void accept(String event) {
+                await(release);
+                collector.accept(event);
+            }
+        });
+
+        // The budget, not the buffer of 100 events, holds back reading
+        assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(budget.getUsage().get("a") <= 1000L);
+
+        release.countDown();
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals(events("a", 100), collector.events);
+        assertEquals(Long.valueOf(0L), budget.getUsage().get("a"));
+
+        manager.removeStream("a");
+        assertTrue(budget.getUsage().isEmpty());
+    }
+
+    @Test
+    public void testFailedStreamReportsItsError() throws Exception {
+        manager = manager(1, 50);
+        StreamQueryDescriptor failing = descriptor();
+        StreamQueryDescriptor running = descriptor();
+        StreamConnection rejected = mock(StreamConnection.class);
+        final ConnectionException error = new ConnectionException("Rejected", 403);
+        final CountDownLatch read = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                read.countDown();
+                throw error;
+            }
+        }).when(rejected).read(Matchers.<Optional<StartPosition>>any());
+        when(connSupplier.get(Matchers.eq(failing), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
+                .thenReturn(rejected);
+        connection(running, events("b", 1));
+
+        manager.addStream("a", failing, new Collector(0));
+        Collector collector = new Collector(1);
+        manager.addStream("b", running, collector);
+        assertTrue(read.await(10, TimeUnit.SECONDS));
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (!manager.getFailure("a").isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertSame(error, manager.getFailure("a").get());
+        assertFalse(manager.getFailure("b").isPresent());
+        assertEquals(ImmutableSet.of("a", "b"), manager.getStreams());
+
+        manager.removeStream("a");
+        assertEquals(ImmutableSet.of("b"), manager.getStreams());
+    }
+
+    @Test
+    public void testStreamsLimitedToConnectionThreads() throws Exception {
+        manager = StreamManager.newBuilder()
+                .setConnectionSupplier(connSupplier)
+                .setConnectionThreads(1)
+                .build();
+        StreamQueryDescriptor first = descriptor();
+        StreamQueryDescriptor second = descriptor();
+        connection(first, events("a", 1));
+        connection(second, events("b", 1));
+
+        manager.addStream("a", first, new Collector(1));
+        try {
+            manager.addStream("b", second, new Collector(1));
+            fail("Stream beyond the connection threads should be refused");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        manager.removeStream("a");
+        Collector collector = new Collector(1);
+        manager.addStream("b", second, collector);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateName() throws Exception {
+        manager = manager(1, 50);
+        StreamQueryDescriptor descriptor = descriptor();
+        connection(descriptor, events("a", 0));
+
+        manager.addStream("a", descriptor, new Collector(0));
+        manager.addStream("a", descriptor, new Collector(0));
+    }
+
+    private StreamManager manager(int deliveryThreads, int eventsPerTurn) {
+        return StreamManager.newBuilder()
+                .setConnectionSupplier(connSupplier)
+                .setDeliveryThreads(deliveryThreads)
+                .setEventsPerTurn(eventsPerTurn)
+                .build();
+    }
+
+    private CountDownLatch connection(StreamQueryDescriptor descriptor, List<String> events) {
+        return connection(descriptor, mock(StreamConnection.class), events);
+    }
+
+    // Hooks up a connection that sends the given events then stays open until closed, returning a latch released once
+    // every event has been accepted
+    private CountDownLatch connection(StreamQueryDescriptor descriptor, StreamConnection conn, final List<String> events) {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final Consumer<String>[] consumer = new Consumer[1];
+
+        try {
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    for (String event : events) {
+                        consumer[0].accept(event);
+                    }
+                    sent.countDown();
+                    closed.await();
+                    return null;
+                }
+            }).when(conn).read(Matchers.<Optional<StartPosition>>any());
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    closed.countDown();
+                    return null;
+                }
+            }).when(conn).close();
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        final StreamConnection connection = conn;
+        when(connSupplier.get(Matchers.eq(descriptor), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
+                .thenAnswer(new Answer<StreamConnection>() {
+                    @Override
+                    public StreamConnection answer(InvocationOnMock invocation) throws Throwable {
+                        consumer[0] = (Consumer<String>) invocation.getArguments()[2];
+                        return connection;
+                    }
+                });
+
+        return sent;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> events(String app, int count) {
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add("{\"offset\":\"" + i + "\",\"app\":\"" + app + "\"}");
+        }
+        return events;
+    }
+
+    private static StreamQueryDescriptor descriptor() {
+        return StreamQueryDescriptor.newBuilder()
+                .setCreds(Creds.newBuilder()
+                        .setAppKey(randomAlphabetic(22))
+                        .setToken(randomAlphabetic(5))
+                        .build())
+                .build();
+    }
+
+    private static StreamQueryDescriptor descriptor(String endpointUrl) {
+        return StreamQueryDescriptor.newBuilder()
+                .setCreds(Creds.newBuilder()
+                        .setAppKey(randomAlphabetic(22))
+                        .setToken(randomAlphabetic(5))
+                        .build())
+                .setEndpointUrl(endpointUrl)
+                .build();
+    }
+
+    private static final class Collector implements Consumer<String> {
+
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch done;
+
+        Collector(int expected) {
+            this.done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void accept(String event) {
+            events.add(event);
+            done.countDown();
+        }
+    }
+}
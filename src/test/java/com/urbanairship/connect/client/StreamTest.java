@@ -2,6 +2,9 @@ package com.urbanairship.connect.client;
 
 import com.google.common.base.Optional;
 import com.google.gson.JsonObject;
+import com.urbanairship.connect.client.consume.FramingOptions;
+import com.urbanairship.connect.client.consume.MemoryBudget;
+import com.urbanairship.connect.client.metrics.LatencySnapshot;
 import com.urbanairship.connect.client.model.Creds;
 import com.urbanairship.connect.client.model.GsonUtil;
 import com.urbanairship.connect.client.model.StreamQueryDescriptor;
@@ -13,20 +16,33 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
@@ -35,9 +51,13 @@ import static org.mockito.Mockito.when;
 
 public class StreamTest {
 
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock private StreamConnectionSupplier connSupplier;
     @Mock private StreamConnection conn;
 
+    private final AtomicReference<FramingOptions> framing = new AtomicReference<>();
+
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
@@ -127,7 +147,7 @@ public class StreamTest {
 
     @Test
     public void testExceptionBubblesOut() throws Exception {
-        when(connSupplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any()))
+        when(connSupplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
                 .thenReturn(conn);
 
         doThrow(new ConnectionException("boom", 404)).when(conn).read(Matchers.<Optional<StartPosition>>any());
@@ -175,6 +195,444 @@ public class StreamTest {
         verify(conn).read(Optional.of(pos));
     }
 
+    @Test
+    public void testCheckpointFollowsOffsetUpdates() throws Exception {
+        final AtomicReference<Consumer<String>> consumer = hookStream(connSupplier, conn);
+        final List<String> events = events(3);
+        final CountDownLatch firstTaken = new CountDownLatch(1);
+        final CountDownLatch updated = new CountDownLatch(1);
+        final CountDownLatch stop = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                consumer.get().accept(events.get(0));
+                firstTaken.await();
+                consumer.get().accept(events.get(1));
+                consumer.get().accept(events.get(2));
+                framing.get().getOffsetUpdateConsumer().get().acceptOffsetUpdate("10");
+                updated.countDown();
+
+                stop.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+
+        Stream stream = Stream.newBuilder()
+                .setDescriptor(descriptor())
+                .setStartPosition(StartPosition.offset("start"))
+                .setConnectionSupplier(connSupplier)
+                .setOffsetUpdatesAsCheckpoints(true)
+                .build();
+        try {
+            assertEquals(Optional.of("start"), stream.getCheckpoint());
+
+            assertEquals(events.get(0), stream.next());
+            assertEquals(Optional.of("0"), stream.getCheckpoint());
+            firstTaken.countDown();
+            updated.await();
+
+            // The update is held back until the events queued ahead of it have been handed out
+            assertEquals(events.get(1), stream.next());
+            assertEquals(Optional.of("1"), stream.getCheckpoint());
+            assertEquals(events.get(2), stream.next());
+            assertEquals(Optional.of("10"), stream.getCheckpoint());
+        }
+        finally {
+            stop.countDown();
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testCloseWakesBlockedConsumer() throws Exception {
+        hookStream(connSupplier, conn);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                reading.countDown();
+                closed.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                closed.countDown();
+                return null;
+            }
+        })
+        .when(conn).close();
+
+        final Stream stream = new Stream(descriptor(), Optional.<StartPosition>absent(), Optional.of(connSupplier));
+        ExecutorService consumerThread = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> hasNext = consumerThread.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return stream.hasNext();
+                }
+            });
+
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+            assertTrue(stream.close(5, TimeUnit.SECONDS));
+            assertFalse(hasNext.get(200, TimeUnit.MILLISECONDS));
+        }
+        finally {
+            consumerThread.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHandOffDrainReturnsOffsetOfLastEvent() throws Exception {
+        final Stream stream = drainableStream(events(4));
+
+        final List<String> handedOff = new ArrayList<>();
+        try {
+            assertEquals("{\"offset\":0}", stream.next());
+
+            Optional<String> resumeFrom = stream.close(DrainPolicy.handOff(new Consumer<String>() {
+                @Override
+                public void accept(String event) {
+                    handedOff.add(event);
+                }
+            }, 5, TimeUnit.SECONDS));
+
+            assertEquals(events(4).subList(1, 4), handedOff);
+            assertEquals(Optional.of("3"), resumeFrom);
+            assertFalse(stream.hasNext());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testHandOffDrainWaitsForIteratingThread() throws Exception {
+        final List<String> events = events(100);
+        final Stream stream = drainableStream(events);
+
+        final List<String> iterated = new ArrayList<>();
+        final CountDownLatch iterating = new CountDownLatch(10);
+        ExecutorService consumerThread = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> iteration = consumerThread.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while (stream.hasNext()) {
+                        iterated.add(stream.next());
+                        iterating.countDown();
+                        Thread.sleep(1L);
+                    }
+                    return null;
+                }
+            });
+
+            assertTrue(iterating.await(10, TimeUnit.SECONDS));
+
+            final List<String> handedOff = new ArrayList<>();
+            Optional<String> resumeFrom = stream.close(DrainPolicy.handOff(new Consumer<String>() {
+                @Override
+                public void accept(String event) {
+                    handedOff.add(event);
+                }
+            }, 5, TimeUnit.SECONDS));
+            iteration.get(5, TimeUnit.SECONDS);
+
+            // Every event went to exactly one of the two, in order, and the offset covers them all
+            List<String> delivered = new ArrayList<>(iterated);
+            delivered.addAll(handedOff);
+            assertEquals(events, delivered);
+            assertEquals(Optional.of("99"), resumeFrom);
+        }
+        finally {
+            consumerThread.shutdownNow();
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testIterateDrainHandsOutBufferedEvents() throws Exception {
+        final Stream stream = drainableStream(events(4));
+
+        ExecutorService closingThread = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals("{\"offset\":0}", stream.next());
+
+            Future<Optional<String>> resumeFrom = closingThread.submit(new Callable<Optional<String>>() {
+                @Override
+                public Optional<String> call() throws Exception {
+                    return stream.close(DrainPolicy.iterate(5, TimeUnit.SECONDS));
+                }
+            });
+
+            List<String> remaining = new ArrayList<>();
+            while (stream.hasNext()) {
+                remaining.add(stream.next());
+            }
+
+            assertEquals(events(4).subList(1, 4), remaining);
+            assertEquals(Optional.of("3"), resumeFrom.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            closingThread.shutdownNow();
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testDiscardDrainReturnsOffsetOfLastHandedOutEvent() throws Exception {
+        final Stream stream = drainableStream(events(4));
+        try {
+            assertEquals("{\"offset\":0}", stream.next());
+            assertEquals(Optional.of("0"), stream.close(DrainPolicy.discard()));
+            assertFalse(stream.hasNext());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testEventLatencyRecorded() throws Exception {
+        final AtomicReference<Consumer<String>> consumer = hookStream(connSupplier, conn);
+        final long processed = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1L);
+        final String event = String.format("{\"offset\":\"1\",\"processed\":\"%s\"}", iso8601(processed));
+        final CountDownLatch stop = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+                framing.get().getRawEventObserver().get().observe(bytes, 0, bytes.length);
+                consumer.get().accept(event);
+                stop.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+
+        EventLatency latency = new EventLatency();
+        Stream stream = Stream.newBuilder()
+                .setDescriptor(descriptor())
+                .setConnectionSupplier(connSupplier)
+                .setEventLatency(latency)
+                .build();
+        try {
+            assertEquals(event, stream.next());
+
+            LatencySnapshot processedToReceived = latency.getProcessedToReceivedMillis();
+            assertEquals(1L, processedToReceived.getCount());
+            assertTrue(processedToReceived.getMax() >= TimeUnit.MINUTES.toMillis(1L));
+            assertTrue(processedToReceived.getMax() < TimeUnit.MINUTES.toMillis(2L));
+
+            assertEquals(1L, latency.getReceivedToConsumedMicros().getCount());
+        }
+        finally {
+            stop.countDown();
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testSpillingQueueLetsReaderRunAheadOfConsumer() throws Exception {
+        final AtomicReference<Consumer<String>> consumer = hookStream(connSupplier, conn);
+        final List<String> events = events(500);
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch stop = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (String event : events) {
+                    consumer.get().accept(event);
+                }
+                received.countDown();
+                stop.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+
+        Path spillDirectory = temporaryFolder.newFolder().toPath();
+        SpillingQueue queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(10)
+                .setDirectory(spillDirectory)
+                .setSegmentBytes(1024)
+                .build();
+
+        Stream stream = Stream.newBuilder()
+                .setDescriptor(descriptor())
+                .setConnectionSupplier(connSupplier)
+                .setSpillingQueue(queue)
+                .build();
+        try {
+            // Nothing has been consumed, yet every event was read from the connection
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            assertEquals(490, queue.getSpilledCount());
+
+            List<String> consumed = new ArrayList<>();
+            while (consumed.size() < events.size()) {
+                consumed.add(stream.next());
+            }
+            assertEquals(events, consumed);
+        }
+        finally {
+            stop.countDown();
+            stream.close();
+        }
+
+        assertEquals(0, spillDirectory.toFile().list().length);
+    }
+
+    @Test
+    public void testEventLatencyKeepsReceiptTimesOfSpilledEvents() throws Exception {
+        final AtomicReference<Consumer<String>> consumer = hookStream(connSupplier, conn);
+        final List<String> events = events(4000);
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch stop = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (String event : events.subList(0, 2000)) {
+                    consumer.get().accept(event);
+                }
+                Thread.sleep(200L);
+                for (String event : events.subList(2000, 4000)) {
+                    consumer.get().accept(event);
+                }
+                received.countDown();
+                stop.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+
+        SpillingQueue queue = SpillingQueue.newBuilder()
+                .setMemoryCapacity(10)
+                .setDirectory(temporaryFolder.newFolder().toPath())
+                .build();
+
+        EventLatency latency = new EventLatency();
+        Stream stream = Stream.newBuilder()
+                .setDescriptor(descriptor())
+                .setConnectionSupplier(connSupplier)
+                .setSpillingQueue(queue)
+                .setEventLatency(latency)
+                .build();
+        try {
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+
+            // Far more events are buffered than fit in a chunk of receipt times, yet each of the first lot is
+            // measured from its own receipt, before the pause
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(events.get(i), stream.next());
+            }
+            LatencySnapshot receivedToConsumed = latency.getReceivedToConsumedMicros();
+            assertEquals(2000L, receivedToConsumed.getCount());
+            assertTrue(receivedToConsumed.getValueAtPercentile(0D) >= TimeUnit.MILLISECONDS.toMicros(200L));
+
+            for (int i = 2000; i < 4000; i++) {
+                assertEquals(events.get(i), stream.next());
+            }
+            assertEquals(4000L, latency.getReceivedToConsumedMicros().getCount());
+        }
+        finally {
+            stop.countDown();
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testMemoryBudgetHoldsBackReading() throws Exception {
+        final AtomicReference<Consumer<String>> consumer = hookStream(connSupplier, conn);
+        final List<String> events = events(50);
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch stop = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (String event : events) {
+                    consumer.get().accept(event);
+                }
+                received.countDown();
+                stop.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+
+        long capacity = 5 * MemoryBudget.sizeOf(events.get(events.size() - 1));
+        MemoryBudget budget = MemoryBudget.newBuilder()
+                .setCapacityBytes(capacity)
+                .build();
+
+        StreamQueryDescriptor descriptor = descriptor();
+        Stream stream = Stream.newBuilder()
+                .setDescriptor(descriptor)
+                .setConnectionSupplier(connSupplier)
+                .setMemoryBudget(budget)
+                .build();
+        try {
+            // Reading stops once the budget is used up, well short of the queue's capacity
+            assertFalse(received.await(200, TimeUnit.MILLISECONDS));
+            assertTrue(budget.getUsedBytes() <= capacity);
+            assertEquals(budget.getUsedBytes(), (long) budget.getUsage().get(descriptor.getCreds().getAppKey()));
+
+            List<String> consumed = new ArrayList<>();
+            while (consumed.size() < events.size()) {
+                consumed.add(stream.next());
+            }
+            assertEquals(events, consumed);
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            assertEquals(0L, budget.getUsedBytes());
+        }
+        finally {
+            stop.countDown();
+            stream.close();
+        }
+
+        assertTrue(budget.getUsage().isEmpty());
+    }
+
+    private static String iso8601(long epochMillis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(epochMillis));
+    }
+
+    private Stream drainableStream(final List<String> events) throws Exception {
+        final AtomicReference<Consumer<String>> consumer = hookStream(connSupplier, conn);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch enqueued = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (String event : events) {
+                    consumer.get().accept(event);
+                }
+                enqueued.countDown();
+                closed.await();
+                return null;
+            }
+        })
+        .when(conn).read(Matchers.<Optional<StartPosition>>any());
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                closed.countDown();
+                return null;
+            }
+        })
+        .when(conn).close();
+
+        Stream stream = new Stream(descriptor(), Optional.<StartPosition>absent(), Optional.of(connSupplier));
+        assertTrue(enqueued.await(10, TimeUnit.SECONDS));
+        return stream;
+    }
+
     @SuppressWarnings("unchecked")
     private AtomicReference<Consumer<String>> hookStream(StreamConnectionSupplier supplier,
                                                          final StreamConnection conn) {
@@ -182,13 +640,14 @@ public class StreamTest {
         final AtomicReference<Consumer<String>> hook = new AtomicReference<>();
 
         final AtomicBoolean first = new AtomicBoolean(true);
-        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any()))
+        when(supplier.get(Matchers.<StreamQueryDescriptor>any(), Matchers.<AsyncHttpClient>any(), Matchers.<Consumer<String>>any(), Matchers.<FramingOptions>any()))
             .thenAnswer(new Answer<StreamConnection>() {
                 @Override
                 public StreamConnection answer(InvocationOnMock invocation) throws Throwable {
                     if (first.compareAndSet(true, false)) {
                         Consumer<String> consumer = (Consumer<String>) invocation.getArguments()[2];
                         hook.set(consumer);
+                        framing.set((FramingOptions) invocation.getArguments()[3]);
                     }
 
                     return conn;
@@ -0,0 +1,142 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.urbanairship.connect.client.model.event.EventDevice;
+import com.urbanairship.connect.client.model.event.EventType;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventAggregatorTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1L);
+
+    @Test
+    public void testAggregates() throws Exception {
+        EventAggregator aggregator = EventAggregator.newBuilder()
+                .setBucketDuration(1L, TimeUnit.MINUTES)
+                .setBucketCount(5)
+                .build();
+
+        aggregator.add(event("OPEN", 0L, "c1", "{\"converting_push\":{\"push_id\":\"p1\",\"group_id\":\"g\"}}"));
+        aggregator.add(event("OPEN", MINUTE, "c2", "{\"converting_push\":{\"push_id\":\"p2\"}}"));
+        aggregator.add(event("OPEN", 2 * MINUTE, "c1", "{\"converting_push\":{\"push_id\":\"p2\"}}"));
+        aggregator.add(event("OPEN", 2 * MINUTE, "c3", "{\"session_id\":\"s\"}"));
+        aggregator.add(event("CLOSE", 3 * MINUTE, "c3", "{\"converting_push\":{\"push_id\":\"p1\"}}"));
+        aggregator.add(event("SOMETHING_NEW", 6 * MINUTE, "c4", "{}"));
+
+        // The window is minutes 2 to 6
+        AggregateSnapshot snapshot = aggregator.getSnapshot();
+        assertEquals(6 * MINUTE, snapshot.getWindowEndMillis());
+        assertEquals(5 * MINUTE, snapshot.getWindowMillis());
+        assertEquals(2L, snapshot.getCount(EventType.OPEN));
+        assertEquals(1L, snapshot.getCount(EventType.CLOSE));
+        assertEquals(1L, snapshot.getCount(EventType.UNKNOWN));
+        assertEquals(4L, snapshot.getTotalCount());
+        assertEquals(3L, snapshot.getUniqueChannels());
+
+        // Opens are ranked since the start, and only those attributed to a push
+        assertEquals(2, snapshot.getTop().size());
+        assertEquals(new TopK.Entry("p2", 2L, 0L), snapshot.getTop().get(0));
+        assertEquals(new TopK.Entry("p1", 1L, 0L), snapshot.getTop().get(1));
+
+        // Minutes 1 to 3 are still held
+        AggregateSnapshot earlier = aggregator.getSnapshot(3 * MINUTE);
+        assertEquals(3L, earlier.getCount(EventType.OPEN));
+        assertEquals(3L, earlier.getUniqueChannels());
+    }
+
+    @Test
+    public void testProcessedTimeUsedWithoutOccurred() throws Exception {
+        EventAggregator aggregator = EventAggregator.newBuilder()
+                .setTopKey(new EventKey() {
+                    @Override
+                    public String keyOf(StreamEvent event) {
+                        return event.getTypeName();
+                    }
+                })
+                .build();
+
+        aggregator.add(StreamEvent.newBuilder().setTypeName("OPEN").setProcessed(MINUTE).build());
+        aggregator.add(StreamEvent.newBuilder().setTypeName("OPEN").build());
+
+        AggregateSnapshot snapshot = aggregator.getSnapshot();
+        assertEquals(MINUTE, snapshot.getWindowEndMillis());
+        assertEquals(1L, snapshot.getCount(EventType.OPEN));
+        assertEquals(0L, snapshot.getUniqueChannels());
+        assertEquals(new TopK.Entry("OPEN", 2L, 0L), snapshot.getTop().get(0));
+    }
+
+    @Test
+    public void testFutureDatedEventDoesNotMoveWindow() throws Exception {
+        EventAggregator aggregator = EventAggregator.newBuilder()
+                .setBucketDuration(1L, TimeUnit.MINUTES)
+                .setBucketCount(5)
+                .setMaxClockSkew(1L, TimeUnit.MINUTES)
+                .build();
+
+        // A device clock a day ahead
+        aggregator.add(event("OPEN", 10 * MINUTE + TimeUnit.DAYS.toMillis(1L), 10 * MINUTE, "c1"));
+        aggregator.add(event("OPEN", 10 * MINUTE, 10 * MINUTE, "c2"));
+        aggregator.add(event("CLOSE", 11 * MINUTE, 11 * MINUTE + 30000L, "c2"));
+        // Within the skew, so placed by its occurred time
+        aggregator.add(event("CLOSE", 12 * MINUTE + 30000L, 12 * MINUTE, "c3"));
+
+        AggregateSnapshot snapshot = aggregator.getSnapshot();
+        assertEquals(12 * MINUTE + 30000L, snapshot.getWindowEndMillis());
+        assertEquals(2L, snapshot.getCount(EventType.OPEN));
+        assertEquals(2L, snapshot.getCount(EventType.CLOSE));
+        assertEquals(3L, snapshot.getUniqueChannels());
+        assertEquals(1L, snapshot.getFutureDatedCount());
+    }
+
+    @Test
+    public void testFutureDatedEventWithoutProcessedTimeLeftOutOfWindow() throws Exception {
+        EventAggregator aggregator = EventAggregator.newBuilder().build();
+
+        aggregator.add(StreamEvent.newBuilder()
+                .setTypeName("OPEN")
+                .setOccurred(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1L))
+                .build());
+        aggregator.add(StreamEvent.newBuilder().setTypeName("OPEN").setOccurred(MINUTE).build());
+
+        AggregateSnapshot snapshot = aggregator.getSnapshot();
+        assertEquals(MINUTE, snapshot.getWindowEndMillis());
+        assertEquals(1L, snapshot.getCount(EventType.OPEN));
+        assertEquals(1L, snapshot.getFutureDatedCount());
+    }
+
+    @Test
+    public void testEmptySnapshot() throws Exception {
+        AggregateSnapshot snapshot = EventAggregator.newBuilder().build().getSnapshot();
+
+        assertEquals(0L, snapshot.getTotalCount());
+        assertEquals(0L, snapshot.getUniqueChannels());
+        assertEquals(0, snapshot.getTop().size());
+        assertEquals(0L, snapshot.getFutureDatedCount());
+    }
+
+    private static StreamEvent event(String type, long occurred, long processed, String channel) {
+        return StreamEvent.newBuilder()
+                .setTypeName(type)
+                .setOccurred(occurred)
+                .setProcessed(processed)
+                .setDevice(EventDevice.newBuilder().setChannel(channel).build())
+                .build();
+    }
+
+    private static StreamEvent event(String type, long occurred, String channel, String body) {
+        return StreamEvent.newBuilder()
+                .setTypeName(type)
+                .setOccurred(occurred)
+                .setDevice(EventDevice.newBuilder().setChannel(channel).build())
+                .setBodyJson(body)
+                .build();
+    }
+}
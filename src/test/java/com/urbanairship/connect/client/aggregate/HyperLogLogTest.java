@@ -0,0 +1,67 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(0L, new HyperLogLog().cardinality());
+    }
+
+    @Test
+    public void testSmallCardinalityNearExact() throws Exception {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            sketch.add("channel-" + i);
+            sketch.add("channel-" + i);
+        }
+
+        assertEquals(100L, sketch.cardinality(), 2L);
+    }
+
+    @Test
+    public void testLargeCardinalityWithinError() throws Exception {
+        HyperLogLog sketch = new HyperLogLog();
+        int distinct = 200000;
+        for (int i = 0; i < distinct; i++) {
+            sketch.add(new UUID(i, 31L * i).toString());
+        }
+
+        // Five standard errors
+        double error = Math.abs(sketch.cardinality() - distinct) / (double) distinct;
+        assertTrue("Error " + error, error < 5 * 1.04 / Math.sqrt(1 << HyperLogLog.DEFAULT_PRECISION));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        HyperLogLog first = new HyperLogLog(10);
+        HyperLogLog second = new HyperLogLog(10);
+        HyperLogLog both = new HyperLogLog(10);
+        for (int i = 0; i < 5000; i++) {
+            String value = Integer.toString(i);
+            (i < 3000 ? first : second).add(value);
+            if (i >= 2000 && i < 3000) {
+                second.add(value);
+            }
+            both.add(value);
+        }
+
+        first.merge(second);
+        assertEquals(both.cardinality(), first.cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecisionRejected() throws Exception {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+}
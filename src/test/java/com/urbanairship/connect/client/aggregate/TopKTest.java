@@ -0,0 +1,95 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TopKTest {
+
+    @Test
+    public void testExactBelowCapacity() throws Exception {
+        TopK top = new TopK(10);
+        add(top, "a", 5);
+        add(top, "b", 2);
+        add(top, "c", 7);
+
+        assertEquals(ImmutableList.of(new TopK.Entry("c", 7L, 0L), new TopK.Entry("a", 5L, 0L)), top.getTop(2));
+        assertEquals(3, top.getTop(10).size());
+    }
+
+    @Test
+    public void testNewKeyTakesOverSmallestCounter() throws Exception {
+        TopK top = new TopK(2);
+        add(top, "a", 5);
+        add(top, "b", 2);
+        add(top, "c", 1);
+
+        assertEquals(ImmutableList.of(new TopK.Entry("a", 5L, 0L), new TopK.Entry("c", 3L, 2L)), top.getTop(2));
+        assertEquals(1L, top.getTop(2).get(1).getGuaranteedCount());
+    }
+
+    @Test
+    public void testHeavyKeysFoundInSkewedStream() throws Exception {
+        TopK top = new TopK(50);
+        Random random = new Random(7L);
+        for (int i = 0; i < 100000; i++) {
+            // A quarter of the stream goes to three keys, the rest is spread over thousands
+            int roll = random.nextInt(100);
+            top.add(roll < 12 ? "push-1" : roll < 20 ? "push-2" : roll < 25 ? "push-3" : "push-" + (4 + random.nextInt(5000)));
+        }
+
+        ImmutableList<TopK.Entry> entries = top.getTop(3);
+        assertEquals("push-1", entries.get(0).getKey());
+        assertEquals("push-2", entries.get(1).getKey());
+        assertEquals("push-3", entries.get(2).getKey());
+        for (TopK.Entry entry : entries) {
+            assertTrue(entry.getGuaranteedCount() > 0L);
+        }
+    }
+
+    @Test
+    public void testSnapshotsWhileAdding() throws Exception {
+        final TopK top = new TopK(8);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread adder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(3L);
+                while (!done.get()) {
+                    top.add("key-" + random.nextInt(20));
+                }
+            }
+        });
+        adder.start();
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200L);
+            while (System.nanoTime() < deadline) {
+                for (TopK.Entry entry : top.getTop(8)) {
+                    assertTrue(entry.getKey().startsWith("key-"));
+                    assertTrue(entry.getCount() > entry.getError());
+                }
+            }
+        }
+        finally {
+            done.set(true);
+            adder.join();
+        }
+    }
+
+    private static void add(TopK top, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            top.add(key);
+        }
+    }
+}
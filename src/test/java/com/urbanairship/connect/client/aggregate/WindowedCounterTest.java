@@ -0,0 +1,116 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.aggregate;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WindowedCounterTest {
+
+    private static final long SECOND = 1000L;
+
+    @Test
+    public void testTumblingWindow() throws Exception {
+        WindowedCounter counter = WindowedCounter.newBuilder()
+                .setKeyCount(2)
+                .setBucketDuration(10L, TimeUnit.SECONDS)
+                .build();
+
+        counter.add(0, 1 * SECOND);
+        counter.add(1, 2 * SECOND);
+        counter.add(1, 9 * SECOND);
+        assertArrayEquals(new long[] {1L, 2L}, counter.getCounts());
+        assertEquals(9 * SECOND, counter.getLatestMillis());
+
+        counter.add(0, 10 * SECOND);
+        assertArrayEquals(new long[] {1L, 0L}, counter.getCounts());
+        assertArrayEquals(new long[] {1L, 2L}, counter.getCounts(counter.getLatestMillis() - counter.getWindowMillis()));
+
+        counter.add(0, 20 * SECOND);
+        assertArrayEquals(new long[] {0L, 0L}, counter.getCounts(5 * SECOND));
+    }
+
+    @Test
+    public void testSlidingWindow() throws Exception {
+        WindowedCounter counter = WindowedCounter.newBuilder()
+                .setKeyCount(1)
+                .setBucketDuration(1L, TimeUnit.SECONDS)
+                .setBucketCount(3)
+                .build();
+
+        for (long second = 0; second < 5; second++) {
+            counter.add(0, second * SECOND);
+            counter.add(0, second * SECOND + 500L);
+        }
+
+        // Seconds 2, 3 and 4
+        assertArrayEquals(new long[] {6L}, counter.getCounts());
+        assertArrayEquals(new long[] {4L}, counter.getCounts(5 * SECOND));
+        assertArrayEquals(new long[] {0L}, counter.getCounts(60 * SECOND));
+        assertEquals(3 * SECOND, counter.getWindowMillis());
+    }
+
+    @Test
+    public void testEventsBeforeWindowNotCounted() throws Exception {
+        WindowedCounter counter = WindowedCounter.newBuilder()
+                .setKeyCount(1)
+                .setBucketDuration(1L, TimeUnit.SECONDS)
+                .setBucketCount(2)
+                .build();
+
+        counter.add(0, 10 * SECOND);
+        counter.add(0, 9 * SECOND);
+        counter.add(0, 8 * SECOND);
+        counter.add(0, 8 * SECOND - 1L);
+
+        assertArrayEquals(new long[] {2L}, counter.getCounts());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final WindowedCounter counter = WindowedCounter.newBuilder()
+                .setKeyCount(4)
+                .setBucketDuration(1L, TimeUnit.SECONDS)
+                .setBucketCount(10)
+                .build();
+
+        int threads = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final int key = t;
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        counter.add(key, (i % 10) * SECOND);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10L, TimeUnit.SECONDS);
+
+        assertArrayEquals(new long[] {10000L, 10000L, 10000L, 10000L}, counter.getCounts());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testKeyOutOfRange() throws Exception {
+        WindowedCounter.newBuilder().setKeyCount(2).build().add(2, 0L);
+    }
+}
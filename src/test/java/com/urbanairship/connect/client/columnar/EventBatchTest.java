@@ -0,0 +1,156 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.columnar;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonParseException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventBatchTest {
+
+    private static final String OPEN = "{\"id\":\"a\",\"offset\":\"1045\",\"occurred\":\"2015-05-03T02:32:12.088Z\","
+            + "\"device\":{\"channel\":\"c-1\",\"device_type\":\"ANDROID\"},"
+            + "\"body\":{\"push_id\":\"p-1\",\"session_id\":\"s\\\"1\",\"count\":3,\"nested\":{\"push_id\":\"no\"}},"
+            + "\"type\":\"OPEN\"}";
+    private static final String CUSTOM = "{\"offset\":1046,\"type\":\"CUSTOM\",\"device\":{\"channel\":null},\"body\":{}}";
+
+    @Test
+    public void testColumns() throws Exception {
+        EventBatch batch = EventBatch.newBuilder()
+                .setCapacity(4)
+                .setBodyFields("push_id", "session_id", "count")
+                .build();
+
+        add(batch, OPEN);
+        add(batch, CUSTOM);
+
+        assertEquals(2, batch.getRowCount());
+        assertEquals(ImmutableList.of("push_id", "session_id", "count"), batch.getBodyFieldNames());
+
+        assertEquals("1045", batch.getOffsets().getString(0));
+        assertEquals("1046", batch.getOffsets().getString(1));
+        assertEquals("OPEN", batch.getTypes().getString(0));
+        assertEquals("CUSTOM", batch.getTypes().getString(1));
+        assertEquals(1430620332088L, batch.getOccurred().get(0));
+        assertTrue(batch.getOccurred().isNull(1));
+        assertEquals("c-1", batch.getChannels().getString(0));
+        assertTrue(batch.getChannels().isNull(1));
+        assertEquals("ANDROID", batch.getDeviceTypes().getString(0));
+        assertNull(batch.getDeviceTypes().getString(1));
+
+        assertEquals("p-1", batch.getBodyField("push_id").getString(0));
+        assertEquals("s\"1", batch.getBodyField("session_id").getString(0));
+        assertEquals("3", batch.getBodyField("count").getString(0));
+        assertTrue(batch.getBodyField("push_id").isNull(1));
+    }
+
+    @Test
+    public void testArrowLayout() throws Exception {
+        EventBatch batch = EventBatch.newBuilder().setCapacity(4).build();
+        add(batch, OPEN);
+        add(batch, CUSTOM);
+
+        ByteBuffer occurred = batch.getOccurred().getValueBuffer();
+        assertEquals(ByteOrder.nativeOrder(), occurred.order());
+        assertEquals(16, occurred.remaining());
+        assertEquals(1430620332088L, occurred.getLong(0));
+
+        assertEquals("10451046", StandardCharsets.UTF_8.decode(batch.getOffsets().getDataBuffer()).toString());
+
+        StringColumn types = batch.getTypes();
+        ByteBuffer typeOffsets = types.getOffsetBuffer();
+        assertEquals(12, typeOffsets.remaining());
+        assertEquals(0, typeOffsets.getInt(0));
+        assertEquals(4, typeOffsets.getInt(4));
+        assertEquals(10, typeOffsets.getInt(8));
+        assertEquals("OPENCUSTOM", StandardCharsets.UTF_8.decode(types.getDataBuffer()).toString());
+
+        ByteBuffer validity = batch.getChannels().getValidityBuffer();
+        assertEquals(1, validity.remaining());
+        assertEquals(1, validity.get(0) & 3);
+    }
+
+    @Test
+    public void testClearReusesBuffers() throws Exception {
+        EventBatch batch = EventBatch.newBuilder().setCapacity(2).setBodyFields("push_id").build();
+        add(batch, OPEN);
+        add(batch, CUSTOM);
+        assertTrue(batch.isFull());
+
+        try {
+            add(batch, OPEN);
+            fail();
+        }
+        catch (IllegalStateException expected) { }
+
+        batch.clear();
+        assertEquals(0, batch.getRowCount());
+        assertFalse(batch.isFull());
+
+        add(batch, CUSTOM);
+        assertEquals(1, batch.getRowCount());
+        assertEquals("CUSTOM", batch.getTypes().getString(0));
+        assertTrue(batch.getBodyField("push_id").isNull(0));
+    }
+
+    @Test
+    public void testDataBufferGrows() throws Exception {
+        EventBatch batch = EventBatch.newBuilder()
+                .setCapacity(8)
+                .setBodyFields("text")
+                .setInitialBodyFieldBytes(1)
+                .build();
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            text.append("0123456789");
+            add(batch, "{\"type\":\"CUSTOM\",\"body\":{\"text\":\"" + text + "\"}}");
+        }
+
+        assertEquals("0123456789", batch.getBodyField("text").getString(0));
+        assertEquals(text.toString(), batch.getBodyField("text").getString(7));
+    }
+
+    @Test
+    public void testMalformedEventLeavesBatchUnchanged() throws Exception {
+        EventBatch batch = EventBatch.newBuilder().setCapacity(2).build();
+        add(batch, OPEN);
+
+        try {
+            add(batch, "{\"type\":\"OPEN\",\"device\":{\"channel\":");
+            fail();
+        }
+        catch (JsonParseException expected) { }
+
+        assertEquals(1, batch.getRowCount());
+        assertEquals(1, batch.getTypes().size());
+        assertEquals(1, batch.getChannels().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownBodyField() throws Exception {
+        EventBatch.newBuilder().setBodyFields("push_id").build().getBodyField("group_id");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBodyFieldsDistinct() throws Exception {
+        EventBatch.newBuilder().setBodyFields("push_id", "push_id").build();
+    }
+
+    private static void add(EventBatch batch, String event) {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        batch.add(bytes, 0, bytes.length);
+    }
+}
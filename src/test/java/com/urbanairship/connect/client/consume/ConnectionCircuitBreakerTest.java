@@ -0,0 +1,108 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionCircuitBreakerTest {
+
+    private final AtomicLong nanos = new AtomicLong(0L);
+
+    private ConnectionCircuitBreaker breaker;
+
+    @Before
+    public void setUp() throws Exception {
+        breaker = ConnectionCircuitBreaker.newBuilder()
+                .setFailureThreshold(3)
+                .setOpenDuration(10L, TimeUnit.SECONDS)
+                .setTicker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        failures(2);
+        breaker.recordSuccess();
+        failures(2);
+        assertEquals(ConnectionCircuitBreaker.State.CLOSED, breaker.getState());
+
+        failures(1);
+        assertEquals(ConnectionCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(10000L, breaker.getRetryAfterMillis());
+    }
+
+    @Test
+    public void testSingleProbeAfterOpenDuration() throws Exception {
+        failures(3);
+
+        advance(10L);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(ConnectionCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.recordSuccess();
+        assertEquals(ConnectionCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception {
+        failures(3);
+        advance(10L);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.recordFailure();
+        assertEquals(ConnectionCircuitBreaker.State.OPEN, breaker.getState());
+
+        advance(5L);
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testReleasedProbeAllowsAnother() throws Exception {
+        failures(3);
+        advance(10L);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.release();
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testAbandonedProbeExpires() throws Exception {
+        failures(3);
+        advance(10L);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        advance(10L);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private void failures(int count) {
+        for (int i = 0; i < count; i++) {
+            breaker.recordFailure();
+        }
+    }
+
+    private void advance(long seconds) {
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecorrelatedJitterRetryStrategyTest {
+
+    @Test
+    public void testShouldRetry() throws Exception {
+        ConnectionRetryStrategy strategy = DecorrelatedJitterRetryStrategy.newBuilder()
+                .setMaxAttempts(3)
+                .setBase(100L, TimeUnit.MILLISECONDS)
+                .setMax(1L, TimeUnit.SECONDS)
+                .build();
+
+        assertTrue(strategy.shouldRetry(2));
+        assertFalse(strategy.shouldRetry(3));
+    }
+
+    @Test
+    public void testPauseBounds() throws Exception {
+        ConnectionRetryStrategy strategy = DecorrelatedJitterRetryStrategy.newBuilder()
+                .setMaxAttempts(10)
+                .setBase(100L, TimeUnit.MILLISECONDS)
+                .setMax(2L, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(0L, strategy.getPauseMillis(0));
+
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            long first = strategy.getPauseMillis(1);
+            assertTrue(first >= 100L && first <= 300L);
+
+            long later = strategy.getPauseMillis(8);
+            assertTrue(later >= 100L && later <= 2000L);
+            seen.add(later);
+        }
+
+        // Pauses are spread out rather than converging on the cap
+        assertTrue(seen.size() > 100);
+    }
+
+    @Test
+    public void testBudgetExtendsPause() throws Exception {
+        RetryBudget budget = RetryBudget.newBuilder()
+                .setCapacity(1)
+                .setTokensPerSecond(0.1D)
+                .build();
+
+        ConnectionRetryStrategy strategy = DecorrelatedJitterRetryStrategy.newBuilder()
+                .setMaxAttempts(10)
+                .setBase(10L, TimeUnit.MILLISECONDS)
+                .setMax(20L, TimeUnit.MILLISECONDS)
+                .setRetryBudget(budget)
+                .build();
+
+        assertTrue(strategy.getPauseMillis(1) <= 20L);
+        assertTrue(strategy.getPauseMillis(1) > 9000L);
+    }
+}
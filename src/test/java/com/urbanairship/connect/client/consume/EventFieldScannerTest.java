@@ -0,0 +1,68 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventFieldScannerTest {
+
+    @Test
+    public void testTopLevelStringField() throws Exception {
+        assertEquals("abc", scalar("{\"id\":\"x\",\"offset\":\"abc\"}", "offset"));
+        assertEquals("a\\\"b", scalar("{\"offset\" : \"a\\\"b\"}", "offset"));
+    }
+
+    @Test
+    public void testTopLevelNumberField() throws Exception {
+        assertEquals("12", scalar("{\"offset\":12}", "offset"));
+        assertEquals("12", scalar("{\"offset\":12,\"type\":\"OPEN\"}", "offset"));
+    }
+
+    @Test
+    public void testNestedFieldsIgnored() throws Exception {
+        String event = "{\"body\":{\"offset\":\"nested\",\"list\":[{\"offset\":1}]},\"note\":\"\\\"offset\\\":2\",\"offset\":\"3\"}";
+        assertEquals("3", scalar(event, "offset"));
+        assertNull(scalar("{\"body\":{\"offset\":\"nested\"}}", "offset"));
+    }
+
+    @Test
+    public void testValuesAreNotMatchedAsKeys() throws Exception {
+        assertNull(scalar("{\"name\":\"offset\",\"other\":1}", "offset"));
+    }
+
+    @Test
+    public void testObjectValueIsNotScalar() throws Exception {
+        assertNull(scalar("{\"offset\":{\"a\":1}}", "offset"));
+    }
+
+    @Test
+    public void testOffsetUpdate() throws Exception {
+        assertTrue(isOffsetUpdate("{\"type\":\"OFFSET_UPDATE\",\"offset\":\"1\"}"));
+        assertFalse(isOffsetUpdate("{\"type\":\"OPEN\",\"body\":{\"type\":\"OFFSET_UPDATE\"}}"));
+        assertFalse(isOffsetUpdate("{\"type\":\"OFFSET_UPDATES\"}"));
+    }
+
+    @Test
+    public void testRegionWithinBuffer() throws Exception {
+        byte[] bytes = "xx{\"offset\":\"1\"}{\"offset\":\"2\"}".getBytes(UTF_8);
+        assertEquals("2", EventFieldScanner.scalar(bytes, 16, 14, EventFieldScanner.OFFSET));
+    }
+
+    private String scalar(String event, String key) {
+        byte[] bytes = event.getBytes(UTF_8);
+        return EventFieldScanner.scalar(bytes, 0, bytes.length, EventFieldScanner.key(key));
+    }
+
+    private boolean isOffsetUpdate(String event) {
+        byte[] bytes = event.getBytes(UTF_8);
+        return EventFieldScanner.isOffsetUpdate(bytes, 0, bytes.length);
+    }
+}
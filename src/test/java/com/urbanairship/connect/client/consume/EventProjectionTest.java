@@ -0,0 +1,143 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonParseException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventProjectionTest {
+
+    private static final String EVENT = "{\"id\":\"ff76bb85-74bc-4511-a3bf-11b6117784db\",\"offset\":\"1045\","
+            + "\"occurred\":\"2015-05-03T02:32:12.088Z\",\"processed\":\"2015-05-03T02:32:12.375Z\","
+            + "\"device\":{\"channel\":\"a61448e1-be63-43ee-84eb-19446ba743f0\",\"device_type\":\"ANDROID\","
+            + "\"attributes\":{\"locale_language_code\":\"en\",\"app_version\":12,\"gone\":null}},"
+            + "\"body\":{\"push_id\":\"57ef3728-79dc-46b1-a6b9-20081e561f97\",\"nested\":{\"type\":\"not this\"}},"
+            + "\"type\":\"OPEN\"}";
+
+    @Test
+    public void testProject() throws Exception {
+        EventProjection projection = EventProjection.newBuilder()
+                .addPaths("device.channel", "type", "body.push_id", "occurred", "offset")
+                .addPaths(ImmutableList.of("device.attributes.app_version", "body.missing"))
+                .build();
+
+        ProjectedEvent event = projection.project(EVENT);
+
+        assertEquals(7, event.getSlotCount());
+        assertEquals("a61448e1-be63-43ee-84eb-19446ba743f0", event.getString(0));
+        assertEquals("OPEN", event.getString("type"));
+        assertEquals("57ef3728-79dc-46b1-a6b9-20081e561f97", event.getString(projection.getSlot("body.push_id")));
+        assertEquals(1430620332088L, event.getTimestamp(3));
+        assertEquals(1045L, event.getLong(4, -1L));
+        assertEquals("\"1045\"", event.getJson(4));
+
+        assertFalse(event.isString(5));
+        assertEquals("12", event.getString(5));
+        assertEquals(12L, event.getLong(5, -1L));
+
+        assertFalse(event.isPresent(6));
+        assertNull(event.getString(6));
+        assertEquals(-1L, event.getLong(6, -1L));
+        assertEquals(EventTimestamps.ABSENT, event.getTimestamp(6));
+    }
+
+    @Test
+    public void testObjectsAndNestedPaths() throws Exception {
+        EventProjection projection = EventProjection.newBuilder()
+                .addPaths("device.attributes", "device.attributes.locale_language_code", "body.nested.type")
+                .build();
+
+        ProjectedEvent event = projection.project(EVENT);
+
+        assertTrue(event.isObject(0));
+        assertEquals("{\"locale_language_code\":\"en\",\"app_version\":12,\"gone\":null}", event.getString(0));
+        assertEquals("en", event.getString(1));
+        assertEquals("not this", event.getString(2));
+    }
+
+    @Test
+    public void testNullsAndMismatchedShapesAbsent() throws Exception {
+        EventProjection projection = EventProjection.newBuilder()
+                .addPaths("device.attributes.gone", "type.name", "offset")
+                .build();
+
+        ProjectedEvent event = projection.project(EVENT);
+
+        assertFalse(event.isPresent(0));
+        assertFalse(event.isPresent(1));
+        assertEquals(1045L, event.getLong(2, -1L));
+    }
+
+    @Test
+    public void testOnlyTopLevelMembersMatchTopLevelPaths() throws Exception {
+        EventProjection projection = EventProjection.newBuilder().addPaths("type").build();
+
+        assertEquals("OPEN", projection.project(EVENT).getString(0));
+    }
+
+    @Test
+    public void testStopsOnceEveryPathFound() throws Exception {
+        byte[] truncated = "{\"type\":\"OPEN\",\"offset\":\"7\",\"body\":{\"push_id\":".getBytes(StandardCharsets.UTF_8);
+
+        ProjectedEvent event = EventProjection.newBuilder().addPaths("offset", "type").build()
+                .project(truncated, 0, truncated.length);
+
+        assertEquals("OPEN", event.getString(1));
+        assertEquals(7L, event.getLong(0, -1L));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMalformedEventThrows() throws Exception {
+        byte[] truncated = "{\"type\":\"OPEN\",\"offset\":\"7\",\"body\":{\"push_id\":".getBytes(StandardCharsets.UTF_8);
+
+        EventProjection.newBuilder().addPaths("type", "body.push_id").build().project(truncated, 0, truncated.length);
+    }
+
+    @Test
+    public void testRecordReused() throws Exception {
+        EventProjection projection = EventProjection.newBuilder().addPaths("type", "device.channel").build();
+        ProjectedEvent record = projection.newEvent();
+
+        byte[] first = EVENT.getBytes(StandardCharsets.UTF_8);
+        assertSame(record, projection.project(first, 0, first.length, record));
+        ProjectedEvent copy = record.copy();
+
+        byte[] second = "{\"type\":\"\\\"CLOSE\\\"\",\"type\":\"ignored\"}".getBytes(StandardCharsets.UTF_8);
+        projection.project(second, 0, second.length, record);
+
+        assertEquals("\"CLOSE\"", record.getString(0));
+        assertFalse(record.isPresent(1));
+        assertEquals("OPEN", copy.getString(0));
+        assertEquals("a61448e1-be63-43ee-84eb-19446ba743f0", copy.getString(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordFromAnotherProjectionRejected() throws Exception {
+        EventProjection projection = EventProjection.newBuilder().addPaths("type").build();
+        ProjectedEvent other = EventProjection.newBuilder().addPaths("type").build().newEvent();
+
+        byte[] bytes = EVENT.getBytes(StandardCharsets.UTF_8);
+        projection.project(bytes, 0, bytes.length, other);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyMemberNameRejected() throws Exception {
+        EventProjection.newBuilder().addPaths("device..channel").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRepeatedPathRejected() throws Exception {
+        EventProjection.newBuilder().addPaths("type", "type").build();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class EventTimestampsTest {
+
+    @Test
+    public void testUtc() throws Exception {
+        assertEquals(1430827200000L, processed("{\"offset\":\"1\",\"processed\":\"2015-05-05T12:00:00.000Z\"}"));
+        assertEquals(1583020799500L, processed("{\"processed\":\"2020-02-29T23:59:59.5Z\"}"));
+        assertEquals(1583020799123L, processed("{\"processed\":\"2020-02-29T23:59:59.123456Z\"}"));
+        assertEquals(-1000L, processed("{\"processed\":\"1969-12-31T23:59:59Z\"}"));
+    }
+
+    @Test
+    public void testZoneOffset() throws Exception {
+        assertEquals(1430847000123L, processed("{\"processed\":\"2015-05-05T12:00:00.123-05:30\"}"));
+        assertEquals(1430827200000L, processed("{\"processed\":\"2015-05-05T14:00:00+02:00\"}"));
+    }
+
+    @Test
+    public void testNoZoneIsUtc() throws Exception {
+        assertEquals(1430827200000L, processed("{\"processed\":\"2015-05-05T12:00:00\"}"));
+    }
+
+    @Test
+    public void testOnlyTopLevelFieldRead() throws Exception {
+        String event = "{\"body\":{\"processed\":\"2000-01-01T00:00:00Z\"},\"occurred\":\"2015-05-05T11:00:00Z\","
+                + "\"processed\":\"2015-05-05T12:00:00Z\"}";
+
+        assertEquals(1430827200000L, processed(event));
+        byte[] bytes = event.getBytes(UTF_8);
+        assertEquals(1430823600000L, EventTimestamps.epochMillis(bytes, 0, bytes.length, EventTimestamps.OCCURRED));
+    }
+
+    @Test
+    public void testAbsentOrInvalid() throws Exception {
+        assertEquals(EventTimestamps.ABSENT, processed("{\"offset\":\"1\"}"));
+        assertEquals(EventTimestamps.ABSENT, processed("{\"processed\":1430827200000}"));
+        assertEquals(EventTimestamps.ABSENT, processed("{\"processed\":\"yesterday\"}"));
+        assertEquals(EventTimestamps.ABSENT, processed("{\"processed\":\"2015-13-05T12:00:00Z\"}"));
+        assertEquals(EventTimestamps.ABSENT, processed("{\"processed\":\"2015-05-05T12:00:00.Z\"}"));
+        assertEquals(EventTimestamps.ABSENT, processed("{\"processed\":\"2015-05-05T12:00:00Zjunk\"}"));
+        assertEquals(EventTimestamps.ABSENT, processed("{\"processed\":\"2015-05-05T12:00"));
+    }
+
+    private long processed(String event) {
+        byte[] bytes = ("  " + event + "  ").getBytes(UTF_8);
+        return EventTimestamps.epochMillis(bytes, 2, bytes.length - 4, EventTimestamps.PROCESSED);
+    }
+}
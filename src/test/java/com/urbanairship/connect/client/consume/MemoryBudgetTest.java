@@ -0,0 +1,270 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest {
+
+    private final ExecutorService thread = Executors.newSingleThreadExecutor();
+
+    private final MemoryBudget budget = MemoryBudget.newBuilder()
+            .setCapacityBytes(100L)
+            .build();
+
+    @After
+    public void tearDown() throws Exception {
+        thread.shutdownNow();
+    }
+
+    @Test
+    public void testUsageReportedPerAccount() throws Exception {
+        MemoryBudget.Account first = budget.newAccount("first");
+        MemoryBudget.Account second = budget.newAccount("second");
+
+        first.reserve(30L);
+        first.reserve(10L);
+        second.reserve(20L);
+        second.hold(5L);
+
+        assertEquals(40L, first.getUsedBytes());
+        assertEquals(25L, second.getUsedBytes());
+        assertEquals(65L, budget.getUsedBytes());
+        assertEquals(ImmutableMap.of("first", 40L, "second", 25L), budget.getUsage());
+
+        first.release(30L);
+        second.hold(2L);
+        assertEquals(ImmutableMap.of("first", 10L, "second", 22L), budget.getUsage());
+
+        first.close();
+        assertEquals(ImmutableMap.of("second", 22L), budget.getUsage());
+        assertEquals(22L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testReserveWaitsForRelease() throws Exception {
+        MemoryBudget.Account first = budget.newAccount("first");
+        final MemoryBudget.Account second = budget.newAccount("second");
+        first.reserve(80L);
+
+        Future<?> reserved = reserveInBackground(second, 60L);
+        assertWaiting(reserved);
+
+        first.release(30L);
+        assertWaiting(reserved);
+
+        first.release(10L);
+        reserved.get(10, TimeUnit.SECONDS);
+        assertEquals(100L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testStalledAccountDoesNotBlockOthers() throws Exception {
+        MemoryBudget.Account stalled = budget.newAccount("stalled");
+        MemoryBudget.Account flowing = budget.newAccount("flowing");
+
+        // Nothing the stalled account reserves is released, so it takes all but the other account's share of 25 bytes
+        // and then waits
+        for (int i = 0; i < 7; i++) {
+            stalled.reserve(10L);
+        }
+        Future<?> waiting = reserveInBackground(stalled, 10L);
+        assertWaiting(waiting);
+        assertEquals(70L, stalled.getUsedBytes());
+
+        // The other account keeps going within its share, and can borrow what is left
+        for (int i = 0; i < 100; i++) {
+            flowing.reserve(20L);
+            flowing.release(20L);
+        }
+        flowing.reserve(30L);
+        assertEquals(100L, budget.getUsedBytes());
+        assertWaiting(waiting);
+
+        stalled.release(60L);
+        waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(50L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testBorrowingNeverTakesOthersShares() throws Exception {
+        MemoryBudget.Account borrower = budget.newAccount("borrower");
+        List<MemoryBudget.Account> others = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            others.add(budget.newAccount("other-" + i));
+        }
+
+        // Shares of 12 bytes, the other 52 bytes borrowed. The others' unused shares are left alone.
+        for (int i = 0; i < 6; i++) {
+            borrower.reserve(10L);
+            assertTrue(budget.getUsedBytes() <= 100L);
+        }
+        Future<?> reserved = reserveInBackground(borrower, 10L);
+        assertWaiting(reserved);
+        assertEquals(60L, budget.getUsedBytes());
+
+        for (MemoryBudget.Account other : others) {
+            for (int i = 0; i < 3; i++) {
+                other.reserve(4L);
+                assertTrue(budget.getUsedBytes() <= 100L);
+            }
+        }
+        assertEquals(96L, budget.getUsedBytes());
+        assertWaiting(reserved);
+
+        // Released shares are kept for their accounts too, only what the borrower releases makes room for it
+        others.get(0).release(6L);
+        assertWaiting(reserved);
+        borrower.release(10L);
+        reserved.get(10, TimeUnit.SECONDS);
+        assertEquals(90L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testLateAccountGetsItsShare() throws Exception {
+        MemoryBudget.Account first = budget.newAccount("first");
+        first.reserve(50L);
+        first.reserve(50L);
+
+        // Waits for the first account to release what it has borrowed
+        MemoryBudget.Account second = budget.newAccount("second");
+        Future<?> reserved = reserveInBackground(second, 20L);
+        assertWaiting(reserved);
+
+        first.release(20L);
+        reserved.get(10, TimeUnit.SECONDS);
+        assertEquals(100L, budget.getUsedBytes());
+
+        // What is left of the second account's share of 25 bytes is kept for it
+        reserved = reserveInBackground(first, 1L);
+        assertWaiting(reserved);
+        first.release(10L);
+        reserved.get(10, TimeUnit.SECONDS);
+        second.reserve(5L);
+        assertEquals(96L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testFullGuaranteeCapsEachAccountAtItsShare() throws Exception {
+        MemoryBudget capped = MemoryBudget.newBuilder()
+                .setCapacityBytes(100L)
+                .setGuaranteedFraction(1.0)
+                .build();
+        MemoryBudget.Account first = capped.newAccount("first");
+        MemoryBudget.Account second = capped.newAccount("second");
+
+        first.reserve(50L);
+        Future<?> reserved = reserveInBackground(first, 1L);
+        assertWaiting(reserved);
+
+        second.reserve(50L);
+        assertEquals(100L, capped.getUsedBytes());
+    }
+
+    @Test
+    public void testClosingAccountFreesBudget() throws Exception {
+        MemoryBudget.Account first = budget.newAccount("first");
+        MemoryBudget.Account second = budget.newAccount("second");
+        first.reserve(100L);
+
+        Future<?> reserved = reserveInBackground(second, 60L);
+        assertWaiting(reserved);
+
+        first.close();
+        reserved.get(10, TimeUnit.SECONDS);
+        assertEquals(60L, budget.getUsedBytes());
+
+        // A closed account no longer takes part
+        first.reserve(1000L);
+        first.hold(1000L);
+        first.release(1000L);
+        assertEquals(60L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testOversizedReservationAllowedWhenNothingElseBuffered() throws Exception {
+        MemoryBudget.Account account = budget.newAccount("account");
+        account.hold(50L);
+
+        account.reserve(500L);
+        assertEquals(550L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testHeldBytesNeverWait() throws Exception {
+        MemoryBudget.Account first = budget.newAccount("first");
+        MemoryBudget.Account second = budget.newAccount("second");
+        first.reserve(100L);
+
+        second.hold(70L);
+        assertEquals(170L, budget.getUsedBytes());
+        second.hold(0L);
+        assertEquals(100L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testInterruptedReservationTakesNothing() throws Exception {
+        MemoryBudget.Account first = budget.newAccount("first");
+        MemoryBudget.Account second = budget.newAccount("second");
+        first.reserve(100L);
+
+        Future<?> reserved = reserveInBackground(second, 60L);
+        assertWaiting(reserved);
+        thread.shutdownNow();
+
+        assertTrue(thread.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0L, second.getUsedBytes());
+        assertEquals(100L, budget.getUsedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityRequired() throws Exception {
+        MemoryBudget.newBuilder().build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGuaranteedFractionOutOfRange() throws Exception {
+        MemoryBudget.newBuilder()
+                .setCapacityBytes(100L)
+                .setGuaranteedFraction(1.5)
+                .build();
+    }
+
+    private Future<?> reserveInBackground(final MemoryBudget.Account account, final long bytes) {
+        return thread.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                account.reserve(bytes);
+                return null;
+            }
+        });
+    }
+
+    private static void assertWaiting(Future<?> future) throws Exception {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            fail("Reservation should be waiting");
+        }
+        catch (TimeoutException e) {
+            assertFalse(future.isDone());
+        }
+    }
+}
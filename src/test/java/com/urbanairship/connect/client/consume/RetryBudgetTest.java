@@ -0,0 +1,63 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetryBudgetTest {
+
+    private final AtomicLong nanos = new AtomicLong(0L);
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void testBurstThenQueuedAtRefillRate() throws Exception {
+        RetryBudget budget = RetryBudget.newBuilder()
+                .setCapacity(2)
+                .setTokensPerSecond(2D)
+                .setTicker(ticker)
+                .build();
+
+        assertEquals(0L, budget.reserve());
+        assertEquals(0L, budget.reserve());
+        assertEquals(500L, budget.reserve());
+        assertEquals(1000L, budget.reserve());
+        assertEquals(-2D, budget.getAvailableTokens(), 0.0001D);
+    }
+
+    @Test
+    public void testRefillCappedAtCapacity() throws Exception {
+        RetryBudget budget = RetryBudget.newBuilder()
+                .setCapacity(3)
+                .setTokensPerSecond(1D)
+                .setTicker(ticker)
+                .build();
+
+        budget.reserve();
+        budget.reserve();
+        budget.reserve();
+        assertEquals(1000L, budget.reserve());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60L));
+
+        assertEquals(3D, budget.getAvailableTokens(), 0.0001D);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRateRequired() throws Exception {
+        RetryBudget.newBuilder().setCapacity(1).build();
+    }
+}
@@ -5,6 +5,9 @@ Copyright 2015-2022 Airship and Contributors
 package com.urbanairship.connect.client.consume;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.urbanairship.connect.client.metrics.InMemoryStreamMetrics;
+import com.urbanairship.connect.client.metrics.NoopStreamMetrics;
 import com.urbanairship.connect.java8.Consumer;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
@@ -15,14 +18,21 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 public class StreamConnectionBodyConsumerTest {
@@ -87,4 +97,162 @@ public class StreamConnectionBodyConsumerTest {
 
         verifyZeroInteractions(handler);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOffsetUpdatesDiverted() throws Exception {
+        OffsetUpdateConsumer offsetUpdateHandler = mock(OffsetUpdateConsumer.class);
+        FramingOptions options = FramingOptions.newBuilder()
+                .setOffsetUpdateConsumer(offsetUpdateHandler)
+                .build();
+        consumer = new MobileEventStreamBodyConsumer(handler, options, new NoopStreamMetrics());
+
+        String event = "{\"offset\":\"5\",\"type\":\"OPEN\",\"body\":{\"type\":\"OFFSET_UPDATE\"}}";
+        String update = "{\"offset\":\"7\", \"type\" : \"OFFSET_UPDATE\"}";
+
+        consumer.accept((event + "\n" + update.substring(0, 10)).getBytes(UTF_8));
+        consumer.accept((update.substring(10) + "\n").getBytes(UTF_8));
+
+        verify(handler).accept(event);
+        verify(offsetUpdateHandler).acceptOffsetUpdate("7");
+        verify(handler, never()).accept(update);
+    }
+
+    @Test
+    public void testOffsetUpdatesPassedThroughToPlainConsumer() throws Exception {
+        String update = "{\"offset\":\"7\",\"type\":\"OFFSET_UPDATE\"}";
+
+        consumer.accept((update + "\n").getBytes(UTF_8));
+
+        verify(handler).accept(update);
+    }
+
+    @Test
+    public void testMetricsCountFramedLines() throws Exception {
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+        consumer = new MobileEventStreamBodyConsumer(handler, metrics);
+
+        consumer.accept("{\"a\":1}\n{\"b\"".getBytes(UTF_8));
+        assertEquals(1L, metrics.getEventsFramed());
+
+        consumer.accept(":2}\n\n{\"c\":3}\n".getBytes(UTF_8));
+        assertEquals(3L, metrics.getEventsFramed());
+    }
+
+    @Test
+    public void testPartialLineSizeReported() throws Exception {
+        PartialLineObserver partialLineObserver = mock(PartialLineObserver.class);
+        FramingOptions options = FramingOptions.newBuilder()
+                .setPartialLineObserver(partialLineObserver)
+                .build();
+        consumer = new MobileEventStreamBodyConsumer(handler, options, new NoopStreamMetrics());
+
+        consumer.accept("{\"a\":1}\n{\"b\"".getBytes(UTF_8));
+        verify(partialLineObserver).partialLine(4);
+
+        consumer.accept(":2".getBytes(UTF_8));
+        verify(partialLineObserver).partialLine(6);
+
+        consumer.accept("}\n".getBytes(UTF_8));
+        verify(partialLineObserver).partialLine(0);
+
+        consumer.accept("{\"c\":3}\n".getBytes(UTF_8));
+        verify(handler).accept("{\"c\":3}");
+        verify(partialLineObserver, times(3)).partialLine(anyInt());
+    }
+
+    @Test
+    public void testLongLineAcrossManyParts() throws Exception {
+        String line = RandomStringUtils.randomAlphanumeric(100000);
+        byte[] bytes = (line + "\n{\"b\":2}\n").getBytes(UTF_8);
+
+        for (int offset = 0; offset < bytes.length; offset += 1000) {
+            byte[] chunk = new byte[Math.min(1000, bytes.length - offset)];
+            System.arraycopy(bytes, offset, chunk, 0, chunk.length);
+            consumer.accept(chunk);
+        }
+
+        verify(handler).accept(line);
+        verify(handler).accept("{\"b\":2}");
+    }
+
+    @Test
+    public void testOversizedLineHandedOutInParts() throws Exception {
+        OversizedHandler oversizedHandler = new OversizedHandler();
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+        consumer = new MobileEventStreamBodyConsumer(oversizedHandler, oversizedHandler.options(10), metrics);
+
+        consumer.accept("{\"a\":1}\n{\"big\"".getBytes(UTF_8));
+        consumer.accept(":\"0".getBytes(UTF_8));
+        assertEquals(0, oversizedHandler.parts);
+
+        consumer.accept("123456789\"".getBytes(UTF_8));
+        consumer.accept("}\n{\"b\":2}\n".getBytes(UTF_8));
+
+        assertEquals(ImmutableList.of("{\"a\":1}", "{\"b\":2}"), oversizedHandler.lines);
+        assertEquals(ImmutableList.of("{\"big\":\"0123456789\"}"), oversizedHandler.oversized);
+        assertEquals(3, oversizedHandler.parts);
+        assertEquals(1L, metrics.getOversizedLines());
+        assertEquals(2L, metrics.getEventsFramed());
+    }
+
+    @Test
+    public void testOversizedLineInSinglePart() throws Exception {
+        OversizedHandler oversizedHandler = new OversizedHandler();
+        consumer = new MobileEventStreamBodyConsumer(oversizedHandler, oversizedHandler.options(4), new NoopStreamMetrics());
+
+        consumer.accept("{\"a\":1}\n{}\n".getBytes(UTF_8));
+
+        assertEquals(ImmutableList.of("{}"), oversizedHandler.lines);
+        assertEquals(ImmutableList.of("{\"a\":1}"), oversizedHandler.oversized);
+        assertEquals(1, oversizedHandler.parts);
+    }
+
+    @Test
+    public void testOversizedLineSkippedWithoutConsumer() throws Exception {
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+        consumer = new MobileEventStreamBodyConsumer(handler, metrics);
+
+        byte[] chunk = new byte[1024 * 1024];
+        Arrays.fill(chunk, (byte) 'x');
+        consumer.accept("{\"a\":1}\n".getBytes(UTF_8));
+        for (int i = 0; i <= MobileEventStreamBodyConsumer.DEFAULT_MAX_LINE_BYTES / chunk.length; i++) {
+            consumer.accept(chunk);
+        }
+        consumer.accept("\n{\"b\":2}\n".getBytes(UTF_8));
+
+        verify(handler).accept("{\"a\":1}");
+        verify(handler).accept("{\"b\":2}");
+        verify(handler, times(2)).accept(anyString());
+        assertEquals(1L, metrics.getOversizedLines());
+    }
+
+    private static final class OversizedHandler implements Consumer<String>, OversizedLineConsumer {
+
+        private final List<String> lines = new ArrayList<>();
+        private final List<String> oversized = new ArrayList<>();
+        private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+        private int parts = 0;
+
+        private FramingOptions options(int maxLineBytes) {
+            return FramingOptions.newBuilder()
+                    .setOversizedLineConsumer(this)
+                    .setMaxLineBytes(maxLineBytes)
+                    .build();
+        }
+
+        @Override
+        public void accept(String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void acceptOversizedPart(byte[] bytes, int offset, int length, boolean last) {
+            parts++;
+            current.write(bytes, offset, length);
+            if (last) {
+                oversized.add(new String(current.toByteArray(), UTF_8));
+                current.reset();
+            }
+        }
+    }
+}
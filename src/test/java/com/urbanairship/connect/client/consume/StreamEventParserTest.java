@@ -0,0 +1,139 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.model.event.EventDevice;
+import com.urbanairship.connect.client.model.event.EventType;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+import com.urbanairship.connect.client.model.request.filters.DeviceType;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class StreamEventParserTest {
+
+    private static final String EVENT = "{\"id\":\"ff76bb85-74bc-4511-a3bf-11b6117784db\",\"offset\":\"1045\","
+            + "\"occurred\":\"2015-05-03T02:32:12.088Z\",\"processed\":\"2015-05-03T02:32:12.375Z\","
+            + "\"device\":{\"channel\":\"a61448e1-be63-43ee-84eb-19446ba743f0\",\"device_type\":\"ANDROID\","
+            + "\"named_user_id\":\"user-1\",\"attributes\":{\"locale_language_code\":\"en\",\"app_version\":12,\"gone\":null}},"
+            + "\"body\":{\"push_id\":\"57ef3728-79dc-46b1-a6b9-20081e561f97\",\"nested\":{\"type\":\"not this\"}},"
+            + "\"type\":\"OPEN\"}";
+
+    private final StreamEventParser parser = StreamEventParser.newBuilder().build();
+
+    @Test
+    public void testParse() throws Exception {
+        StreamEvent event = parser.parse(EVENT);
+
+        assertEquals(Optional.of("ff76bb85-74bc-4511-a3bf-11b6117784db"), event.getId());
+        assertEquals(Optional.of("1045"), event.getOffset());
+        assertEquals(EventType.OPEN, event.getType());
+        assertEquals("OPEN", event.getTypeName());
+        assertEquals(1430620332088L, event.getOccurred());
+        assertEquals(1430620332375L, event.getProcessed());
+
+        EventDevice device = event.getDevice().get();
+        assertEquals(Optional.of("a61448e1-be63-43ee-84eb-19446ba743f0"), device.getChannel());
+        assertEquals(Optional.of(DeviceType.ANDROID), device.getDeviceType());
+        assertEquals(Optional.of("user-1"), device.getNamedUserId());
+        assertEquals(ImmutableMap.of("locale_language_code", "en", "app_version", "12"), device.getAttributes());
+
+        assertEquals("57ef3728-79dc-46b1-a6b9-20081e561f97", event.parseBody().get("push_id").getAsString());
+        assertEquals("{\"push_id\":\"57ef3728-79dc-46b1-a6b9-20081e561f97\",\"nested\":{\"type\":\"not this\"}}", event.getBodyJson().get());
+    }
+
+    @Test
+    public void testRepeatedValuesShared() throws Exception {
+        StreamEvent first = parser.parse(EVENT);
+        StreamEvent second = parser.parse(EVENT.getBytes(StandardCharsets.UTF_8), 0, EVENT.length());
+
+        assertEquals(first, second);
+        assertSame(first.getTypeName(), second.getTypeName());
+
+        EventDevice firstDevice = first.getDevice().get();
+        EventDevice secondDevice = second.getDevice().get();
+        assertSame(firstDevice.getChannel().get(), secondDevice.getChannel().get());
+        assertSame(firstDevice.getNamedUserId().get(), secondDevice.getNamedUserId().get());
+        assertSame(firstDevice.getAttributes().get("locale_language_code"), secondDevice.getAttributes().get("locale_language_code"));
+        assertSame(
+                firstDevice.getAttributes().keySet().iterator().next(),
+                secondDevice.getAttributes().keySet().iterator().next());
+    }
+
+    @Test
+    public void testSharedInterner() throws Exception {
+        StringInterner interner = StringInterner.newBuilder().build();
+        StreamEvent first = StreamEventParser.newBuilder().setInterner(interner).build().parse(EVENT);
+        StreamEvent second = StreamEventParser.newBuilder().setInterner(interner).build().parse(EVENT);
+
+        assertSame(first.getDevice().get().getChannel().get(), second.getDevice().get().getChannel().get());
+    }
+
+    @Test
+    public void testUnknownTypesAndMissingFields() throws Exception {
+        StreamEvent event = parser.parse(" { \"type\" : \"SOMETHING_NEW\" , \"offset\" : 17 ,"
+                + " \"device\" : { \"device_type\" : \"watch\" } } ");
+
+        assertEquals(EventType.UNKNOWN, event.getType());
+        assertEquals("SOMETHING_NEW", event.getTypeName());
+        assertEquals(Optional.of("17"), event.getOffset());
+        assertFalse(event.getId().isPresent());
+        assertEquals(StreamEvent.NO_TIME, event.getOccurred());
+        assertFalse(event.getBodyJson().isPresent());
+        assertEquals(0, event.parseBody().size());
+        assertFalse(event.getDevice().get().getDeviceType().isPresent());
+        assertEquals(Optional.of("watch"), event.getDevice().get().getDeviceTypeName());
+        assertFalse(event.getDevice().get().getChannel().isPresent());
+    }
+
+    @Test
+    public void testEscapedStrings() throws Exception {
+        StreamEvent event = parser.parse("{\"type\":\"CUSTOM\",\"device\":{\"named_user_id\":\"a\\\"b\\u00e9\\\\\","
+                + "\"device_type\":\"ios\"}}");
+
+        assertEquals(Optional.of("a\"bé\\"), event.getDevice().get().getNamedUserId());
+        assertEquals(Optional.of(DeviceType.IOS), event.getDevice().get().getDeviceType());
+    }
+
+    @Test
+    public void testOffsetUpdate() throws Exception {
+        StreamEvent event = parser.parse("{\"type\":\"OFFSET_UPDATE\",\"offset\":\"99\"}");
+
+        assertEquals(EventType.OFFSET_UPDATE, event.getType());
+        assertEquals(Optional.of("99"), event.getOffset());
+        assertFalse(event.getDevice().isPresent());
+    }
+
+    @Test
+    public void testOffsetKeptAsGiven() throws Exception {
+        assertEquals(Optional.of("1234567890123456789012345"),
+                parser.parse("{\"type\":\"OPEN\",\"offset\":\"1234567890123456789012345\"}").getOffset());
+        assertEquals(Optional.of("0042"), parser.parse("{\"type\":\"OPEN\",\"offset\":\"0042\"}").getOffset());
+        assertEquals(Optional.of("a-1"), parser.parse("{\"type\":\"OPEN\",\"offset\":\"a-1\"}").getOffset());
+        assertFalse(parser.parse("{\"type\":\"OPEN\",\"offset\":null}").getOffset().isPresent());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMissingType() throws Exception {
+        parser.parse("{\"offset\":\"99\"}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMalformed() throws Exception {
+        parser.parse("{\"type\":\"OPEN\" \"offset\":\"99\"}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testTruncated() throws Exception {
+        parser.parse("{\"type\":\"OPEN\",\"body\":{\"a\":");
+    }
+}
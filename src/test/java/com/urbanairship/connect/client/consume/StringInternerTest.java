@@ -0,0 +1,70 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.consume;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class StringInternerTest {
+
+    @Test
+    public void testRepeatedValueShared() throws Exception {
+        StringInterner interner = StringInterner.newBuilder().build();
+
+        byte[] first = "xxANDROIDxx".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "ANDROID".getBytes(StandardCharsets.UTF_8);
+
+        String value = interner.intern(first, 2, 7);
+        assertEquals("ANDROID", value);
+        assertSame(value, interner.intern(second, 0, second.length));
+    }
+
+    @Test
+    public void testMultiByteCharacters() throws Exception {
+        StringInterner interner = StringInterner.newBuilder().build();
+
+        byte[] bytes = "café 日本".getBytes(StandardCharsets.UTF_8);
+        String value = interner.intern(bytes, 0, bytes.length);
+
+        assertEquals("café 日本", value);
+        assertSame(value, interner.intern(bytes.clone(), 0, bytes.length));
+    }
+
+    @Test
+    public void testLongValuesNotCached() throws Exception {
+        StringInterner interner = StringInterner.newBuilder().setMaxLength(4).build();
+
+        byte[] bytes = "abcde".getBytes(StandardCharsets.UTF_8);
+        String value = interner.intern(bytes, 0, bytes.length);
+
+        assertEquals("abcde", value);
+        assertNotSame(value, interner.intern(bytes, 0, bytes.length));
+        assertSame(interner.intern(bytes, 0, 4), interner.intern(bytes, 0, 4));
+    }
+
+    @Test
+    public void testBoundedByCapacity() throws Exception {
+        StringInterner interner = StringInterner.newBuilder().setCapacity(3).build();
+        assertEquals(4, interner.getCapacity());
+
+        // Every value is returned correctly however many evict each other
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                byte[] bytes = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+                assertEquals(Integer.toString(i), interner.intern(bytes, 0, bytes.length));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() throws Exception {
+        StringInterner.newBuilder().setCapacity(0).build();
+    }
+}
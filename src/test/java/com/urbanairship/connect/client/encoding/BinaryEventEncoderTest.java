@@ -0,0 +1,201 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.encoding;
+
+import com.google.gson.JsonParseException;
+import com.urbanairship.connect.client.consume.StreamEventParser;
+import com.urbanairship.connect.client.model.event.EventType;
+import com.urbanairship.connect.client.model.event.StreamEvent;
+import com.urbanairship.connect.client.model.request.filters.DeviceType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryEventEncoderTest {
+
+    private static final List<String> EVENTS = Arrays.asList(
+            "{\"id\":\"ff76bb85-74bc-4511-a3bf-11b6117784db\",\"offset\":\"1045\","
+                    + "\"occurred\":\"2015-05-03T02:32:12.088Z\",\"processed\":\"2015-05-03T02:32:12.375Z\","
+                    + "\"device\":{\"channel\":\"a61448e1-be63-43ee-84eb-19446ba743f0\",\"device_type\":\"ANDROID\","
+                    + "\"named_user_id\":\"user-1\",\"attributes\":{\"locale_language_code\":\"en\",\"app_version\":12}},"
+                    + "\"body\":{\"push_id\":\"57ef3728-79dc-46b1-a6b9-20081e561f97\"},\"type\":\"OPEN\"}",
+            "{\"id\":\"0b4bc2c4-0f39-4a38-a0a8-4a0cf7f0e4d9\",\"offset\":\"1043\","
+                    + "\"occurred\":\"2015-05-03T02:31:00.000Z\",\"processed\":\"2015-05-03T02:32:13.001Z\","
+                    + "\"device\":{\"channel\":\"b6a1\",\"device_type\":\"ANDROID\",\"named_user_id\":\"a\\\"b\\u00e9\","
+                    + "\"attributes\":{\"locale_language_code\":\"en\"}},"
+                    + "\"body\":{\"name\":\"purchase\",\"value\":9.99},\"type\":\"CUSTOM\"}",
+            "{\"type\":\"OFFSET_UPDATE\",\"offset\":\"1050\"}",
+            "{\"type\":\"SOMETHING_NEW\",\"device\":{}}");
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BinaryEventEncoder encoder = BinaryEventEncoder.newBuilder().build();
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        StreamEventParser parser = StreamEventParser.newBuilder().build();
+
+        ByteBuffer records = encodeAll(encoder, EVENTS);
+
+        for (String event : EVENTS) {
+            assertTrue(decoder.decode(records));
+            assertEquals(parser.parse(event), decoder.toStreamEvent());
+        }
+        assertFalse(records.hasRemaining());
+        assertFalse(decoder.decode(records));
+    }
+
+    @Test
+    public void testZeroCopyFields() throws Exception {
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        ByteBuffer records = encodeAll(BinaryEventEncoder.newBuilder().build(), EVENTS);
+
+        assertTrue(decoder.decode(records));
+        assertEquals("1045", decoder.getOffset());
+        assertEquals(EventType.OPEN, decoder.getType());
+        assertEquals(1430620332088L, decoder.getOccurred());
+        assertEquals("a61448e1-be63-43ee-84eb-19446ba743f0", string(decoder.getChannel()));
+        assertEquals(DeviceType.ANDROID, decoder.getDeviceType().get());
+        assertEquals("{\"push_id\":\"57ef3728-79dc-46b1-a6b9-20081e561f97\"}", string(decoder.getBody()));
+        assertEquals(2, decoder.getAttributeCount());
+        assertEquals("app_version", decoder.getAttributeName(1));
+        assertEquals("12", decoder.getAttributeValue(1));
+        String deviceType = decoder.getDeviceTypeName();
+
+        assertTrue(decoder.decode(records));
+        assertEquals("1043", decoder.getOffset());
+        assertEquals("a\"bé", string(decoder.getNamedUserId()));
+        assertSame(deviceType, decoder.getDeviceTypeName());
+
+        assertTrue(decoder.decode(records));
+        assertEquals(EventType.OFFSET_UPDATE, decoder.getType());
+        assertFalse(decoder.hasDevice());
+        assertNull(decoder.getBody());
+        assertEquals(StreamEvent.NO_TIME, decoder.getOccurred());
+    }
+
+    @Test
+    public void testRepeatedValuesReferenceDictionary() throws Exception {
+        BinaryEventEncoder encoder = BinaryEventEncoder.newBuilder().build();
+        byte[] event = EVENTS.get(0).getBytes(StandardCharsets.UTF_8);
+
+        int first = encoder.encode(event, 0, event.length).remaining();
+        int second = encoder.encode(event, 0, event.length).remaining();
+
+        assertTrue(first < event.length);
+        // The type, device type and both attributes are now references
+        assertTrue(second <= first - "OPEN".length() - "ANDROID".length() - "locale_language_code".length());
+    }
+
+    @Test
+    public void testFullDictionaryWritesValuesInFull() throws Exception {
+        BinaryEventEncoder encoder = BinaryEventEncoder.newBuilder().setMaxDictionaryEntries(1).setMaxEntryBytes(8).build();
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        StreamEventParser parser = StreamEventParser.newBuilder().build();
+
+        ByteBuffer records = encodeAll(encoder, EVENTS);
+        for (String event : EVENTS) {
+            assertTrue(decoder.decode(records));
+            assertEquals(parser.parse(event), decoder.toStreamEvent());
+        }
+    }
+
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        ByteBuffer records = encodeAll(BinaryEventEncoder.newBuilder().build(), EVENTS.subList(0, 1));
+
+        ByteBuffer partial = records.duplicate();
+        partial.limit(partial.limit() - 1);
+        assertFalse(decoder.decode(partial));
+        assertEquals(0, partial.position());
+
+        assertFalse(decoder.decode(ByteBuffer.allocate(0)));
+        assertTrue(decoder.decode(records));
+    }
+
+    @Test
+    public void testMalformedEventLeavesEncoderInStep() throws Exception {
+        BinaryEventEncoder encoder = BinaryEventEncoder.newBuilder().build();
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+
+        ByteBuffer first = encodeAll(encoder, EVENTS.subList(0, 1));
+        for (String malformed : Arrays.asList("{\"offset\":\"1\",\"device\":{\"device_type\":\"IOS\"}}", "{\"type\":\"IOS\",")) {
+            byte[] bytes = malformed.getBytes(StandardCharsets.UTF_8);
+            try {
+                encoder.encode(bytes, 0, bytes.length);
+                fail();
+            }
+            catch (JsonParseException expected) { }
+        }
+        ByteBuffer second = encodeAll(encoder, EVENTS.subList(1, 2));
+
+        assertTrue(decoder.decode(first));
+        assertTrue(decoder.decode(second));
+        assertEquals(StreamEventParser.newBuilder().build().parse(EVENTS.get(1)), decoder.toStreamEvent());
+    }
+
+    @Test
+    public void testOffsetsThatAreNotDeltasKeptAsGiven() throws Exception {
+        List<String> events = Arrays.asList(
+                "{\"type\":\"OPEN\",\"offset\":\"1045\"}",
+                "{\"type\":\"OPEN\",\"offset\":\"1234567890123456789012345\"}",
+                "{\"type\":\"OPEN\",\"offset\":\"0042\"}",
+                "{\"type\":\"OPEN\",\"offset\":1046}",
+                "{\"type\":\"OPEN\",\"offset\":\"a-1\"}",
+                "{\"type\":\"OPEN\",\"offset\":\"0\"}");
+
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        ByteBuffer records = encodeAll(BinaryEventEncoder.newBuilder().build(), events);
+        for (String offset : Arrays.asList("1045", "1234567890123456789012345", "0042", "1046", "a-1", "0")) {
+            assertTrue(decoder.decode(records));
+            assertEquals(offset, decoder.getOffset());
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        BinaryEventEncoder encoder = BinaryEventEncoder.newBuilder().build();
+        encodeAll(encoder, EVENTS);
+        encoder.reset();
+
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        assertTrue(decoder.decode(encodeAll(encoder, EVENTS.subList(1, 2))));
+        assertEquals("1043", decoder.getOffset());
+    }
+
+    private static ByteBuffer encodeAll(BinaryEventEncoder encoder, List<String> events) {
+        List<byte[]> records = new ArrayList<>();
+        int size = 0;
+        for (String event : events) {
+            byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = encoder.encode(bytes, 0, bytes.length);
+            byte[] copy = new byte[record.remaining()];
+            record.get(copy);
+            records.add(copy);
+            size += copy.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : records) {
+            buffer.put(record);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String string(ByteBuffer bytes) {
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+}
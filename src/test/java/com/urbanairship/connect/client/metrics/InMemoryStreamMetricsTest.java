@@ -0,0 +1,69 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class InMemoryStreamMetricsTest {
+
+    @Test
+    public void testTotals() throws Exception {
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+
+        metrics.bytesReceived(100);
+        metrics.bytesReceived(28);
+        metrics.eventFramed();
+        metrics.eventFramed();
+        metrics.eventEnqueued(1);
+        metrics.eventEnqueued(2);
+        metrics.enqueueBlocked(50L);
+        metrics.enqueueBlocked(25L);
+
+        assertEquals(128L, metrics.getBytesReceived());
+        assertEquals(2L, metrics.getEventsFramed());
+        assertEquals(2L, metrics.getEventsEnqueued());
+        assertEquals(2, metrics.getQueueDepth());
+        assertEquals(2L, metrics.getEnqueueBlockedCount());
+        assertEquals(75L, metrics.getEnqueueBlockedNanos());
+    }
+
+    @Test
+    public void testConnections() throws Exception {
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+        assertEquals(-1, metrics.getLastFailureStatusCode());
+        assertEquals(-1L, metrics.getLastConnectNanos());
+        assertEquals(-1L, metrics.getLastFirstByteNanos());
+
+        metrics.connectAttempted();
+        metrics.connectFailed(503, 10L);
+        metrics.connectAttempted();
+        metrics.redirected();
+        metrics.connectSucceeded(20L);
+        metrics.firstByte(30L);
+
+        assertEquals(2L, metrics.getConnectAttempts());
+        assertEquals(1L, metrics.getConnectFailures());
+        assertEquals(1L, metrics.getConnectSuccesses());
+        assertEquals(503, metrics.getLastFailureStatusCode());
+        assertEquals(20L, metrics.getLastConnectNanos());
+        assertEquals(1L, metrics.getRedirects());
+        assertEquals(30L, metrics.getLastFirstByteNanos());
+    }
+
+    @Test
+    public void testReconnectGaps() throws Exception {
+        InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+
+        metrics.reconnectGap(300L);
+        metrics.reconnectGap(500L);
+        metrics.reconnectGap(100L);
+
+        assertEquals(3L, metrics.getReconnects());
+        assertEquals(900L, metrics.getTotalReconnectGapNanos());
+        assertEquals(500L, metrics.getMaxReconnectGapNanos());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverValuesContiguously() throws Exception {
+        long previousHighest = -1L;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(previousHighest + 1L));
+            assertEquals(bucket, LatencyHistogram.bucket(highest));
+            previousHighest = highest;
+        }
+
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE, previousHighest);
+    }
+
+    @Test
+    public void testRelativeError() throws Exception {
+        for (long value = 1L; value < LatencyHistogram.MAX_TRACKABLE_VALUE; value = value * 3L + 1L) {
+            long reported = LatencyHistogram.highestValue(LatencyHistogram.bucket(value));
+            assertTrue(reported >= value);
+            assertTrue((double) (reported - value) / value <= 1D / 32D);
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1L; i <= 1000L; i++) {
+            histogram.record(i);
+        }
+
+        LatencySnapshot snapshot = histogram.getSnapshot();
+        assertEquals(1000L, snapshot.getCount());
+        assertEquals(1000L, snapshot.getMax());
+        assertEquals(500.5D, snapshot.getMean(), 0.0001D);
+        assertWithin(500L, snapshot.getP50());
+        assertWithin(900L, snapshot.getP90());
+        assertWithin(990L, snapshot.getP99());
+        assertEquals(1000L, snapshot.getValueAtPercentile(100D));
+        assertEquals(1L, snapshot.getValueAtPercentile(0D));
+    }
+
+    @Test
+    public void testOutOfRangeValuesClamped() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+        histogram.record(Long.MAX_VALUE);
+
+        LatencySnapshot snapshot = histogram.getSnapshot();
+        assertEquals(2L, snapshot.getCount());
+        assertEquals(0L, snapshot.getValueAtPercentile(50D));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE, snapshot.getMax());
+    }
+
+    @Test
+    public void testSnapshotAndReset() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10L);
+
+        assertEquals(1L, histogram.getSnapshotAndReset().getCount());
+
+        LatencySnapshot empty = histogram.getSnapshot();
+        assertEquals(0L, empty.getCount());
+        assertEquals(0L, empty.getP99());
+        assertEquals(0L, empty.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 32L);
+    }
+}
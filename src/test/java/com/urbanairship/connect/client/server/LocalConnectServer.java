@@ -0,0 +1,666 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.server;
+
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.urbanairship.connect.client.StreamConnection;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.cookie.ServerCookieEncoder;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the Airship Real-Time Data Streaming API, speaking the protocol {@link StreamConnection} expects,
+ * for load, soak and reconnect correctness testing.
+ *
+ * The server holds a log of generated events with offsets 1 to the configured log size. Event contents are a function of
+ * the offset alone, see {@link #event(long, int)}, so a consumer can verify exactly what it received. A request starts
+ * streaming after its {@code resume_offset}, from offset 1 for {@code EARLIEST} or after the newest event served so far
+ * for {@code LATEST}. Once the end of the log is reached the response is held open, as the real API does while it waits
+ * for new events.
+ *
+ * Faults can be configured up front with the builder, or injected at any time with {@link #failNextConnections(int, int)}
+ * and {@link #dropConnections()}.
+ */
+public final class LocalConnectServer implements AutoCloseable {
+
+    public static final String PATH = "/api/events/";
+    public static final String COOKIE_NAME = "SRVGROUP";
+    public static final String CONTENT_TYPE = "application/vnd.urbanairship+x-ndjson; version=3;";
+
+    private static final byte NEWLINE = '\n';
+    private static final int CHUNKS_PER_RUN = 64;
+
+    private final long logSize;
+    private final int eventSize;
+    private final int chunkSize;
+    private final double eventsPerSecond;
+    private final long responseLatencyNanos;
+    private final long chunkDelayNanos;
+    private final boolean redirect;
+    private final int offsetUpdateEvery;
+    private final int disconnectAfter;
+    private final boolean compression;
+
+    private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final List<JsonObject> queries = Collections.synchronizedList(new ArrayList<JsonObject>());
+
+    private final AtomicLong head = new AtomicLong(0L);
+    private final AtomicLong eventsSent = new AtomicLong(0L);
+    private final AtomicLong bytesWritten = new AtomicLong(0L);
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private final AtomicInteger redirects = new AtomicInteger(0);
+    private final AtomicInteger pendingFailures = new AtomicInteger(0);
+    private volatile int failureStatus = 503;
+
+    private Channel serverChannel;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private LocalConnectServer(Builder builder) {
+        this.logSize = builder.logSize;
+        this.eventSize = builder.eventSize;
+        this.chunkSize = builder.chunkSize;
+        this.eventsPerSecond = builder.eventsPerSecond;
+        this.responseLatencyNanos = builder.responseLatencyNanos;
+        this.chunkDelayNanos = builder.chunkDelayNanos;
+        this.redirect = builder.redirect;
+        this.offsetUpdateEvery = builder.offsetUpdateEvery;
+        this.disconnectAfter = builder.disconnectAfter;
+        this.compression = builder.compression;
+    }
+
+    /**
+     * The event the server holds at the given offset.
+     *
+     * @param offset offset of the event, from 1.
+     * @param eventSize approximate size in bytes of the event, padding is added to the body to reach it.
+     */
+    public static String event(long offset, int eventSize) {
+        return event(offset, eventSize, System.currentTimeMillis(), newTimestampFormat());
+    }
+
+    private static String event(long offset, int eventSize, long processedMillis, SimpleDateFormat format) {
+        StringBuilder event = new StringBuilder(eventSize + 64)
+                .append("{\"id\":\"").append(new UUID(0L, offset))
+                .append("\",\"offset\":\"").append(offset)
+                .append("\",\"occurred\":\"").append(format.format(new Date(processedMillis - 1000L)))
+                .append("\",\"processed\":\"").append(format.format(new Date(processedMillis)))
+                .append("\",\"device\":{\"channel\":\"").append(new UUID(1L, offset % 1000L))
+                .append("\",\"platform\":\"IOS\"},\"type\":\"CUSTOM\",\"body\":{\"name\":\"event-").append(offset)
+                .append("\",\"padding\":\"");
+
+        int padding = eventSize - event.length() - 3;
+        for (int i = 0; i < padding; i++) {
+            event.append((char) ('a' + (offset + i) % 26));
+        }
+
+        return event.append("\"}}").toString();
+    }
+
+    private static SimpleDateFormat newTimestampFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * Extracts the offset from an event produced by this server.
+     */
+    public static long offset(String event) {
+        int start = event.indexOf("\"offset\":\"") + 10;
+        return Long.parseLong(event.substring(start, event.indexOf('"', start)));
+    }
+
+    public LocalConnectServer start() throws InterruptedException {
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channels.add(channel);
+                        ChannelPipeline pipeline = channel.pipeline()
+                                .addLast(new ByteCounter())
+                                .addLast(new HttpServerCodec());
+                        if (compression) {
+                            pipeline.addLast(new HttpContentCompressor());
+                        }
+                        pipeline.addLast(new HttpObjectAggregator(1024 * 1024))
+                                .addLast(new RequestHandler());
+                    }
+                });
+
+        serverChannel = bootstrap.bind(new InetSocketAddress("localhost", 0)).sync().channel();
+        return this;
+    }
+
+    public String getUrl() {
+        InetSocketAddress address = (InetSocketAddress) serverChannel.localAddress();
+        return String.format("http://localhost:%d%s", address.getPort(), PATH);
+    }
+
+    /**
+     * The next {@code count} requests are refused with the given status.
+     */
+    public void failNextConnections(int count, int status) {
+        failureStatus = status;
+        pendingFailures.set(count);
+    }
+
+    /**
+     * Abruptly closes every open connection, part way through a line for those that are streaming.
+     */
+    public void dropConnections() {
+        for (final Channel channel : channels) {
+            channel.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    RequestHandler handler = channel.pipeline().get(RequestHandler.class);
+                    if (handler != null && handler.session != null) {
+                        handler.session.disconnectMidLine();
+                    } else {
+                        channel.close();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the parsed JSON bodies of every request received, in order.
+     */
+    public List<JsonObject> getQueries() {
+        synchronized (queries) {
+            return new ArrayList<>(queries);
+        }
+    }
+
+    /**
+     * @return the number of requests that began streaming events.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public int getRedirectCount() {
+        return redirects.get();
+    }
+
+    public long getEventsSent() {
+        return eventsSent.get();
+    }
+
+    /**
+     * @return the number of bytes written to connections, after any compression.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the highest offset served so far.
+     */
+    public long getHead() {
+        return head.get();
+    }
+
+    @Override
+    public void close() {
+        channels.close().awaitUninterruptibly();
+        if (serverChannel != null) {
+            serverChannel.close().awaitUninterruptibly();
+        }
+        bossGroup.shutdownGracefully(0L, 1L, TimeUnit.SECONDS).awaitUninterruptibly();
+        workerGroup.shutdownGracefully(0L, 1L, TimeUnit.SECONDS).awaitUninterruptibly();
+    }
+
+    private long startOffset(JsonObject query) {
+        JsonElement resume = query.get("resume_offset");
+        if (resume != null) {
+            return Long.parseLong(resume.getAsString()) + 1L;
+        }
+
+        JsonElement start = query.get("start");
+        if (start != null && "LATEST".equals(start.getAsString())) {
+            return head.get() + 1L;
+        }
+
+        return 1L;
+    }
+
+    private boolean takeFailure() {
+        int remaining;
+        do {
+            remaining = pendingFailures.get();
+            if (remaining <= 0) {
+                return false;
+            }
+        } while (!pendingFailures.compareAndSet(remaining, remaining - 1));
+
+        return true;
+    }
+
+    private void advanceHead(long offset) {
+        long current;
+        do {
+            current = head.get();
+        } while (current < offset && !head.compareAndSet(current, offset));
+    }
+
+    private final class ByteCounter extends ChannelOutboundHandlerAdapter {
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf) {
+                bytesWritten.addAndGet(((ByteBuf) msg).readableBytes());
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    private final class RequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        private Session session;
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, FullHttpRequest request) {
+            JsonObject query = null;
+            try {
+                query = new JsonParser().parse(request.content().toString(StandardCharsets.UTF_8)).getAsJsonObject();
+                queries.add(query);
+            } catch (RuntimeException e) {
+                // Reported below
+            }
+
+            if (!request.method().equals(HttpMethod.POST)) {
+                respond(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED, "POST required");
+                return;
+            }
+            if (!StreamConnection.ACCEPT_HEADER.equals(request.headers().get(HttpHeaderNames.ACCEPT))) {
+                respond(ctx, HttpResponseStatus.NOT_ACCEPTABLE, "Unsupported Accept header");
+                return;
+            }
+            String authorization = request.headers().get(HttpHeaderNames.AUTHORIZATION);
+            if (authorization == null || !authorization.startsWith("Bearer ")
+                    || request.headers().get(StreamConnection.X_UA_APPKEY) == null) {
+                respond(ctx, HttpResponseStatus.UNAUTHORIZED, "Missing credentials");
+                return;
+            }
+            if (query == null) {
+                respond(ctx, HttpResponseStatus.BAD_REQUEST, "Unparsable query");
+                return;
+            }
+
+            if (takeFailure()) {
+                respond(ctx, HttpResponseStatus.valueOf(failureStatus), "Injected failure");
+                return;
+            }
+
+            String cookie = request.headers().get(HttpHeaderNames.COOKIE);
+            if (redirect && (cookie == null || !cookie.contains(COOKIE_NAME + "="))) {
+                redirects.incrementAndGet();
+                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.TEMPORARY_REDIRECT);
+                response.headers().set(HttpHeaderNames.SET_COOKIE, ServerCookieEncoder.STRICT.encode(COOKIE_NAME, "local-" + redirects.get()));
+                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+                ctx.writeAndFlush(response);
+                return;
+            }
+
+            JsonElement offsetUpdates = query.get("enable_offset_updates");
+            final Session newSession = new Session(ctx, startOffset(query),
+                    offsetUpdates != null && offsetUpdates.getAsBoolean());
+            session = newSession;
+            connections.incrementAndGet();
+
+            if (responseLatencyNanos > 0L) {
+                ctx.executor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        newSession.begin();
+                    }
+                }, responseLatencyNanos, TimeUnit.NANOSECONDS);
+            } else {
+                newSession.begin();
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (session != null && ctx.channel().isWritable()) {
+                session.run();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (session != null) {
+                session.release();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        private void respond(ChannelHandlerContext ctx, HttpResponseStatus status, String body) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                    Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Streams events to one connection. Only ever run on the connection's event loop.
+     */
+    private final class Session implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+        private final boolean offsetUpdates;
+        private final SimpleDateFormat format = newTimestampFormat();
+        private final ByteBuf pending = Unpooled.buffer();
+
+        private long nextOffset;
+        private long sent = 0L;
+        private long startNanos;
+        private boolean scheduled = false;
+        private boolean done = false;
+
+        private Session(ChannelHandlerContext ctx, long nextOffset, boolean offsetUpdates) {
+            this.ctx = ctx;
+            this.nextOffset = nextOffset;
+            this.offsetUpdates = offsetUpdates;
+        }
+
+        void begin() {
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+            response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+            ctx.writeAndFlush(response);
+
+            startNanos = System.nanoTime();
+            run();
+        }
+
+        @Override
+        public void run() {
+            scheduled = false;
+            if (done || startNanos == 0L) {
+                return;
+            }
+
+            for (int chunks = 0; chunks < CHUNKS_PER_RUN; chunks++) {
+                if (!ctx.channel().isActive() || !ctx.channel().isWritable()) {
+                    // Resumed by channelWritabilityChanged
+                    return;
+                }
+
+                long allowed = allowedEvents();
+                while (pending.readableBytes() < chunkSize && allowed > 0 && nextOffset <= logSize) {
+                    if (disconnectAfter > 0 && sent == disconnectAfter) {
+                        disconnectMidLine();
+                        return;
+                    }
+                    append();
+                    allowed--;
+                }
+
+                if (pending.readableBytes() == 0) {
+                    if (nextOffset <= logSize) {
+                        schedule(nanosUntilNextEvent());
+                    }
+                    return;
+                }
+
+                // Whatever is buffered goes out once no more events are due, even if it is short of a full chunk
+                writeChunk(Math.min(chunkSize, pending.readableBytes()));
+
+                if (chunkDelayNanos > 0L) {
+                    schedule(chunkDelayNanos);
+                    return;
+                }
+            }
+
+            schedule(0L);
+        }
+
+        void disconnectMidLine() {
+            if (done) {
+                return;
+            }
+
+            if (nextOffset <= logSize) {
+                byte[] line = event(nextOffset, eventSize, System.currentTimeMillis(), format).getBytes(StandardCharsets.UTF_8);
+                pending.writeBytes(line, 0, line.length / 2);
+            }
+            if (pending.readableBytes() > 0) {
+                ctx.write(new DefaultHttpContent(pending.readRetainedSlice(pending.readableBytes())));
+            }
+            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+            release();
+        }
+
+        void release() {
+            if (!done) {
+                done = true;
+                pending.release();
+            }
+        }
+
+        private void append() {
+            long offset = nextOffset++;
+            pending.writeBytes(event(offset, eventSize, System.currentTimeMillis(), format).getBytes(StandardCharsets.UTF_8));
+            pending.writeByte(NEWLINE);
+            sent++;
+            eventsSent.incrementAndGet();
+            advanceHead(offset);
+
+            if (offsetUpdates && offsetUpdateEvery > 0 && sent % offsetUpdateEvery == 0) {
+                pending.writeBytes(("{\"type\":\"OFFSET_UPDATE\",\"offset\":\"" + offset + "\"}").getBytes(StandardCharsets.UTF_8));
+                pending.writeByte(NEWLINE);
+            }
+        }
+
+        private void writeChunk(int size) {
+            ctx.writeAndFlush(new DefaultHttpContent(pending.readRetainedSlice(size)));
+            pending.discardReadBytes();
+        }
+
+        private long allowedEvents() {
+            if (eventsPerSecond <= 0D) {
+                return Long.MAX_VALUE;
+            }
+
+            long due = (long) ((System.nanoTime() - startNanos) * eventsPerSecond / TimeUnit.SECONDS.toNanos(1L));
+            return Math.max(0L, due - sent);
+        }
+
+        private long nanosUntilNextEvent() {
+            long dueAt = startNanos + (long) ((sent + 1) * TimeUnit.SECONDS.toNanos(1L) / eventsPerSecond);
+            return Math.max(0L, dueAt - System.nanoTime());
+        }
+
+        private void schedule(long delayNanos) {
+            if (scheduled) {
+                return;
+            }
+
+            scheduled = true;
+            if (delayNanos == 0L) {
+                ctx.executor().execute(this);
+            } else {
+                ctx.executor().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private long logSize = Long.MAX_VALUE;
+        private int eventSize = 512;
+        private int chunkSize = 8192;
+        private double eventsPerSecond = 0D;
+        private long responseLatencyNanos = 0L;
+        private long chunkDelayNanos = 0L;
+        private boolean redirect = false;
+        private int offsetUpdateEvery = 0;
+        private int disconnectAfter = 0;
+        private boolean compression = false;
+
+        private Builder() { }
+
+        /**
+         * @param logSize number of events held by the server. Defaults to effectively unlimited.
+         */
+        public Builder setLogSize(long logSize) {
+            this.logSize = logSize;
+            return this;
+        }
+
+        /**
+         * @param eventSize approximate size in bytes of each event. Defaults to 512.
+         */
+        public Builder setEventSize(int eventSize) {
+            this.eventSize = eventSize;
+            return this;
+        }
+
+        /**
+         * @param chunkSize size of the HTTP chunks the response is written in. Lines are split across chunks wherever
+         * the boundary falls. Defaults to 8192.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param eventsPerSecond rate at which each connection is sent events, 0 for as fast as the client reads them.
+         * Defaults to 0.
+         */
+        public Builder setEventsPerSecond(double eventsPerSecond) {
+            this.eventsPerSecond = eventsPerSecond;
+            return this;
+        }
+
+        /**
+         * @param latency delay between receiving a request and sending the response headers.
+         */
+        public Builder setResponseLatency(long latency, TimeUnit unit) {
+            this.responseLatencyNanos = unit.toNanos(latency);
+            return this;
+        }
+
+        /**
+         * @param delay pause after writing each chunk, simulating a slow or congested server.
+         */
+        public Builder setChunkDelay(long delay, TimeUnit unit) {
+            this.chunkDelayNanos = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * Redirect requests that don't carry the server's cookie with a 307 and {@code Set-Cookie}, as the API does to
+         * route a client to the server holding its stream.
+         */
+        public Builder enableRedirect() {
+            this.redirect = true;
+            return this;
+        }
+
+        /**
+         * @param every send an OFFSET_UPDATE record after this many events to requests that enable offset updates.
+         */
+        public Builder setOffsetUpdateEvery(int every) {
+            this.offsetUpdateEvery = every;
+            return this;
+        }
+
+        /**
+         * @param events close each connection part way through a line after sending this many events on it.
+         */
+        public Builder setDisconnectAfter(int events) {
+            this.disconnectAfter = events;
+            return this;
+        }
+
+        /**
+         * Compress responses with gzip or deflate when the request's {@code Accept-Encoding} allows it.
+         */
+        public Builder enableCompression() {
+            this.compression = true;
+            return this;
+        }
+
+        public LocalConnectServer build() {
+            Preconditions.checkArgument(logSize > 0, "Log size must be > 0");
+            Preconditions.checkArgument(eventSize > 0, "Event size must be > 0");
+            Preconditions.checkArgument(chunkSize > 0, "Chunk size must be > 0");
+            Preconditions.checkArgument(eventsPerSecond >= 0D, "Events per second must be >= 0");
+            Preconditions.checkArgument(offsetUpdateEvery >= 0, "Offset update interval must be >= 0");
+            Preconditions.checkArgument(disconnectAfter >= 0, "Disconnect after must be >= 0");
+
+            return new LocalConnectServer(this);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.server;
+
+import com.google.gson.JsonObject;
+import com.urbanairship.connect.client.Stream;
+import com.urbanairship.connect.client.consume.BackoffConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.ConnectionRetryStrategy;
+import com.urbanairship.connect.client.model.Creds;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalConnectServerTest {
+
+    private LocalConnectServer server;
+    private Stream stream;
+
+    @After
+    public void tearDown() throws Exception {
+        if (stream != null) stream.close();
+        if (server != null) server.close();
+    }
+
+    @Test(timeout = 30000L)
+    public void testResumesFromOffsetThroughRedirect() throws Exception {
+        server = LocalConnectServer.newBuilder()
+                .setLogSize(500L)
+                .setEventSize(200)
+                .setChunkSize(7)
+                .enableRedirect()
+                .build()
+                .start();
+
+        stream = stream(StartPosition.offset("100"));
+
+        for (long offset = 101L; offset <= 500L; offset++) {
+            assertEquals(offset, LocalConnectServer.offset(stream.next()));
+        }
+
+        assertEquals(1, server.getRedirectCount());
+        assertEquals(1, server.getConnectionCount());
+
+        List<JsonObject> queries = server.getQueries();
+        assertEquals(2, queries.size());
+        assertEquals("100", queries.get(1).get("resume_offset").getAsString());
+    }
+
+    @Test(timeout = 30000L)
+    public void testStartsFromEarliest() throws Exception {
+        server = LocalConnectServer.newBuilder()
+                .setLogSize(10L)
+                .build()
+                .start();
+
+        stream = stream(StartPosition.relative(StartPosition.RelativePosition.EARLIEST));
+
+        assertEquals(1L, LocalConnectServer.offset(stream.next()));
+        assertEquals("EARLIEST", server.getQueries().get(0).get("start").getAsString());
+    }
+
+    @Test(timeout = 30000L)
+    public void testReconnectsAcrossMidLineDisconnectsWithoutLossOrDuplication() throws Exception {
+        server = LocalConnectServer.newBuilder()
+                .setLogSize(1000L)
+                .setEventSize(300)
+                .setChunkSize(100)
+                .setDisconnectAfter(37)
+                .build()
+                .start();
+
+        stream = stream(StartPosition.relative(StartPosition.RelativePosition.EARLIEST));
+
+        for (long offset = 1L; offset <= 1000L; offset++) {
+            assertEquals(offset, LocalConnectServer.offset(stream.next()));
+        }
+
+        assertTrue(server.getConnectionCount() >= 1000 / 37);
+    }
+
+    @Test(timeout = 30000L)
+    public void testCompressedResponseAcrossDisconnects() throws Exception {
+        server = LocalConnectServer.newBuilder()
+                .setLogSize(2000L)
+                .setEventSize(500)
+                .setChunkSize(1000)
+                .setDisconnectAfter(450)
+                .enableCompression()
+                .build()
+                .start();
+
+        stream = stream(StartPosition.relative(StartPosition.RelativePosition.EARLIEST), true);
+
+        for (long offset = 1L; offset <= 2000L; offset++) {
+            assertEquals(offset, LocalConnectServer.offset(stream.next()));
+        }
+
+        long uncompressed = server.getEventsSent() * 500L;
+        assertTrue("Wrote " + server.getBytesWritten() + " bytes", server.getBytesWritten() < uncompressed / 3L);
+    }
+
+    @Test(timeout = 30000L)
+    public void testRetriesThroughServerErrors() throws Exception {
+        server = LocalConnectServer.newBuilder()
+                .setLogSize(10L)
+                .build()
+                .start();
+        server.failNextConnections(3, 503);
+
+        stream = stream(StartPosition.relative(StartPosition.RelativePosition.EARLIEST));
+
+        assertEquals(1L, LocalConnectServer.offset(stream.next()));
+        assertEquals(4, server.getQueries().size());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test(timeout = 30000L)
+    public void testRateLimitsEvents() throws Exception {
+        server = LocalConnectServer.newBuilder()
+                .setEventsPerSecond(100D)
+                .build()
+                .start();
+
+        stream = stream(StartPosition.relative(StartPosition.RelativePosition.EARLIEST));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            stream.next();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis >= 400L);
+    }
+
+    private Stream stream(StartPosition position) {
+        return stream(position, false);
+    }
+
+    private Stream stream(StartPosition position, boolean compression) {
+        ConnectionRetryStrategy retryStrategy = BackoffConnectionRetryStrategy.newBuilder()
+                .setMaxAttempts(5)
+                .setInterval(10L)
+                .setMaxWaitSeconds(1L)
+                .build();
+
+        StreamQueryDescriptor.Builder descriptor = StreamQueryDescriptor.newBuilder()
+                .setCreds(Creds.newBuilder()
+                        .setAppKey("localserverlocalserver")
+                        .setToken("token")
+                        .build())
+                .setEndpointUrl(server.getUrl());
+        if (compression) {
+            descriptor.enableCompression();
+        }
+
+        return Stream.newBuilder()
+                .setDescriptor(descriptor.build())
+                .setStartPosition(position)
+                .setConnectionRetryStrategy(retryStrategy)
+                .build();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArchiveReaderTest {
+
+    // 2015-05-05T12:00:00Z
+    private static final long NOON = 1430827200000L;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadsNdjsonAcrossFilesAndWindows() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        List<String> events = write(RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileBytes(2000L)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 100);
+
+        // Windows far smaller than a line make every line straddle a window boundary
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events", 7L)) {
+            assertEquals(events, readAll(reader));
+        }
+    }
+
+    @Test
+    public void testNdjsonReadStopsAtCheckpoint() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        List<String> events = write(RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 10);
+
+        // Written after the last sync, as if the sink had not yet synced it
+        Path file = directory.resolve("events-0000000001.ndjson");
+        Files.write(file, (event(11) + "\n{\"offset\":\"1").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            assertEquals(events, readAll(reader));
+        }
+    }
+
+    @Test
+    public void testSeeksNdjson() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        List<String> events = write(RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileBytes(500L)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 50);
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            reader.seekAfterOffset("37");
+            assertEquals(events.subList(37, 50), readAll(reader));
+        }
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            reader.seekOccurredFrom(NOON + TimeUnit.MINUTES.toMillis(20L));
+            assertEquals(events.subList(19, 50), readAll(reader));
+        }
+    }
+
+    @Test
+    public void testSeeksSegments() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        List<String> events = write(SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setBlockSize(512)
+                .setMaxSegmentBytes(600L)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 200);
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            assertEquals(events, readAll(reader));
+        }
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            reader.seekAfterOffset("150");
+            assertEquals(events.subList(150, 200), readAll(reader));
+        }
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            reader.seekOccurredFrom(NOON + TimeUnit.MINUTES.toMillis(99L));
+            assertEquals(events.subList(98, 200), readAll(reader));
+        }
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            reader.seekAfterOffset("200");
+            assertTrue(readAll(reader).isEmpty());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptBlockIsReported() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        write(SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build(), 20);
+
+        Path segment = directory.resolve("events-0000000001.ndjson.gz");
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length / 2] ^= 0x5a;
+        Files.write(segment, bytes);
+
+        try (ArchiveReader reader = ArchiveReader.open(directory, "events")) {
+            readAll(reader);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMixedArchiveIsRejected() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Files.createFile(directory.resolve("events-0000000001.ndjson"));
+        Files.createFile(directory.resolve("events-0000000002.ndjson.gz"));
+
+        ArchiveReader.open(directory, "events");
+    }
+
+    // Event n has offset n and occurred n minutes after noon
+    private static List<String> write(EventSink sink, int count) throws IOException {
+        List<String> events = new ArrayList<>();
+        try {
+            for (int i = 1; i <= count; i++) {
+                String event = event(i);
+                byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+                sink.append(bytes, 0, bytes.length, Integer.toString(i));
+                events.add(event);
+            }
+        }
+        finally {
+            sink.close();
+        }
+        return events;
+    }
+
+    private static String event(int offset) {
+        return String.format("{\"id\":\"%d\",\"offset\":\"%d\",\"occurred\":\"2015-05-05T%02d:%02d:00.000Z\",\"type\":\"OPEN\"}",
+                offset, offset, 12 + offset / 60, offset % 60);
+    }
+
+    private static List<String> readAll(ArchiveReader reader) throws IOException {
+        List<String> events = new ArrayList<>();
+        while (reader.next()) {
+            events.add(new String(reader.bytes(), reader.offset(), reader.length(), StandardCharsets.UTF_8));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.encoding.BinaryEventDecoder;
+import com.urbanairship.connect.client.encoding.EncodedEventHandler;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryEventSinkTest {
+
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    private final List<String> offsets = new ArrayList<>();
+
+    private final EncodedEventHandler handler = new EncodedEventHandler() {
+        @Override
+        public void handle(ByteBuffer record, String eventOffset) throws IOException {
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            records.write(bytes);
+            offsets.add(eventOffset);
+        }
+    };
+
+    private final BinaryEventSink sink = BinaryEventSink.newBuilder()
+            .setHandler(handler)
+            .build();
+
+    @Test
+    public void testEventsEncodedInSequence() throws Exception {
+        append("{\"type\":\"OPEN\",\"offset\":\"1\",\"device\":{\"channel\":\"c1\"}}", "1");
+        append("{\"offset\":\"2\",\"type\":\"OPEN\"}", "2");
+
+        assertEquals(Arrays.asList("1", "2"), offsets);
+        assertEquals(Optional.of("2"), sink.getDurableOffset());
+
+        ByteBuffer in = ByteBuffer.wrap(records.toByteArray());
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        assertTrue(decoder.decode(in));
+        assertEquals("1", decoder.getOffset());
+        assertEquals(ByteBuffer.wrap("c1".getBytes(StandardCharsets.UTF_8)), decoder.getChannel());
+        assertTrue(decoder.decode(in));
+        assertEquals("2", decoder.getOffset());
+        assertEquals("OPEN", decoder.getTypeName());
+        assertFalse(decoder.hasDevice());
+    }
+
+    @Test
+    public void testOffsetUpdatesAndMalformedEventsAdvanceOffsetOnly() throws Exception {
+        assertFalse(sink.getDurableOffset().isPresent());
+
+        append("{\"type\":\"OFFSET_UPDATE\",\"offset\":\"1\"}", "1");
+        append("{\"offset\":\"2\"}", "2");
+        append("{\"type\":\"OPEN\",\"offset\":\"3\"}", "3");
+
+        assertEquals(Arrays.asList("3"), offsets);
+        assertEquals(Optional.of("3"), sink.getDurableOffset());
+
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        assertTrue(decoder.decode(ByteBuffer.wrap(records.toByteArray())));
+        assertEquals("3", decoder.getOffset());
+    }
+
+    @Test
+    public void testHandlerFailureLeavesOffset() throws Exception {
+        BinaryEventSink failing = BinaryEventSink.newBuilder()
+                .setHandler(new EncodedEventHandler() {
+                    @Override
+                    public void handle(ByteBuffer record, String eventOffset) throws IOException {
+                        throw new IOException("full");
+                    }
+                })
+                .build();
+
+        byte[] event = "{\"type\":\"OPEN\",\"offset\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+        try {
+            failing.append(event, 0, event.length, "1");
+        }
+        catch (IOException expected) {
+        }
+
+        assertFalse(failing.getDurableOffset().isPresent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendAfterCloseRejected() throws Exception {
+        sink.close();
+        append("{\"type\":\"OPEN\",\"offset\":\"1\"}", "1");
+    }
+
+    private void append(String event, String offset) throws IOException {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        sink.append(bytes, 0, bytes.length, offset);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.urbanairship.connect.client.columnar.EventBatch;
+import com.urbanairship.connect.client.columnar.EventBatchHandler;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ColumnarBatchSinkTest {
+
+    private final List<List<String>> batches = new ArrayList<>();
+
+    private final EventBatchHandler handler = new EventBatchHandler() {
+        @Override
+        public void handle(EventBatch batch) throws IOException {
+            List<String> offsets = new ArrayList<>();
+            for (int i = 0; i < batch.getRowCount(); i++) {
+                offsets.add(batch.getOffsets().getString(i));
+            }
+            batches.add(offsets);
+        }
+    };
+
+    @Test
+    public void testFullBatchesHandedOut() throws Exception {
+        ColumnarBatchSink sink = ColumnarBatchSink.newBuilder()
+                .setBatch(EventBatch.newBuilder().setCapacity(2).build())
+                .setHandler(handler)
+                .build();
+
+        for (long offset = 1; offset <= 5; offset++) {
+            append(sink, offset);
+        }
+
+        assertEquals(Arrays.asList(Arrays.asList("1", "2"), Arrays.asList("3", "4")), batches);
+        assertEquals(Optional.of("4"), sink.getDurableOffset());
+
+        sink.close();
+        assertEquals(Arrays.asList("5"), batches.get(2));
+        assertEquals(Optional.of("5"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testOldBatchHandedOutOnNextEvent() throws Exception {
+        final AtomicLong now = new AtomicLong(0L);
+        ColumnarBatchSink sink = ColumnarBatchSink.newBuilder()
+                .setHandler(handler)
+                .setMaxBatchAge(1L, TimeUnit.SECONDS)
+                .setTicker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .build();
+
+        append(sink, 1L);
+        now.set(TimeUnit.MILLISECONDS.toNanos(500L));
+        append(sink, 2L);
+        assertFalse(sink.getDurableOffset().isPresent());
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(1000L));
+        append(sink, 3L);
+
+        assertEquals(Arrays.asList(Arrays.asList("1", "2")), batches);
+        assertEquals(Optional.of("2"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testOffsetUpdatesAdvanceOffsetOnly() throws Exception {
+        ColumnarBatchSink sink = ColumnarBatchSink.newBuilder().setHandler(handler).build();
+
+        append(sink, 1L);
+        byte[] update = "{\"type\":\"OFFSET_UPDATE\",\"offset\":\"2\"}".getBytes(StandardCharsets.UTF_8);
+        sink.append(update, 0, update.length, "2");
+        byte[] malformed = "{\"type\":\"OPEN\",".getBytes(StandardCharsets.UTF_8);
+        sink.append(malformed, 0, malformed.length, "3");
+        sink.flush();
+
+        assertEquals(Arrays.asList(Arrays.asList("1")), batches);
+        assertEquals(Optional.of("3"), sink.getDurableOffset());
+    }
+
+    private static void append(ColumnarBatchSink sink, long offset) throws IOException {
+        byte[] event = ("{\"type\":\"OPEN\",\"offset\":\"" + offset + "\"}").getBytes(StandardCharsets.UTF_8);
+        sink.append(event, 0, event.length, Long.toString(offset));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventLogTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private EventLog eventLog;
+    private ExecutorService thread;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("log");
+        thread = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        thread.shutdownNow();
+        if (eventLog != null) eventLog.close();
+    }
+
+    @Test
+    public void testReadersOnlySeeDurableEventsIndependently() throws Exception {
+        eventLog = log(200L);
+        append(eventLog, 1, 3);
+
+        EventLogReader first = eventLog.openReader("first");
+        EventLogReader second = eventLog.openReader("second");
+        assertFalse(ready(eventLog.openReader("probe")));
+
+        append(eventLog, 4, 10);
+        eventLog.sync();
+        assertEquals(events(1, 10), take(first, 10));
+        assertEquals(events(1, 5), take(second, 5));
+
+        append(eventLog, 11, 20);
+        eventLog.sync();
+        assertEquals(events(11, 20), take(first, 10));
+        assertEquals(events(6, 20), take(second, 15));
+        assertEquals(Optional.of("20"), first.getCheckpoint());
+    }
+
+    @Test
+    public void testCommittedCursorSurvivesRestart() throws Exception {
+        eventLog = log(200L);
+        append(eventLog, 1, 30);
+        eventLog.sync();
+
+        EventLogReader reader = eventLog.openReader("reader");
+        take(reader, 12);
+        reader.commit();
+        take(reader, 5);
+        eventLog.close();
+
+        eventLog = log(200L);
+        reader = eventLog.openReader("reader");
+        assertEquals(Optional.of("12"), reader.getCheckpoint());
+        assertEquals(events(13, 30), take(reader, 18));
+
+        append(eventLog, 31, 31);
+        eventLog.sync();
+        assertEquals(events(31, 31), take(reader, 1));
+        assertEquals(Optional.of("31"), eventLog.getDurableOffset());
+    }
+
+    @Test
+    public void testReaderWaitsForEventsAndEndsWhenLogCloses() throws Exception {
+        eventLog = log(200L);
+        final EventLogReader reader = eventLog.openReader("reader");
+
+        Future<List<String>> taken = thread.submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                List<String> events = new ArrayList<>();
+                while (reader.hasNext()) {
+                    events.add(reader.next());
+                }
+                return events;
+            }
+        });
+
+        Thread.sleep(50L);
+        append(eventLog, 1, 3);
+        eventLog.sync();
+        Thread.sleep(50L);
+        append(eventLog, 4, 4);
+        eventLog.close();
+
+        assertEquals(events(1, 4), taken.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClosingReaderEndsIteration() throws Exception {
+        eventLog = log(200L);
+        final EventLogReader reader = eventLog.openReader("reader");
+
+        Future<Boolean> hasNext = thread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return reader.hasNext();
+            }
+        });
+
+        Thread.sleep(20L);
+        reader.close();
+        assertFalse(hasNext.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLongEventsSpanReadBuffer() throws Exception {
+        eventLog = EventLog.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            padding.append('x');
+        }
+        List<String> events = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            String event = "{\"offset\":\"" + i + "\",\"padding\":\"" + padding + "\"}";
+            byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            eventLog.append(bytes, 0, bytes.length, Integer.toString(i));
+            events.add(event);
+        }
+        eventLog.sync();
+
+        assertEquals(events, take(eventLog.openReader("reader"), 5));
+    }
+
+    @Test
+    public void testConsumedFilesDeleted() throws Exception {
+        eventLog = EventLog.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileBytes(100L)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .setDeleteConsumedFiles(true)
+                .build();
+        append(eventLog, 1, 20);
+        eventLog.sync();
+        int files = dataFiles();
+
+        EventLogReader fast = eventLog.openReader("fast");
+        EventLogReader slow = eventLog.openReader("slow");
+        slow.commit();
+        take(fast, 20);
+        fast.commit();
+        take(slow, 2);
+        slow.commit();
+        assertEquals(files, dataFiles());
+
+        take(slow, 18);
+        slow.commit();
+        assertTrue(dataFiles() < files);
+        assertEquals(1, dataFiles());
+    }
+
+    private EventLog log(long maxFileBytes) throws IOException {
+        return EventLog.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileBytes(maxFileBytes)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private int dataFiles() throws IOException {
+        return SinkFiles.list(directory, SinkFiles.pattern("events", RollingFileSink.DATA_SUFFIX)).size();
+    }
+
+    private boolean ready(final EventLogReader reader) throws Exception {
+        Future<Boolean> hasNext = thread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return reader.hasNext();
+            }
+        });
+        try {
+            return hasNext.get(200, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            reader.close();
+            hasNext.get(10, TimeUnit.SECONDS);
+            return false;
+        }
+    }
+
+    private static List<String> take(EventLogReader reader, int count) {
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(reader.next());
+        }
+        return events;
+    }
+
+    private static void append(EventSink sink, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            byte[] bytes = event(i).getBytes(StandardCharsets.UTF_8);
+            sink.append(bytes, 0, bytes.length, Integer.toString(i));
+        }
+    }
+
+    private static List<String> events(int from, int to) {
+        List<String> events = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            events.add(event(i));
+        }
+        return events;
+    }
+
+    private static String event(int offset) {
+        return "{\"offset\":\"" + offset + "\",\"type\":\"OPEN\"}";
+    }
+}
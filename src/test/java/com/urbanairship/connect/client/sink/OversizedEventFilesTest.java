@@ -0,0 +1,79 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OversizedEventFilesTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("oversized");
+    }
+
+    @Test
+    public void testEventWrittenFromParts() throws Exception {
+        OversizedEventFiles files = OversizedEventFiles.newBuilder().setDirectory(directory).build();
+
+        byte[] first = "xx{\"a\":".getBytes(StandardCharsets.UTF_8);
+        files.acceptPart(first, 2, first.length - 2, false);
+        assertTrue(contents(files).isEmpty());
+
+        files.acceptPart("1}".getBytes(StandardCharsets.UTF_8), 0, 2, true);
+        files.acceptPart("{\"b\":2}".getBytes(StandardCharsets.UTF_8), 0, 7, true);
+
+        assertEquals(ImmutableList.of("{\"a\":1}", "{\"b\":2}"), contents(files));
+    }
+
+    @Test
+    public void testAbandonedEventDiscarded() throws Exception {
+        OversizedEventFiles files = OversizedEventFiles.newBuilder().setDirectory(directory).build();
+
+        files.acceptPart("{\"a\":".getBytes(StandardCharsets.UTF_8), 0, 5, false);
+        files.abandoned();
+        files.acceptPart("{\"a\":1}".getBytes(StandardCharsets.UTF_8), 0, 7, true);
+
+        assertEquals(ImmutableList.of("{\"a\":1}"), contents(files));
+        assertEquals(1L, Files.list(directory).count());
+    }
+
+    @Test
+    public void testNumberingContinuesAcrossRuns() throws Exception {
+        OversizedEventFiles files = OversizedEventFiles.newBuilder().setDirectory(directory).setPrefix("big").build();
+        files.acceptPart("{\"a\":1}".getBytes(StandardCharsets.UTF_8), 0, 7, true);
+        files.acceptPart("{\"b\":".getBytes(StandardCharsets.UTF_8), 0, 5, false);
+
+        files = OversizedEventFiles.newBuilder().setDirectory(directory).setPrefix("big").build();
+        files.acceptPart("{\"c\":3}".getBytes(StandardCharsets.UTF_8), 0, 7, true);
+
+        assertEquals(ImmutableList.of("{\"a\":1}", "{\"c\":3}"), contents(files));
+        assertEquals(2L, Files.list(directory).count());
+    }
+
+    private static List<String> contents(OversizedEventFiles files) throws Exception {
+        List<String> contents = new ArrayList<>();
+        for (Path file : files.getFiles()) {
+            contents.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        return contents;
+    }
+}
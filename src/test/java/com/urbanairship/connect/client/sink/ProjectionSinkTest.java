@@ -0,0 +1,90 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.urbanairship.connect.client.consume.EventProjection;
+import com.urbanairship.connect.client.consume.ProjectedEvent;
+import com.urbanairship.connect.client.consume.ProjectedEventHandler;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ProjectionSinkTest {
+
+    private final List<String> handled = new ArrayList<>();
+
+    private final ProjectedEventHandler handler = new ProjectedEventHandler() {
+        @Override
+        public void handle(ProjectedEvent event, String eventOffset) throws IOException {
+            handled.add(eventOffset + ":" + event.getString(0) + ":" + event.getString(1));
+        }
+    };
+
+    private final ProjectionSink sink = ProjectionSink.newBuilder()
+            .setProjection(EventProjection.newBuilder().addPaths("type", "device.channel").build())
+            .setHandler(handler)
+            .build();
+
+    @Test
+    public void testEventsProjected() throws Exception {
+        append("{\"type\":\"OPEN\",\"offset\":\"1\",\"device\":{\"channel\":\"c1\"}}", "1");
+        append("{\"offset\":\"2\",\"type\":\"CLOSE\"}", "2");
+
+        assertEquals(Arrays.asList("1:OPEN:c1", "2:CLOSE:null"), handled);
+        assertEquals(Optional.of("2"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testOffsetUpdatesAndMalformedEventsAdvanceOffsetOnly() throws Exception {
+        assertFalse(sink.getDurableOffset().isPresent());
+
+        append("{\"type\":\"OFFSET_UPDATE\",\"offset\":\"1\"}", "1");
+        append("not an event", "2");
+
+        assertEquals(0, handled.size());
+        assertEquals(Optional.of("2"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testHandlerFailureLeavesOffset() throws Exception {
+        ProjectionSink failing = ProjectionSink.newBuilder()
+                .setProjection(EventProjection.newBuilder().addPaths("type").build())
+                .setHandler(new ProjectedEventHandler() {
+                    @Override
+                    public void handle(ProjectedEvent event, String eventOffset) throws IOException {
+                        throw new IOException("full");
+                    }
+                })
+                .build();
+
+        byte[] event = "{\"type\":\"OPEN\",\"offset\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+        try {
+            failing.append(event, 0, event.length, "1");
+        }
+        catch (IOException expected) {
+        }
+
+        assertFalse(failing.getDurableOffset().isPresent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendAfterCloseRejected() throws Exception {
+        sink.close();
+        append("{\"type\":\"OPEN\",\"offset\":\"1\"}", "1");
+    }
+
+    private void append(String event, String offset) throws IOException {
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        sink.append(bytes, 0, bytes.length, offset);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RollingFileSinkTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private RollingFileSink sink;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("events");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sink != null) sink.close();
+    }
+
+    @Test
+    public void testRollsBySize() throws Exception {
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileBytes(100L)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        List<String> events = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            String event = event(i);
+            events.add(event);
+            append(sink, event, i);
+        }
+        sink.close();
+
+        List<Path> files = dataFiles();
+        assertTrue(files.size() > 1);
+        for (Path file : files) {
+            assertTrue(Files.size(file) <= 100L);
+        }
+        assertEquals(events, lines(files));
+        assertEquals(Optional.of("20"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testRollsByAge() throws Exception {
+        final AtomicLong nanos = new AtomicLong(0L);
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileAge(1L, TimeUnit.MINUTES)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .setTicker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                })
+                .build();
+
+        append(sink, event(1), 1);
+        append(sink, event(2), 2);
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1L));
+        append(sink, event(3), 3);
+        sink.close();
+
+        List<Path> files = dataFiles();
+        assertEquals(2, files.size());
+        assertEquals(2, Files.readAllLines(files.get(0), StandardCharsets.UTF_8).size());
+        assertEquals(1, Files.readAllLines(files.get(1), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void testSyncIntervalCheckpoints() throws Exception {
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(10L, TimeUnit.MILLISECONDS)
+                .build();
+
+        append(sink, event(1), 1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (!sink.getDurableOffset().isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+
+        assertEquals(Optional.of("1"), sink.getDurableOffset());
+        assertEquals(Collections.singletonList(event(1)), lines(dataFiles()));
+    }
+
+    @Test
+    public void testRecoveryTruncatesEventsAfterCheckpoint() throws Exception {
+        // A tiny buffer makes every event reach the file straight away, as if the process died after writing them
+        RollingFileSink crashed = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setBufferSize(16)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+        append(crashed, event(1), 1);
+        append(crashed, event(2), 2);
+        crashed.sync();
+        append(crashed, event(3), 3);
+        append(crashed, event(4), 4);
+        assertEquals(4, lines(dataFiles()).size());
+
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(Optional.of("2"), sink.getDurableOffset());
+        assertEquals(2, lines(dataFiles()).size());
+
+        append(sink, event(3), 3);
+        sink.close();
+
+        List<Path> files = dataFiles();
+        assertEquals(2, files.size());
+        assertEquals(Arrays.asList(event(1), event(2), event(3)), lines(files));
+    }
+
+    @Test
+    public void testRecoveryRemovesFileWithoutCheckpoint() throws Exception {
+        RollingFileSink previous = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setMaxFileBytes(1L)
+                .setBufferSize(16)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+        append(previous, event(1), 1);
+        // Rolling syncs the first file, the second is never synced
+        append(previous, event(2), 2);
+
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(Optional.of("1"), sink.getDurableOffset());
+        assertEquals(1, dataFiles().size());
+    }
+
+    @Test
+    public void testEventLargerThanBuffer() throws Exception {
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .setBufferSize(8)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        append(sink, event(1), 1);
+        append(sink, "{}", 2);
+        sink.close();
+
+        assertEquals(Arrays.asList(event(1), "{}"), lines(dataFiles()));
+    }
+
+    @Test
+    public void testEmptyDirectoryHasNoDurableOffset() throws Exception {
+        sink = RollingFileSink.newBuilder()
+                .setDirectory(directory)
+                .build();
+
+        assertFalse(sink.getDurableOffset().isPresent());
+    }
+
+    private static String event(int offset) {
+        return "{\"offset\":\"" + offset + "\",\"type\":\"OPEN\"}";
+    }
+
+    private static void append(EventSink sink, String event, int offset) throws IOException {
+        byte[] bytes = ("xx" + event + "yy").getBytes(StandardCharsets.UTF_8);
+        sink.append(bytes, 2, bytes.length - 4, Integer.toString(offset));
+    }
+
+    private List<Path> dataFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + RollingFileSink.DATA_SUFFIX)) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static List<String> lines(List<Path> files) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Path file : files) {
+            lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentArchiveSinkTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private SegmentArchiveSink sink;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("archive");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sink != null) sink.close();
+    }
+
+    @Test
+    public void testSegmentsAreGzipAndBlocksDecompressIndependently() throws Exception {
+        sink = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setBlockSize(1024)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        List<String> events = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            String event = event(i, "2015-05-05T12:00:" + String.format("%02d", i % 60) + ".000Z");
+            events.add(event);
+            append(sink, event, i);
+        }
+        sink.close();
+
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        Path segment = segments.get(0);
+
+        // The whole segment reads as one gzip file
+        assertEquals(events, lines(gunzip(Files.readAllBytes(segment))));
+        assertTrue(Files.size(segment) < totalLength(events) / 4);
+
+        SegmentIndex index = SegmentIndex.read(SegmentArchiveSink.indexOf(segment));
+        assertTrue(index.getBlocks().size() > 1);
+        assertEquals(Files.size(segment), index.getDataLength());
+
+        // And so does each block on its own, holding exactly the events the index says
+        byte[] contents = Files.readAllBytes(segment);
+        int eventIndex = 0;
+        for (SegmentIndex.Block block : index.getBlocks()) {
+            List<String> blockEvents = lines(gunzip(Arrays.copyOfRange(contents, (int) block.getPosition(),
+                    (int) block.getPosition() + block.getLength())));
+            assertEquals(block.getEvents(), blockEvents.size());
+            assertEquals(Integer.toString(eventIndex + 1), block.getFirstOffset());
+            assertEquals(Integer.toString(eventIndex + block.getEvents()), block.getLastOffset());
+            eventIndex += block.getEvents();
+        }
+        assertEquals(200, eventIndex);
+        assertEquals(Optional.of("200"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testIndexFindsBlocksByOffsetAndOccurred() throws Exception {
+        sink = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        append(sink, event(8, "2015-05-05T12:00:00.000Z"), 8);
+        append(sink, event(9, "2015-05-05T11:00:00.000Z"), 9);
+        sink.sync();
+        append(sink, event(10, "2015-05-05T13:00:00.000Z"), 10);
+        append(sink, "{\"offset\":\"11\"}", 11);
+        sink.sync();
+
+        SegmentIndex index = SegmentIndex.read(SegmentArchiveSink.indexOf(segments().get(0)));
+        assertEquals(2, index.getBlocks().size());
+
+        SegmentIndex.Block first = index.getBlocks().get(0);
+        assertEquals(millis("2015-05-05T11:00:00"), first.getMinOccurred());
+        assertEquals(millis("2015-05-05T12:00:00"), first.getMaxOccurred());
+
+        assertEquals(Optional.of(0), index.findAfterOffset("7"));
+        assertEquals(Optional.of(0), index.findAfterOffset("8"));
+        assertEquals(Optional.of(1), index.findAfterOffset("9"));
+        assertEquals(Optional.<Integer>absent(), index.findAfterOffset("11"));
+
+        assertEquals(Optional.of(0), index.findOccurredFrom(millis("2015-05-05T11:30:00")));
+        assertEquals(Optional.of(1), index.findOccurredFrom(millis("2015-05-05T12:30:00")));
+        assertEquals(Optional.<Integer>absent(), index.findOccurredFrom(millis("2015-05-05T14:00:00")));
+    }
+
+    @Test
+    public void testRollsBySizeAndAge() throws Exception {
+        final AtomicLong nanos = new AtomicLong(0L);
+        sink = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setBlockSize(64)
+                .setMaxSegmentBytes(200L)
+                .setMaxSegmentAge(1L, TimeUnit.MINUTES)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .setTicker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                })
+                .build();
+
+        List<String> events = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            events.add(event(i, "2015-05-05T12:00:00.000Z"));
+            append(sink, events.get(events.size() - 1), i);
+        }
+        sink.sync();
+        int bySize = segments().size();
+        assertTrue(bySize > 1);
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1L));
+        events.add(event(21, "2015-05-05T12:00:00.000Z"));
+        append(sink, events.get(events.size() - 1), 21);
+        sink.close();
+
+        List<Path> segments = segments();
+        assertEquals(bySize + 1, segments.size());
+
+        List<String> archived = new ArrayList<>();
+        for (Path segment : segments) {
+            archived.addAll(lines(gunzip(Files.readAllBytes(segment))));
+        }
+        assertEquals(events, archived);
+    }
+
+    @Test
+    public void testRecoveryTruncatesUnindexedBlocks() throws Exception {
+        SegmentArchiveSink crashed = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setBlockSize(16)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+        append(crashed, event(1, "2015-05-05T12:00:00.000Z"), 1);
+        crashed.sync();
+        // Each of these fills a block, so is written without being indexed
+        append(crashed, event(2, "2015-05-05T12:00:00.000Z"), 2);
+        append(crashed, event(3, "2015-05-05T12:00:00.000Z"), 3);
+        append(crashed, event(4, "2015-05-05T12:00:00.000Z"), 4);
+
+        Path segment = segments().get(0);
+        long indexed = SegmentIndex.read(SegmentArchiveSink.indexOf(segment)).getDataLength();
+        assertTrue(Files.size(segment) > indexed);
+
+        // A torn index entry is dropped as well
+        try (FileChannel index = FileChannel.open(SegmentArchiveSink.indexOf(segment), StandardOpenOption.APPEND)) {
+            index.write(ByteBuffer.wrap("999\t12".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        sink = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(Optional.of("1"), sink.getDurableOffset());
+        assertEquals(indexed, Files.size(segment));
+        assertEquals(1, SegmentIndex.read(SegmentArchiveSink.indexOf(segment)).getBlocks().size());
+
+        append(sink, event(2, "2015-05-05T12:00:00.000Z"), 2);
+        sink.close();
+
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        assertEquals(Arrays.asList(event(2, "2015-05-05T12:00:00.000Z")), lines(gunzip(Files.readAllBytes(segments.get(1)))));
+        assertEquals(Optional.of("2"), sink.getDurableOffset());
+    }
+
+    @Test
+    public void testRecoveryRemovesSegmentWithoutIndexedBlocks() throws Exception {
+        SegmentArchiveSink crashed = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setBlockSize(16)
+                .setSyncInterval(0L, TimeUnit.SECONDS)
+                .build();
+        append(crashed, event(1, "2015-05-05T12:00:00.000Z"), 1);
+        append(crashed, event(2, "2015-05-05T12:00:00.000Z"), 2);
+        assertEquals(1, segments().size());
+
+        sink = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .build();
+
+        assertFalse(sink.getDurableOffset().isPresent());
+        assertTrue(segments().isEmpty());
+        assertFalse(Files.exists(SegmentArchiveSink.indexOf(directory.resolve("events-0000000001.ndjson.gz"))));
+    }
+
+    @Test
+    public void testSyncIntervalIndexesBlocks() throws Exception {
+        sink = SegmentArchiveSink.newBuilder()
+                .setDirectory(directory)
+                .setSyncInterval(10L, TimeUnit.MILLISECONDS)
+                .build();
+
+        append(sink, event(1, "2015-05-05T12:00:00.000Z"), 1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (!sink.getDurableOffset().isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+
+        assertEquals(Optional.of("1"), sink.getDurableOffset());
+        assertEquals(1, SegmentIndex.read(SegmentArchiveSink.indexOf(segments().get(0))).getBlocks().size());
+    }
+
+    private static String event(int offset, String occurred) {
+        return "{\"id\":\"" + offset + "\",\"offset\":\"" + offset + "\",\"occurred\":\"" + occurred
+                + "\",\"processed\":\"2015-05-05T12:00:00.000Z\",\"type\":\"OPEN\",\"body\":{\"session_id\":\"abc\"}}";
+    }
+
+    private static long millis(String dateTime) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(dateTime).getTime();
+    }
+
+    private static long totalLength(List<String> events) {
+        long length = 0L;
+        for (String event : events) {
+            length += event.length() + 1;
+        }
+        return length;
+    }
+
+    private static void append(EventSink sink, String event, int offset) throws IOException {
+        byte[] bytes = ("xx" + event + "yy").getBytes(StandardCharsets.UTF_8);
+        sink.append(bytes, 2, bytes.length - 4, Integer.toString(offset));
+    }
+
+    private List<Path> segments() throws IOException {
+        return new ArrayList<>(SinkFiles.list(directory, SinkFiles.pattern("events", SegmentArchiveSink.DATA_SUFFIX)).values());
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private static List<String> lines(byte[] bytes) {
+        String contents = new String(bytes, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        for (String line : contents.split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.sink;
+
+import com.urbanairship.connect.client.consume.EventTimestamps;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentIndexTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadIgnoresPartialLine() throws Exception {
+        Path file = folder.newFile("events-0000000001.ndjson.gz.idx").toPath();
+        String complete = "0\t120\t3\t1\t3\t1430827200000\t1430827260000\n"
+                + "120\t80\t1\t4\t4\t-\t-\n";
+        Files.write(file, (complete + "200\t9").getBytes(StandardCharsets.UTF_8));
+
+        SegmentIndex index = SegmentIndex.read(file);
+
+        assertEquals(2, index.getBlocks().size());
+        assertEquals(200L, index.getDataLength());
+        assertEquals(complete.length(), index.getIndexedBytes());
+
+        SegmentIndex.Block second = index.getBlocks().get(1);
+        assertEquals(120L, second.getPosition());
+        assertEquals(EventTimestamps.ABSENT, second.getMinOccurred());
+        assertEquals(complete.substring(complete.indexOf('\n') + 1), second.format());
+    }
+
+    @Test
+    public void testCompareOffsets() throws Exception {
+        assertTrue(SegmentIndex.compareOffsets("9", "10") < 0);
+        assertTrue(SegmentIndex.compareOffsets("100000000000000000000", "99999999999999999999") > 0);
+        assertEquals(0, SegmentIndex.compareOffsets("007", "7"));
+        assertTrue(SegmentIndex.compareOffsets("abc", "abd") < 0);
+    }
+}
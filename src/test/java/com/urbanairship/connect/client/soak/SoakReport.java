@@ -0,0 +1,212 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.soak;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurements taken over a run of {@link StreamSoak}. Each {@link Sample} covers the interval since the previous one.
+ */
+public final class SoakReport {
+
+    private final List<Sample> samples;
+    private final long consumed;
+    private final long gaps;
+    private final long duplicates;
+    private final long reconnects;
+
+    SoakReport(List<Sample> samples, long consumed, long gaps, long duplicates, long reconnects) {
+        this.samples = ImmutableList.copyOf(samples);
+        this.consumed = consumed;
+        this.gaps = gaps;
+        this.duplicates = duplicates;
+        this.reconnects = reconnects;
+    }
+
+    public List<Sample> getSamples() {
+        return samples;
+    }
+
+    public long getConsumed() {
+        return consumed;
+    }
+
+    /**
+     * @return the number of times an event was followed by one that was not the next offset in the log.
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * @return the number of events received at or below an offset that had already been received.
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Compares the average of a measure over the last quarter of the samples to the first quarter, as an indicator of
+     * creep. Returns 1 when there are too few samples to compare.
+     */
+    public double trend(Measure measure) {
+        int quarter = samples.size() / 4;
+        if (quarter == 0) {
+            return 1D;
+        }
+
+        double first = 0D;
+        double last = 0D;
+        for (int i = 0; i < quarter; i++) {
+            first += measure.of(samples.get(i));
+            last += measure.of(samples.get(samples.size() - 1 - i));
+        }
+
+        return first == 0D ? (last == 0D ? 1D : Double.POSITIVE_INFINITY) : last / first;
+    }
+
+    public void write(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+
+        out.printf("%10s %12s %14s %8s %10s %12s %8s %6s %10s %10s %10s%n",
+                "elapsed_s", "events/s", "alloc_mb/s", "gc_count", "gc_ms", "heap_mb", "threads", "queue",
+                "lag_p50_ms", "lag_p99_ms", "lag_max_ms");
+        for (Sample sample : samples) {
+            out.printf("%10.1f %12.0f %14.1f %8d %10d %12.1f %8d %6d %10d %10d %10d%n",
+                    sample.elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1L),
+                    sample.eventsPerSecond,
+                    sample.allocatedBytesPerSecond / (1024D * 1024D),
+                    sample.gcCount,
+                    sample.gcMillis,
+                    sample.heapUsedBytes / (1024D * 1024D),
+                    sample.threads,
+                    sample.queueDepth,
+                    sample.lagP50Millis,
+                    sample.lagP99Millis,
+                    sample.lagMaxMillis);
+        }
+
+        out.println();
+        out.printf("consumed=%d gaps=%d duplicates=%d reconnects=%d%n", consumed, gaps, duplicates, reconnects);
+        out.printf("last/first quarter: events/s=%.2f alloc/s=%.2f heap=%.2f lag_p99=%.2f threads=%.2f%n",
+                trend(Measure.EVENTS_PER_SECOND),
+                trend(Measure.ALLOCATED_BYTES_PER_SECOND),
+                trend(Measure.HEAP_USED),
+                trend(Measure.LAG_P99),
+                trend(Measure.THREADS));
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+        write(writer);
+        return writer.toString();
+    }
+
+    public enum Measure {
+        EVENTS_PER_SECOND {
+            @Override
+            double of(Sample sample) {
+                return sample.eventsPerSecond;
+            }
+        },
+        ALLOCATED_BYTES_PER_SECOND {
+            @Override
+            double of(Sample sample) {
+                return sample.allocatedBytesPerSecond;
+            }
+        },
+        HEAP_USED {
+            @Override
+            double of(Sample sample) {
+                return sample.heapUsedBytes;
+            }
+        },
+        LAG_P99 {
+            @Override
+            double of(Sample sample) {
+                return sample.lagP99Millis;
+            }
+        },
+        THREADS {
+            @Override
+            double of(Sample sample) {
+                return sample.threads;
+            }
+        };
+
+        abstract double of(Sample sample);
+    }
+
+    public static final class Sample {
+
+        final long elapsedNanos;
+        final double eventsPerSecond;
+        final double allocatedBytesPerSecond;
+        final long gcCount;
+        final long gcMillis;
+        final long heapUsedBytes;
+        final int threads;
+        final int queueDepth;
+        final long lagP50Millis;
+        final long lagP99Millis;
+        final long lagMaxMillis;
+
+        Sample(long elapsedNanos,
+               double eventsPerSecond,
+               double allocatedBytesPerSecond,
+               long gcCount,
+               long gcMillis,
+               long heapUsedBytes,
+               int threads,
+               int queueDepth,
+               long lagP50Millis,
+               long lagP99Millis,
+               long lagMaxMillis) {
+            this.elapsedNanos = elapsedNanos;
+            this.eventsPerSecond = eventsPerSecond;
+            this.allocatedBytesPerSecond = allocatedBytesPerSecond;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.heapUsedBytes = heapUsedBytes;
+            this.threads = threads;
+            this.queueDepth = queueDepth;
+            this.lagP50Millis = lagP50Millis;
+            this.lagP99Millis = lagP99Millis;
+            this.lagMaxMillis = lagMaxMillis;
+        }
+
+        public double getEventsPerSecond() {
+            return eventsPerSecond;
+        }
+
+        public double getAllocatedBytesPerSecond() {
+            return allocatedBytesPerSecond;
+        }
+
+        public long getHeapUsedBytes() {
+            return heapUsedBytes;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getLagP99Millis() {
+            return lagP99Millis;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.soak;
+
+import com.google.common.base.Preconditions;
+import com.urbanairship.connect.client.Stream;
+import com.urbanairship.connect.client.consume.BackoffConnectionRetryStrategy;
+import com.urbanairship.connect.client.consume.EventTimestamps;
+import com.urbanairship.connect.client.metrics.InMemoryStreamMetrics;
+import com.urbanairship.connect.client.metrics.LatencyHistogram;
+import com.urbanairship.connect.client.metrics.LatencySnapshot;
+import com.urbanairship.connect.client.model.Creds;
+import com.urbanairship.connect.client.model.StreamQueryDescriptor;
+import com.urbanairship.connect.client.model.request.StartPosition;
+import com.urbanairship.connect.client.server.LocalConnectServer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a {@link Stream} against a {@link LocalConnectServer} for a fixed duration, sampling the process's steady state
+ * footprint as it goes: allocation rate, GC activity, heap, thread count, the stream's queue depth and the lag between
+ * an event being processed by the server and consumed from the stream. Offsets are checked for gaps and duplicates
+ * across the reconnects the server is configured to force.
+ *
+ * Allocation is measured across every thread in the process, so it includes the server and the harness as well as the
+ * client. The server and harness are the same from run to run, making the figure suitable for spotting regressions.
+ */
+public final class StreamSoak {
+
+    private final long durationNanos;
+    private final long sampleIntervalNanos;
+    private final LocalConnectServer.Builder server;
+
+    private final InMemoryStreamMetrics metrics = new InMemoryStreamMetrics();
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final AtomicLong consumed = new AtomicLong(0L);
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private long gaps = 0L;
+    private long duplicates = 0L;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private StreamSoak(long durationNanos, long sampleIntervalNanos, LocalConnectServer.Builder server) {
+        this.durationNanos = durationNanos;
+        this.sampleIntervalNanos = sampleIntervalNanos;
+        this.server = server;
+    }
+
+    public SoakReport run() throws Exception {
+        try (LocalConnectServer local = server.build().start()) {
+            final Stream stream = Stream.newBuilder()
+                    .setDescriptor(StreamQueryDescriptor.newBuilder()
+                            .setCreds(Creds.newBuilder()
+                                    .setAppKey("soaksoaksoaksoaksoakso")
+                                    .setToken("soak")
+                                    .build())
+                            .setEndpointUrl(local.getUrl())
+                            .build())
+                    .setStartPosition(StartPosition.relative(StartPosition.RelativePosition.EARLIEST))
+                    .setConnectionRetryStrategy(BackoffConnectionRetryStrategy.newBuilder()
+                            .setMaxAttempts(10)
+                            .setInterval(10L)
+                            .setMaxWaitSeconds(1L)
+                            .build())
+                    .setMetrics(metrics)
+                    .build();
+
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume(stream);
+                }
+            }, "soak-consumer");
+            consumer.start();
+
+            List<SoakReport.Sample> samples = new ArrayList<>();
+            try {
+                sample(samples);
+            } finally {
+                running.set(false);
+                stream.close();
+                consumer.join(TimeUnit.SECONDS.toMillis(10L));
+            }
+
+            return new SoakReport(samples, consumed.get(), gaps, duplicates, metrics.getReconnects());
+        }
+    }
+
+    private void consume(Stream stream) {
+        long last = 0L;
+        while (running.get() && stream.hasNext()) {
+            String event = stream.next();
+
+            byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            long processed = EventTimestamps.epochMillis(bytes, 0, bytes.length, EventTimestamps.PROCESSED);
+            if (processed != EventTimestamps.ABSENT) {
+                lag.record(Math.max(0L, System.currentTimeMillis() - processed));
+            }
+
+            long offset = LocalConnectServer.offset(event);
+            if (offset <= last) {
+                duplicates++;
+            } else {
+                if (offset != last + 1L) {
+                    gaps++;
+                }
+                last = offset;
+            }
+
+            consumed.incrementAndGet();
+        }
+    }
+
+    private void sample(List<SoakReport.Sample> samples) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long start = System.nanoTime();
+        long previousNanos = start;
+        long previousConsumed = 0L;
+        long previousAllocated = allocatedBytes(threads);
+        long previousGcCount = gcCount();
+        long previousGcMillis = gcMillis();
+
+        while (System.nanoTime() - start < durationNanos) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(sampleIntervalNanos, durationNanos - (System.nanoTime() - start)));
+
+            long now = System.nanoTime();
+            long consumedNow = consumed.get();
+            long allocated = allocatedBytes(threads);
+            long gcCount = gcCount();
+            long gcMillis = gcMillis();
+            double seconds = (now - previousNanos) / (double) TimeUnit.SECONDS.toNanos(1L);
+            LatencySnapshot lagSnapshot = lag.getSnapshotAndReset();
+
+            samples.add(new SoakReport.Sample(
+                    now - start,
+                    (consumedNow - previousConsumed) / seconds,
+                    Math.max(0L, allocated - previousAllocated) / seconds,
+                    gcCount - previousGcCount,
+                    gcMillis - previousGcMillis,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                    threads.getThreadCount(),
+                    metrics.getQueueDepth(),
+                    lagSnapshot.getP50(),
+                    lagSnapshot.getP99(),
+                    lagSnapshot.getMax()));
+
+            previousNanos = now;
+            previousConsumed = consumedNow;
+            previousAllocated = allocated;
+            previousGcCount = gcCount;
+            previousGcMillis = gcMillis;
+        }
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0L;
+        }
+
+        long total = 0L;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0L) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0L, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0L, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    public static final class Builder {
+
+        private long durationNanos = TimeUnit.MINUTES.toNanos(10L);
+        private long sampleIntervalNanos = TimeUnit.SECONDS.toNanos(10L);
+        private LocalConnectServer.Builder server = LocalConnectServer.newBuilder()
+                .setEventsPerSecond(5000D)
+                .setEventSize(1024)
+                .setChunkSize(4096)
+                .setDisconnectAfter(250000);
+
+        private Builder() { }
+
+        public Builder setDuration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public Builder setSampleInterval(long interval, TimeUnit unit) {
+            this.sampleIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * @param server configuration of the server the stream consumes. Defaults to 5000 events per second of 1KB
+         * each, with a mid-line disconnect every 250000 events.
+         */
+        public Builder setServer(LocalConnectServer.Builder server) {
+            this.server = server;
+            return this;
+        }
+
+        public StreamSoak build() {
+            Preconditions.checkArgument(durationNanos > 0L, "Duration must be > 0");
+            Preconditions.checkArgument(sampleIntervalNanos > 0L, "Sample interval must be > 0");
+            Preconditions.checkNotNull(server, "Server must be set");
+
+            return new StreamSoak(durationNanos, sampleIntervalNanos, server);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+Copyright 2015-2022 Airship and Contributors
+*/
+
+package com.urbanairship.connect.client.soak;
+
+import com.urbanairship.connect.client.server.LocalConnectServer;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamSoakTest {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamSoakTest.class);
+
+    /**
+     * Minutes to soak for, the soak only runs when set, for instance {@code mvn test -Dtest=StreamSoakTest -Dsoak.minutes=240}.
+     */
+    private static final String DURATION_PROPERTY = "soak.minutes";
+    private static final String REPORT_PROPERTY = "soak.report";
+
+    @Test(timeout = 30000L)
+    public void testShortRunReports() throws Exception {
+        SoakReport report = StreamSoak.newBuilder()
+                .setDuration(2L, TimeUnit.SECONDS)
+                .setSampleInterval(250L, TimeUnit.MILLISECONDS)
+                .setServer(LocalConnectServer.newBuilder()
+                        .setEventsPerSecond(2000D)
+                        .setEventSize(512)
+                        .setChunkSize(1000)
+                        .setDisconnectAfter(700))
+                .build()
+                .run();
+
+        assertTrue(report.getSamples().size() >= 7);
+        assertTrue(report.getConsumed() > 1000L);
+        assertTrue(report.getReconnects() > 0L);
+        assertEquals(0L, report.getGaps());
+        assertEquals(0L, report.getDuplicates());
+        assertTrue(report.toString().contains("lag_p99_ms"));
+    }
+
+    @Test
+    public void soak() throws Exception {
+        String minutes = System.getProperty(DURATION_PROPERTY);
+        Assume.assumeTrue(minutes != null);
+
+        SoakReport report = StreamSoak.newBuilder()
+                .setDuration(Long.parseLong(minutes), TimeUnit.MINUTES)
+                .setSampleInterval(30L, TimeUnit.SECONDS)
+                .build()
+                .run();
+
+        File file = new File(System.getProperty(REPORT_PROPERTY, "target/soak-report.txt"));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            report.write(writer);
+        }
+        log.info("Soak report written to " + file + ":\n" + report);
+
+        assertEquals(0L, report.getGaps());
+        assertEquals(0L, report.getDuplicates());
+    }
+}